@@ -0,0 +1,328 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.benchmarks;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.ejb.AsyncResult;
+
+import org.jboss.aop.advice.Interceptor;
+import org.jboss.aop.joinpoint.Invocation;
+import org.jboss.aop.joinpoint.MethodInvocation;
+import org.jboss.ejb3.async.impl.interceptor.AsynchronousClientInterceptor;
+import org.jboss.ejb3.async.impl.util.concurrent.AsyncWorkQueue;
+import org.jboss.ejb3.async.spi.AsyncContextPropagation;
+import org.jboss.ejb3.async.spi.AsyncDispatchState;
+import org.jboss.ejb3.async.spi.AsyncEndpoint;
+import org.jboss.ejb3.async.spi.AsyncExecutorLookup;
+import org.jboss.ejb3.async.spi.AsyncInvocation;
+import org.jboss.ejb3.async.spi.AsyncInvocationContext;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.jboss.ejb3.async.spi.AsyncMethodIndex;
+import org.jboss.metadata.ejb.spec.AsyncMethodMetaData;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.jboss.metadata.ejb.spec.MethodParametersMetaData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Bytes allocated per dispatch by the {@link AsynchronousClientInterceptor}, to be 
+ * checked against the budget documented upon the interceptor.  Run with "-prof gc"
+ * and compare "gc.alloc.rate.norm" of {@link #dispatch()} less that of 
+ * {@link #copyInvocation()} (the copy of the invocation, which the budget excludes) 
+ * against the budget: 224 bytes with the "inline" executor, 296 bytes "queued".
+ * 
+ * Each dispatch is carried out, and run, upon the calling Thread so that caller and 
+ * worker allocations alike are counted: the invocation implements {@link AsyncDispatchState}
+ * and is reused, the bean returns a preallocated result, and the caller's contexts 
+ * do not change, so only that allocated by the interceptor, its executor and the 
+ * copy of the invocation remains.  The "queued" executor also passes each task
+ * through an {@link AsyncWorkQueue}, as do the isolated executors of a deployment.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncDispatchAllocationBenchmark
+{
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Result returned by the bean for each invocation
+    */
+   private static final Future<String> RESULT = new AsyncResult<String>("value");
+
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Executor to which invocations are dispatched
+    */
+   @Param(
+   {"inline", "queued"})
+   public String executor;
+
+   private ReusableInvocation invocation;
+
+   // --------------------------------------------------------------------------------||
+   // Lifecycle ----------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   @Setup
+   public void createInvocation() throws Exception
+   {
+      final AsyncMethodMetaData asyncMethod = new AsyncMethodMetaData();
+      asyncMethod.setMethodName("getValueAsynchronous");
+      asyncMethod.setMethodParams(new MethodParametersMetaData());
+      final AsyncMethodsMetaData asyncMethods = new AsyncMethodsMetaData();
+      asyncMethods.add(asyncMethod);
+      final ExecutorService pool = "queued".equals(executor)
+            ? new CallerRunsExecutorService(new AsyncWorkQueue(16))
+            : new CallerRunsExecutorService(null);
+      final AsynchronousClientInterceptor interceptor = new AsynchronousClientInterceptor(new AsyncMethodIndex(
+            asyncMethods), AsyncContextPropagation.getDefault(), Bean.class.getSimpleName(), new AsyncExecutorLookup()
+      {
+         public ExecutorService getExecutor(final String ejbName, final Method method)
+         {
+            return pool;
+         }
+      });
+      invocation = new ReusableInvocation(new Interceptor[]
+      {interceptor, new BeanInterceptor()}, Bean.class.getMethod("getValueAsynchronous"), new Bean());
+      Thread.currentThread().setContextClassLoader(AsyncDispatchAllocationBenchmark.class.getClassLoader());
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Benchmarks ---------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Dispatches an @Asynchronous invocation, carried out before returning
+    */
+   @Benchmark
+   public Object dispatch() throws Throwable
+   {
+      return invocation.reset().invokeNext();
+   }
+
+   /**
+    * The copy of the invocation taken upon each dispatch, excluded from the budget
+    */
+   @Benchmark
+   public Object copyInvocation()
+   {
+      return invocation.copy();
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Inner Classes ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Bean invoked upon
+    */
+   public static final class Bean
+   {
+      public Future<String> getValueAsynchronous()
+      {
+         return RESULT;
+      }
+   }
+
+   /**
+    * Ends the chain, returning the bean's result without reflection
+    */
+   private static final class BeanInterceptor implements Interceptor
+   {
+      public String getName()
+      {
+         return this.getClass().getSimpleName();
+      }
+
+      public Object invoke(final Invocation invocation) throws Throwable
+      {
+         return RESULT;
+      }
+   }
+
+   /**
+    * {@link MethodInvocation} holding its dispatch state in fields, which may be 
+    * invoked again once reset
+    */
+   private static final class ReusableInvocation extends MethodInvocation
+         implements
+            AsyncInvocation,
+            AsyncDispatchState
+   {
+      private static final long serialVersionUID = 1L;
+
+      private boolean asyncDispatched;
+
+      private AsyncInvocationId asyncInvocationId;
+
+      ReusableInvocation(final Interceptor[] interceptors, final Method method, final Object target)
+      {
+         super(interceptors, 0L, method, method, null);
+         this.setTargetObject(target);
+         this.setArguments(new Object[]
+         {});
+      }
+
+      ReusableInvocation reset()
+      {
+         this.currentInterceptor = 0;
+         return this;
+      }
+
+      @Override
+      public Invocation copy()
+      {
+         final ReusableInvocation copy = new ReusableInvocation(interceptors, this.getActualMethod(), this
+               .getTargetObject());
+         copy.currentInterceptor = this.currentInterceptor;
+         copy.asyncDispatched = this.asyncDispatched;
+         copy.asyncInvocationId = this.asyncInvocationId;
+         return copy;
+      }
+
+      public boolean isAsyncDispatched()
+      {
+         return asyncDispatched;
+      }
+
+      public void markAsyncDispatched()
+      {
+         asyncDispatched = true;
+      }
+
+      public AsyncInvocationId getAsyncInvocationId()
+      {
+         return asyncInvocationId;
+      }
+
+      public void setAsyncInvocationId(final AsyncInvocationId id)
+      {
+         asyncInvocationId = id;
+      }
+
+      public AsyncInvocationContext getAsyncInvocationContext()
+      {
+         throw new IllegalStateException("Executor is resolved by the lookup");
+      }
+
+      public AsyncEndpoint getContainer()
+      {
+         return NoopEndpoint.INSTANCE;
+      }
+   }
+
+   /**
+    * Runs each task upon the submitting Thread, first passing it through
+    * the queue, if supplied
+    */
+   private static final class CallerRunsExecutorService extends AbstractExecutorService
+   {
+      private final AsyncWorkQueue queue;
+
+      CallerRunsExecutorService(final AsyncWorkQueue queue)
+      {
+         this.queue = queue;
+      }
+
+      public void execute(final Runnable command)
+      {
+         if (queue == null)
+         {
+            command.run();
+            return;
+         }
+         queue.offer(command);
+         queue.poll().run();
+      }
+
+      public void shutdown()
+      {
+      }
+
+      public List<Runnable> shutdownNow()
+      {
+         return Collections.emptyList();
+      }
+
+      public boolean isShutdown()
+      {
+         return false;
+      }
+
+      public boolean isTerminated()
+      {
+         return false;
+      }
+
+      public boolean awaitTermination(final long timeout, final TimeUnit unit)
+      {
+         return false;
+      }
+   }
+
+   /**
+    * {@link AsyncEndpoint} which does nothing
+    */
+   private static final class NoopEndpoint implements AsyncEndpoint
+   {
+      static final NoopEndpoint INSTANCE = new NoopEndpoint();
+
+      public boolean cancel(final AsyncInvocationId id) throws IllegalArgumentException
+      {
+         return false;
+      }
+
+      public Object invokeAsync(final Serializable session, final Class<?> invokedBusinessInterface,
+            final Method method, final Object[] args) throws Throwable
+      {
+         return null;
+      }
+   }
+}
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.benchmarks;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.aspects.common.AOPDeployer;
+import org.jboss.ejb3.async.impl.interceptor.AsyncPointcuts;
+import org.jboss.ejb3.async.impl.interceptor.AsynchronousClientInterceptor;
+import org.jboss.ejb3.async.impl.test.common.Pojo;
+import org.jboss.ejb3.async.impl.test.common.TestConstants;
+import org.jboss.ejb3.async.impl.test.common.ThreadPoolAsyncContainer;
+import org.jboss.ejb3.interceptors.container.BeanContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end invocations of {@link Pojo} through the {@link AsynchronousClientInterceptor} 
+ * of a {@link ThreadPoolAsyncContainer}, as in the functional tests.  Covers both the
+ * asynchronous round trip (dispatch, execution upon the pool and {@link Future#get()})
+ * and the cost the interceptor adds to synchronous methods.  The "binding" parameter
+ * compares binding the interceptor to all methods ("all", as before) against binding it
+ * to only the @Asynchronous methods ("async", as generated by {@link AsyncPointcuts}), 
+ * where {@link #synchronousCall()} bypasses the interceptor.  The bytes allocated per
+ * dispatch by the interceptor alone are measured by {@link AsyncDispatchAllocationBenchmark}.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(
+{Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncDispatchBenchmark
+{
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Methods the interceptor is bound to
+    */
+   @Param(
+   {"all", "async"})
+   public String binding;
+
+   private AOPDeployer aopDeployer;
+
+   private ThreadPoolAsyncContainer<Pojo> container;
+
+   private BeanContext<Pojo> bean;
+
+   // --------------------------------------------------------------------------------||
+   // Lifecycle ----------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   @Setup(Level.Trial)
+   public void deploy() throws Throwable
+   {
+      final boolean all = "all".equals(binding);
+      aopDeployer = new AOPDeployer(all
+            ? TestConstants.AOP_DEPLOYABLE_FILENAME_SIMPLE
+            : TestConstants.AOP_DEPLOYABLE_FILENAME_SELECTIVE);
+      aopDeployer.deploy();
+      container = new ThreadPoolAsyncContainer<Pojo>("Benchmark Async POJO Container", all
+            ? TestConstants.DOMAIN_ASYNC
+            : TestConstants.DOMAIN_SELECTIVE, Pojo.class);
+      bean = container.construct();
+   }
+
+   @TearDown(Level.Trial)
+   public void undeploy() throws Throwable
+   {
+      aopDeployer.undeploy();
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Benchmarks ---------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Dispatches an @Asynchronous invocation and awaits its completion
+    */
+   @Benchmark
+   public Object asyncRoundTrip() throws Throwable
+   {
+      final Future<?> future = (Future<?>) container.invoke(bean,
+            TestConstants.METHOD_NAME_INCREMENT_COUNTER_ASYNCHRONOUS);
+      return future.get();
+   }
+
+   /**
+    * Invokes a synchronous method, passing through the async interceptor
+    * unless bound to only the @Asynchronous methods
+    */
+   @Benchmark
+   public Object synchronousCall() throws Throwable
+   {
+      return container.invoke(bean, TestConstants.METHOD_NAME_GET_VALUE_SYNCHRONOUS);
+   }
+}
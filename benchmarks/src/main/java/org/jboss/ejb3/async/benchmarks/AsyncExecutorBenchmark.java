@@ -0,0 +1,228 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.benchmarks;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.async.impl.util.concurrent.AsyncExecutors;
+import org.jboss.ejb3.async.impl.util.concurrent.AsyncWorkQueue;
+import org.jboss.ejb3.async.impl.util.concurrent.ExecutionMode;
+import org.jboss.ejb3.async.impl.util.concurrent.NamedThreadFactory;
+import org.jboss.ejb3.async.impl.util.concurrent.ResultUnwrappingExecutorService;
+import org.jboss.ejb3.async.impl.util.concurrent.SaturationPolicy;
+import org.jboss.ejb3.async.spi.AsyncEndpoint;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Bursts of invocations upon the server-side executors: invocations blocking 
+ * (as upon I/O or a remote call) upon a pool of platform Threads and upon 
+ * virtual Threads, and short invocations submitted faster than a small pool can 
+ * run them, under each {@link SaturationPolicy} which does not discard work.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AsyncExecutorBenchmark
+{
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Size of the pools of platform Threads
+    */
+   private static final int POOL_SIZE = 64;
+
+   // --------------------------------------------------------------------------------||
+   // States -------------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Executor of invocations which block
+    */
+   @State(Scope.Benchmark)
+   public static class Blocking
+   {
+      @Param(
+      {"PLATFORM", "VIRTUAL"})
+      public ExecutionMode mode;
+
+      @Param(
+      {"10000"})
+      public int calls;
+
+      ExecutorService executor;
+
+      @Setup
+      public void createExecutor()
+      {
+         final ExecutorService delegate;
+         if (mode == ExecutionMode.VIRTUAL && AsyncExecutors.isVirtualThreadSupported())
+         {
+            delegate = AsyncExecutors.newVirtualThreadPerTaskExecutor("Benchmark Blocking");
+         }
+         else
+         {
+            delegate = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 0, TimeUnit.MILLISECONDS, new AsyncWorkQueue(),
+                  new NamedThreadFactory("Benchmark Blocking", true));
+         }
+         executor = new ResultUnwrappingExecutorService(delegate, new NoopEndpoint());
+      }
+
+      @TearDown
+      public void shutdown()
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * Small, bounded pool of platform Threads
+    */
+   @State(Scope.Benchmark)
+   public static class Saturated
+   {
+      @Param(
+      {"CALLER_RUNS", "BLOCK"})
+      public SaturationPolicy policy;
+
+      @Param(
+      {"10000"})
+      public int calls;
+
+      ExecutorService executor;
+
+      @Setup
+      public void createExecutor()
+      {
+         executor = new ResultUnwrappingExecutorService(new ThreadPoolExecutor(4, 4, 0, TimeUnit.MILLISECONDS,
+               new AsyncWorkQueue(64), new NamedThreadFactory("Benchmark Saturated", true), policy.newHandler(30,
+                     TimeUnit.SECONDS)), new NoopEndpoint());
+      }
+
+      @TearDown
+      public void shutdown()
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Benchmarks ---------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Submits invocations each blocking for a millisecond, and awaits them all
+    */
+   @Benchmark
+   public void blockingCalls(final Blocking blocking) throws Exception
+   {
+      awaitAll(blocking.executor, blocking.calls, new Callable<Void>()
+      {
+         public Void call() throws Exception
+         {
+            Thread.sleep(1);
+            return null;
+         }
+      });
+   }
+
+   /**
+    * Submits short invocations faster than they are run, and awaits them all
+    */
+   @Benchmark
+   public void saturatedCalls(final Saturated saturated) throws Exception
+   {
+      awaitAll(saturated.executor, saturated.calls, new Callable<Void>()
+      {
+         public Void call() throws Exception
+         {
+            Blackhole.consumeCPU(1000);
+            return null;
+         }
+      });
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private static void awaitAll(final ExecutorService executor, final int calls, final Callable<Void> task)
+         throws Exception
+   {
+      final List<Future<Void>> futures = new ArrayList<Future<Void>>(calls);
+      for (int i = 0; i < calls; i++)
+      {
+         futures.add(executor.submit(task));
+      }
+      for (final Future<Void> future : futures)
+      {
+         future.get();
+      }
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Inner Classes ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * {@link AsyncEndpoint} which does nothing
+    */
+   private static final class NoopEndpoint implements AsyncEndpoint
+   {
+      public boolean cancel(final AsyncInvocationId id) throws IllegalArgumentException
+      {
+         return false;
+      }
+
+      public Object invokeAsync(final Serializable session, final Class<?> invokedBusinessInterface,
+            final Method method, final Object[] args) throws Throwable
+      {
+         return null;
+      }
+   }
+}
@@ -0,0 +1,324 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.benchmarks;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.ejb.AsyncResult;
+
+import org.jboss.ejb3.async.impl.util.concurrent.AsyncFutures;
+import org.jboss.ejb3.async.impl.util.concurrent.ResultUnwrappingExecutorService;
+import org.jboss.ejb3.async.spi.AsyncEndpoint;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.jboss.ejb3.async.spi.AsynchronousClientFuture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@link AsynchronousClientFuture} handed back for each invocation: creating,
+ * completing and unwrapping it (with the task run inline, so only the Future 
+ * itself is measured), calling {@link Future#get()} once complete, and cancelling
+ * a batch of queued invocations one by one and in bulk.
+ * 
+ * {@link #submitAndGetTaskStack(Inline)} is the baseline for {@link #submitAndGet(Inline)}: 
+ * the stack previously handed back, of a {@link FutureTask} held by a serializable 
+ * wrapper, with the bean's {@link Future} unwrapped upon {@link Future#get()}.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+@BenchmarkMode(
+{Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncFutureBenchmark
+{
+   // --------------------------------------------------------------------------------||
+   // States -------------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Futures completed upon the calling Thread
+    */
+   @State(Scope.Thread)
+   public static class Inline
+   {
+      ExecutorService executor;
+
+      ExecutorService delegate;
+
+      Callable<Future<String>> bean;
+
+      Future<?> completed;
+
+      @Setup
+      public void createExecutor() throws Exception
+      {
+         delegate = new CallerRunsExecutorService();
+         executor = new ResultUnwrappingExecutorService(delegate, new NoopEndpoint());
+         bean = new Callable<Future<String>>()
+         {
+            public Future<String> call() throws Exception
+            {
+               return new AsyncResult<String>("value");
+            }
+         };
+         completed = executor.submit(bean);
+         completed.get();
+      }
+   }
+
+   /**
+    * A batch of invocations queued but not yet run, submitted anew before each call
+    */
+   @State(Scope.Thread)
+   public static class Queued
+   {
+      @Param(
+      {"100"})
+      public int batchSize;
+
+      ExecutorService executor;
+
+      List<Future<?>> futures;
+
+      @Setup(Level.Trial)
+      public void createExecutor()
+      {
+         executor = new ResultUnwrappingExecutorService(new NeverRunsExecutorService(), new NoopEndpoint());
+      }
+
+      @Setup(Level.Invocation)
+      public void submit()
+      {
+         futures = new ArrayList<Future<?>>(batchSize);
+         for (int i = 0; i < batchSize; i++)
+         {
+            futures.add(executor.submit(new Callable<Void>()
+            {
+               public Void call() throws Exception
+               {
+                  return null;
+               }
+            }));
+         }
+      }
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Benchmarks ---------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   @Benchmark
+   public Object submitAndGet(final Inline inline) throws Exception
+   {
+      return inline.executor.submit(inline.bean).get();
+   }
+
+   @Benchmark
+   public Object submitAndGetTaskStack(final Inline inline) throws Exception
+   {
+      return new UnwrappingFutureWrapper<String>(inline.delegate.submit(inline.bean)).get();
+   }
+
+   @Benchmark
+   public Object getCompleted(final Inline inline) throws Exception
+   {
+      return inline.completed.get();
+   }
+
+   @Benchmark
+   public int cancelEach(final Queued queued)
+   {
+      int cancelled = 0;
+      for (final Future<?> future : queued.futures)
+      {
+         if (future.cancel(false))
+         {
+            cancelled++;
+         }
+      }
+      return cancelled;
+   }
+
+   @Benchmark
+   public int cancelAll(final Queued queued)
+   {
+      return AsyncFutures.cancelAll(queued.futures, false);
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Inner Classes ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Runs each task upon the submitting Thread
+    */
+   private static final class CallerRunsExecutorService extends AbstractExecutorService
+   {
+      public void execute(final Runnable command)
+      {
+         command.run();
+      }
+
+      public void shutdown()
+      {
+      }
+
+      public List<Runnable> shutdownNow()
+      {
+         return Collections.emptyList();
+      }
+
+      public boolean isShutdown()
+      {
+         return false;
+      }
+
+      public boolean isTerminated()
+      {
+         return false;
+      }
+
+      public boolean awaitTermination(final long timeout, final TimeUnit unit)
+      {
+         return false;
+      }
+   }
+
+   /**
+    * Serializable view of a {@link FutureTask} returning the bean's {@link Future}, 
+    * unwrapping it upon {@link Future#get()}, as handed back before the client task 
+    * became the {@link Future} itself
+    */
+   private static final class UnwrappingFutureWrapper<V> implements Future<V>, Serializable
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final transient Future<Future<V>> delegate;
+
+      UnwrappingFutureWrapper(final Future<Future<V>> delegate)
+      {
+         this.delegate = delegate;
+      }
+
+      public boolean cancel(final boolean mayInterruptIfRunning)
+      {
+         return delegate.cancel(mayInterruptIfRunning);
+      }
+
+      public boolean isCancelled()
+      {
+         return delegate.isCancelled();
+      }
+
+      public boolean isDone()
+      {
+         return delegate.isDone();
+      }
+
+      public V get() throws InterruptedException, ExecutionException
+      {
+         return delegate.get().get();
+      }
+
+      public V get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException,
+            TimeoutException
+      {
+         return delegate.get(timeout, unit).get(timeout, unit);
+      }
+   }
+
+   /**
+    * Accepts, but never runs, each task
+    */
+   private static final class NeverRunsExecutorService extends AbstractExecutorService
+   {
+      public void execute(final Runnable command)
+      {
+      }
+
+      public void shutdown()
+      {
+      }
+
+      public List<Runnable> shutdownNow()
+      {
+         return Collections.emptyList();
+      }
+
+      public boolean isShutdown()
+      {
+         return false;
+      }
+
+      public boolean isTerminated()
+      {
+         return false;
+      }
+
+      public boolean awaitTermination(final long timeout, final TimeUnit unit)
+      {
+         return false;
+      }
+   }
+
+   /**
+    * {@link AsyncEndpoint} which does nothing
+    */
+   private static final class NoopEndpoint implements AsyncEndpoint
+   {
+      public boolean cancel(final AsyncInvocationId id) throws IllegalArgumentException
+      {
+         return false;
+      }
+
+      public Object invokeAsync(final Serializable session, final Class<?> invokedBusinessInterface,
+            final Method method, final Object[] args) throws Throwable
+      {
+         return null;
+      }
+   }
+}
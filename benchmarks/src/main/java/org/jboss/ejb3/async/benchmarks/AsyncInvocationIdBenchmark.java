@@ -0,0 +1,76 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.async.impl.AsyncInvocationIdSequenceImpl;
+import org.jboss.ejb3.async.impl.AsyncInvocationIdUUIDImpl;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Creation of {@link AsyncInvocationId}s, once per dispatch, from a single 
+ * Thread and from all available processors at once
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncInvocationIdBenchmark
+{
+   @Benchmark
+   public AsyncInvocationId uuid()
+   {
+      return new AsyncInvocationIdUUIDImpl();
+   }
+
+   @Benchmark
+   public AsyncInvocationId sequence()
+   {
+      return new AsyncInvocationIdSequenceImpl();
+   }
+
+   @Benchmark
+   @Threads(Threads.MAX)
+   public AsyncInvocationId uuidContended()
+   {
+      return new AsyncInvocationIdUUIDImpl();
+   }
+
+   @Benchmark
+   @Threads(Threads.MAX)
+   public AsyncInvocationId sequenceContended()
+   {
+      return new AsyncInvocationIdSequenceImpl();
+   }
+}
@@ -0,0 +1,122 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.async.impl.AsyncInvocationIdSequenceImpl;
+import org.jboss.ejb3.async.impl.AsyncInvocationMapImpl;
+import org.jboss.ejb3.async.impl.StripedAsyncInvocationMap;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.jboss.ejb3.async.spi.AsyncInvocationMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The lifecycle of an invocation upon an {@link AsyncInvocationMap} shared
+ * by all Threads: registered upon dispatch, flagged by a cancellation request,
+ * looked up by the running invocation and removed once done.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class AsyncInvocationMapBenchmark
+{
+   // --------------------------------------------------------------------------------||
+   // States -------------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Map shared by all Threads
+    */
+   @State(Scope.Benchmark)
+   public static class Shared
+   {
+      @Param(
+      {"concurrent", "striped"})
+      public String implementation;
+
+      AsyncInvocationMap map;
+
+      @Setup
+      public void createMap()
+      {
+         map = "striped".equals(implementation) ? new StripedAsyncInvocationMap() : new AsyncInvocationMapImpl();
+      }
+   }
+
+   /**
+    * Invocations of a single Thread
+    */
+   @State(Scope.Thread)
+   public static class Invocations
+   {
+      final AsyncInvocationId[] ids = new AsyncInvocationId[1024];
+
+      int next;
+
+      @Setup
+      public void createIds()
+      {
+         for (int i = 0; i < ids.length; i++)
+         {
+            ids[i] = new AsyncInvocationIdSequenceImpl();
+         }
+      }
+
+      AsyncInvocationId nextId()
+      {
+         return ids[next++ & (ids.length - 1)];
+      }
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Benchmarks ---------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   @Benchmark
+   public Boolean putCancelLookupRemove(final Shared shared, final Invocations invocations)
+   {
+      final AsyncInvocationMap map = shared.map;
+      final AsyncInvocationId id = invocations.nextId();
+      map.put(id, Boolean.FALSE);
+      map.replace(id, Boolean.FALSE, Boolean.TRUE);
+      final Boolean cancelled = map.get(id);
+      map.remove(id);
+      return cancelled;
+   }
+}
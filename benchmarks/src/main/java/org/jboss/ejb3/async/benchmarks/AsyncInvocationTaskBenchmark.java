@@ -0,0 +1,169 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.benchmarks;
+
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.async.impl.AsyncInvocationIdSequenceImpl;
+import org.jboss.ejb3.async.impl.test.common.Pojo;
+import org.jboss.ejb3.async.impl.test.common.TestConstants;
+import org.jboss.ejb3.async.spi.AsyncContextPropagation;
+import org.jboss.ejb3.async.spi.AsyncContextPropagator;
+import org.jboss.ejb3.async.spi.AsyncContextSnapshot;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.jboss.ejb3.async.spi.AsyncInvocationTaskBase;
+import org.jboss.ejb3.async.spi.AsyncMethodIndex;
+import org.jboss.metadata.ejb.spec.AsyncMethodMetaData;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.jboss.metadata.ejb.spec.MethodParametersMetaData;
+import org.jboss.security.SecurityContext;
+import org.jboss.security.SecurityContextAssociation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link AsyncInvocationTaskBase#call()} upon the executing Thread, where the 
+ * caller's context already matches that of the Thread and where it must be 
+ * swapped, along with capturing the caller's context upon dispatch (with the
+ * {@link AsyncContextSnapshot} reused, and with no propagators applicable at all).
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(
+{Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncInvocationTaskBenchmark
+{
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private final AsyncInvocationId id = new AsyncInvocationIdSequenceImpl();
+
+   private final ClassLoader otherCl = new URLClassLoader(new URL[0]);
+
+   private Method invokedMethod;
+
+   private AsyncContextPropagation defaultPropagation;
+
+   private AsyncContextPropagation noPropagation;
+
+   // --------------------------------------------------------------------------------||
+   // Lifecycle ----------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   @Setup
+   public void resolve() throws Exception
+   {
+      invokedMethod = Pojo.class.getMethod(TestConstants.METHOD_NAME_INCREMENT_COUNTER_ASYNCHRONOUS);
+      final AsyncMethodMetaData asyncMethod = new AsyncMethodMetaData();
+      asyncMethod.setMethodName(invokedMethod.getName());
+      asyncMethod.setMethodParams(new MethodParametersMetaData());
+      final AsyncMethodsMetaData asyncMethods = new AsyncMethodsMetaData();
+      asyncMethods.add(asyncMethod);
+
+      defaultPropagation = AsyncContextPropagation.getDefault();
+      noPropagation = AsyncContextPropagation.resolve("Pojo", new AsyncMethodIndex(asyncMethods), Collections
+            .<AsyncContextPropagator> emptyList());
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Benchmarks ---------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   @Benchmark
+   public Object callMatchingContext() throws Exception
+   {
+      return new NoopTask(SecurityContextAssociation.getSecurityContext(), id, Thread.currentThread()
+            .getContextClassLoader()).call();
+   }
+
+   @Benchmark
+   public Object callDifferingContext() throws Exception
+   {
+      return new NoopTask(SecurityContextAssociation.getSecurityContext(), id, otherCl).call();
+   }
+
+   @Benchmark
+   public Object captureAndCall() throws Exception
+   {
+      return new NoopTask(defaultPropagation.capture(invokedMethod), id).call();
+   }
+
+   @Benchmark
+   public Object captureNothingAndCall() throws Exception
+   {
+      return new NoopTask(noPropagation.capture(invokedMethod), id).call();
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Inner Classes ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Task doing nothing but returning a constant
+    */
+   private static final class NoopTask extends AsyncInvocationTaskBase<Object>
+   {
+      NoopTask(final SecurityContext sc, final AsyncInvocationId id, final ClassLoader cl)
+      {
+         super(sc, id, cl);
+      }
+
+      NoopTask(final AsyncContextSnapshot contexts, final AsyncInvocationId id)
+      {
+         super(contexts, id);
+      }
+
+      @Override
+      protected void before() throws Exception
+      {
+      }
+
+      @Override
+      protected Object proceed() throws Throwable
+      {
+         return Boolean.TRUE;
+      }
+
+      @Override
+      protected void after() throws Exception
+      {
+      }
+   }
+}
@@ -0,0 +1,143 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.async.impl.test.common.Pojo;
+import org.jboss.ejb3.async.impl.test.common.TestConstants;
+import org.jboss.ejb3.async.spi.AsyncMethodIndex;
+import org.jboss.ejb3.async.spi.AsyncUtil;
+import org.jboss.metadata.ejb.spec.AsyncMethodMetaData;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.jboss.metadata.ejb.spec.MethodParametersMetaData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Determining whether an invoked method is @Asynchronous, by a linear scan of 
+ * the metadata ({@link AsyncUtil#methodIsAsynchronous(Method, AsyncMethodsMetaData)})
+ * and by the precomputed {@link AsyncMethodIndex}, for beans of increasing size.
+ * The async method of {@link Pojo} is declared last, as the worst case for the scan.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AsyncMethodLookupBenchmark
+{
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Number of @Asynchronous methods declared by the bean
+    */
+   @Param(
+   {"5", "50", "500"})
+   public int methodCount;
+
+   private AsyncMethodsMetaData asyncMethods;
+
+   private AsyncMethodIndex index;
+
+   private Method asyncMethod;
+
+   private Method syncMethod;
+
+   // --------------------------------------------------------------------------------||
+   // Lifecycle ----------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   @Setup
+   public void declareMethods() throws Exception
+   {
+      asyncMethods = new AsyncMethodsMetaData();
+      for (int i = 0; i < methodCount - 1; i++)
+      {
+         asyncMethods.add(asyncMethod("method" + i, String.class.getName()));
+      }
+      asyncMethods.add(asyncMethod(TestConstants.METHOD_NAME_INCREMENT_COUNTER_ASYNCHRONOUS));
+      index = new AsyncMethodIndex(asyncMethods);
+      asyncMethod = Pojo.class.getMethod(TestConstants.METHOD_NAME_INCREMENT_COUNTER_ASYNCHRONOUS);
+      syncMethod = Pojo.class.getMethod(TestConstants.METHOD_NAME_INCREMENT_COUNTER_SYNCHRONOUS);
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Benchmarks ---------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   @Benchmark
+   public boolean scanAsynchronous()
+   {
+      return AsyncUtil.methodIsAsynchronous(asyncMethod, asyncMethods);
+   }
+
+   @Benchmark
+   public boolean scanSynchronous()
+   {
+      return AsyncUtil.methodIsAsynchronous(syncMethod, asyncMethods);
+   }
+
+   @Benchmark
+   public boolean indexAsynchronous()
+   {
+      return index.isAsynchronous(asyncMethod);
+   }
+
+   @Benchmark
+   public boolean indexSynchronous()
+   {
+      return index.isAsynchronous(syncMethod);
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private static AsyncMethodMetaData asyncMethod(final String name, final String... paramTypes)
+   {
+      final AsyncMethodMetaData asyncMethod = new AsyncMethodMetaData();
+      asyncMethod.setMethodName(name);
+      final MethodParametersMetaData params = new MethodParametersMetaData();
+      for (final String paramType : paramTypes)
+      {
+         params.add(paramType);
+      }
+      asyncMethod.setMethodParams(params);
+      return asyncMethod;
+   }
+}
@@ -0,0 +1,122 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.async.impl.AsyncInvocationIdSequenceImpl;
+import org.jboss.ejb3.async.spi.AsyncCancellationToken;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.jboss.ejb3.async.spi.CurrentAsyncInvocation;
+import org.jboss.ejb3.async.spi.lang.ThreadLocalStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The per-Thread state of each dispatch and execution: marking the current 
+ * invocation upon the {@link ThreadLocalStack} (at the usual depth of one, and 
+ * nested), and a bean polling for cancellation, by way of {@link CurrentAsyncInvocation}
+ * and by a held {@link AsyncCancellationToken}.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CurrentAsyncInvocationBenchmark
+{
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private final ThreadLocalStack<AsyncInvocationId> stack = new ThreadLocalStack<AsyncInvocationId>();
+
+   private final AsyncInvocationId id = new AsyncInvocationIdSequenceImpl();
+
+   private AsyncCancellationToken token;
+
+   // --------------------------------------------------------------------------------||
+   // Lifecycle ----------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Marks a running invocation upon the benchmark Thread
+    */
+   @Setup
+   public void markRunning()
+   {
+      token = new AsyncCancellationToken(new AsyncInvocationIdSequenceImpl(), false);
+      CurrentAsyncInvocation.markCurrentCancellationTokenOnThread(token);
+   }
+
+   @TearDown
+   public void unmarkRunning()
+   {
+      CurrentAsyncInvocation.unmarkCurrentCancellationTokenFromThread();
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Benchmarks ---------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   @Benchmark
+   public AsyncInvocationId markAndUnmarkInvocation()
+   {
+      CurrentAsyncInvocation.markCurrentInvocationOnThread(id);
+      return CurrentAsyncInvocation.unmarkCurrentInvocationFromThread();
+   }
+
+   @Benchmark
+   public AsyncInvocationId pushAndPopNested()
+   {
+      stack.push(id);
+      stack.push(id);
+      stack.push(id);
+      stack.pop();
+      stack.pop();
+      return stack.pop();
+   }
+
+   @Benchmark
+   public boolean pollWasCancelCalled()
+   {
+      return CurrentAsyncInvocation.wasCancelCalled();
+   }
+
+   @Benchmark
+   public boolean pollHeldToken()
+   {
+      return token.isCancelled();
+   }
+}
@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.deployer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jboss.deployers.spi.DeploymentException;
+import org.jboss.deployers.spi.deployer.helpers.AbstractDeployer;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+import org.jboss.ejb3.async.spi.AsyncContextPropagation;
+import org.jboss.ejb3.async.spi.AsyncContextPropagator;
+import org.jboss.ejb3.async.spi.AsyncMethodIndex;
+import org.jboss.ejb3.async.spi.AttachmentNames;
+import org.jboss.logging.Logger;
+
+/**
+ * Deployer to resolve, for each @Asynchronous method of each bean in the
+ * current {@link DeploymentUnit}, which of the configured {@link AsyncContextPropagator}s 
+ * apply.  Attached as a {@link Map} of EJB name to {@link AsyncContextPropagation} 
+ * under {@link AttachmentNames#ASYNC_CONTEXT_PROPAGATION}.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class AsyncContextPropagationDeployer extends AbstractDeployer
+{
+   // ------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(AsyncContextPropagationDeployer.class);
+
+   // ------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * Candidate propagators, in order of application
+    */
+   private final List<AsyncContextPropagator> propagators;
+
+   // ------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new deployer resolving the specified propagators
+    * @param propagators Candidate propagators, in order of application
+    * @throws IllegalArgumentException If the propagators are not specified
+    */
+   public AsyncContextPropagationDeployer(final List<AsyncContextPropagator> propagators)
+         throws IllegalArgumentException
+   {
+      if (propagators == null)
+      {
+         throw new IllegalArgumentException("Propagators must be specified");
+      }
+      this.propagators = Collections.unmodifiableList(new ArrayList<AsyncContextPropagator>(propagators));
+      this.setInput(AttachmentNames.ASYNC_METHOD_INDEXES);
+      this.addOutput(AttachmentNames.ASYNC_CONTEXT_PROPAGATION);
+   }
+
+   // ------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.deployers.spi.deployer.Deployer#deploy(org.jboss.deployers.structure.spi.DeploymentUnit)
+    */
+   public void deploy(final DeploymentUnit unit) throws DeploymentException
+   {
+      // Only deployments with indexed async methods
+      @SuppressWarnings("unchecked")
+      final Map<String, AsyncMethodIndex> indexes = (Map<String, AsyncMethodIndex>) unit
+            .getAttachment(AttachmentNames.ASYNC_METHOD_INDEXES);
+      if (indexes == null)
+      {
+         return;
+      }
+
+      // Resolve the propagators for each bean
+      final Map<String, AsyncContextPropagation> propagation = new HashMap<String, AsyncContextPropagation>();
+      for (final Map.Entry<String, AsyncMethodIndex> index : indexes.entrySet())
+      {
+         final String ejbName = index.getKey();
+         propagation.put(ejbName, AsyncContextPropagation.resolve(ejbName, index.getValue(), propagators));
+      }
+      if (log.isTraceEnabled())
+      {
+         log.trace("Resolved context propagation for " + unit + ": " + propagation);
+      }
+
+      // Attach
+      unit.addAttachment(AttachmentNames.ASYNC_CONTEXT_PROPAGATION, Collections.unmodifiableMap(propagation));
+   }
+
+}
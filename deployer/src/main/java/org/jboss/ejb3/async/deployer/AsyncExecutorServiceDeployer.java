@@ -21,19 +21,32 @@
  */
 package org.jboss.ejb3.async.deployer;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
 import java.util.concurrent.ExecutorService;
 
 import org.jboss.beans.metadata.api.annotations.Inject;
 import org.jboss.deployers.spi.DeploymentException;
 import org.jboss.deployers.spi.deployer.helpers.AbstractDeployer;
 import org.jboss.deployers.structure.spi.DeploymentUnit;
+import org.jboss.deployers.vfs.spi.structure.VFSDeploymentUnit;
+import org.jboss.ejb3.async.spi.AsyncExecutorLookup;
+import org.jboss.ejb3.async.spi.AsyncExecutorsMetaData;
 import org.jboss.ejb3.async.spi.AttachmentNames;
 import org.jboss.logging.Logger;
 import org.jboss.metadata.ejb.jboss.JBossMetaData;
+import org.jboss.vfs.VirtualFile;
 
 /**
  * Deployer to attach a {@link ExecutorService} implementation
- * to the current EJB 3.1 {@link DeploymentUnit}
+ * to the current EJB 3.1 {@link DeploymentUnit}, along with an 
+ * {@link AsyncExecutorLookup} resolving the executor for each bean and method.
+ * 
+ * Where the deployment describes isolated executors, either with an attached
+ * {@link AsyncExecutorsMetaData} or within a descriptor 
+ * {@link AsyncExecutorsMetaDataParser#DESCRIPTOR_NAME}, these are created upon 
+ * deploy and shut down upon undeploy; otherwise the injected shared executor is used.
  *
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  * @version $Revision: $
@@ -69,6 +82,8 @@ public class AsyncExecutorServiceDeployer extends AbstractDeployer
    {
       this.asyncExecutorService = asyncExecutorService;
       this.setInput(JBossMetaData.class);
+      this.addInput(AttachmentNames.ASYNC_EXECUTORS_METADATA);
+      this.addOutput(AttachmentNames.ASYNC_EXECUTOR_LOOKUP);
       this.addOutput(KEY_OUTPUT);
    }
 
@@ -99,21 +114,102 @@ public class AsyncExecutorServiceDeployer extends AbstractDeployer
          throw new IllegalStateException(ExecutorService.class.getSimpleName() + " implemenentation was not injected");
       }
 
+      // Create any isolated executors described by the deployment
+      final BulkheadExecutorLookup lookup = new BulkheadExecutorLookup(unit.getSimpleName(), this
+            .getExecutorsMetaData(unit), asyncExecutorService);
+
       // Attach the ES
-      unit.addAttachment(AttachmentNames.ASYNC_INVOCATION_PROCESSOR, asyncExecutorService);
+      final ExecutorService deploymentExecutorService = lookup.getDeploymentExecutor();
+      unit.addAttachment(AttachmentNames.ASYNC_INVOCATION_PROCESSOR, deploymentExecutorService);
+      unit.addAttachment(AttachmentNames.ASYNC_EXECUTOR_LOOKUP, lookup);
       if (log.isTraceEnabled())
       {
-         log.trace("Using async  " + ExecutorService.class.getSimpleName() + " " + asyncExecutorService + " for "
-               + unit);
+         log.trace("Using async  " + ExecutorService.class.getSimpleName() + " " + deploymentExecutorService
+               + " for " + unit + ", with " + lookup);
       }
       // Mark we've been here
       unit.addAttachment(KEY_OUTPUT, Boolean.TRUE);
    }
 
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.deployers.spi.deployer.helpers.AbstractDeployer#undeploy(org.jboss.deployers.structure.spi.DeploymentUnit)
+    */
+   @Override
+   public void undeploy(final DeploymentUnit unit)
+   {
+      // Tear down the isolated executors of this deployment
+      final Object lookup = unit.getAttachment(AttachmentNames.ASYNC_EXECUTOR_LOOKUP);
+      if (lookup instanceof BulkheadExecutorLookup)
+      {
+         if (log.isTraceEnabled())
+         {
+            log.trace("Shutting down " + lookup + " for " + unit);
+         }
+         ((BulkheadExecutorLookup) lookup).shutdown();
+      }
+   }
+
    // ------------------------------------------------------------------------------||
    // Helper Methods ---------------------------------------------------------------||
    // ------------------------------------------------------------------------------||
 
+   /**
+    * Obtains the isolated executors described by the deployment, either as
+    * an attachment or within the descriptor {@link AsyncExecutorsMetaDataParser#DESCRIPTOR_NAME}
+    * among the deployment's own metadata files, or null if none are described
+    * @param unit
+    * @return
+    * @throws DeploymentException If the descriptor could not be read or is invalid
+    */
+   AsyncExecutorsMetaData getExecutorsMetaData(final DeploymentUnit unit) throws DeploymentException
+   {
+      // Attached by another deployer
+      final AsyncExecutorsMetaData attached = unit.getAttachment(AttachmentNames.ASYNC_EXECUTORS_METADATA,
+            AsyncExecutorsMetaData.class);
+      if (attached != null)
+      {
+         return attached;
+      }
+
+      // Described in the deployment itself; not looked up by ClassLoader, which would
+      // also find a copy upon a parent or shared classpath (ie. in another module of an EAR)
+      if (!(unit instanceof VFSDeploymentUnit))
+      {
+         return null;
+      }
+      final VirtualFile descriptor = ((VFSDeploymentUnit) unit)
+            .getMetaDataFile(AsyncExecutorsMetaDataParser.DESCRIPTOR_FILE_NAME);
+      if (descriptor == null)
+      {
+         return null;
+      }
+      final Properties props = new Properties();
+      try
+      {
+         final InputStream in = descriptor.openStream();
+         try
+         {
+            props.load(in);
+         }
+         finally
+         {
+            in.close();
+         }
+         final AsyncExecutorsMetaData parsed = AsyncExecutorsMetaDataParser.parse(props);
+         unit.addAttachment(AttachmentNames.ASYNC_EXECUTORS_METADATA, parsed, AsyncExecutorsMetaData.class);
+         return parsed;
+      }
+      catch (final IOException ioe)
+      {
+         throw DeploymentException.rethrowAsDeploymentException("Could not read " + descriptor, ioe);
+      }
+      catch (final IllegalArgumentException iae)
+      {
+         throw DeploymentException.rethrowAsDeploymentException("Invalid " + descriptor, iae);
+      }
+   }
+
    /*
     * These may be overridden for testing purposes
     */
@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.deployer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.async.impl.util.concurrent.AsyncExecutors;
+import org.jboss.ejb3.async.impl.util.concurrent.AsyncWorkQueue;
+import org.jboss.ejb3.async.impl.util.concurrent.ExecutionMode;
+import org.jboss.ejb3.async.impl.util.concurrent.NamedThreadFactory;
+import org.jboss.logging.Logger;
+
+/**
+ * Factory for the server-side {@link ExecutorService} carrying out
+ * EJB 3.1 asynchronous invocations, used from the MC bean definition
+ * to select the {@link ExecutionMode}
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class AsyncExecutorServiceFactory
+{
+   // ------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(AsyncExecutorServiceFactory.class);
+
+   /**
+    * Prefix of the names of Threads
+    */
+   static final String THREAD_NAME_PREFIX = "EJB3 Async";
+
+   // ------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * No instantiation
+    */
+   private AsyncExecutorServiceFactory()
+   {
+      throw new UnsupportedOperationException("No instances");
+   }
+
+   // ------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * Creates an {@link ExecutorService} in the specified mode.  Under 
+    * {@link ExecutionMode#PLATFORM}, a pool of the specified number of Threads 
+    * is created, queueing work in an {@link AsyncWorkQueue}; under {@link ExecutionMode#VIRTUAL} a virtual Thread is
+    * started per invocation, falling back to the pool on runtimes which do not
+    * support virtual Threads.
+    * 
+    * @param executionMode Name of the {@link ExecutionMode}
+    * @param poolSize Number of pooled Threads
+    * @return
+    * @throws IllegalArgumentException If the mode is not known or the pool size is not positive
+    */
+   public static ExecutorService createExecutorService(final String executionMode, final int poolSize)
+         throws IllegalArgumentException
+   {
+      if (executionMode == null)
+      {
+         throw new IllegalArgumentException(ExecutionMode.class.getSimpleName() + " must be specified");
+      }
+      if (poolSize <= 0)
+      {
+         throw new IllegalArgumentException("Pool size must be positive: " + poolSize);
+      }
+      final ExecutionMode mode = ExecutionMode.valueOf(executionMode.trim().toUpperCase());
+      if (mode == ExecutionMode.VIRTUAL)
+      {
+         if (AsyncExecutors.isVirtualThreadSupported())
+         {
+            log.info("Asynchronous invocations will be carried out by virtual threads");
+            return AsyncExecutors.newVirtualThreadPerTaskExecutor(THREAD_NAME_PREFIX);
+         }
+         log.warn("Virtual threads are not supported by this runtime; using a pool of " + poolSize
+               + " platform threads");
+      }
+      // Queued invocations are indexed such that cancelled ones are removed immediately
+      return new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, new AsyncWorkQueue(),
+            new NamedThreadFactory(THREAD_NAME_PREFIX, false));
+   }
+}
@@ -0,0 +1,182 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.deployer;
+
+import java.util.Properties;
+
+import org.jboss.ejb3.async.spi.AsyncExecutorMetaData;
+import org.jboss.ejb3.async.spi.AsyncExecutorsMetaData;
+
+/**
+ * Parses {@link AsyncExecutorsMetaData} from the properties descriptor 
+ * {@link AsyncExecutorsMetaDataParser#DESCRIPTOR_NAME}, in form:
+ * 
+ * <pre>
+ * # Executor for the whole deployment
+ * threads=10
+ * queueCapacity=1000
+ * # Executor for bean "MyBean"
+ * bean.MyBean.threads=4
+ * # Executor for method "doWork(java.lang.String)" of bean "MyBean"
+ * method.MyBean.doWork(java.lang.String).threads=2
+ * </pre>
+ * 
+ * Unspecified attributes of a configured executor take their defaults 
+ * from {@link AsyncExecutorMetaData}.  EJB names containing '.' are not supported.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class AsyncExecutorsMetaDataParser
+{
+   // ------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * Name of the descriptor among the metadata files of a deployment
+    */
+   static final String DESCRIPTOR_FILE_NAME = "jboss-ejb3-async-executors.properties";
+
+   /**
+    * Location of the descriptor within a deployment
+    */
+   static final String DESCRIPTOR_NAME = "META-INF/" + DESCRIPTOR_FILE_NAME;
+
+   private static final String PREFIX_BEAN = "bean.";
+
+   private static final String PREFIX_METHOD = "method.";
+
+   private static final String ATTRIBUTE_THREADS = "threads";
+
+   private static final String ATTRIBUTE_QUEUE_CAPACITY = "queueCapacity";
+
+   // ------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   private AsyncExecutorsMetaDataParser()
+   {
+      throw new UnsupportedOperationException("No instances");
+   }
+
+   // ------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * Parses the specified descriptor properties
+    * @param props
+    * @return
+    * @throws IllegalArgumentException If the properties are not specified or contain
+    *   an unknown key or invalid value
+    */
+   static AsyncExecutorsMetaData parse(final Properties props) throws IllegalArgumentException
+   {
+      if (props == null)
+      {
+         throw new IllegalArgumentException("Properties must be specified");
+      }
+      final AsyncExecutorsMetaData md = new AsyncExecutorsMetaData();
+      for (final String key : props.stringPropertyNames())
+      {
+         final String value = props.getProperty(key).trim();
+         final int lastDot = key.lastIndexOf('.');
+         final String attribute = key.substring(lastDot + 1);
+         if (lastDot < 0)
+         {
+            AsyncExecutorMetaData executor = md.getDeploymentExecutor();
+            if (executor == null)
+            {
+               executor = new AsyncExecutorMetaData();
+               md.setDeploymentExecutor(executor);
+            }
+            set(executor, key, attribute, value);
+         }
+         else if (key.startsWith(PREFIX_BEAN))
+         {
+            final String ejbName = key.substring(PREFIX_BEAN.length(), lastDot);
+            AsyncExecutorMetaData executor = md.getBeanExecutors().get(ejbName);
+            if (executor == null)
+            {
+               executor = new AsyncExecutorMetaData();
+               md.setBeanExecutor(ejbName, executor);
+            }
+            set(executor, key, attribute, value);
+         }
+         else if (key.startsWith(PREFIX_METHOD))
+         {
+            final String target = key.substring(PREFIX_METHOD.length(), lastDot);
+            final int nameEnd = target.indexOf('.');
+            if (nameEnd <= 0 || nameEnd == target.length() - 1)
+            {
+               throw new IllegalArgumentException("Expected " + PREFIX_METHOD
+                     + "<ejbName>.<methodSignature>.<attribute>: " + key);
+            }
+            final String ejbName = target.substring(0, nameEnd);
+            final String signature = target.substring(nameEnd + 1);
+            AsyncExecutorMetaData executor = md.getMethodExecutors(ejbName).get(signature);
+            if (executor == null)
+            {
+               executor = new AsyncExecutorMetaData();
+               md.setMethodExecutor(ejbName, signature, executor);
+            }
+            set(executor, key, attribute, value);
+         }
+         else
+         {
+            throw new IllegalArgumentException("Unknown key in " + DESCRIPTOR_NAME + ": " + key);
+         }
+      }
+      return md;
+   }
+
+   // ------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   private static void set(final AsyncExecutorMetaData executor, final String key, final String attribute,
+         final String value) throws IllegalArgumentException
+   {
+      final int parsed;
+      try
+      {
+         parsed = Integer.parseInt(value);
+      }
+      catch (final NumberFormatException nfe)
+      {
+         throw new IllegalArgumentException("Invalid value of " + key + ": " + value);
+      }
+      if (ATTRIBUTE_THREADS.equals(attribute))
+      {
+         executor.setThreads(parsed);
+      }
+      else if (ATTRIBUTE_QUEUE_CAPACITY.equals(attribute))
+      {
+         executor.setQueueCapacity(parsed);
+      }
+      else
+      {
+         throw new IllegalArgumentException("Unknown attribute in " + DESCRIPTOR_NAME + ": " + key);
+      }
+   }
+}
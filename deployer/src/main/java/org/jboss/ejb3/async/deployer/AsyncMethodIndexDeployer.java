@@ -0,0 +1,161 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.deployer;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.deployers.spi.DeploymentException;
+import org.jboss.deployers.spi.deployer.helpers.AbstractDeployer;
+import org.jboss.deployers.structure.spi.DeploymentUnit;
+import org.jboss.ejb3.async.impl.interceptor.AsyncPointcuts;
+import org.jboss.ejb3.async.spi.AsyncMethodIndex;
+import org.jboss.ejb3.async.spi.AttachmentNames;
+import org.jboss.logging.Logger;
+import org.jboss.metadata.ejb.jboss.JBossEnterpriseBeanMetaData;
+import org.jboss.metadata.ejb.jboss.JBossEnterpriseBeansMetaData;
+import org.jboss.metadata.ejb.jboss.JBossMetaData;
+import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+
+/**
+ * Deployer to resolve the @Asynchronous methods of each EJB 3.x bean
+ * in the current {@link DeploymentUnit} into an {@link AsyncMethodIndex}, attached
+ * as a {@link Map} of EJB name to index under {@link AttachmentNames#ASYNC_METHOD_INDEXES}.
+ * 
+ * Beans declaring identical asynchronous signatures share a single index instance.
+ * 
+ * The pointcut expression matching only the @Asynchronous methods of each bean
+ * class is attached alongside as a {@link Map} of EJB name to expression under 
+ * {@link AttachmentNames#ASYNC_POINTCUTS}, for the container to bind the 
+ * async interceptor to in place of all methods.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class AsyncMethodIndexDeployer extends AbstractDeployer
+{
+   // ------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(AsyncMethodIndexDeployer.class);
+
+   static String KEY_OUTPUT = AsyncMethodIndexDeployer.class.getSimpleName();
+
+   // ------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   public AsyncMethodIndexDeployer()
+   {
+      this.setInput(JBossMetaData.class);
+      this.addOutput(AttachmentNames.ASYNC_METHOD_INDEXES);
+      this.addOutput(AttachmentNames.ASYNC_POINTCUTS);
+      this.addOutput(KEY_OUTPUT);
+   }
+
+   // ------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.deployers.spi.deployer.Deployer#deploy(org.jboss.deployers.structure.spi.DeploymentUnit)
+    */
+   public void deploy(final DeploymentUnit unit) throws DeploymentException
+   {
+      // Log we're here
+      if (log.isTraceEnabled())
+      {
+         log.trace("Processing: " + unit);
+      }
+
+      // If not an EJB3 deployment, take no action
+      final JBossMetaData md = unit.getAttachment(JBossMetaData.class);
+      if (md == null || !md.isEJB3x())
+      {
+         return;
+      }
+
+      // Resolve an index for each bean declaring async methods
+      final Map<String, AsyncMethodIndex> indexes = new HashMap<String, AsyncMethodIndex>();
+      final Map<AsyncMethodIndex, AsyncMethodIndex> canonical = new HashMap<AsyncMethodIndex, AsyncMethodIndex>();
+      final Map<String, String> pointcuts = new HashMap<String, String>();
+      final JBossEnterpriseBeansMetaData beans = md.getEnterpriseBeans();
+      if (beans != null)
+      {
+         for (final JBossEnterpriseBeanMetaData bean : beans)
+         {
+            // Only EJB 3.1 Session beans may declare async methods
+            if (!(bean instanceof JBossSessionBean31MetaData))
+            {
+               continue;
+            }
+            final AsyncMethodsMetaData asyncMethods = ((JBossSessionBean31MetaData) bean).getAsyncMethods();
+            if (asyncMethods == null)
+            {
+               continue;
+            }
+            final AsyncMethodIndex index = new AsyncMethodIndex(asyncMethods);
+            if (index.isEmpty())
+            {
+               continue;
+            }
+
+            // Share one index between beans with the same signatures
+            AsyncMethodIndex shared = canonical.get(index);
+            if (shared == null)
+            {
+               shared = index;
+               canonical.put(index, index);
+            }
+            indexes.put(bean.getEjbName(), shared);
+
+            // Bind to only these methods of the bean class
+            final String beanClassName = bean.getEjbClass();
+            final String pointcut = beanClassName == null ? null : AsyncPointcuts.createPointcutExpression(
+                  beanClassName, shared);
+            if (pointcut != null)
+            {
+               pointcuts.put(bean.getEjbName(), pointcut);
+            }
+            if (log.isTraceEnabled())
+            {
+               log.trace("Indexed async methods of " + bean.getEjbName() + ": " + shared + ", bound by " + pointcut);
+            }
+         }
+      }
+
+      // Attach
+      unit.addAttachment(AttachmentNames.ASYNC_METHOD_INDEXES, Collections.unmodifiableMap(indexes));
+      unit.addAttachment(AttachmentNames.ASYNC_POINTCUTS, Collections.unmodifiableMap(pointcuts));
+
+      // Mark we've been here
+      unit.addAttachment(KEY_OUTPUT, Boolean.TRUE);
+   }
+
+}
@@ -0,0 +1,306 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.deployer;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.async.impl.util.concurrent.AsyncWorkQueue;
+import org.jboss.ejb3.async.impl.util.concurrent.NamedThreadFactory;
+import org.jboss.ejb3.async.impl.util.concurrent.SaturationPolicy;
+import org.jboss.ejb3.async.spi.AsyncExecutorLookup;
+import org.jboss.ejb3.async.spi.AsyncExecutorMetaData;
+import org.jboss.ejb3.async.spi.AsyncExecutorsMetaData;
+import org.jboss.ejb3.async.spi.AsyncMethodIndex;
+import org.jboss.logging.Logger;
+
+/**
+ * {@link AsyncExecutorLookup} owning the isolated executors ("bulkheads") 
+ * of a single deployment, as described by its {@link AsyncExecutorsMetaData}.  
+ * Each bulkhead is a bounded pool rejecting invocations once its queue is full, 
+ * such that a flooded deployment, bean or method cannot starve others.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+final class BulkheadExecutorLookup implements AsyncExecutorLookup
+{
+   // ------------------------------------------------------------------------------||
+   // Class Members ----------------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(BulkheadExecutorLookup.class);
+
+   /**
+    * Time after which idle bulkhead Threads are released
+    */
+   private static final long KEEP_ALIVE_SECONDS = 60;
+
+   /**
+    * Time allowed for invocations to complete upon shutdown, across all bulkheads, 
+    * after which those still running are interrupted
+    */
+   private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+   // ------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * Executor of the deployment; either its own bulkhead or the shared executor
+    */
+   private final ExecutorService deploymentExecutor;
+
+   /**
+    * Bulkheads by EJB name
+    */
+   private final Map<String, ExecutorService> beanExecutors;
+
+   /**
+    * Bulkheads by EJB name, then method signature
+    */
+   private final Map<String, Map<String, ExecutorService>> methodExecutors;
+
+   /**
+    * All bulkheads created, and so owned, by this lookup
+    */
+   private final List<ExecutorService> created;
+
+   // ------------------------------------------------------------------------------||
+   // Constructor ------------------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * Creates the bulkheads described for the specified deployment
+    * @param deploymentName Name of the deployment, used to name Threads
+    * @param md Described executors, may be null
+    * @param sharedExecutor Executor used where no bulkhead is described
+    * @throws IllegalArgumentException If the deployment name or shared executor is not specified
+    * @throws IllegalStateException If the metadata is invalid
+    */
+   BulkheadExecutorLookup(final String deploymentName, final AsyncExecutorsMetaData md,
+         final ExecutorService sharedExecutor) throws IllegalArgumentException, IllegalStateException
+   {
+      if (deploymentName == null)
+      {
+         throw new IllegalArgumentException("Deployment name must be specified");
+      }
+      if (sharedExecutor == null)
+      {
+         throw new IllegalArgumentException("Shared " + ExecutorService.class.getSimpleName() + " must be specified");
+      }
+      final List<ExecutorService> created = new ArrayList<ExecutorService>();
+      final Map<String, ExecutorService> beanExecutors = new HashMap<String, ExecutorService>();
+      final Map<String, Map<String, ExecutorService>> methodExecutors = new HashMap<String, Map<String, ExecutorService>>();
+      ExecutorService deploymentExecutor = sharedExecutor;
+      if (md != null)
+      {
+         try
+         {
+            if (md.getDeploymentExecutor() != null)
+            {
+               deploymentExecutor = createBulkhead("EJB3 Async " + deploymentName, md.getDeploymentExecutor(),
+                     created);
+            }
+            for (final Map.Entry<String, AsyncExecutorMetaData> bean : md.getBeanExecutors().entrySet())
+            {
+               beanExecutors.put(bean.getKey(), createBulkhead("EJB3 Async " + deploymentName + " " + bean.getKey(),
+                     bean.getValue(), created));
+            }
+            for (final String ejbName : md.getBeansWithMethodExecutors())
+            {
+               final Map<String, ExecutorService> executors = new HashMap<String, ExecutorService>();
+               for (final Map.Entry<String, AsyncExecutorMetaData> method : md.getMethodExecutors(ejbName)
+                     .entrySet())
+               {
+                  executors.put(method.getKey(), createBulkhead("EJB3 Async " + deploymentName + " " + ejbName + "."
+                        + method.getKey(), method.getValue(), created));
+               }
+               methodExecutors.put(ejbName, executors);
+            }
+         }
+         catch (final IllegalStateException ise)
+         {
+            // Don't leak what was already created
+            shutdown(created);
+            throw ise;
+         }
+      }
+      this.deploymentExecutor = deploymentExecutor;
+      this.beanExecutors = beanExecutors;
+      this.methodExecutors = methodExecutors;
+      this.created = Collections.unmodifiableList(created);
+   }
+
+   // ------------------------------------------------------------------------------||
+   // Required Implementations -----------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.async.spi.AsyncExecutorLookup#getExecutor(java.lang.String, java.lang.reflect.Method)
+    */
+   @Override
+   public ExecutorService getExecutor(final String ejbName, final Method method) throws IllegalArgumentException
+   {
+      if (ejbName == null)
+      {
+         throw new IllegalArgumentException("EJB name must be specified");
+      }
+      if (method != null)
+      {
+         final Map<String, ExecutorService> executors = methodExecutors.get(ejbName);
+         if (executors != null)
+         {
+            final ExecutorService executor = executors.get(AsyncMethodIndex.getSignature(method));
+            if (executor != null)
+            {
+               return executor;
+            }
+         }
+      }
+      final ExecutorService executor = beanExecutors.get(ejbName);
+      return executor != null ? executor : deploymentExecutor;
+   }
+
+   // ------------------------------------------------------------------------------||
+   // Functional Methods -----------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * Returns the executor for the deployment as a whole
+    * @return
+    */
+   ExecutorService getDeploymentExecutor()
+   {
+      return deploymentExecutor;
+   }
+
+   /**
+    * Returns the bulkheads created by this lookup
+    * @return
+    */
+   List<ExecutorService> getCreatedExecutors()
+   {
+      return created;
+   }
+
+   /**
+    * Shuts down all bulkheads created by this lookup, waiting a bounded time for 
+    * invocations already accepted to complete; the shared executor is untouched
+    */
+   void shutdown()
+   {
+      shutdown(created);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "BulkheadExecutorLookup [deploymentExecutor=" + deploymentExecutor + ", beanExecutors="
+            + beanExecutors.keySet() + ", methodExecutors=" + methodExecutors.keySet() + "]";
+   }
+
+   // ------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   private static ExecutorService createBulkhead(final String name, final AsyncExecutorMetaData md,
+         final List<ExecutorService> created) throws IllegalStateException
+   {
+      md.validate();
+      final ThreadPoolExecutor executor = new ThreadPoolExecutor(md.getThreads(), md.getThreads(),
+            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new AsyncWorkQueue(md.getQueueCapacity()),
+            new NamedThreadFactory(name, false), SaturationPolicy.FAIL_FAST.newHandler(0, TimeUnit.MILLISECONDS));
+      executor.allowCoreThreadTimeOut(true);
+      created.add(executor);
+      if (log.isTraceEnabled())
+      {
+         log.trace("Created bulkhead \"" + name + "\": " + md);
+      }
+      return executor;
+   }
+
+   /**
+    * Shuts down the specified executors, allowing running and queued invocations 
+    * up to {@link BulkheadExecutorLookup#SHUTDOWN_TIMEOUT_SECONDS} in all to complete 
+    * before interrupting those still running and cancelling those still queued
+    */
+   private static void shutdown(final List<ExecutorService> executors)
+   {
+      for (final ExecutorService executor : executors)
+      {
+         executor.shutdown();
+      }
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_TIMEOUT_SECONDS);
+      boolean interrupted = false;
+      for (final ExecutorService executor : executors)
+      {
+         try
+         {
+            if (!interrupted && executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+            {
+               continue;
+            }
+         }
+         catch (final InterruptedException ie)
+         {
+            // Force the rest, and restore the flag when done
+            interrupted = true;
+         }
+         final List<Runnable> dropped = executor.shutdownNow();
+         log.warn("Asynchronous invocations did not complete within " + SHUTDOWN_TIMEOUT_SECONDS
+               + " seconds of shutdown of " + executor + "; interrupting those running");
+         if (!dropped.isEmpty())
+         {
+            // Don't leave callers waiting upon invocations which will never run
+            for (final Runnable r : dropped)
+            {
+               if (r instanceof Future<?>)
+               {
+                  ((Future<?>) r).cancel(false);
+               }
+            }
+            log.warn("Dropped " + dropped.size() + " queued asynchronous invocations upon shutdown of " + executor);
+         }
+      }
+      if (interrupted)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }
+}
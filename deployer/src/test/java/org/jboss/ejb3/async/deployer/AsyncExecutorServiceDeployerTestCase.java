@@ -21,6 +21,10 @@
  */
 package org.jboss.ejb3.async.deployer;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.logging.Logger;
 
@@ -30,6 +34,8 @@ import org.jboss.arquillian.api.Deployment;
 import org.jboss.arquillian.junit.Arquillian;
 import org.jboss.beans.metadata.api.annotations.Inject;
 import org.jboss.deployers.structure.spi.DeploymentUnit;
+import org.jboss.ejb3.async.impl.interceptor.AsyncPointcuts;
+import org.jboss.ejb3.async.spi.AsyncMethodIndex;
 import org.jboss.ejb3.async.spi.AttachmentNames;
 import org.jboss.reloaded.shrinkwrap.api.ShrinkWrapDeployer;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
@@ -117,4 +123,55 @@ public class AsyncExecutorServiceDeployerTestCase
       }
    }
 
+   /**
+    * Ensures that the {@link AsyncMethodIndexDeployer} attaches the async method indexes
+    * of each bean to incoming EJB3 deployments under name {@link AttachmentNames#ASYNC_METHOD_INDEXES},
+    * sharing identical indexes, along with their pointcuts under {@link AttachmentNames#ASYNC_POINTCUTS}
+    */
+   @Test
+   public void attachesAsyncMethodIndexes() throws Exception
+   {
+      // Make a new fake deployment
+      final JavaArchive archive = ShrinkWrap.create(JavaArchive.class).addClass(AsyncMethodIndexDeployer.class);
+
+      // Deploy
+      deployer.deploy(archive);
+      try
+      {
+
+         // Grab the last DU as cached from the chain
+         final DeploymentUnit du = CachingDeployer.lastDeployed;
+         Assert.assertNotNull("Last deployment was not cached/processed", du);
+
+         // See that the indexes were attached for each bean declaring async methods
+         final Map<?, ?> indexes = (Map<?, ?>) du.getAttachment(AttachmentNames.ASYNC_METHOD_INDEXES);
+         Assert.assertNotNull("Async method indexes were not attached to the incoming DU", indexes);
+         Assert.assertEquals("Beans with async methods should each be indexed", 3, indexes.size());
+         Assert.assertFalse("Bean without async methods should not be indexed", indexes
+               .containsKey(MockEjb3MetaData.EJB_NAME_SYNC));
+         final AsyncMethodIndex first = (AsyncMethodIndex) indexes.get(MockEjb3MetaData.EJB_NAME_FIRST);
+         final AsyncMethodIndex second = (AsyncMethodIndex) indexes.get(MockEjb3MetaData.EJB_NAME_SECOND);
+         final AsyncMethodIndex other = (AsyncMethodIndex) indexes.get(MockEjb3MetaData.EJB_NAME_OTHER);
+         Assert.assertEquals(new HashSet<String>(Arrays.asList("process()", "process(java.lang.String)")), first
+               .getSignatures());
+         Assert.assertEquals(Collections.singleton("process(int)"), other.getSignatures());
+
+         // Identical indexes are shared
+         Assert.assertSame("Beans with the same async methods should share an index", first, second);
+         Assert.assertNotSame(first, other);
+
+         // Pointcuts binding only the async methods of each bean class
+         final Map<?, ?> pointcuts = (Map<?, ?>) du.getAttachment(AttachmentNames.ASYNC_POINTCUTS);
+         Assert.assertNotNull("Async pointcuts were not attached to the incoming DU", pointcuts);
+         Assert.assertEquals(indexes.keySet(), pointcuts.keySet());
+         Assert.assertEquals(AsyncPointcuts.createPointcutExpression(MockEjb3MetaData.EJB_CLASS_FIRST, first),
+               pointcuts.get(MockEjb3MetaData.EJB_NAME_FIRST));
+      }
+      finally
+      {
+         // Undeploy
+         deployer.undeploy(archive);
+      }
+   }
+
 }
@@ -0,0 +1,177 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.deployer;
+
+import java.lang.reflect.Method;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.jboss.ejb3.async.spi.AsyncExecutorsMetaData;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Ensures that executors described by a deployment are parsed, 
+ * resolved by bean and method, and shut down independently
+ * of the shared executor
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class BulkheadExecutorLookupTestCase
+{
+
+   // ------------------------------------------------------------------------------||
+   // Instance Members -------------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * Executor shared by all deployments
+    */
+   private final ExecutorService shared = Executors.newSingleThreadExecutor();
+
+   @After
+   public void shutdownShared()
+   {
+      shared.shutdownNow();
+   }
+
+   // ------------------------------------------------------------------------------||
+   // Tests ------------------------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that the most specific described executor is resolved
+    */
+   @Test
+   public void mostSpecificExecutorIsResolved() throws Exception
+   {
+      final Properties props = new Properties();
+      props.setProperty("threads", "2");
+      props.setProperty("bean.Flooded.threads", "1");
+      props.setProperty("bean.Flooded.queueCapacity", "5");
+      props.setProperty("method.Flooded.work(java.lang.String).threads", "1");
+      final AsyncExecutorsMetaData md = AsyncExecutorsMetaDataParser.parse(props);
+      Assert.assertEquals(5, md.getBeanExecutors().get("Flooded").getQueueCapacity());
+
+      final BulkheadExecutorLookup lookup = new BulkheadExecutorLookup("test.jar", md, shared);
+      try
+      {
+         final Method work = Target.class.getMethod("work", String.class);
+         final Method other = Target.class.getMethod("other");
+         final ExecutorService deployment = lookup.getDeploymentExecutor();
+         final ExecutorService bean = lookup.getExecutor("Flooded", other);
+         final ExecutorService method = lookup.getExecutor("Flooded", work);
+
+         Assert.assertNotSame("Deployment should have its own executor", shared, deployment);
+         Assert.assertNotSame("Bean should have its own executor", deployment, bean);
+         Assert.assertNotSame("Method should have its own executor", bean, method);
+         Assert.assertSame("Unconfigured bean should use the deployment executor", deployment, lookup.getExecutor(
+               "Other", work));
+         Assert.assertEquals("Expected three executors created", 3, lookup.getCreatedExecutors().size());
+      }
+      finally
+      {
+         lookup.shutdown();
+      }
+      for (final ExecutorService created : lookup.getCreatedExecutors())
+      {
+         Assert.assertTrue("Created executor should have been shut down", created.isShutdown());
+      }
+      Assert.assertFalse("Shared executor should not have been shut down", shared.isShutdown());
+   }
+
+   /**
+    * Ensures that deployments describing no executors use the shared executor
+    */
+   @Test
+   public void sharedExecutorIsDefault() throws Exception
+   {
+      final BulkheadExecutorLookup lookup = new BulkheadExecutorLookup("test.jar", null, shared);
+      Assert.assertSame(shared, lookup.getDeploymentExecutor());
+      Assert.assertSame(shared, lookup.getExecutor("Any", Target.class.getMethod("other")));
+      Assert.assertTrue(lookup.getCreatedExecutors().isEmpty());
+   }
+
+   /**
+    * Ensures that invocations already accepted complete upon shutdown, 
+    * rather than being interrupted
+    */
+   @Test
+   public void shutdownAllowsInvocationsToComplete() throws Exception
+   {
+      final Properties props = new Properties();
+      props.setProperty("threads", "1");
+      final BulkheadExecutorLookup lookup = new BulkheadExecutorLookup("test.jar", AsyncExecutorsMetaDataParser
+            .parse(props), shared);
+      final CountDownLatch started = new CountDownLatch(1);
+      final Callable<Boolean> sleeper = new Callable<Boolean>()
+      {
+         public Boolean call() throws Exception
+         {
+            started.countDown();
+            Thread.sleep(200);
+            return Boolean.TRUE;
+         }
+      };
+      final Future<Boolean> running = lookup.getDeploymentExecutor().submit(sleeper);
+      final Future<Boolean> queued = lookup.getDeploymentExecutor().submit(sleeper);
+      Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+      lookup.shutdown();
+      Assert.assertTrue("Running invocation should not have been interrupted", running.get(0, TimeUnit.SECONDS));
+      Assert.assertTrue("Queued invocation should have been run", queued.get(0, TimeUnit.SECONDS));
+      Assert.assertTrue(lookup.getDeploymentExecutor().isTerminated());
+   }
+
+   /**
+    * Ensures that unknown keys are refused
+    */
+   @Test(expected = IllegalArgumentException.class)
+   public void unknownKeyIsRefused()
+   {
+      final Properties props = new Properties();
+      props.setProperty("bean.Flooded.priority", "1");
+      AsyncExecutorsMetaDataParser.parse(props);
+   }
+
+   // ------------------------------------------------------------------------------||
+   // Inner Classes ----------------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   public static class Target
+   {
+      public void work(final String arg)
+      {
+      }
+
+      public void other()
+      {
+      }
+   }
+}
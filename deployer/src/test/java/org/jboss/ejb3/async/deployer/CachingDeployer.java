@@ -42,6 +42,7 @@ public class CachingDeployer extends AbstractDeployer
    public CachingDeployer()
    {
       this.addInput(AsyncExecutorServiceDeployer.KEY_OUTPUT);
+      this.addInput(AsyncMethodIndexDeployer.KEY_OUTPUT);
    }
 
    // ------------------------------------------------------------------------------||
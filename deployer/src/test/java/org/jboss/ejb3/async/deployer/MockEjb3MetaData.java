@@ -21,10 +21,17 @@
  */
 package org.jboss.ejb3.async.deployer;
 
+import org.jboss.metadata.ejb.jboss.JBossEnterpriseBeansMetaData;
 import org.jboss.metadata.ejb.jboss.JBossMetaData;
+import org.jboss.metadata.ejb.jboss.JBossSessionBean31MetaData;
+import org.jboss.metadata.ejb.spec.AsyncMethodMetaData;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.jboss.metadata.ejb.spec.MethodParametersMetaData;
 
 /**
- * {@link JBossMetaData} implementation always reporting as EJB3
+ * {@link JBossMetaData} implementation always reporting as EJB3, declaring
+ * EJB 3.1 session beans: two with the same @Asynchronous methods, one with 
+ * others, and one with none
  * 
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  * @version $Revision: $
@@ -37,6 +44,39 @@ public class MockEjb3MetaData extends JBossMetaData
     */
    private static final long serialVersionUID = 1L;
 
+   /*
+    * Names of the beans declared
+    */
+
+   static final String EJB_NAME_FIRST = "FirstAsyncBean";
+
+   static final String EJB_NAME_SECOND = "SecondAsyncBean";
+
+   static final String EJB_NAME_OTHER = "OtherAsyncBean";
+
+   static final String EJB_NAME_SYNC = "SyncBean";
+
+   /**
+    * Bean class of {@link #EJB_NAME_FIRST}
+    */
+   static final String EJB_CLASS_FIRST = "org.jboss.ejb3.async.deployer.mock.FirstAsyncBean";
+
+   /**
+    * Creates the metadata and its beans
+    */
+   public MockEjb3MetaData()
+   {
+      final JBossEnterpriseBeansMetaData beans = new JBossEnterpriseBeansMetaData();
+      beans.add(sessionBean(EJB_NAME_FIRST, EJB_CLASS_FIRST, asyncMethods(method("process", "java.lang.String"),
+            method("process"))));
+      beans.add(sessionBean(EJB_NAME_SECOND, "org.jboss.ejb3.async.deployer.mock.SecondAsyncBean", asyncMethods(
+            method("process"), method("process", "java.lang.String"))));
+      beans.add(sessionBean(EJB_NAME_OTHER, "org.jboss.ejb3.async.deployer.mock.OtherAsyncBean", asyncMethods(method(
+            "process", "int"))));
+      beans.add(sessionBean(EJB_NAME_SYNC, "org.jboss.ejb3.async.deployer.mock.SyncBean", null));
+      this.setEnterpriseBeans(beans);
+   }
+
    /**
     * Always reports as EJB3.x
     * @see org.jboss.metadata.ejb.jboss.JBossMetaData#isEJB3x()
@@ -47,4 +87,41 @@ public class MockEjb3MetaData extends JBossMetaData
       return true;
    }
 
+   // ------------------------------------------------------------------------------||
+   // Internal Helper Methods ------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   private static JBossSessionBean31MetaData sessionBean(final String ejbName, final String ejbClass,
+         final AsyncMethodsMetaData asyncMethods)
+   {
+      final JBossSessionBean31MetaData bean = new JBossSessionBean31MetaData();
+      bean.setEjbName(ejbName);
+      bean.setEjbClass(ejbClass);
+      bean.setAsyncMethods(asyncMethods);
+      return bean;
+   }
+
+   private static AsyncMethodsMetaData asyncMethods(final AsyncMethodMetaData... methods)
+   {
+      final AsyncMethodsMetaData asyncMethods = new AsyncMethodsMetaData();
+      for (final AsyncMethodMetaData method : methods)
+      {
+         asyncMethods.add(method);
+      }
+      return asyncMethods;
+   }
+
+   private static AsyncMethodMetaData method(final String name, final String... paramTypes)
+   {
+      final AsyncMethodMetaData method = new AsyncMethodMetaData();
+      method.setMethodName(name);
+      final MethodParametersMetaData params = new MethodParametersMetaData();
+      for (final String paramType : paramTypes)
+      {
+         params.add(paramType);
+      }
+      method.setMethodParams(params);
+      return method;
+   }
+
 }
@@ -0,0 +1,200 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl;
+
+import java.io.Serializable;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+
+/**
+ * Implementation of {@link AsyncInvocationId} composed of a node 
+ * prefix, randomly chosen once per JVM, and a sequence unique within the node.
+ * 
+ * Sequences are allocated to each Thread in blocks from a shared counter, 
+ * such that creating an ID is usually a Thread-local increment, with 
+ * no contention between Threads and no use of a {@link java.security.SecureRandom}
+ * per invocation (as with {@link AsyncInvocationIdUUIDImpl}).
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class AsyncInvocationIdSequenceImpl implements AsyncInvocationId, Serializable
+{
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * serialVersionUID
+    */
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * Number of sequences allocated to a Thread at once
+    */
+   static final int BLOCK_SIZE = 1024;
+
+   /**
+    * Prefix of all IDs created in this JVM
+    */
+   private static final long NODE = UUID.randomUUID().getMostSignificantBits();
+
+   /**
+    * Start of the next block to be allocated
+    */
+   private static final AtomicLong NEXT_BLOCK = new AtomicLong();
+
+   /**
+    * Block allocated to the current Thread, as {next sequence, end of block}
+    */
+   private static final ThreadLocal<long[]> BLOCK = new ThreadLocal<long[]>()
+   {
+      @Override
+      protected long[] initialValue()
+      {
+         return new long[2];
+      }
+   };
+
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Node upon which this ID was created
+    */
+   private final long node;
+
+   /**
+    * Sequence within the node
+    */
+   private final long sequence;
+
+   // --------------------------------------------------------------------------------||
+   // Constructor --------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new, unique ID
+    */
+   public AsyncInvocationIdSequenceImpl()
+   {
+      this(NODE, nextSequence());
+   }
+
+   /**
+    * Creates an ID of the specified components
+    * @param node
+    * @param sequence
+    */
+   public AsyncInvocationIdSequenceImpl(final long node, final long sequence)
+   {
+      this.node = node;
+      this.sequence = sequence;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Functional Methods -------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Returns the node upon which this ID was created
+    * @return
+    */
+   public long getNode()
+   {
+      return node;
+   }
+
+   /**
+    * Returns the sequence of this ID within its node
+    * @return
+    */
+   public long getSequence()
+   {
+      return sequence;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Overridden Implementations -----------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#hashCode()
+    */
+   @Override
+   public int hashCode()
+   {
+      // Sequences are dense, so these low bits vary most
+      return 31 * (int) (sequence ^ (sequence >>> 32)) + (int) (node ^ (node >>> 32));
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#equals(java.lang.Object)
+    */
+   @Override
+   public boolean equals(final Object obj)
+   {
+      if (this == obj)
+      {
+         return true;
+      }
+      if (!(obj instanceof AsyncInvocationIdSequenceImpl))
+      {
+         return false;
+      }
+      final AsyncInvocationIdSequenceImpl other = (AsyncInvocationIdSequenceImpl) obj;
+      return sequence == other.sequence && node == other.node;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "AsyncInvocationIdSequenceImpl [node=" + Long.toHexString(node) + ", sequence=" + sequence + "]";
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the next sequence from the current Thread's block, 
+    * allocating a new block when exhausted
+    */
+   private static long nextSequence()
+   {
+      final long[] block = BLOCK.get();
+      if (block[0] == block[1])
+      {
+         block[0] = NEXT_BLOCK.getAndAdd(BLOCK_SIZE);
+         block[1] = block[0] + BLOCK_SIZE;
+      }
+      return block[0]++;
+   }
+}
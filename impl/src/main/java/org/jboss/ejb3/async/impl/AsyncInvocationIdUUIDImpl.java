@@ -28,7 +28,8 @@ import org.jboss.ejb3.async.spi.AsyncInvocationId;
 
 /**
  * Implementation of {@link AsyncInvocationId} backed by a 
- * {@link UUID}
+ * {@link UUID}.  Each creation draws upon a shared {@link java.security.SecureRandom};
+ * {@link AsyncInvocationIdSequenceImpl} is preferred where IDs are created at high rates.
  * 
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  */
@@ -68,7 +69,15 @@ public class AsyncInvocationIdUUIDImpl implements AsyncInvocationId, Serializabl
    @Override
    public boolean equals(final Object obj)
    {
-      return uuid.equals(obj);
+      if (this == obj)
+      {
+         return true;
+      }
+      if (!(obj instanceof AsyncInvocationIdUUIDImpl))
+      {
+         return false;
+      }
+      return uuid.equals(((AsyncInvocationIdUUIDImpl) obj).uuid);
    }
 
    /**
@@ -30,7 +30,8 @@ import org.jboss.ejb3.async.spi.AsyncInvocationMap;
 /**
  * Implementation of a {@link ConcurrentMap} to track
  * Asynchronous invocations currently in play, and whether they've
- * been cancelled or not
+ * been cancelled or not.  Entries are held until removed;
+ * {@link StripedAsyncInvocationMap} additionally expires orphans.
  * 
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  */
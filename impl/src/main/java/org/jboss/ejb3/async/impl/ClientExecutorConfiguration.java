@@ -0,0 +1,385 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl;
+
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.async.impl.util.concurrent.ExecutionMode;
+import org.jboss.ejb3.async.impl.util.concurrent.SaturationPolicy;
+import org.jboss.logging.Logger;
+
+/**
+ * Configuration of the {@link ClientExecutorService} used to carry out
+ * asynchronous invocations on behalf of clients.  Defaults may be overridden
+ * by system properties prefixed with {@link ClientExecutorConfiguration#PROPERTY_PREFIX}
+ * (ie. "org.jboss.ejb3.async.client.maxThreads"), see {@link ClientExecutorConfiguration#fromSystemProperties()}.
+ * 
+ * By default, as a cached thread pool, a Thread is created for each invocation finding
+ * none idle, and none is queued, so invocations are never refused.  Bounding the 
+ * Threads (ie. "maxThreads" of 64 and "queueCapacity" of 1024) opts into saturation; 
+ * invocations are then carried out by the caller once saturated, unless a
+ * {@link SaturationPolicy} of {@link SaturationPolicy#FAIL_FAST} or 
+ * {@link SaturationPolicy#BLOCK} is chosen.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class ClientExecutorConfiguration
+{
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(ClientExecutorConfiguration.class);
+
+   /**
+    * Prefix of all system properties read by {@link ClientExecutorConfiguration#fromSystemProperties()}
+    */
+   public static final String PROPERTY_PREFIX = "org.jboss.ejb3.async.client.";
+
+   /*
+    * Defaults
+    */
+
+   public static final int DEFAULT_CORE_THREADS = 0;
+
+   public static final int DEFAULT_MAX_THREADS = Integer.MAX_VALUE;
+
+   public static final int DEFAULT_QUEUE_CAPACITY = 0;
+
+   public static final long DEFAULT_KEEP_ALIVE_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+   public static final String DEFAULT_THREAD_NAME_PREFIX = "EJB3 Async Client";
+
+   public static final SaturationPolicy DEFAULT_SATURATION_POLICY = SaturationPolicy.CALLER_RUNS;
+
+   public static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+   public static final ExecutionMode DEFAULT_EXECUTION_MODE = ExecutionMode.PLATFORM;
+
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Number of Threads kept while idle for less than the keep-alive time
+    */
+   private int coreThreads = DEFAULT_CORE_THREADS;
+
+   /**
+    * Maximum number of Threads
+    */
+   private int maxThreads = DEFAULT_MAX_THREADS;
+
+   /**
+    * Number of invocations which may wait for a Thread; if 0, each is handed
+    * directly to a Thread (see {@link SynchronousQueue})
+    */
+   private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+   /**
+    * Time after which idle Threads are released
+    */
+   private long keepAliveMillis = DEFAULT_KEEP_ALIVE_MILLIS;
+
+   /**
+    * Whether Threads are daemons
+    */
+   private boolean daemon;
+
+   /**
+    * Prefix of all Thread names
+    */
+   private String threadNamePrefix = DEFAULT_THREAD_NAME_PREFIX;
+
+   /**
+    * Action taken when all Threads are busy and the queue is full
+    */
+   private SaturationPolicy saturationPolicy = DEFAULT_SATURATION_POLICY;
+
+   /**
+    * Time to wait for capacity under {@link SaturationPolicy#BLOCK}
+    */
+   private long blockTimeoutMillis = DEFAULT_BLOCK_TIMEOUT_MILLIS;
+
+   /**
+    * Kind of Threads used; under {@link ExecutionMode#VIRTUAL} the thread counts, 
+    * queue capacity, keep-alive, daemon and saturation settings do not apply
+    */
+   private ExecutionMode executionMode = DEFAULT_EXECUTION_MODE;
+
+   // --------------------------------------------------------------------------------||
+   // Factory ------------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Creates a configuration from the defaults, overridden by any of the following 
+    * system properties prefixed with {@link ClientExecutorConfiguration#PROPERTY_PREFIX}:
+    * "coreThreads", "maxThreads", "queueCapacity", "keepAliveMillis", "daemon", 
+    * "threadNamePrefix", "saturationPolicy" (name of a {@link SaturationPolicy}, 
+    * case-insensitive), "blockTimeoutMillis", "executionMode" (name of an 
+    * {@link ExecutionMode}, case-insensitive).  Invalid or out-of-range values are 
+    * logged and ignored in favor of the defaults, and core threads are lowered to 
+    * max threads if greater, so the returned configuration is always valid.
+    * 
+    * @return
+    */
+   public static ClientExecutorConfiguration fromSystemProperties()
+   {
+      final ClientExecutorConfiguration config = new ClientExecutorConfiguration();
+      config.setCoreThreads(getInt("coreThreads", config.getCoreThreads(), 0));
+      config.setMaxThreads(getInt("maxThreads", config.getMaxThreads(), 1));
+      if (config.getCoreThreads() > config.getMaxThreads())
+      {
+         log.warn("Lowering " + PROPERTY_PREFIX + "coreThreads (" + config.getCoreThreads() + ") to "
+               + PROPERTY_PREFIX + "maxThreads: " + config.getMaxThreads());
+         config.setCoreThreads(config.getMaxThreads());
+      }
+      config.setQueueCapacity(getInt("queueCapacity", config.getQueueCapacity(), 0));
+      config.setKeepAliveMillis(getLong("keepAliveMillis", config.getKeepAliveMillis(), 0));
+      config.setDaemon(Boolean.valueOf(getString("daemon", String.valueOf(config.isDaemon()))).booleanValue());
+      config.setThreadNamePrefix(getString("threadNamePrefix", config.getThreadNamePrefix()));
+      config.setSaturationPolicy(getEnum("saturationPolicy", config.getSaturationPolicy()));
+      config.setBlockTimeoutMillis(getLong("blockTimeoutMillis", config.getBlockTimeoutMillis(), 0));
+      config.setExecutionMode(getEnum("executionMode", config.getExecutionMode()));
+      return config;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Functional Methods -------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Ensures this configuration is consistent
+    * @throws IllegalStateException If not
+    */
+   public void validate() throws IllegalStateException
+   {
+      if (coreThreads < 0)
+      {
+         throw new IllegalStateException("Core threads must not be negative: " + coreThreads);
+      }
+      if (maxThreads <= 0 || maxThreads < coreThreads)
+      {
+         throw new IllegalStateException("Max threads must be positive and at least core threads (" + coreThreads
+               + "): " + maxThreads);
+      }
+      if (queueCapacity < 0)
+      {
+         throw new IllegalStateException("Queue capacity must not be negative: " + queueCapacity);
+      }
+      if (keepAliveMillis < 0)
+      {
+         throw new IllegalStateException("Keep-alive must not be negative: " + keepAliveMillis);
+      }
+      if (threadNamePrefix == null)
+      {
+         throw new IllegalStateException("Thread name prefix must be specified");
+      }
+      if (saturationPolicy == null)
+      {
+         throw new IllegalStateException(SaturationPolicy.class.getSimpleName() + " must be specified");
+      }
+      if (blockTimeoutMillis < 0)
+      {
+         throw new IllegalStateException("Block timeout must not be negative: " + blockTimeoutMillis);
+      }
+      if (executionMode == null)
+      {
+         throw new IllegalStateException(ExecutionMode.class.getSimpleName() + " must be specified");
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "ClientExecutorConfiguration [coreThreads=" + coreThreads + ", maxThreads=" + maxThreads
+            + ", queueCapacity=" + queueCapacity + ", keepAliveMillis=" + keepAliveMillis + ", daemon=" + daemon
+            + ", threadNamePrefix=" + threadNamePrefix + ", saturationPolicy=" + saturationPolicy
+            + ", blockTimeoutMillis=" + blockTimeoutMillis + ", executionMode=" + executionMode + "]";
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Accessors / Mutators -----------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   public int getCoreThreads()
+   {
+      return coreThreads;
+   }
+
+   public void setCoreThreads(final int coreThreads)
+   {
+      this.coreThreads = coreThreads;
+   }
+
+   public int getMaxThreads()
+   {
+      return maxThreads;
+   }
+
+   public void setMaxThreads(final int maxThreads)
+   {
+      this.maxThreads = maxThreads;
+   }
+
+   public int getQueueCapacity()
+   {
+      return queueCapacity;
+   }
+
+   public void setQueueCapacity(final int queueCapacity)
+   {
+      this.queueCapacity = queueCapacity;
+   }
+
+   public long getKeepAliveMillis()
+   {
+      return keepAliveMillis;
+   }
+
+   public void setKeepAliveMillis(final long keepAliveMillis)
+   {
+      this.keepAliveMillis = keepAliveMillis;
+   }
+
+   public boolean isDaemon()
+   {
+      return daemon;
+   }
+
+   public void setDaemon(final boolean daemon)
+   {
+      this.daemon = daemon;
+   }
+
+   public String getThreadNamePrefix()
+   {
+      return threadNamePrefix;
+   }
+
+   public void setThreadNamePrefix(final String threadNamePrefix)
+   {
+      this.threadNamePrefix = threadNamePrefix;
+   }
+
+   public SaturationPolicy getSaturationPolicy()
+   {
+      return saturationPolicy;
+   }
+
+   public void setSaturationPolicy(final SaturationPolicy saturationPolicy)
+   {
+      this.saturationPolicy = saturationPolicy;
+   }
+
+   public long getBlockTimeoutMillis()
+   {
+      return blockTimeoutMillis;
+   }
+
+   public void setBlockTimeoutMillis(final long blockTimeoutMillis)
+   {
+      this.blockTimeoutMillis = blockTimeoutMillis;
+   }
+
+   public ExecutionMode getExecutionMode()
+   {
+      return executionMode;
+   }
+
+   public void setExecutionMode(final ExecutionMode executionMode)
+   {
+      this.executionMode = executionMode;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private static String getString(final String name, final String defaultValue)
+   {
+      return SecurityActions.getSystemProperty(PROPERTY_PREFIX + name, defaultValue);
+   }
+
+   private static int getInt(final String name, final int defaultValue, final int minValue)
+   {
+      final long value = getLong(name, defaultValue, minValue);
+      if (value > Integer.MAX_VALUE)
+      {
+         log.warn("Ignoring out-of-range value of " + PROPERTY_PREFIX + name + ": " + value);
+         return defaultValue;
+      }
+      return (int) value;
+   }
+
+   private static long getLong(final String name, final long defaultValue, final long minValue)
+   {
+      final String value = getString(name, null);
+      if (value == null)
+      {
+         return defaultValue;
+      }
+      final long parsed;
+      try
+      {
+         parsed = Long.parseLong(value.trim());
+      }
+      catch (final NumberFormatException nfe)
+      {
+         log.warn("Ignoring invalid value of " + PROPERTY_PREFIX + name + ": " + value);
+         return defaultValue;
+      }
+      if (parsed < minValue)
+      {
+         log.warn("Ignoring out-of-range value of " + PROPERTY_PREFIX + name + " (must be at least " + minValue
+               + "): " + value);
+         return defaultValue;
+      }
+      return parsed;
+   }
+
+   private static <E extends Enum<E>> E getEnum(final String name, final E defaultValue)
+   {
+      final String value = getString(name, null);
+      if (value == null)
+      {
+         return defaultValue;
+      }
+      for (final E candidate : defaultValue.getDeclaringClass().getEnumConstants())
+      {
+         if (candidate.name().equalsIgnoreCase(value.trim()))
+         {
+            return candidate;
+         }
+      }
+      log.warn("Ignoring invalid value of " + PROPERTY_PREFIX + name + ": " + value);
+      return defaultValue;
+   }
+}
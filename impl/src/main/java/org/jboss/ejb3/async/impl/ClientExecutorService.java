@@ -26,12 +26,19 @@ import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import org.jboss.ejb3.async.impl.util.concurrent.AsyncExecutors;
+import org.jboss.ejb3.async.impl.util.concurrent.AsyncWorkQueue;
+import org.jboss.ejb3.async.impl.util.concurrent.ExecutionMode;
+import org.jboss.ejb3.async.impl.util.concurrent.NamedThreadFactory;
 import org.jboss.ejb3.async.spi.AsyncInvocation;
+import org.jboss.logging.Logger;
 
 /**
  * Static singleton access to a default {@link ExecutorService} implementation
@@ -48,10 +55,128 @@ public enum ClientExecutorService implements ExecutorService {
    // --------------------------------------------------------------------------------||
 
    /**
-    * Singleton instance, uses a backing thread pool AS, fronted by an ES impl to unwrap 
-    * the return value
+    * Singleton instance, uses a backing thread pool (by default unbounded), fronted by an ES 
+    * impl to unwrap the return value.  Initially configured from {@link ClientExecutorConfiguration#fromSystemProperties()}.
     */
-   private final ExecutorService delegate = Executors.newCachedThreadPool();
+   private volatile ExecutorService delegate = createInitialExecutor();
+
+   // --------------------------------------------------------------------------------||
+   // Functional Methods -------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Replaces the backing thread pool with one created from the specified configuration.  
+    * Invocations already accepted by the previous pool are allowed to complete.
+    * 
+    * @param configuration
+    * @throws IllegalArgumentException If the configuration is not specified
+    * @throws IllegalStateException If the configuration is invalid
+    */
+   public void configure(final ClientExecutorConfiguration configuration) throws IllegalArgumentException,
+         IllegalStateException
+   {
+      if (configuration == null)
+      {
+         throw new IllegalArgumentException(ClientExecutorConfiguration.class.getSimpleName() + " must be specified");
+      }
+      final ExecutorService previous;
+      synchronized (this)
+      {
+         previous = delegate;
+         delegate = createExecutor(configuration);
+      }
+      previous.shutdown();
+   }
+
+   /**
+    * Removes the specified task from the queue of the backing thread pool, 
+    * if still queued; see {@link ThreadPoolExecutor#remove(Runnable)}
+    * @param task
+    * @return Whether the task was removed
+    */
+   public boolean remove(final Runnable task)
+   {
+      final ExecutorService current = delegate;
+      return current instanceof ThreadPoolExecutor && ((ThreadPoolExecutor) current).remove(task);
+   }
+
+   /**
+    * Returns the number of invocations waiting for a Thread; always 0 
+    * under {@link ExecutionMode#VIRTUAL}
+    * @return
+    */
+   public int getQueueSize()
+   {
+      final ExecutorService current = delegate;
+      return current instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) current).getQueue().size() : 0;
+   }
+
+   /**
+    * Returns the number of pooled Threads actively carrying out invocations, 
+    * or -1 if unknown (under {@link ExecutionMode#VIRTUAL})
+    * @return
+    */
+   public int getActiveCount()
+   {
+      final ExecutorService current = delegate;
+      return current instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) current).getActiveCount() : -1;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Creates the initial backing thread pool.  Runs during class initialization, so
+    * must not throw: a failure here would leave this class, and so every asynchronous
+    * invocation in the VM, unusable.  Falls back upon the defaults if the configuration
+    * from system properties cannot be applied.
+    */
+   private static ExecutorService createInitialExecutor()
+   {
+      try
+      {
+         return createExecutor(ClientExecutorConfiguration.fromSystemProperties());
+      }
+      catch (final RuntimeException re)
+      {
+         // Not a static member; enum constants are created before static fields are initialized
+         Logger.getLogger(ClientExecutorService.class).warn(
+               "Could not configure the client executor from system properties; using the defaults", re);
+         return createExecutor(new ClientExecutorConfiguration());
+      }
+   }
+
+   private static ExecutorService createExecutor(final ClientExecutorConfiguration configuration)
+         throws IllegalStateException
+   {
+      configuration.validate();
+      if (configuration.getExecutionMode() == ExecutionMode.VIRTUAL)
+      {
+         if (AsyncExecutors.isVirtualThreadSupported())
+         {
+            return AsyncExecutors.newVirtualThreadPerTaskExecutor(configuration.getThreadNamePrefix());
+         }
+         // Not a static member; enum constants are created before static fields are initialized
+         Logger.getLogger(ClientExecutorService.class).warn(
+               "Virtual threads are not supported by this runtime; using a pool of platform threads");
+      }
+      // No queue by default, as a cached thread pool
+      final BlockingQueue<Runnable> queue = configuration.getQueueCapacity() == 0
+            ? new SynchronousQueue<Runnable>()
+            : new AsyncWorkQueue(configuration.getQueueCapacity());
+      final ThreadPoolExecutor executor = new ThreadPoolExecutor(configuration.getCoreThreads(), configuration
+            .getMaxThreads(), configuration.getKeepAliveMillis(), TimeUnit.MILLISECONDS, queue,
+            new NamedThreadFactory(configuration
+                  .getThreadNamePrefix(), configuration.isDaemon()), configuration.getSaturationPolicy().newHandler(
+                  configuration.getBlockTimeoutMillis(), TimeUnit.MILLISECONDS));
+      // Idle core Threads are released as well, so an unused client holds no Threads
+      if (configuration.getKeepAliveMillis() > 0)
+      {
+         executor.allowCoreThreadTimeOut(true);
+      }
+      return executor;
+   }
 
    // --------------------------------------------------------------------------------||
    // Delegate Methods ---------------------------------------------------------------||
@@ -1,6 +1,6 @@
 /*
  * JBoss, Home of Professional Open Source.
- * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
  * as indicated by the @author tags. See the copyright.txt file in the
  * distribution for a full listing of individual contributors.
   *
@@ -19,14 +19,11 @@
  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
  */
-package org.jboss.ejb3.async.impl.interceptor;
+package org.jboss.ejb3.async.impl;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 
-import org.jboss.security.SecurityContext;
-import org.jboss.security.SecurityContextAssociation;
-
 /**
  * SecurityActions
  * 
@@ -37,42 +34,14 @@ import org.jboss.security.SecurityContextAssociation;
  */
 class SecurityActions
 {
-   static SecurityContext getSecurityContext()
-   {
-      return AccessController.doPrivileged(new PrivilegedAction<SecurityContext>()
-      {
-         public SecurityContext run()
-         {
-            return SecurityContextAssociation.getSecurityContext();
-         }
-      });
-   }
-
-   static void setSecurityContext(final SecurityContext sc)
+   static String getSystemProperty(final String name, final String defaultValue)
    {
-      AccessController.doPrivileged(new PrivilegedAction<Void>()
+      return AccessController.doPrivileged(new PrivilegedAction<String>()
       {
-         public Void run()
+         public String run()
          {
-            SecurityContextAssociation.setSecurityContext(sc);
-            return null;
+            return System.getProperty(name, defaultValue);
          }
       });
    }
-   
-   private static enum GetTcclAction implements PrivilegedAction<ClassLoader> {
-      INSTANCE;
-
-      @Override
-      public ClassLoader run()
-      {
-         return Thread.currentThread().getContextClassLoader();
-      };
-
-   }
-
-   static ClassLoader getTccl()
-   {
-      return AccessController.doPrivileged(GetTcclAction.INSTANCE);
-   }
 }
@@ -0,0 +1,746 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.jboss.ejb3.async.spi.AsyncInvocationMap;
+import org.jboss.logging.Logger;
+
+/**
+ * {@link AsyncInvocationMap} tracking invocations by the primitive components 
+ * of {@link AsyncInvocationIdSequenceImpl}, without retaining the ID objects
+ * themselves.  Entries are spread over independently-locked stripes, each an 
+ * open-addressed table of <code>long</code> keys, to reduce contention.
+ * 
+ * Containers are to remove an entry once its invocation completes; entries 
+ * never removed (ie. the invocation was lost or the container failed to clean up)
+ * are expired once older than the orphan timeout, by a timer wheel advanced 
+ * as each stripe is used, or by {@link StripedAsyncInvocationMap#expireOrphans()}.
+ * 
+ * IDs of other types are held in a {@link ConcurrentHashMap}, without expiry.
+ * Views ({@link Map#entrySet()}, {@link Map#keySet()}, {@link Map#values()}) 
+ * are snapshots.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class StripedAsyncInvocationMap extends AbstractMap<AsyncInvocationId, Boolean>
+      implements
+         AsyncInvocationMap
+{
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(StripedAsyncInvocationMap.class);
+
+   public static final int DEFAULT_STRIPES = 16;
+
+   public static final long DEFAULT_ORPHAN_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+   /**
+    * Number of buckets in each timer wheel; the orphan timeout spans all but one
+    */
+   static final int WHEEL_SIZE = 64;
+
+   /*
+    * Slot states
+    */
+
+   private static final byte EMPTY = 0;
+
+   private static final byte ACTIVE = 1;
+
+   private static final byte CANCELLED = 2;
+
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Stripes, of a power of two in number
+    */
+   private final Stripe[] stripes;
+
+   /**
+    * Duration of a timer wheel tick
+    */
+   private final long tickNanos;
+
+   /**
+    * Time from which ticks are counted
+    */
+   private final long startNanos;
+
+   /**
+    * Entries for IDs which are not {@link AsyncInvocationIdSequenceImpl}
+    */
+   private final ConcurrentMap<AsyncInvocationId, Boolean> foreign = new ConcurrentHashMap<AsyncInvocationId, Boolean>();
+
+   /**
+    * Number of orphans expired
+    */
+   private final AtomicLong evictions = new AtomicLong();
+
+   // --------------------------------------------------------------------------------||
+   // Constructors -------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new map with {@link StripedAsyncInvocationMap#DEFAULT_STRIPES} stripes
+    * expiring orphans after {@link StripedAsyncInvocationMap#DEFAULT_ORPHAN_TIMEOUT_MILLIS}
+    */
+   public StripedAsyncInvocationMap()
+   {
+      this(DEFAULT_STRIPES, DEFAULT_ORPHAN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Creates a new map
+    * @param stripes Number of stripes, rounded up to a power of two
+    * @param orphanTimeout Age after which entries not removed are expired
+    * @param unit Unit of the orphan timeout
+    * @throws IllegalArgumentException If the number of stripes or timeout is not positive,
+    *   or the unit is not specified
+    */
+   public StripedAsyncInvocationMap(final int stripes, final long orphanTimeout, final TimeUnit unit)
+         throws IllegalArgumentException
+   {
+      if (stripes <= 0)
+      {
+         throw new IllegalArgumentException("Stripes must be positive: " + stripes);
+      }
+      if (orphanTimeout <= 0)
+      {
+         throw new IllegalArgumentException("Orphan timeout must be positive: " + orphanTimeout);
+      }
+      if (unit == null)
+      {
+         throw new IllegalArgumentException("Timeout unit must be specified");
+      }
+      int size = 1;
+      while (size < stripes)
+      {
+         size <<= 1;
+      }
+      this.stripes = new Stripe[size];
+      for (int i = 0; i < size; i++)
+      {
+         this.stripes[i] = new Stripe();
+      }
+      final long timeoutNanos = unit.toNanos(orphanTimeout);
+      this.tickNanos = Math.max(1, (timeoutNanos + WHEEL_SIZE - 2) / (WHEEL_SIZE - 1));
+      this.startNanos = this.currentTimeNanos();
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Functional Methods -------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Expires orphaned entries in all stripes; entries are otherwise
+    * expired only as their stripe is used
+    */
+   public void expireOrphans()
+   {
+      final long now = this.currentTick();
+      for (final Stripe stripe : stripes)
+      {
+         synchronized (stripe)
+         {
+            stripe.expire(now);
+         }
+      }
+   }
+
+   /**
+    * Returns the number of orphaned entries expired
+    * @return
+    */
+   public long getEvictionCount()
+   {
+      return evictions.get();
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Required Implementations -------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.AbstractMap#entrySet()
+    */
+   @Override
+   public Set<Map.Entry<AsyncInvocationId, Boolean>> entrySet()
+   {
+      final Map<AsyncInvocationId, Boolean> snapshot = new HashMap<AsyncInvocationId, Boolean>(foreign);
+      for (final Stripe stripe : stripes)
+      {
+         synchronized (stripe)
+         {
+            for (int i = 0; i < stripe.states.length; i++)
+            {
+               if (stripe.states[i] != EMPTY)
+               {
+                  snapshot.put(new AsyncInvocationIdSequenceImpl(stripe.nodes[i], stripe.sequences[i]), Boolean
+                        .valueOf(stripe.states[i] == CANCELLED));
+               }
+            }
+         }
+      }
+      return Collections.unmodifiableSet(new HashSet<Map.Entry<AsyncInvocationId, Boolean>>(snapshot.entrySet()));
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.ConcurrentMap#putIfAbsent(java.lang.Object, java.lang.Object)
+    */
+   @Override
+   public Boolean putIfAbsent(final AsyncInvocationId key, final Boolean value)
+   {
+      assertValue(value);
+      if (!(key instanceof AsyncInvocationIdSequenceImpl))
+      {
+         return foreign.putIfAbsent(key, value);
+      }
+      final AsyncInvocationIdSequenceImpl id = (AsyncInvocationIdSequenceImpl) key;
+      final long hash = hash(id.getNode(), id.getSequence());
+      final Stripe stripe = this.stripeFor(hash);
+      synchronized (stripe)
+      {
+         stripe.expire(this.currentTick());
+         final int slot = stripe.find(id.getNode(), id.getSequence(), hash);
+         if (slot >= 0)
+         {
+            return toValue(stripe.states[slot]);
+         }
+         stripe.insert(id.getNode(), id.getSequence(), hash, toState(value));
+         return null;
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.ConcurrentMap#remove(java.lang.Object, java.lang.Object)
+    */
+   @Override
+   public boolean remove(final Object key, final Object value)
+   {
+      if (!(value instanceof Boolean))
+      {
+         return false;
+      }
+      if (!(key instanceof AsyncInvocationIdSequenceImpl))
+      {
+         return foreign.remove(key, value);
+      }
+      final AsyncInvocationIdSequenceImpl id = (AsyncInvocationIdSequenceImpl) key;
+      final long hash = hash(id.getNode(), id.getSequence());
+      final Stripe stripe = this.stripeFor(hash);
+      synchronized (stripe)
+      {
+         final int slot = stripe.find(id.getNode(), id.getSequence(), hash);
+         if (slot < 0 || stripe.states[slot] != toState((Boolean) value))
+         {
+            return false;
+         }
+         stripe.delete(slot);
+         return true;
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.ConcurrentMap#replace(java.lang.Object, java.lang.Object, java.lang.Object)
+    */
+   @Override
+   public boolean replace(final AsyncInvocationId key, final Boolean oldValue, final Boolean newValue)
+   {
+      assertValue(oldValue);
+      assertValue(newValue);
+      if (!(key instanceof AsyncInvocationIdSequenceImpl))
+      {
+         return foreign.replace(key, oldValue, newValue);
+      }
+      final AsyncInvocationIdSequenceImpl id = (AsyncInvocationIdSequenceImpl) key;
+      final long hash = hash(id.getNode(), id.getSequence());
+      final Stripe stripe = this.stripeFor(hash);
+      synchronized (stripe)
+      {
+         final int slot = stripe.find(id.getNode(), id.getSequence(), hash);
+         if (slot < 0 || stripe.states[slot] != toState(oldValue))
+         {
+            return false;
+         }
+         stripe.states[slot] = toState(newValue);
+         return true;
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.ConcurrentMap#replace(java.lang.Object, java.lang.Object)
+    */
+   @Override
+   public Boolean replace(final AsyncInvocationId key, final Boolean value)
+   {
+      assertValue(value);
+      if (!(key instanceof AsyncInvocationIdSequenceImpl))
+      {
+         return foreign.replace(key, value);
+      }
+      final AsyncInvocationIdSequenceImpl id = (AsyncInvocationIdSequenceImpl) key;
+      final long hash = hash(id.getNode(), id.getSequence());
+      final Stripe stripe = this.stripeFor(hash);
+      synchronized (stripe)
+      {
+         final int slot = stripe.find(id.getNode(), id.getSequence(), hash);
+         if (slot < 0)
+         {
+            return null;
+         }
+         final Boolean previous = toValue(stripe.states[slot]);
+         stripe.states[slot] = toState(value);
+         return previous;
+      }
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Overridden Implementations -----------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.AbstractMap#get(java.lang.Object)
+    */
+   @Override
+   public Boolean get(final Object key)
+   {
+      if (!(key instanceof AsyncInvocationIdSequenceImpl))
+      {
+         return key == null ? null : foreign.get(key);
+      }
+      final AsyncInvocationIdSequenceImpl id = (AsyncInvocationIdSequenceImpl) key;
+      final long hash = hash(id.getNode(), id.getSequence());
+      final Stripe stripe = this.stripeFor(hash);
+      synchronized (stripe)
+      {
+         final int slot = stripe.find(id.getNode(), id.getSequence(), hash);
+         return slot < 0 ? null : toValue(stripe.states[slot]);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.AbstractMap#containsKey(java.lang.Object)
+    */
+   @Override
+   public boolean containsKey(final Object key)
+   {
+      return this.get(key) != null;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.AbstractMap#put(java.lang.Object, java.lang.Object)
+    */
+   @Override
+   public Boolean put(final AsyncInvocationId key, final Boolean value)
+   {
+      assertValue(value);
+      if (!(key instanceof AsyncInvocationIdSequenceImpl))
+      {
+         if (key == null)
+         {
+            throw new NullPointerException("Key must be specified");
+         }
+         return foreign.put(key, value);
+      }
+      final AsyncInvocationIdSequenceImpl id = (AsyncInvocationIdSequenceImpl) key;
+      final long hash = hash(id.getNode(), id.getSequence());
+      final Stripe stripe = this.stripeFor(hash);
+      synchronized (stripe)
+      {
+         stripe.expire(this.currentTick());
+         final int slot = stripe.find(id.getNode(), id.getSequence(), hash);
+         if (slot >= 0)
+         {
+            final Boolean previous = toValue(stripe.states[slot]);
+            stripe.states[slot] = toState(value);
+            return previous;
+         }
+         stripe.insert(id.getNode(), id.getSequence(), hash, toState(value));
+         return null;
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.AbstractMap#remove(java.lang.Object)
+    */
+   @Override
+   public Boolean remove(final Object key)
+   {
+      if (!(key instanceof AsyncInvocationIdSequenceImpl))
+      {
+         return key == null ? null : foreign.remove(key);
+      }
+      final AsyncInvocationIdSequenceImpl id = (AsyncInvocationIdSequenceImpl) key;
+      final long hash = hash(id.getNode(), id.getSequence());
+      final Stripe stripe = this.stripeFor(hash);
+      synchronized (stripe)
+      {
+         final int slot = stripe.find(id.getNode(), id.getSequence(), hash);
+         if (slot < 0)
+         {
+            return null;
+         }
+         final Boolean previous = toValue(stripe.states[slot]);
+         stripe.delete(slot);
+         return previous;
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.AbstractMap#size()
+    */
+   @Override
+   public int size()
+   {
+      int size = foreign.size();
+      for (final Stripe stripe : stripes)
+      {
+         synchronized (stripe)
+         {
+            size += stripe.size;
+         }
+      }
+      return size;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.AbstractMap#isEmpty()
+    */
+   @Override
+   public boolean isEmpty()
+   {
+      return this.size() == 0;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.AbstractMap#clear()
+    */
+   @Override
+   public void clear()
+   {
+      foreign.clear();
+      for (final Stripe stripe : stripes)
+      {
+         synchronized (stripe)
+         {
+            stripe.clear();
+         }
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.AbstractMap#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "StripedAsyncInvocationMap [stripes=" + stripes.length + ", size=" + this.size() + ", evictions="
+            + evictions.get() + "]";
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the current time; may be overridden for testing purposes
+    */
+   long currentTimeNanos()
+   {
+      return System.nanoTime();
+   }
+
+   private long currentTick()
+   {
+      return (this.currentTimeNanos() - startNanos) / tickNanos;
+   }
+
+   private Stripe stripeFor(final long hash)
+   {
+      return stripes[(int) (hash >>> 40) & (stripes.length - 1)];
+   }
+
+   /**
+    * Mixes the ID components such that both the low bits (slot)
+    * and high bits (stripe) are well distributed
+    */
+   private static long hash(final long node, final long sequence)
+   {
+      long h = sequence ^ (node * 0x9E3779B97F4A7C15L);
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      return h;
+   }
+
+   private static void assertValue(final Boolean value)
+   {
+      if (value == null)
+      {
+         throw new NullPointerException("Value must be specified");
+      }
+   }
+
+   private static byte toState(final Boolean value)
+   {
+      return value.booleanValue() ? CANCELLED : ACTIVE;
+   }
+
+   private static Boolean toValue(final byte state)
+   {
+      return state == CANCELLED ? Boolean.TRUE : Boolean.FALSE;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Inner Classes ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Open-addressed (linear probing) table of entries, with its own timer wheel 
+    * of the keys to expire at each tick.  Guarded by its own monitor.
+    */
+   private final class Stripe
+   {
+      long[] nodes = new long[16];
+
+      long[] sequences = new long[16];
+
+      byte[] states = new byte[16];
+
+      long[] expiries = new long[16];
+
+      int size;
+
+      /**
+       * Keys (node, sequence pairs) expiring at each tick, by tick modulo {@link StripedAsyncInvocationMap#WHEEL_SIZE}
+       */
+      final long[][] wheel = new long[WHEEL_SIZE][];
+
+      final int[] wheelSizes = new int[WHEEL_SIZE];
+
+      /**
+       * Last tick for which expiry has been processed
+       */
+      long lastTick;
+
+      int find(final long node, final long sequence, final long hash)
+      {
+         final int mask = states.length - 1;
+         for (int i = (int) hash & mask;; i = (i + 1) & mask)
+         {
+            if (states[i] == EMPTY)
+            {
+               return -1;
+            }
+            if (sequences[i] == sequence && nodes[i] == node)
+            {
+               return i;
+            }
+         }
+      }
+
+      void insert(final long node, final long sequence, final long hash, final byte state)
+      {
+         if ((size + 1) << 1 > states.length)
+         {
+            this.resize();
+         }
+         final long expiry = lastTick + WHEEL_SIZE - 1;
+         this.place(node, sequence, hash, state, expiry);
+         size++;
+         final int bucket = (int) (expiry & (WHEEL_SIZE - 1));
+         long[] keys = wheel[bucket];
+         final int used = wheelSizes[bucket];
+         if (keys == null)
+         {
+            keys = new long[8];
+            wheel[bucket] = keys;
+         }
+         else if (used + 2 > keys.length)
+         {
+            final long[] grown = new long[keys.length << 1];
+            System.arraycopy(keys, 0, grown, 0, used);
+            keys = grown;
+            wheel[bucket] = keys;
+         }
+         keys[used] = node;
+         keys[used + 1] = sequence;
+         wheelSizes[bucket] = used + 2;
+      }
+
+      /**
+       * Removes the entry in the specified slot, shifting back subsequent 
+       * entries of the probe sequence such that no tombstones are needed
+       */
+      void delete(int slot)
+      {
+         final int mask = states.length - 1;
+         int next = slot;
+         while (true)
+         {
+            next = (next + 1) & mask;
+            if (states[next] == EMPTY)
+            {
+               break;
+            }
+            final int home = (int) hash(nodes[next], sequences[next]) & mask;
+            final boolean inPlace = slot <= next ? (slot < home && home <= next) : (slot < home || home <= next);
+            if (inPlace)
+            {
+               continue;
+            }
+            nodes[slot] = nodes[next];
+            sequences[slot] = sequences[next];
+            states[slot] = states[next];
+            expiries[slot] = expiries[next];
+            slot = next;
+         }
+         states[slot] = EMPTY;
+         size--;
+      }
+
+      /**
+       * Expires entries older than the orphan timeout, advancing the wheel to the specified tick
+       */
+      void expire(final long now)
+      {
+         if (now <= lastTick)
+         {
+            return;
+         }
+         // If idle for a full turn of the wheel, every bucket is due
+         final long from = now - lastTick >= WHEEL_SIZE ? now - WHEEL_SIZE + 1 : lastTick + 1;
+         for (long tick = from; tick <= now; tick++)
+         {
+            final int bucket = (int) (tick & (WHEEL_SIZE - 1));
+            final long[] keys = wheel[bucket];
+            final int used = wheelSizes[bucket];
+            for (int i = 0; i < used; i += 2)
+            {
+               final long node = keys[i];
+               final long sequence = keys[i + 1];
+               final int slot = this.find(node, sequence, hash(node, sequence));
+               // Completed entries are removed lazily from the wheel
+               if (slot >= 0 && expiries[slot] <= now)
+               {
+                  if (log.isTraceEnabled())
+                  {
+                     log.trace("Expiring orphaned invocation " + new AsyncInvocationIdSequenceImpl(node, sequence));
+                  }
+                  this.delete(slot);
+                  evictions.incrementAndGet();
+               }
+            }
+            wheelSizes[bucket] = 0;
+            // Release buckets grown under a burst
+            if (keys != null && keys.length > 64)
+            {
+               wheel[bucket] = null;
+            }
+         }
+         lastTick = now;
+      }
+
+      void clear()
+      {
+         nodes = new long[16];
+         sequences = new long[16];
+         states = new byte[16];
+         expiries = new long[16];
+         size = 0;
+         for (int i = 0; i < WHEEL_SIZE; i++)
+         {
+            wheel[i] = null;
+            wheelSizes[i] = 0;
+         }
+      }
+
+      private void place(final long node, final long sequence, final long hash, final byte state, final long expiry)
+      {
+         final int mask = states.length - 1;
+         int i = (int) hash & mask;
+         while (states[i] != EMPTY)
+         {
+            i = (i + 1) & mask;
+         }
+         nodes[i] = node;
+         sequences[i] = sequence;
+         states[i] = state;
+         expiries[i] = expiry;
+      }
+
+      private void resize()
+      {
+         final long[] oldNodes = nodes;
+         final long[] oldSequences = sequences;
+         final byte[] oldStates = states;
+         final long[] oldExpiries = expiries;
+         final int capacity = oldStates.length << 1;
+         nodes = new long[capacity];
+         sequences = new long[capacity];
+         states = new byte[capacity];
+         expiries = new long[capacity];
+         for (int i = 0; i < oldStates.length; i++)
+         {
+            if (oldStates[i] != EMPTY)
+            {
+               this.place(oldNodes[i], oldSequences[i], hash(oldNodes[i], oldSequences[i]), oldStates[i],
+                     oldExpiries[i]);
+            }
+         }
+      }
+   }
+}
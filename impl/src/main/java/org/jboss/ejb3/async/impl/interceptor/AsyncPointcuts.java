@@ -0,0 +1,304 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.interceptor;
+
+import org.jboss.aop.AspectManager;
+import org.jboss.aop.advice.AdviceBinding;
+import org.jboss.aop.advice.GenericInterceptorFactory;
+import org.jboss.aop.pointcut.ast.ParseException;
+import org.jboss.ejb3.async.spi.AsyncMethodIndex;
+import org.jboss.ejb3.async.spi.AttachmentNames;
+import org.jboss.logging.Logger;
+
+/**
+ * Creates AOP bindings of the {@link AsynchronousClientInterceptor} 
+ * restricted to the @Asynchronous methods of a bean, such that synchronous
+ * invocations do not pass through the interceptor at all.  This is the
+ * alternative to binding upon all invocations (ie. "execution(* *->*(..))")
+ * and letting the interceptor sort out whether it wants to take action.
+ * 
+ * The expressions for the beans of an EJB 3.x deployment are resolved by the 
+ * deployer and attached under {@link AttachmentNames#ASYNC_POINTCUTS}, for 
+ * the container to {@link #bind(AspectManager, String, String, AsynchronousClientInterceptor)}.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class AsyncPointcuts
+{
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(AsyncPointcuts.class);
+
+   // --------------------------------------------------------------------------------||
+   // Constructor --------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Internal ctor, prohibited use
+    */
+   private AsyncPointcuts()
+   {
+      throw new UnsupportedOperationException("No instances");
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Functional Methods -------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Creates a pointcut expression matching only the @Asynchronous methods of 
+    * the specified bean class, or null if there are none
+    * 
+    * @param beanClass
+    * @param asyncMethods
+    * @return
+    * @throws IllegalArgumentException If either argument is not specified
+    */
+   public static String createPointcutExpression(final Class<?> beanClass, final AsyncMethodIndex asyncMethods)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (beanClass == null)
+      {
+         throw new IllegalArgumentException("Bean class must be specified");
+      }
+
+      // Delegate
+      return createPointcutExpression(beanClass.getName(), asyncMethods);
+   }
+
+   /**
+    * Creates a pointcut expression matching only the @Asynchronous methods of 
+    * the bean class of the specified name, or null if there are none.  Used at
+    * deployment, where the bean class is known by name from metadata and need not be loaded.
+    * 
+    * @param beanClassName
+    * @param asyncMethods
+    * @return
+    * @throws IllegalArgumentException If either argument is not specified
+    */
+   public static String createPointcutExpression(final String beanClassName, final AsyncMethodIndex asyncMethods)
+         throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (beanClassName == null)
+      {
+         throw new IllegalArgumentException("Bean class name must be specified");
+      }
+      if (asyncMethods == null)
+      {
+         throw new IllegalArgumentException(AsyncMethodIndex.class.getSimpleName() + " must be specified");
+      }
+
+      // Nothing to bind
+      if (asyncMethods.isEmpty())
+      {
+         return null;
+      }
+
+      // One execution pointcut per signature
+      final StringBuilder expression = new StringBuilder();
+      for (final String signature : asyncMethods.getSignatures())
+      {
+         if (expression.length() > 0)
+         {
+            expression.append(" OR ");
+         }
+         final int paramsStart = signature.indexOf('(');
+         expression.append("execution(* ").append(beanClassName).append("->").append(
+               signature.substring(0, paramsStart)).append('(');
+         final String params = signature.substring(paramsStart + 1, signature.length() - 1);
+         if (params.length() > 0)
+         {
+            final String[] paramTypeNames = params.split(",");
+            for (int i = 0; i < paramTypeNames.length; i++)
+            {
+               if (i > 0)
+               {
+                  expression.append(", ");
+               }
+               expression.append(toPointcutTypeName(paramTypeNames[i]));
+            }
+         }
+         expression.append("))");
+      }
+
+      // Return
+      return expression.toString();
+   }
+
+   /**
+    * Binds the specified interceptor to only the @Asynchronous methods of the specified
+    * bean class in the specified domain.  Returns the binding created, or null if the
+    * bean has no @Asynchronous methods and no binding was required.
+    * 
+    * @param domain
+    * @param bindingName
+    * @param beanClass
+    * @param asyncMethods
+    * @param interceptor
+    * @return
+    * @throws IllegalArgumentException If any argument required to bind is not specified
+    */
+   public static AdviceBinding bind(final AspectManager domain, final String bindingName, final Class<?> beanClass,
+         final AsyncMethodIndex asyncMethods, final AsynchronousClientInterceptor interceptor)
+         throws IllegalArgumentException
+   {
+      // Make the expression
+      final String expression = createPointcutExpression(beanClass, asyncMethods);
+      if (expression == null)
+      {
+         if (log.isTraceEnabled())
+         {
+            log.trace("No @Asynchronous methods on " + beanClass + ", not binding " + interceptor);
+         }
+         return null;
+      }
+
+      // Bind
+      return bind(domain, bindingName, expression, interceptor);
+   }
+
+   /**
+    * Binds the specified interceptor to the specified pointcut expression, as created
+    * by {@link #createPointcutExpression(String, AsyncMethodIndex)} and attached
+    * to the deployment under {@link AttachmentNames#ASYNC_POINTCUTS}, in the 
+    * specified domain.  Returns the binding created.
+    * 
+    * @param domain
+    * @param bindingName
+    * @param expression
+    * @param interceptor
+    * @return
+    * @throws IllegalArgumentException If any argument is not specified, or the expression is invalid
+    */
+   public static AdviceBinding bind(final AspectManager domain, final String bindingName, final String expression,
+         final AsynchronousClientInterceptor interceptor) throws IllegalArgumentException
+   {
+      // Precondition checks
+      if (domain == null)
+      {
+         throw new IllegalArgumentException("Domain must be specified");
+      }
+      if (bindingName == null)
+      {
+         throw new IllegalArgumentException("Binding name must be specified");
+      }
+      if (expression == null)
+      {
+         throw new IllegalArgumentException("Pointcut expression must be specified");
+      }
+      if (interceptor == null)
+      {
+         throw new IllegalArgumentException("Interceptor must be specified");
+      }
+
+      // Bind
+      final AdviceBinding binding;
+      try
+      {
+         binding = new AdviceBinding(bindingName, expression, null);
+      }
+      catch (final ParseException pe)
+      {
+         throw new IllegalArgumentException("Could not parse pointcut expression: " + expression, pe);
+      }
+      binding.addInterceptorFactory(new GenericInterceptorFactory(interceptor));
+      domain.addBinding(binding);
+      log.debug("Bound " + interceptor + " to " + expression);
+
+      // Return
+      return binding;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Converts a binary type name as returned by {@link Class#getName()} 
+    * to the form expected in pointcut expressions (ie. "[Ljava.lang.String;"
+    * becomes "java.lang.String[]")
+    */
+   static String toPointcutTypeName(final String binaryName)
+   {
+      // Not an array
+      if (!binaryName.startsWith("["))
+      {
+         return binaryName;
+      }
+
+      // Count dimensions
+      int dimensions = 0;
+      while (binaryName.charAt(dimensions) == '[')
+      {
+         dimensions++;
+      }
+
+      // Resolve component type
+      final String component;
+      final char code = binaryName.charAt(dimensions);
+      switch (code)
+      {
+         case 'L' :
+            component = binaryName.substring(dimensions + 1, binaryName.length() - 1);
+            break;
+         case 'Z' :
+            component = "boolean";
+            break;
+         case 'B' :
+            component = "byte";
+            break;
+         case 'C' :
+            component = "char";
+            break;
+         case 'S' :
+            component = "short";
+            break;
+         case 'I' :
+            component = "int";
+            break;
+         case 'J' :
+            component = "long";
+            break;
+         case 'F' :
+            component = "float";
+            break;
+         case 'D' :
+            component = "double";
+            break;
+         default :
+            throw new IllegalArgumentException("Unknown type: " + binaryName);
+      }
+      final StringBuilder sb = new StringBuilder(component);
+      for (int i = 0; i < dimensions; i++)
+      {
+         sb.append("[]");
+      }
+      return sb.toString();
+   }
+}
@@ -23,8 +23,9 @@ package org.jboss.ejb3.async.impl.interceptor;
 
 import java.io.Serializable;
 import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
@@ -33,21 +34,24 @@ import org.jboss.aop.advice.Interceptor;
 import org.jboss.aop.joinpoint.Invocation;
 import org.jboss.aop.joinpoint.MethodInvocation;
 import org.jboss.aspects.remoting.InvokeRemoteInterceptor;
-import org.jboss.aspects.remoting.PojiProxy;
-import org.jboss.ejb3.async.impl.AsyncInvocationIdUUIDImpl;
-import org.jboss.ejb3.async.impl.ClientExecutorService;
+import org.jboss.ejb3.async.impl.AsyncInvocationIdSequenceImpl;
+import org.jboss.ejb3.async.impl.util.concurrent.AsyncWorkQueue;
 import org.jboss.ejb3.async.impl.util.concurrent.ResultUnwrappingExecutorService;
+import org.jboss.ejb3.async.spi.AsyncContextPropagation;
+import org.jboss.ejb3.async.spi.AsyncContextSnapshot;
+import org.jboss.ejb3.async.spi.AsyncDispatchState;
 import org.jboss.ejb3.async.spi.AsyncEndpoint;
+import org.jboss.ejb3.async.spi.AsyncExecutorLookup;
 import org.jboss.ejb3.async.spi.AsyncInvocation;
 import org.jboss.ejb3.async.spi.AsyncInvocationContext;
 import org.jboss.ejb3.async.spi.AsyncInvocationId;
 import org.jboss.ejb3.async.spi.AsyncInvocationTaskBase;
-import org.jboss.ejb3.async.spi.AsyncUtil;
+import org.jboss.ejb3.async.spi.AsyncMethodIndex;
+import org.jboss.ejb3.async.spi.AttachmentNames;
 import org.jboss.ejb3.async.spi.CurrentAsyncInvocation;
 import org.jboss.logging.Logger;
 import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
 import org.jboss.remoting.InvokerLocator;
-import org.jboss.security.SecurityContext;
 
 /**
  * Examines invocation metadata to determine if this
@@ -55,9 +59,28 @@ import org.jboss.security.SecurityContext;
  * spawns off into a new Thread.
  * 
  * If the invocation has been equipped with an {@link AsyncInvocationContext} 
- * (ie. is of type {@link AsyncInvocation}), the associated {@link ExecutorService}
- * will be used.  Else we'll provide an {@link ExecutorService}
- * implementation on behalf of the client.
+ * (ie. is of type {@link AsyncInvocation}), the {@link ExecutorService} resolved
+ * for the bean and method by the deployment's {@link AsyncExecutorLookup} 
+ * (see {@link AttachmentNames#ASYNC_EXECUTOR_LOOKUP}) will be used, if supplied, 
+ * wrapped such that the bean provider's result is unwrapped and cancellation is
+ * directed to the invocation's container, else that associated with the context.  
+ * Else we'll provide an {@link ExecutorService} implementation on behalf of the client.
+ * 
+ * The contexts of the caller to be carried into the new Thread are 
+ * captured by the {@link AsyncContextPropagation} resolved for the bean; 
+ * unless otherwise specified, the security context and TCCL.
+ * 
+ * Allocation budget per dispatch, beyond the copy of the invocation: 224 bytes
+ * (64-bit JVM, compressed references), of which 120 upon the caller (the 
+ * {@link AsyncInvocationId}, the task and the {@link Future} handed back) and 
+ * 104 upon the executing Thread (the cancellation token, its registration and 
+ * the record of the contexts replaced); 72 more where the executor queues the
+ * task upon an {@link AsyncWorkQueue}.  This assumes the {@link AsyncContextSnapshot}
+ * is reused (ie. the caller's contexts remain the same instances) and the 
+ * invocation implements {@link AsyncDispatchState}; else the snapshot and
+ * metadata entries are allocated in addition, as is anything allocated by 
+ * propagators (eg. a copy of the logging MDC).  AsyncDispatchAllocationBenchmark,
+ * in the benchmarks module, measures this with "-prof gc".
  *
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  * @version $Revision: $
@@ -88,14 +111,41 @@ public class AsynchronousClientInterceptor implements Interceptor, Serializable
 
    private static final String INVOCATION_METADATA_VALUE = Boolean.TRUE.toString();
 
+   /**
+    * Client-side views of remote containers, shared by all interceptors in this JVM
+    */
+   private static final RemoteEndpointCache REMOTE_ENDPOINTS = new RemoteEndpointCache();
+
    // --------------------------------------------------------------------------------||
    // Instance Members ---------------------------------------------------------------||
    // --------------------------------------------------------------------------------||
 
    /**
-    * Asynchronous Methods to be handled by this interceptor
+    * Index of the asynchronous methods to be handled by this interceptor
+    */
+   private final AsyncMethodIndex asyncMethods;
+
+   /**
+    * Propagators of the caller's contexts for each asynchronous method
+    */
+   private final AsyncContextPropagation propagation;
+
+   /**
+    * Resolves the executor for each method of the bean, if isolated executors may be 
+    * configured; server-side only, so not carried along to remote clients
     */
-   private final AsyncMethodsMetaData asyncMethods;
+   private final transient AsyncExecutorLookup executors;
+
+   /**
+    * Name of the bean, used to resolve its executors
+    */
+   private final String ejbName;
+
+   /**
+    * Executors resolved by the lookup, wrapped to unwrap results for the container 
+    * of the invocation, by executor; created alongside the lookup
+    */
+   private final transient ConcurrentMap<ExecutorService, ContainerExecutorService> containerExecutors;
 
    // --------------------------------------------------------------------------------||
    // Constructor --------------------------------------------------------------------||
@@ -105,10 +155,65 @@ public class AsynchronousClientInterceptor implements Interceptor, Serializable
     * Constructor
     */
    public AsynchronousClientInterceptor(final AsyncMethodsMetaData asyncMethods)
+   {
+      this(new AsyncMethodIndex(asyncMethods));
+   }
+
+   /**
+    * Constructor
+    */
+   public AsynchronousClientInterceptor(final AsyncMethodIndex asyncMethods)
+   {
+      this(asyncMethods, AsyncContextPropagation.getDefault());
+   }
+
+   /**
+    * Constructor
+    */
+   public AsynchronousClientInterceptor(final AsyncMethodIndex asyncMethods, final AsyncContextPropagation propagation)
+   {
+      this(asyncMethods, propagation, null, null);
+   }
+
+   /**
+    * Creates an interceptor dispatching invocations of the specified bean to the 
+    * executors resolved by the specified lookup (ie. attached to the deployment
+    * as {@link AttachmentNames#ASYNC_EXECUTOR_LOOKUP}), such that beans and methods
+    * configured with their own executors are isolated from one another
+    * 
+    * @param asyncMethods
+    * @param propagation
+    * @param ejbName Name of the bean; required if the lookup is supplied
+    * @param executors Lookup of the executors of the deployment, may be null
+    */
+   public AsynchronousClientInterceptor(final AsyncMethodIndex asyncMethods,
+         final AsyncContextPropagation propagation, final String ejbName, final AsyncExecutorLookup executors)
    {
       assert asyncMethods != null : "Async Methods must be supplied";
+      assert propagation != null : "Context propagation must be supplied";
+      assert executors == null || ejbName != null : "EJB name must be supplied to look up its executors";
       this.asyncMethods = asyncMethods;
-      log.debug("Created: " + this + " to handle " + asyncMethods);
+      this.propagation = propagation;
+      this.ejbName = ejbName;
+      this.executors = executors;
+      this.containerExecutors = executors == null ? null
+            : new ConcurrentHashMap<ExecutorService, ContainerExecutorService>();
+      log.debug("Created: " + this + " to handle " + asyncMethods + " propagating " + propagation
+            + (executors == null ? "" : " via " + executors));
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Functional Methods -------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the cache of client-side views of remote containers, shared
+    * by all interceptors in this JVM
+    * @return
+    */
+   public static RemoteEndpointCache getRemoteEndpointCache()
+   {
+      return REMOTE_ENDPOINTS;
    }
 
    // --------------------------------------------------------------------------------||
@@ -158,22 +263,21 @@ public class AsynchronousClientInterceptor implements Interceptor, Serializable
       // Get the appropriate ExecutorService
       final ExecutorService executorService = this.getAsyncExecutor(invocation);
 
-      // Get the existing SecurityContext
-      final SecurityContext sc = SecurityActions.getSecurityContext();
+      // Capture the caller's contexts applicable to the method
+      final AsyncContextSnapshot contexts = propagation.capture(((MethodInvocation) invocation).getActualMethod());
 
       // Copy the invocation (must be done for Thread safety, as we spawn this off and 
       // subsequent calls can mess with the internal interceptor index)
       final Invocation nextInvocation = invocation.copy();
 
       // Mark that we've already been async'd, so when the invocation comes around again we don't infinite loop
-      nextInvocation.getMetaData().addMetaData(INVOCATION_METADATA_TAG, INVOCATION_METADATA_ATTR,
-            INVOCATION_METADATA_VALUE);
+      markAsyncDispatched(nextInvocation);
 
       // Make a new ID for the invocation
-      final AsyncInvocationId id = new AsyncInvocationIdUUIDImpl();
+      final AsyncInvocationId id = new AsyncInvocationIdSequenceImpl();
 
       // Make the asynchronous task from the invocation
-      final Callable<Object> asyncTask = new AsyncAOPInvocationTask<Object>(nextInvocation, sc, id);
+      final Callable<Object> asyncTask = new AsyncAOPInvocationTask<Object>(nextInvocation, contexts, id);
 
       // Short-circuit the invocation into new Thread
       final Future<Object> task;
@@ -199,7 +303,7 @@ public class AsynchronousClientInterceptor implements Interceptor, Serializable
 
    /**
     * Determines whether the specified invocation is asynchronous
-    * by inspecting its metadata
+    * by inspecting its method, then its dispatch state
     * 
     * EJB 3.1 4.5.2.2
     */
@@ -214,10 +318,15 @@ public class AsynchronousClientInterceptor implements Interceptor, Serializable
             + MethodInvocation.class.getSimpleName() + ", but has been passed: " + invocation;
       final MethodInvocation si = (MethodInvocation) invocation;
 
+      // Synchronous methods are done here, without consulting the dispatch state
+      final Method actualMethod = si.getActualMethod();
+      if (!asyncMethods.isAsynchronous(actualMethod))
+      {
+         return false;
+      }
+
       // See if we've already been here, if so, don't handle as async
-      final String beenHere = (String) invocation.getMetaData().getMetaData(INVOCATION_METADATA_TAG,
-            INVOCATION_METADATA_ATTR);
-      if (beenHere != null && beenHere.equals(INVOCATION_METADATA_VALUE))
+      if (isAsyncDispatched(invocation))
       {
          // Do not handle
          if (log.isTraceEnabled())
@@ -227,17 +336,45 @@ public class AsynchronousClientInterceptor implements Interceptor, Serializable
          return false;
       }
 
-      // Get the actual method
-      final Method actualMethod = si.getActualMethod();
+      // Async
+      return true;
+   }
 
-      // Return if the method is async
-      return AsyncUtil.methodIsAsynchronous(actualMethod, asyncMethods);
+   /**
+    * Determines whether the specified invocation has already been dispatched asynchronously,
+    * using typed {@link AsyncDispatchState} if available, else the invocation metadata
+    */
+   private static boolean isAsyncDispatched(final Invocation invocation)
+   {
+      if (invocation instanceof AsyncDispatchState)
+      {
+         return ((AsyncDispatchState) invocation).isAsyncDispatched();
+      }
+      final Object beenHere = invocation.getMetaData().getMetaData(INVOCATION_METADATA_TAG, INVOCATION_METADATA_ATTR);
+      return INVOCATION_METADATA_VALUE.equals(beenHere);
+   }
+
+   /**
+    * Flags the specified invocation as having been dispatched asynchronously, 
+    * using typed {@link AsyncDispatchState} if available, else the invocation metadata
+    * (which also travels with remote invocations)
+    */
+   private static void markAsyncDispatched(final Invocation invocation)
+   {
+      if (invocation instanceof AsyncDispatchState)
+      {
+         ((AsyncDispatchState) invocation).markAsyncDispatched();
+         return;
+      }
+      invocation.getMetaData().addMetaData(INVOCATION_METADATA_TAG, INVOCATION_METADATA_ATTR,
+            INVOCATION_METADATA_VALUE);
    }
 
    /**
     * Obtains an appropriate {@link ExecutorService} to handle the invocation
     * based upon the type of {@link Invocation} provided.  If we're got a 
-    * {@link AsyncInvocation}, the associated {@link ExecutorService} will be used,
+    * {@link AsyncInvocation}, the {@link ExecutorService} resolved by the
+    * {@link AsyncExecutorLookup}, if any, else that associated will be used,
     * else we'll supply a default one.
     * 
     * @param invocation
@@ -255,6 +392,16 @@ public class AsynchronousClientInterceptor implements Interceptor, Serializable
          // Cast
          final AsyncInvocation asyncInvocation = (AsyncInvocation) invocation;
 
+         // Get out the ES isolated for this bean/method, if configured
+         if (executors != null)
+         {
+            final ExecutorService executor = executors.getExecutor(ejbName, ((MethodInvocation) invocation)
+                  .getActualMethod());
+            assert executor != null : ExecutorService.class.getSimpleName() + " resolved by " + executors
+                  + " was null";
+            return this.getContainerExecutor(executor, asyncInvocation.getContainer());
+         }
+
          // Get out the ES
          final AsyncInvocationContext context = asyncInvocation.getAsyncInvocationContext();
          assert context != null : "async invocation context of " + invocation + " was null";
@@ -269,35 +416,27 @@ public class AsynchronousClientInterceptor implements Interceptor, Serializable
          final InvokerLocator locator = (InvokerLocator) invocation.getMetaData(InvokeRemoteInterceptor.REMOTING,
                InvokeRemoteInterceptor.INVOKER_LOCATOR);
          final Object oid = invocation.getMetaData().getMetaData(Dispatcher.DISPATCHER, Dispatcher.OID);
-         final PojiProxy proxy = new PojiProxyHack(oid, locator, new Interceptor[]
-         {});
-         final AsyncEndpoint container = (AsyncEndpoint) Proxy.newProxyInstance(Thread.currentThread()
-               .getContextClassLoader(), new Class<?>[]
-         {AsyncEndpoint.class}, proxy);
-         return new ResultUnwrappingExecutorService(ClientExecutorService.INSTANCE, container);
+         return REMOTE_ENDPOINTS.getExecutor(oid, locator);
       }
    }
 
-   private static final class PojiProxyHack extends PojiProxy
+   /**
+    * Obtains the specified executor, as resolved by the lookup, wrapped such that 
+    * the bean provider's result is unwrapped and cancellation is directed to the 
+    * specified container; one wrapper is kept per executor, and replaced only 
+    * should the container differ
+    */
+   private ExecutorService getContainerExecutor(final ExecutorService executor, final AsyncEndpoint container)
    {
-      /**
-       * serialVersionUID
-       */
-      private static final long serialVersionUID = 1L;
-
-      public PojiProxyHack(Object oid, InvokerLocator uri, Interceptor[] interceptors)
+      assert container != null : "Container of invocation was null";
+      final ContainerExecutorService cached = containerExecutors.get(executor);
+      if (cached != null && cached.container == container)
       {
-         super(oid, uri, interceptors);
+         return cached;
       }
-
-      @Override
-      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
-      {
-         final Object obj = super.invoke(proxy, method, args);
-         log.info("Invoked view from proxy: " + method);
-         return obj;
-      }
-
+      final ContainerExecutorService wrapper = new ContainerExecutorService(executor, container);
+      containerExecutors.put(executor, wrapper);
+      return wrapper;
    }
 
    // --------------------------------------------------------------------------------||
@@ -308,13 +447,14 @@ public class AsynchronousClientInterceptor implements Interceptor, Serializable
     * Task to invoke the held invocation in a new Thread, either 
     * returning the result or throwing the generated Exception
     */
-   private class AsyncAOPInvocationTask<V> extends AsyncInvocationTaskBase<V>
+   private static final class AsyncAOPInvocationTask<V> extends AsyncInvocationTaskBase<V>
    {
       private final Invocation invocation;
 
-      public AsyncAOPInvocationTask(final Invocation invocation, final SecurityContext sc, final AsyncInvocationId id)
+      AsyncAOPInvocationTask(final Invocation invocation, final AsyncContextSnapshot contexts,
+            final AsyncInvocationId id)
       {
-         super(sc, id, SecurityActions.getTccl());
+         super(contexts, id);
          assert invocation != null : "Invocation must be supplied";
          this.invocation = invocation;
       }
@@ -342,4 +482,19 @@ public class AsynchronousClientInterceptor implements Interceptor, Serializable
 
    }
 
+   /**
+    * {@link ResultUnwrappingExecutorService} remembering the container
+    * for which it was created
+    */
+   private static final class ContainerExecutorService extends ResultUnwrappingExecutorService
+   {
+      private final AsyncEndpoint container;
+
+      ContainerExecutorService(final ExecutorService delegate, final AsyncEndpoint container)
+      {
+         super(delegate, container);
+         this.container = container;
+      }
+   }
+
 }
@@ -22,6 +22,7 @@
 package org.jboss.ejb3.async.impl.interceptor;
 
 import org.jboss.aop.joinpoint.Invocation;
+import org.jboss.ejb3.async.spi.AsyncDispatchState;
 import org.jboss.ejb3.async.spi.AsyncInvocation;
 import org.jboss.ejb3.async.spi.AsyncInvocationId;
 import org.jboss.ejb3.async.spi.CurrentAsyncInvocation;
@@ -74,8 +75,15 @@ public class CurrentAsyncAOPInvocation
       // Attempt to get from the invocation
       if (current == null)
       {
-         current = (AsyncInvocationId) invocation.getMetaData(AsyncInvocation.METADATA_GROUP_ASYNC,
-               AsyncInvocation.METADATA_KEY_ID);
+         if (invocation instanceof AsyncDispatchState)
+         {
+            current = ((AsyncDispatchState) invocation).getAsyncInvocationId();
+         }
+         else
+         {
+            current = (AsyncInvocationId) invocation.getMetaData(AsyncInvocation.METADATA_GROUP_ASYNC,
+                  AsyncInvocation.METADATA_KEY_ID);
+         }
       }
 
       // Return
@@ -88,7 +96,15 @@ public class CurrentAsyncAOPInvocation
       assert invocation != null : "Invocation must be specified";
 
       CurrentAsyncInvocation.markCurrentInvocationOnThread(uuid);
-      invocation.getMetaData().addMetaData(AsyncInvocation.METADATA_GROUP_ASYNC, AsyncInvocation.METADATA_KEY_ID, uuid);
+      if (invocation instanceof AsyncDispatchState)
+      {
+         ((AsyncDispatchState) invocation).setAsyncInvocationId(uuid);
+      }
+      else
+      {
+         invocation.getMetaData().addMetaData(AsyncInvocation.METADATA_GROUP_ASYNC, AsyncInvocation.METADATA_KEY_ID,
+               uuid);
+      }
    }
 
    public static AsyncInvocationId unmarkCurrentInvocation(final Invocation invocation)
@@ -96,8 +112,16 @@ public class CurrentAsyncAOPInvocation
       // Pop off
       final AsyncInvocationId current = CurrentAsyncInvocation.unmarkCurrentInvocationFromThread();
 
-      // Remove metadata from the invocation
-      invocation.getMetaData().removeMetaData(AsyncInvocation.METADATA_GROUP_ASYNC, AsyncInvocation.METADATA_KEY_ID);
+      // Remove from the invocation
+      if (invocation instanceof AsyncDispatchState)
+      {
+         ((AsyncDispatchState) invocation).setAsyncInvocationId(null);
+      }
+      else
+      {
+         invocation.getMetaData().removeMetaData(AsyncInvocation.METADATA_GROUP_ASYNC,
+               AsyncInvocation.METADATA_KEY_ID);
+      }
 
       return current;
    }
@@ -0,0 +1,487 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.interceptor;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jboss.aop.advice.Interceptor;
+import org.jboss.aspects.remoting.PojiProxy;
+import org.jboss.ejb3.async.impl.ClientExecutorService;
+import org.jboss.ejb3.async.impl.util.concurrent.ResultUnwrappingExecutorService;
+import org.jboss.ejb3.async.spi.AsyncBulkCancellableContext;
+import org.jboss.ejb3.async.spi.AsyncEndpoint;
+import org.jboss.logging.Logger;
+import org.jboss.remoting.InvokerLocator;
+
+/**
+ * Bounded cache of the client-side {@link AsyncEndpoint} proxy and 
+ * result-unwrapping {@link ExecutorService} for each remote target, 
+ * keyed by (OID, {@link InvokerLocator}), such that each remote target
+ * receives one of each rather than one per invocation.
+ * 
+ * Lookups take no lock.  An entry found to have been idle beyond the timeout 
+ * is replaced upon access; other idle entries are swept out at most once per 
+ * sweep interval, and least-recently used entries evicted once the cache exceeds
+ * its maximum size, in either case by whichever caller obtains the eviction lock
+ * without waiting.  The maximum size may therefore be exceeded briefly while
+ * another caller is evicting.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class RemoteEndpointCache
+{
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(RemoteEndpointCache.class);
+
+   /**
+    * Default maximum number of remote targets cached
+    */
+   public static final int DEFAULT_MAX_ENTRIES = 256;
+
+   /**
+    * Default time in milliseconds after which an unused entry is evicted
+    */
+   public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+   /**
+    * Maximum time in milliseconds between sweeps for idle entries
+    */
+   private static final long MAX_SWEEP_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Maximum number of remote targets cached
+    */
+   private final int maxEntries;
+
+   /**
+    * Time in milliseconds after which an unused entry is evicted
+    */
+   private final long idleTimeoutMillis;
+
+   /**
+    * Time in milliseconds between sweeps for idle entries
+    */
+   private final long sweepIntervalMillis;
+
+   /**
+    * Cached entries
+    */
+   private final ConcurrentMap<RemoteTarget, Entry> entries = new ConcurrentHashMap<RemoteTarget, Entry>();
+
+   /**
+    * Orders entries by recency of use
+    */
+   private final AtomicLong useClock = new AtomicLong();
+
+   /**
+    * Held (never awaited) by the caller sweeping or evicting
+    */
+   private final ReentrantLock evictionLock = new ReentrantLock();
+
+   /**
+    * Time in milliseconds at or after which the next sweep is due
+    */
+   private volatile long nextSweep;
+
+   /*
+    * Statistics
+    */
+
+   private final AtomicLong hits = new AtomicLong();
+
+   private final AtomicLong misses = new AtomicLong();
+
+   private final AtomicLong evictions = new AtomicLong();
+
+   // --------------------------------------------------------------------------------||
+   // Constructors -------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new cache with the default bounds
+    */
+   public RemoteEndpointCache()
+   {
+      this(DEFAULT_MAX_ENTRIES, DEFAULT_IDLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+   }
+
+   /**
+    * Creates a new cache with the specified bounds
+    * @param maxEntries Maximum number of remote targets cached
+    * @param idleTimeout Time after which an unused entry is evicted
+    * @param unit Unit of the idle timeout
+    * @throws IllegalArgumentException If the bounds are not positive or the unit is not supplied
+    */
+   public RemoteEndpointCache(final int maxEntries, final long idleTimeout, final TimeUnit unit)
+         throws IllegalArgumentException
+   {
+      if (maxEntries <= 0)
+      {
+         throw new IllegalArgumentException("Max entries must be positive: " + maxEntries);
+      }
+      if (idleTimeout <= 0)
+      {
+         throw new IllegalArgumentException("Idle timeout must be positive: " + idleTimeout);
+      }
+      if (unit == null)
+      {
+         throw new IllegalArgumentException("Idle timeout unit must be specified");
+      }
+      this.maxEntries = maxEntries;
+      this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+      this.sweepIntervalMillis = Math.max(1, Math.min(idleTimeoutMillis, MAX_SWEEP_INTERVAL_MILLIS));
+      this.nextSweep = System.currentTimeMillis() + sweepIntervalMillis;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Functional Methods -------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the {@link ExecutorService} used to dispatch async invocations to the 
+    * specified remote target, creating it (and the underlying {@link AsyncEndpoint} proxy) 
+    * if not cached
+    * 
+    * @param oid
+    * @param locator
+    * @return
+    */
+   public ExecutorService getExecutor(final Object oid, final InvokerLocator locator)
+   {
+      final RemoteTarget target = new RemoteTarget(oid, locator);
+      final long now = System.currentTimeMillis();
+
+      // Sweep out anything unused for too long, if due and nobody else is
+      if (now >= nextSweep)
+      {
+         this.sweepIdle(now);
+      }
+
+      // Hit, unless idle beyond the timeout
+      final Entry entry = entries.get(target);
+      if (entry != null)
+      {
+         if (now - entry.lastUsed < idleTimeoutMillis)
+         {
+            hits.incrementAndGet();
+            entry.touch(now, useClock.incrementAndGet());
+            return entry.executor;
+         }
+         if (entries.remove(target, entry))
+         {
+            evictions.incrementAndGet();
+         }
+      }
+
+      // Miss; should another caller have raced us here, use theirs
+      misses.incrementAndGet();
+      final Entry created = new Entry(this.createExecutor(oid, locator), now, useClock.incrementAndGet());
+      final Entry existing = entries.putIfAbsent(target, created);
+      if (existing != null)
+      {
+         existing.touch(now, useClock.incrementAndGet());
+         return existing.executor;
+      }
+      if (log.isTraceEnabled())
+      {
+         log.trace("Cached async endpoint for " + target);
+      }
+
+      // Respect the maximum size
+      if (entries.size() > maxEntries)
+      {
+         this.evictLeastRecentlyUsed();
+      }
+      return created.executor;
+   }
+
+   /**
+    * Removes all entries
+    */
+   public void clear()
+   {
+      entries.clear();
+   }
+
+   /**
+    * Obtains the number of remote targets currently cached
+    * @return
+    */
+   public int size()
+   {
+      return entries.size();
+   }
+
+   /**
+    * Obtains the number of requests served from the cache
+    * @return
+    */
+   public long getHitCount()
+   {
+      return hits.get();
+   }
+
+   /**
+    * Obtains the number of requests which required a new entry
+    * @return
+    */
+   public long getMissCount()
+   {
+      return misses.get();
+   }
+
+   /**
+    * Obtains the number of entries evicted, either for being idle or 
+    * to respect the maximum size
+    * @return
+    */
+   public long getEvictionCount()
+   {
+      return evictions.get();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "RemoteEndpointCache [size=" + this.size() + ", hits=" + hits + ", misses=" + misses + ", evictions="
+            + evictions + "]";
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Evicts all entries not used since the idle timeout, unless another
+    * caller is already evicting
+    */
+   private void sweepIdle(final long now)
+   {
+      if (!evictionLock.tryLock())
+      {
+         return;
+      }
+      try
+      {
+         if (now < nextSweep)
+         {
+            return;
+         }
+         nextSweep = now + sweepIntervalMillis;
+         final Iterator<Map.Entry<RemoteTarget, Entry>> it = entries.entrySet().iterator();
+         while (it.hasNext())
+         {
+            final Map.Entry<RemoteTarget, Entry> candidate = it.next();
+            if (now - candidate.getValue().lastUsed >= idleTimeoutMillis
+                  && entries.remove(candidate.getKey(), candidate.getValue()))
+            {
+               evictions.incrementAndGet();
+            }
+         }
+      }
+      finally
+      {
+         evictionLock.unlock();
+      }
+   }
+
+   /**
+    * Evicts the least-recently used entries until the maximum size is respected, 
+    * unless another caller is already evicting
+    */
+   private void evictLeastRecentlyUsed()
+   {
+      if (!evictionLock.tryLock())
+      {
+         return;
+      }
+      try
+      {
+         while (entries.size() > maxEntries)
+         {
+            Map.Entry<RemoteTarget, Entry> eldest = null;
+            for (final Map.Entry<RemoteTarget, Entry> candidate : entries.entrySet())
+            {
+               if (eldest == null || candidate.getValue().lastUse < eldest.getValue().lastUse)
+               {
+                  eldest = candidate;
+               }
+            }
+            if (eldest == null)
+            {
+               return;
+            }
+            if (entries.remove(eldest.getKey(), eldest.getValue()))
+            {
+               evictions.incrementAndGet();
+            }
+         }
+      }
+      finally
+      {
+         evictionLock.unlock();
+      }
+   }
+
+   /**
+    * Creates the {@link ExecutorService} for a remote target
+    */
+   private ExecutorService createExecutor(final Object oid, final InvokerLocator locator)
+   {
+      final PojiProxy proxy = new PojiProxyHack(oid, locator, new Interceptor[]
+      {});
+      final AsyncEndpoint container = (AsyncEndpoint) Proxy.newProxyInstance(AsyncEndpoint.class.getClassLoader(),
+            new Class<?>[]
+            {AsyncEndpoint.class, AsyncBulkCancellableContext.class}, proxy);
+      return new ResultUnwrappingExecutorService(ClientExecutorService.INSTANCE, container);
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Inner Classes ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Cache key; (OID, {@link InvokerLocator}), either of which may be null
+    */
+   private static final class RemoteTarget
+   {
+      private final Object oid;
+
+      private final InvokerLocator locator;
+
+      private final int hash;
+
+      RemoteTarget(final Object oid, final InvokerLocator locator)
+      {
+         this.oid = oid;
+         this.locator = locator;
+         this.hash = 31 * (oid == null ? 0 : oid.hashCode()) + (locator == null ? 0 : locator.hashCode());
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return hash;
+      }
+
+      @Override
+      public boolean equals(final Object obj)
+      {
+         if (this == obj)
+         {
+            return true;
+         }
+         if (!(obj instanceof RemoteTarget))
+         {
+            return false;
+         }
+         final RemoteTarget other = (RemoteTarget) obj;
+         return (oid == null ? other.oid == null : oid.equals(other.oid))
+               && (locator == null ? other.locator == null : locator.equals(other.locator));
+      }
+
+      @Override
+      public String toString()
+      {
+         return "[oid=" + oid + ", locator=" + locator + "]";
+      }
+   }
+
+   /**
+    * Cached executor, and when it was last used
+    */
+   private static final class Entry
+   {
+      private final ExecutorService executor;
+
+      /**
+       * Time in milliseconds of last use
+       */
+      private volatile long lastUsed;
+
+      /**
+       * Recency of last use, from the cache's use clock
+       */
+      private volatile long lastUse;
+
+      Entry(final ExecutorService executor, final long lastUsed, final long lastUse)
+      {
+         this.executor = executor;
+         this.lastUsed = lastUsed;
+         this.lastUse = lastUse;
+      }
+
+      void touch(final long now, final long use)
+      {
+         this.lastUsed = now;
+         this.lastUse = use;
+      }
+   }
+
+   private static final class PojiProxyHack extends PojiProxy
+   {
+      /**
+       * serialVersionUID
+       */
+      private static final long serialVersionUID = 1L;
+
+      public PojiProxyHack(Object oid, InvokerLocator uri, Interceptor[] interceptors)
+      {
+         super(oid, uri, interceptors);
+      }
+
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+      {
+         final Object obj = super.invoke(proxy, method, args);
+         if (log.isTraceEnabled())
+         {
+            log.trace("Invoked view from proxy: " + method);
+         }
+         return obj;
+      }
+
+   }
+}
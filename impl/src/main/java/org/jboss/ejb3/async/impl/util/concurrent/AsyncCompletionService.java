@@ -0,0 +1,224 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.async.spi.AsyncStage;
+
+/**
+ * {@link CompletionService} handing back the {@link Future}s of asynchronous 
+ * invocations in the order they complete, rather than that in which they were 
+ * submitted.  Tasks may be submitted to an {@link ExecutorService} returning 
+ * {@link AsyncStage}s (ie. {@link ResultUnwrappingExecutorService}, local or 
+ * remote), and the {@link AsyncStage}s returned by @Asynchronous business 
+ * methods may be added directly.  Completion is signalled by listener, 
+ * so no Thread waits upon any individual invocation.
+ * 
+ * Those invocations not yet complete may be cancelled in bulk by 
+ * {@link AsyncCompletionService#cancelRemaining(boolean)}.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class AsyncCompletionService<V> implements CompletionService<V>
+{
+
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Executor to which tasks are submitted, if any
+    */
+   private final ExecutorService executor;
+
+   /**
+    * Completed invocations, in order of completion
+    */
+   private final BlockingQueue<Future<V>> completed = new LinkedBlockingQueue<Future<V>>();
+
+   /**
+    * Invocations not yet complete
+    */
+   private final Set<Future<V>> outstanding = Collections.newSetFromMap(new ConcurrentHashMap<Future<V>, Boolean>());
+
+   // --------------------------------------------------------------------------------||
+   // Constructor --------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new instance accepting only invocations added via 
+    * {@link AsyncCompletionService#add(Future)}
+    */
+   public AsyncCompletionService()
+   {
+      this.executor = null;
+   }
+
+   /**
+    * Creates a new instance submitting tasks to the specified {@link ExecutorService},
+    * which must return {@link AsyncStage}s
+    * 
+    * @param executor
+    * @throws IllegalArgumentException If the executor is not specified
+    */
+   public AsyncCompletionService(final ExecutorService executor) throws IllegalArgumentException
+   {
+      if (executor == null)
+      {
+         throw new IllegalArgumentException(ExecutorService.class.getSimpleName() + " must be specified");
+      }
+      this.executor = executor;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Functional Methods -------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Adds the specified invocation, such as that returned by an @Asynchronous
+    * business method, to be handed back upon completion
+    * 
+    * @param future
+    * @return The specified invocation
+    * @throws IllegalArgumentException If the invocation is not an {@link AsyncStage}
+    */
+   public Future<V> add(final Future<V> future) throws IllegalArgumentException
+   {
+      if (!(future instanceof AsyncStage<?>))
+      {
+         throw new IllegalArgumentException("Only " + AsyncStage.class.getSimpleName()
+               + " invocations signal completion, cannot add: " + future);
+      }
+      outstanding.add(future);
+      ((AsyncStage<V>) future).addListener(new Runnable()
+      {
+         public void run()
+         {
+            outstanding.remove(future);
+            completed.add(future);
+         }
+      }, DirectExecutor.INSTANCE);
+      return future;
+   }
+
+   /**
+    * Cancels those invocations not yet complete, in one request per container 
+    * where dispatched and mayInterruptIfRunning
+    * 
+    * @param mayInterruptIfRunning
+    * @return The number of invocations cancelled
+    * @see AsyncFutures#cancelAll(java.util.Collection, boolean)
+    */
+   public int cancelRemaining(final boolean mayInterruptIfRunning)
+   {
+      final List<Future<V>> remaining = new ArrayList<Future<V>>(outstanding);
+      return AsyncFutures.cancelAll(remaining, mayInterruptIfRunning);
+   }
+
+   /**
+    * Obtains the number of invocations not yet complete
+    * @return
+    */
+   public int getRemainingCount()
+   {
+      return outstanding.size();
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Required Implementations -------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.CompletionService#submit(java.util.concurrent.Callable)
+    */
+   public Future<V> submit(final Callable<V> task)
+   {
+      if (task == null)
+         throw new NullPointerException();
+      return this.add(this.getExecutor().submit(task));
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.CompletionService#submit(java.lang.Runnable, java.lang.Object)
+    */
+   public Future<V> submit(final Runnable task, final V result)
+   {
+      if (task == null)
+         throw new NullPointerException();
+      return this.add(this.getExecutor().submit(task, result));
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.CompletionService#take()
+    */
+   public Future<V> take() throws InterruptedException
+   {
+      return completed.take();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.CompletionService#poll()
+    */
+   public Future<V> poll()
+   {
+      return completed.poll();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.CompletionService#poll(long, java.util.concurrent.TimeUnit)
+    */
+   public Future<V> poll(final long timeout, final TimeUnit unit) throws InterruptedException
+   {
+      return completed.poll(timeout, unit);
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private ExecutorService getExecutor()
+   {
+      if (executor == null)
+      {
+         throw new IllegalStateException("No " + ExecutorService.class.getSimpleName()
+               + " specified; invocations may only be added");
+      }
+      return executor;
+   }
+}
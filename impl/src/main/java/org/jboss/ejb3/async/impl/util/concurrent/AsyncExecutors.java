@@ -0,0 +1,177 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.util.concurrent;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Factory for {@link ExecutorService}s backed by virtual Threads.  
+ * Virtual Threads are located reflectively such that this module 
+ * continues to run upon runtimes which do not support them; 
+ * callers should check {@link AsyncExecutors#isVirtualThreadSupported()}
+ * and fall back to a pool of platform Threads.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class AsyncExecutors
+{
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(AsyncExecutors.class);
+
+   /**
+    * Thread.ofVirtual(), or null if not supported
+    */
+   private static final Method OF_VIRTUAL;
+
+   /**
+    * Thread.Builder.OfVirtual.name(String, long)
+    */
+   private static final Method NAME;
+
+   /**
+    * Thread.Builder.OfVirtual.inheritInheritableThreadLocals(boolean)
+    */
+   private static final Method INHERIT_INHERITABLE_THREAD_LOCALS;
+
+   /**
+    * Thread.Builder.factory()
+    */
+   private static final Method FACTORY;
+
+   /**
+    * Executors.newThreadPerTaskExecutor(ThreadFactory)
+    */
+   private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+   static
+   {
+      Method ofVirtual = null;
+      Method name = null;
+      Method inherit = null;
+      Method factory = null;
+      Method newThreadPerTaskExecutor = null;
+      try
+      {
+         final Class<?> ofVirtualBuilder = Class.forName("java.lang.Thread$Builder$OfVirtual");
+         ofVirtual = Thread.class.getMethod("ofVirtual");
+         name = ofVirtualBuilder.getMethod("name", String.class, long.class);
+         inherit = ofVirtualBuilder.getMethod("inheritInheritableThreadLocals", boolean.class);
+         factory = ofVirtualBuilder.getMethod("factory");
+         newThreadPerTaskExecutor = java.util.concurrent.Executors.class.getMethod("newThreadPerTaskExecutor",
+               ThreadFactory.class);
+      }
+      catch (final ClassNotFoundException cnfe)
+      {
+         ofVirtual = null;
+      }
+      catch (final NoSuchMethodException nsme)
+      {
+         ofVirtual = null;
+      }
+      OF_VIRTUAL = ofVirtual;
+      NAME = name;
+      INHERIT_INHERITABLE_THREAD_LOCALS = inherit;
+      FACTORY = factory;
+      NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+      if (log.isTraceEnabled())
+      {
+         log.trace("Virtual threads supported: " + isVirtualThreadSupported());
+      }
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Constructor --------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * No instantiation
+    */
+   private AsyncExecutors()
+   {
+      throw new UnsupportedOperationException("No instances");
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Functional Methods -------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Returns whether the current runtime supports virtual Threads
+    * @return
+    */
+   public static boolean isVirtualThreadSupported()
+   {
+      return OF_VIRTUAL != null;
+   }
+
+   /**
+    * Creates an {@link ExecutorService} starting a new virtual Thread, named with 
+    * the specified prefix and a sequence number, for each task.  The Threads 
+    * do not inherit inheritable Thread locals (ie. the security context) 
+    * of the submitting Thread; this is established by the task itself.
+    * 
+    * @param threadNamePrefix
+    * @return
+    * @throws IllegalArgumentException If the name prefix is not specified
+    * @throws UnsupportedOperationException If the runtime does not support virtual Threads
+    */
+   public static ExecutorService newVirtualThreadPerTaskExecutor(final String threadNamePrefix)
+         throws IllegalArgumentException, UnsupportedOperationException
+   {
+      if (threadNamePrefix == null)
+      {
+         throw new IllegalArgumentException("Thread name prefix must be specified");
+      }
+      if (!isVirtualThreadSupported())
+      {
+         throw new UnsupportedOperationException("Virtual threads are not supported by this runtime: "
+               + System.getProperty("java.version"));
+      }
+      try
+      {
+         Object builder = OF_VIRTUAL.invoke(null);
+         builder = NAME.invoke(builder, threadNamePrefix + "-", 1L);
+         builder = INHERIT_INHERITABLE_THREAD_LOCALS.invoke(builder, false);
+         final ThreadFactory factory = (ThreadFactory) FACTORY.invoke(builder);
+         return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+      }
+      catch (final IllegalAccessException iae)
+      {
+         throw new UnsupportedOperationException("Could not create virtual thread executor", iae);
+      }
+      catch (final InvocationTargetException ite)
+      {
+         throw new UnsupportedOperationException("Could not create virtual thread executor", ite.getCause());
+      }
+   }
+}
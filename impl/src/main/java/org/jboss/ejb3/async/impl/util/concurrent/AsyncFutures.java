@@ -0,0 +1,276 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.jboss.ejb3.async.spi.AsyncBulkCancellableContext;
+import org.jboss.ejb3.async.spi.AsyncCancellableContext;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.jboss.ejb3.async.spi.AsynchronousClientFuture;
+import org.jboss.logging.Logger;
+
+/**
+ * Utilities upon the {@link Future}s of asynchronous invocations
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class AsyncFutures
+{
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(AsyncFutures.class);
+
+   // --------------------------------------------------------------------------------||
+   // Constructor --------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * No instantiation
+    */
+   private AsyncFutures()
+   {
+      throw new UnsupportedOperationException("No instances");
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Functional Methods -------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Cancels all specified {@link Future}s.  Invocations awaiting a chained invocation 
+    * (see {@link AsynchronousClientFuture#getPendingResult()}) are reported as cancelled, 
+    * and the chained invocation is cancelled in their place.  Invocations not yet 
+    * dispatched are cancelled locally; if mayInterruptIfRunning, cancel requests for those already dispatched are 
+    * grouped by container and issued in one call per container supporting
+    * {@link AsyncBulkCancellableContext}, else one call per invocation.  
+    * Other {@link Future} types are cancelled directly.
+    * 
+    * @param futures
+    * @param mayInterruptIfRunning
+    * @return The number of invocations cancelled or for which a cancel request was accepted
+    * @throws IllegalArgumentException If the futures are not specified
+    */
+   public static int cancelAll(final Collection<? extends Future<?>> futures, final boolean mayInterruptIfRunning)
+         throws IllegalArgumentException
+   {
+      if (futures == null)
+      {
+         throw new IllegalArgumentException("Futures must be specified");
+      }
+      int cancelled = 0;
+      final Set<AsynchronousClientFuture<?>> targets = Collections
+            .newSetFromMap(new IdentityHashMap<AsynchronousClientFuture<?>, Boolean>());
+      final Map<AsyncCancellableContext, List<AsynchronousClientFuture<?>>> dispatched = new IdentityHashMap<AsyncCancellableContext, List<AsynchronousClientFuture<?>>>();
+      for (final Future<?> future : futures)
+      {
+         if (future == null || future.isDone())
+         {
+            continue;
+         }
+         AsynchronousClientFuture<?> clientFuture = unwrap(future);
+         if (clientFuture == null)
+         {
+            if (future.cancel(mayInterruptIfRunning))
+            {
+               cancelled++;
+            }
+            continue;
+         }
+
+         // If waiting upon a chained invocation, report as cancelled and cancel that
+         // instead, as would AsynchronousClientFuture.cancel
+         AsynchronousClientFuture<?> pending;
+         while ((pending = clientFuture.getPendingResult()) != null)
+         {
+            if (clientFuture.markCancelled())
+            {
+               cancelled++;
+            }
+            clientFuture = pending;
+         }
+         if (clientFuture.isDone() || !targets.add(clientFuture))
+         {
+            continue;
+         }
+
+         if (clientFuture.cancelLocally())
+         {
+            cancelled++;
+            continue;
+         }
+         if (mayInterruptIfRunning && !clientFuture.isDone())
+         {
+            final AsyncCancellableContext container = clientFuture.getCancellableContext();
+            List<AsynchronousClientFuture<?>> containerFutures = dispatched.get(container);
+            if (containerFutures == null)
+            {
+               containerFutures = new ArrayList<AsynchronousClientFuture<?>>();
+               dispatched.put(container, containerFutures);
+            }
+            containerFutures.add(clientFuture);
+         }
+      }
+      for (final Map.Entry<AsyncCancellableContext, List<AsynchronousClientFuture<?>>> entry : dispatched
+            .entrySet())
+      {
+         final List<AsynchronousClientFuture<?>> containerFutures = entry.getValue();
+         final List<AsyncInvocationId> ids = new ArrayList<AsyncInvocationId>(containerFutures.size());
+         for (final AsynchronousClientFuture<?> clientFuture : containerFutures)
+         {
+            ids.add(clientFuture.getInvocationId());
+         }
+         cancelled += cancelAll(entry.getKey(), ids);
+
+         // Report as cancelled, as would AsynchronousClientFuture.cancel
+         for (final AsynchronousClientFuture<?> clientFuture : containerFutures)
+         {
+            clientFuture.markCancelled();
+         }
+      }
+      return cancelled;
+   }
+
+   /**
+    * Cancels all specified {@link Future}s as {@link AsyncFutures#cancelAll(Collection, boolean)}, 
+    * without blocking the calling Thread: cancel requests are issued by the specified
+    * {@link Executor}.  Invocations not yet dispatched are nonetheless cancelled 
+    * before returning.
+    * 
+    * @param futures
+    * @param mayInterruptIfRunning
+    * @param executor
+    * @return The number of invocations cancelled or for which a cancel request was accepted;
+    *   callers not interested may disregard it
+    * @throws IllegalArgumentException If the futures or executor are not specified
+    */
+   public static Future<Integer> cancelAllAsync(final Collection<? extends Future<?>> futures,
+         final boolean mayInterruptIfRunning, final Executor executor) throws IllegalArgumentException
+   {
+      if (futures == null)
+      {
+         throw new IllegalArgumentException("Futures must be specified");
+      }
+      if (executor == null)
+      {
+         throw new IllegalArgumentException(Executor.class.getSimpleName() + " must be specified");
+      }
+
+      // Cancel locally first, which does not block, keeping only those needing a request
+      int cancelledLocally = 0;
+      final List<Future<?>> remaining = new ArrayList<Future<?>>();
+      for (final Future<?> future : futures)
+      {
+         final AsynchronousClientFuture<?> clientFuture = future == null ? null : unwrap(future);
+         if (clientFuture != null && clientFuture.cancelLocally())
+         {
+            cancelledLocally++;
+         }
+         else if (future != null && !future.isDone())
+         {
+            remaining.add(future);
+         }
+      }
+      final int alreadyCancelled = cancelledLocally;
+      final FutureTask<Integer> task = new FutureTask<Integer>(new Callable<Integer>()
+      {
+         @Override
+         public Integer call() throws Exception
+         {
+            return alreadyCancelled + cancelAll(remaining, mayInterruptIfRunning);
+         }
+      });
+      if (remaining.isEmpty())
+      {
+         task.run();
+      }
+      else
+      {
+         executor.execute(task);
+      }
+      return task;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the {@link AsynchronousClientFuture} backing the specified {@link Future}, 
+    * or null if not so backed
+    */
+   static AsynchronousClientFuture<?> unwrap(final Future<?> future)
+   {
+      if (future instanceof AsynchronousClientFuture<?>)
+      {
+         return (AsynchronousClientFuture<?>) future;
+      }
+      return null;
+   }
+
+   /**
+    * Issues cancel requests for the specified invocations to the specified container, 
+    * in a single call where supported
+    */
+   private static int cancelAll(final AsyncCancellableContext container, final List<AsyncInvocationId> ids)
+   {
+      if (container instanceof AsyncBulkCancellableContext)
+      {
+         try
+         {
+            return ((AsyncBulkCancellableContext) container).cancelAll(ids);
+         }
+         catch (final RuntimeException re)
+         {
+            // ie. a remote container not supporting bulk requests
+            if (log.isTraceEnabled())
+            {
+               log.trace("Bulk cancel request failed, issuing " + ids.size() + " requests to " + container, re);
+            }
+         }
+      }
+      int cancelled = 0;
+      for (final AsyncInvocationId id : ids)
+      {
+         if (container.cancel(id))
+         {
+            cancelled++;
+         }
+      }
+      return cancelled;
+   }
+}
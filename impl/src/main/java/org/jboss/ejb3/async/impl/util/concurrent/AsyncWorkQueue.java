@@ -0,0 +1,761 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.util.concurrent;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jboss.ejb3.async.spi.AsyncInvocationFuture;
+import org.jboss.ejb3.async.spi.AsyncCancellationRegistry;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+
+/**
+ * Bounded {@link BlockingQueue} of work for a {@link ThreadPoolExecutor}, 
+ * indexed both by task identity and by the {@link AsyncInvocationId} of queued
+ * {@link AsyncInvocationFuture}s, such that cancelled invocations are removed
+ * in constant time rather than lingering until dequeued by a worker.  
+ * {@link ThreadPoolExecutor#remove(Runnable)} therefore costs O(1), as does 
+ * {@link AsyncWorkQueue#cancelQueued(ExecutorService, AsyncInvocationId)}.
+ * 
+ * As with any {@link BlockingQueue}, a task instance may be queued more than once; 
+ * removal by identity or ID then takes the oldest.  Iterators are snapshots of 
+ * the queue at the time of their creation.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class AsyncWorkQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable>
+{
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Maximum number of queued tasks
+    */
+   private final int capacity;
+
+   /**
+    * Guards all state below
+    */
+   private final ReentrantLock lock = new ReentrantLock();
+
+   private final Condition notEmpty = lock.newCondition();
+
+   private final Condition notFull = lock.newCondition();
+
+   /**
+    * Oldest queued task
+    */
+   private Node head;
+
+   /**
+    * Newest queued task
+    */
+   private Node tail;
+
+   private int count;
+
+   /**
+    * Oldest queued node of each task, by identity
+    */
+   private final Map<Runnable, Node> byTask = new IdentityHashMap<Runnable, Node>();
+
+   /**
+    * Oldest queued node of each invocation, by ID
+    */
+   private final Map<AsyncInvocationId, Node> byId = new HashMap<AsyncInvocationId, Node>();
+
+   /**
+    * Number of tasks removed before being dequeued
+    */
+   private long removedCount;
+
+   // --------------------------------------------------------------------------------||
+   // Constructors -------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Creates an unbounded queue
+    */
+   public AsyncWorkQueue()
+   {
+      this(Integer.MAX_VALUE);
+   }
+
+   /**
+    * Creates a queue of the specified capacity
+    * @param capacity
+    * @throws IllegalArgumentException If the capacity is not positive
+    */
+   public AsyncWorkQueue(final int capacity) throws IllegalArgumentException
+   {
+      if (capacity <= 0)
+      {
+         throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+      }
+      this.capacity = capacity;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Functional Methods -------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Removes the queued invocation of the specified ID
+    * @param id
+    * @return The removed task, or null if no invocation of the ID is queued
+    * @throws IllegalArgumentException If the ID is not specified
+    */
+   public Runnable removeById(final AsyncInvocationId id) throws IllegalArgumentException
+   {
+      if (id == null)
+      {
+         throw new IllegalArgumentException("ID must be specified");
+      }
+      final ReentrantLock lock = this.lock;
+      lock.lock();
+      try
+      {
+         final Node node = byId.get(id);
+         if (node == null)
+         {
+            return null;
+         }
+         this.unlink(node);
+         removedCount++;
+         return node.task;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Returns the number of tasks removed (ie. upon cancellation) before being dequeued
+    * @return
+    */
+   public long getRemovedCount()
+   {
+      final ReentrantLock lock = this.lock;
+      lock.lock();
+      try
+      {
+         return removedCount;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Removes the invocation of the specified ID from the queue of the specified 
+    * executor, if backed by an {@link AsyncWorkQueue}, and cancels its {@link Future}.
+    * Intended for use by {@link org.jboss.ejb3.async.spi.AsyncCancellableContext}
+    * implementations.
+    * 
+    * @param executor
+    * @param id
+    * @return Whether a queued invocation was removed
+    * @throws IllegalArgumentException If either argument is not specified
+    */
+   public static boolean cancelQueued(final ExecutorService executor, final AsyncInvocationId id)
+         throws IllegalArgumentException
+   {
+      if (executor == null)
+      {
+         throw new IllegalArgumentException(ExecutorService.class.getSimpleName() + " must be specified");
+      }
+      if (!(executor instanceof ThreadPoolExecutor))
+      {
+         return false;
+      }
+      final BlockingQueue<Runnable> queue = ((ThreadPoolExecutor) executor).getQueue();
+      if (!(queue instanceof AsyncWorkQueue))
+      {
+         return false;
+      }
+      final Runnable removed = ((AsyncWorkQueue) queue).removeById(id);
+      if (removed == null)
+      {
+         return false;
+      }
+      if (removed instanceof Future<?>)
+      {
+         ((Future<?>) removed).cancel(false);
+      }
+      // Will never run, so never claim a cancellation kept for it
+      AsyncCancellationRegistry.discardPending(id);
+      return true;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Required Implementations -------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.Queue#offer(java.lang.Object)
+    */
+   @Override
+   public boolean offer(final Runnable task)
+   {
+      assertTask(task);
+      final ReentrantLock lock = this.lock;
+      lock.lock();
+      try
+      {
+         if (count == capacity)
+         {
+            return false;
+         }
+         this.enqueue(task);
+         return true;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.BlockingQueue#offer(java.lang.Object, long, java.util.concurrent.TimeUnit)
+    */
+   @Override
+   public boolean offer(final Runnable task, final long timeout, final TimeUnit unit) throws InterruptedException
+   {
+      assertTask(task);
+      long nanos = unit.toNanos(timeout);
+      final ReentrantLock lock = this.lock;
+      lock.lockInterruptibly();
+      try
+      {
+         while (count == capacity)
+         {
+            if (nanos <= 0)
+            {
+               return false;
+            }
+            nanos = notFull.awaitNanos(nanos);
+         }
+         this.enqueue(task);
+         return true;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.BlockingQueue#put(java.lang.Object)
+    */
+   @Override
+   public void put(final Runnable task) throws InterruptedException
+   {
+      assertTask(task);
+      final ReentrantLock lock = this.lock;
+      lock.lockInterruptibly();
+      try
+      {
+         while (count == capacity)
+         {
+            notFull.await();
+         }
+         this.enqueue(task);
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.Queue#poll()
+    */
+   @Override
+   public Runnable poll()
+   {
+      final ReentrantLock lock = this.lock;
+      lock.lock();
+      try
+      {
+         return count == 0 ? null : this.dequeue();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.BlockingQueue#poll(long, java.util.concurrent.TimeUnit)
+    */
+   @Override
+   public Runnable poll(final long timeout, final TimeUnit unit) throws InterruptedException
+   {
+      long nanos = unit.toNanos(timeout);
+      final ReentrantLock lock = this.lock;
+      lock.lockInterruptibly();
+      try
+      {
+         while (count == 0)
+         {
+            if (nanos <= 0)
+            {
+               return null;
+            }
+            nanos = notEmpty.awaitNanos(nanos);
+         }
+         return this.dequeue();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.BlockingQueue#take()
+    */
+   @Override
+   public Runnable take() throws InterruptedException
+   {
+      final ReentrantLock lock = this.lock;
+      lock.lockInterruptibly();
+      try
+      {
+         while (count == 0)
+         {
+            notEmpty.await();
+         }
+         return this.dequeue();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.Queue#peek()
+    */
+   @Override
+   public Runnable peek()
+   {
+      final ReentrantLock lock = this.lock;
+      lock.lock();
+      try
+      {
+         return head == null ? null : head.task;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.AbstractCollection#size()
+    */
+   @Override
+   public int size()
+   {
+      final ReentrantLock lock = this.lock;
+      lock.lock();
+      try
+      {
+         return count;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.BlockingQueue#remainingCapacity()
+    */
+   @Override
+   public int remainingCapacity()
+   {
+      final ReentrantLock lock = this.lock;
+      lock.lock();
+      try
+      {
+         return capacity - count;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection)
+    */
+   @Override
+   public int drainTo(final Collection<? super Runnable> c)
+   {
+      return this.drainTo(c, Integer.MAX_VALUE);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.BlockingQueue#drainTo(java.util.Collection, int)
+    */
+   @Override
+   public int drainTo(final Collection<? super Runnable> c, final int maxElements)
+   {
+      if (c == null)
+      {
+         throw new NullPointerException();
+      }
+      if (c == this)
+      {
+         throw new IllegalArgumentException("Cannot drain to self");
+      }
+      final ReentrantLock lock = this.lock;
+      lock.lock();
+      try
+      {
+         int drained = 0;
+         while (count > 0 && drained < maxElements)
+         {
+            c.add(this.dequeue());
+            drained++;
+         }
+         return drained;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * Returns an iterator over a snapshot of the queued tasks; 
+    * {@link Iterator#remove()} removes the task from this queue
+    * @see java.util.AbstractCollection#iterator()
+    */
+   @Override
+   public Iterator<Runnable> iterator()
+   {
+      final List<Runnable> snapshot;
+      final ReentrantLock lock = this.lock;
+      lock.lock();
+      try
+      {
+         snapshot = new ArrayList<Runnable>(count);
+         for (Node node = head; node != null; node = node.next)
+         {
+            snapshot.add(node.task);
+         }
+      }
+      finally
+      {
+         lock.unlock();
+      }
+      return new Iterator<Runnable>()
+      {
+         private int next;
+
+         private Runnable last;
+
+         @Override
+         public boolean hasNext()
+         {
+            return next < snapshot.size();
+         }
+
+         @Override
+         public Runnable next()
+         {
+            if (!this.hasNext())
+            {
+               throw new NoSuchElementException();
+            }
+            last = snapshot.get(next++);
+            return last;
+         }
+
+         @Override
+         public void remove()
+         {
+            if (last == null)
+            {
+               throw new IllegalStateException();
+            }
+            AsyncWorkQueue.this.remove(last);
+            last = null;
+         }
+      };
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Overridden Implementations -----------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Removes the specified task in constant time
+    * @see java.util.AbstractCollection#remove(java.lang.Object)
+    */
+   @Override
+   public boolean remove(final Object o)
+   {
+      if (o == null)
+      {
+         return false;
+      }
+      final ReentrantLock lock = this.lock;
+      lock.lock();
+      try
+      {
+         final Node node = byTask.get(o);
+         if (node == null)
+         {
+            return false;
+         }
+         this.unlink(node);
+         removedCount++;
+         return true;
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.AbstractCollection#contains(java.lang.Object)
+    */
+   @Override
+   public boolean contains(final Object o)
+   {
+      final ReentrantLock lock = this.lock;
+      lock.lock();
+      try
+      {
+         return byTask.containsKey(o);
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.AbstractQueue#clear()
+    */
+   @Override
+   public void clear()
+   {
+      final ReentrantLock lock = this.lock;
+      lock.lock();
+      try
+      {
+         head = null;
+         tail = null;
+         count = 0;
+         byTask.clear();
+         byId.clear();
+         notFull.signalAll();
+      }
+      finally
+      {
+         lock.unlock();
+      }
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private static void assertTask(final Runnable task)
+   {
+      if (task == null)
+      {
+         throw new NullPointerException("Task must be specified");
+      }
+   }
+
+   /**
+    * Links the task at the tail; caller must hold the lock and ensure capacity
+    */
+   private void enqueue(final Runnable task)
+   {
+      final Node node = new Node(task);
+      final Node oldest = byTask.get(task);
+      if (oldest != null)
+      {
+         // Already queued; chain behind the last node of the task, indexed as is
+         oldest.newestSame.nextSame = node;
+         oldest.newestSame = node;
+         node.id = oldest.id;
+      }
+      else
+      {
+         if (task instanceof AsyncInvocationFuture<?>)
+         {
+            node.id = ((AsyncInvocationFuture<?>) task).getInvocationId();
+            if (node.id != null)
+            {
+               byId.put(node.id, node);
+            }
+         }
+         byTask.put(task, node);
+      }
+      if (tail == null)
+      {
+         head = node;
+      }
+      else
+      {
+         tail.next = node;
+         node.previous = tail;
+      }
+      tail = node;
+      count++;
+      notEmpty.signal();
+   }
+
+   /**
+    * Unlinks the head; caller must hold the lock and ensure the queue is not empty
+    */
+   private Runnable dequeue()
+   {
+      final Node node = head;
+      this.unlink(node);
+      return node.task;
+   }
+
+   /**
+    * Unlinks the specified node, which must be the oldest of its task (as 
+    * is the head, and any node indexed); caller must hold the lock
+    */
+   private void unlink(final Node node)
+   {
+      assert byTask.get(node.task) == node : "Not the oldest node of its task: " + node.task;
+      if (node.previous == null)
+      {
+         head = node.next;
+      }
+      else
+      {
+         node.previous.next = node.next;
+      }
+      if (node.next == null)
+      {
+         tail = node.previous;
+      }
+      else
+      {
+         node.next.previous = node.previous;
+      }
+      node.previous = null;
+      node.next = null;
+
+      // Index the next node of the same task, if any
+      final Node successor = node.nextSame;
+      node.nextSame = null;
+      if (successor == null)
+      {
+         byTask.remove(node.task);
+      }
+      else
+      {
+         successor.newestSame = node.newestSame;
+         byTask.put(node.task, successor);
+      }
+      node.newestSame = null;
+      if (node.id != null && byId.get(node.id) == node)
+      {
+         if (successor == null)
+         {
+            byId.remove(node.id);
+         }
+         else
+         {
+            byId.put(node.id, successor);
+         }
+      }
+      count--;
+      notFull.signal();
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Inner Classes ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private static final class Node
+   {
+      final Runnable task;
+
+      AsyncInvocationId id;
+
+      Node previous;
+
+      Node next;
+
+      /**
+       * Next queued node of the same task
+       */
+      Node nextSame;
+
+      /**
+       * Newest queued node of the same task; maintained upon the oldest only
+       */
+      Node newestSame;
+
+      Node(final Runnable task)
+      {
+         this.task = task;
+         this.newestSame = this;
+      }
+   }
+}
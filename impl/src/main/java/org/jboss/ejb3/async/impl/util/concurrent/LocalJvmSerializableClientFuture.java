@@ -0,0 +1,171 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.util.concurrent;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.jboss.ejb3.async.impl.ClientExecutorService;
+import org.jboss.ejb3.async.spi.AsyncEndpoint;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.jboss.ejb3.async.spi.AsynchronousClientFuture;
+
+/**
+ * The single object backing each local asynchronous invocation: the task run
+ * by the executor, and the {@link Serializable} Future returned to the caller, 
+ * holding the bean provider's return value unwrapped upon completion
+ * and supporting cancellation in the container once dispatched.
+ * 
+ * Serialization has the following restrictions:
+ * 
+ * 1) Only one serialization request using this class may be made per-Thread at any time
+ * 2) This mechanism will work only while staying in the same JVM, not across the wire
+ * to other processes.  The serialized form is a placeholder which resolves to 
+ * the original instance upon deserialization.
+ * 
+ * This is in place to assist in pass-by-value semantics.
+ * 
+ * When cancelled before running, the task removes itself from the work queue of 
+ * its executor; with an {@link AsyncWorkQueue} this is a constant-time operation,
+ * so mass cancellation leaves no dead entries occupying queue capacity.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+class LocalJvmSerializableClientFuture<V> extends AsynchronousClientFuture<V> implements Serializable
+{
+
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * serialVersionUID
+    */
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * Holds a reference to the instance during its serialization.  This mechanism
+    * makes this class not safe for more than one serialization request per thread (though
+    * in ejb3-async this is OK as each async request has thread confinement). 
+    */
+   private static final ThreadLocal<LocalJvmSerializableClientFuture<?>> REFERENCE_DURING_SERIALIZATION = new ThreadLocal<LocalJvmSerializableClientFuture<?>>();
+
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Executor to which this task has been submitted
+    */
+   private final transient ExecutorService executor;
+
+   // --------------------------------------------------------------------------------||
+   // Constructor --------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   LocalJvmSerializableClientFuture(final Callable<V> callable, final AsyncInvocationId id,
+         final AsyncEndpoint container, final ExecutorService executor)
+   {
+      super(callable, id, container);
+      this.executor = executor;
+   }
+
+   LocalJvmSerializableClientFuture(final Runnable runnable, final V result, final AsyncInvocationId id,
+         final AsyncEndpoint container, final ExecutorService executor)
+   {
+      super(runnable, result, id, container);
+      this.executor = executor;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Serialization ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Serializes as a {@link LocalJvmReference}, manually storing the reference 
+    * to this instance in {@link LocalJvmSerializableClientFuture#REFERENCE_DURING_SERIALIZATION}
+    */
+   private Object writeReplace() throws ObjectStreamException
+   {
+      REFERENCE_DURING_SERIALIZATION.set(this);
+      return new LocalJvmReference();
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Overridden Implementations -----------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.FutureTask#done()
+    */
+   @Override
+   protected void done()
+   {
+      super.done();
+      if (!this.isCancelled())
+      {
+         return;
+      }
+      if (executor instanceof ThreadPoolExecutor)
+      {
+         ((ThreadPoolExecutor) executor).remove(this);
+      }
+      else if (executor instanceof ClientExecutorService)
+      {
+         ((ClientExecutorService) executor).remove(this);
+      }
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Inner Classes ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Serialized form of a {@link LocalJvmSerializableClientFuture}, 
+    * resolving to the instance written upon this Thread
+    */
+   private static final class LocalJvmReference implements Serializable
+   {
+      private static final long serialVersionUID = 1L;
+
+      /**
+       * Resolves to the instance stored during serialization
+       */
+      private Object readResolve() throws ObjectStreamException
+      {
+         // Get out the reference
+         final LocalJvmSerializableClientFuture<?> future = REFERENCE_DURING_SERIALIZATION.get();
+         // Enforce postconditions
+         if (future == null)
+         {
+            throw new IllegalStateException("Future was null during deserialization");
+         }
+         // Clear the ThreadLocal
+         REFERENCE_DURING_SERIALIZATION.remove();
+         return future;
+      }
+   }
+}
@@ -0,0 +1,135 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.util.concurrent;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.ejb3.async.spi.CurrentAsyncInvocation;
+
+/**
+ * {@link ThreadFactory} creating Threads with a common name prefix
+ * and a sequence number, optionally as daemons.  Upon exit, each Thread
+ * discards any asynchronous invocation state left upon it (see 
+ * {@link CurrentAsyncInvocation#clearCurrentThread()}).
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class NamedThreadFactory implements ThreadFactory
+{
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Prefix of all Thread names
+    */
+   private final String namePrefix;
+
+   /**
+    * Whether created Threads are daemons
+    */
+   private final boolean daemon;
+
+   /**
+    * Group of created Threads
+    */
+   private final ThreadGroup group;
+
+   /**
+    * Sequence of created Threads
+    */
+   private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+   // --------------------------------------------------------------------------------||
+   // Constructor --------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new factory
+    * @param namePrefix Prefix of all Thread names
+    * @param daemon Whether created Threads are daemons
+    * @throws IllegalArgumentException If the name prefix is not specified
+    */
+   public NamedThreadFactory(final String namePrefix, final boolean daemon) throws IllegalArgumentException
+   {
+      if (namePrefix == null)
+      {
+         throw new IllegalArgumentException("Name prefix must be specified");
+      }
+      this.namePrefix = namePrefix;
+      this.daemon = daemon;
+      final SecurityManager sm = System.getSecurityManager();
+      this.group = sm != null ? sm.getThreadGroup() : Thread.currentThread().getThreadGroup();
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Required Implementations -------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
+    */
+   @Override
+   public Thread newThread(final Runnable r)
+   {
+      final Thread t = new Thread(group, new ClearingRunnable(r), namePrefix + "-" + threadNumber.getAndIncrement());
+      t.setDaemon(daemon);
+      if (t.getPriority() != Thread.NORM_PRIORITY)
+      {
+         t.setPriority(Thread.NORM_PRIORITY);
+      }
+      return t;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Inner Classes ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Runs the Thread's work, then clears its asynchronous invocation state, 
+    * however it exits
+    */
+   private static final class ClearingRunnable implements Runnable
+   {
+      private final Runnable delegate;
+
+      ClearingRunnable(final Runnable delegate)
+      {
+         this.delegate = delegate;
+      }
+
+      @Override
+      public void run()
+      {
+         try
+         {
+            delegate.run();
+         }
+         finally
+         {
+            CurrentAsyncInvocation.clearCurrentThread();
+         }
+      }
+   }
+}
@@ -21,17 +21,23 @@
  */
 package org.jboss.ejb3.async.impl.util.concurrent;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import org.jboss.ejb3.async.impl.AsyncInvocationIdSequenceImpl;
 import org.jboss.ejb3.async.spi.AsyncEndpoint;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.jboss.ejb3.async.spi.AsyncStage;
 import org.jboss.ejb3.async.spi.AsynchronousClientFuture;
 import org.jboss.ejb3.async.spi.CurrentAsyncInvocation;
 
@@ -39,7 +45,9 @@ import org.jboss.ejb3.async.spi.CurrentAsyncInvocation;
  * {@link ExecutorService} implementation which submits all
  * incoming {@link Callable}s or {@link Runnable}s as
  * {@link AsynchronousClientFuture} such that the bean provider's
- * true value may be obtained as a result.
+ * true value may be obtained as a result.  The returned Futures are 
+ * {@link AsyncStage}s, to which continuations may be attached rather
+ * than waiting upon the result.
  *
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  * @version $Revision: $
@@ -106,14 +114,11 @@ public class ResultUnwrappingExecutorService implements ExecutorService
     * @see java.util.concurrent.ExecutorService#submit(java.util.concurrent.Callable)
     */
    @Override
-   public <T> Future<T> submit(final Callable<T> task)
+   public <T> AsyncStage<T> submit(final Callable<T> task)
    {
       if (task == null)
          throw new NullPointerException();
-      final FutureTask<T> ftask = new AsynchronousClientFuture<T>(task,
-            CurrentAsyncInvocation.getCurrentAsyncInvocationId(), this.container);
-      delegate.execute(ftask);
-      return new LocalJvmSerializableFutureWrapper<T>(ftask);
+      return this.submitInvocation(task, currentInvocationId());
    }
 
    /**
@@ -121,14 +126,14 @@ public class ResultUnwrappingExecutorService implements ExecutorService
     * @see java.util.concurrent.ExecutorService#submit(java.lang.Runnable, java.lang.Object)
     */
    @Override
-   public <T> Future<T> submit(final Runnable task, final T result)
+   public <T> AsyncStage<T> submit(final Runnable task, final T result)
    {
       if (task == null)
          throw new NullPointerException();
-      final FutureTask<T> ftask = new AsynchronousClientFuture<T>(task, result,
-            CurrentAsyncInvocation.getCurrentAsyncInvocationId(), this.container);
+      final AsynchronousClientFuture<T> ftask = new LocalJvmSerializableClientFuture<T>(task, result,
+            currentInvocationId(), this.container, delegate);
       delegate.execute(ftask);
-      return new LocalJvmSerializableFutureWrapper<T>(ftask);
+      return ftask;
    }
 
    /**
@@ -136,51 +141,160 @@ public class ResultUnwrappingExecutorService implements ExecutorService
     * @see java.util.concurrent.ExecutorService#submit(java.lang.Runnable)
     */
    @Override
-   public Future<?> submit(final Runnable task)
+   public AsyncStage<?> submit(final Runnable task)
    {
       if (task == null)
          throw new NullPointerException();
-      final FutureTask<Object> ftask = new AsynchronousClientFuture<Object>(task, null,
-            CurrentAsyncInvocation.getCurrentAsyncInvocationId(), this.container);
+      final AsynchronousClientFuture<Object> ftask = new LocalJvmSerializableClientFuture<Object>(task, null,
+            currentInvocationId(), this.container, delegate);
       delegate.execute(ftask);
-      return new LocalJvmSerializableFutureWrapper<Object>(ftask);
+      return ftask;
    }
 
    /*
-    * Everything below this line delegates 
-    * to the delegate ES
+    * The "invoke" methods below submit each task as its own invocation, 
+    * with its own ID, such that results are unwrapped and those no longer
+    * needed may be cancelled in the container
     */
 
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.ExecutorService#invokeAll(java.util.Collection)
+    */
    @Override
-   public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+   public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks) throws InterruptedException
    {
-      return delegate.awaitTermination(timeout, unit);
+      final List<Future<T>> futures = this.submitAll(tasks);
+      boolean done = false;
+      try
+      {
+         for (final Future<T> future : futures)
+         {
+            if (!future.isDone())
+            {
+               try
+               {
+                  future.get();
+               }
+               catch (final CancellationException ignore)
+               {
+               }
+               catch (final ExecutionException ignore)
+               {
+               }
+            }
+         }
+         done = true;
+         return futures;
+      }
+      finally
+      {
+         if (!done)
+         {
+            cancelAll(futures);
+         }
+      }
    }
 
+   /**
+    * {@inheritDoc}
+    * Those invocations not complete by the deadline are cancelled, in the
+    * container if already dispatched.
+    * @see java.util.concurrent.ExecutorService#invokeAll(java.util.Collection, long, java.util.concurrent.TimeUnit)
+    */
    @Override
-   public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException
+   public <T> List<Future<T>> invokeAll(final Collection<? extends Callable<T>> tasks, final long timeout,
+         final TimeUnit unit) throws InterruptedException
    {
-      return delegate.invokeAll(tasks);
+      if (unit == null)
+         throw new NullPointerException();
+      final long deadline = System.nanoTime() + unit.toNanos(timeout);
+      final List<Future<T>> futures = this.submitAll(tasks);
+      boolean done = false;
+      try
+      {
+         for (final Future<T> future : futures)
+         {
+            if (!future.isDone())
+            {
+               final long remaining = deadline - System.nanoTime();
+               if (remaining <= 0)
+               {
+                  return futures;
+               }
+               try
+               {
+                  future.get(remaining, TimeUnit.NANOSECONDS);
+               }
+               catch (final CancellationException ignore)
+               {
+               }
+               catch (final ExecutionException ignore)
+               {
+               }
+               catch (final TimeoutException toe)
+               {
+                  return futures;
+               }
+            }
+         }
+         done = true;
+         return futures;
+      }
+      finally
+      {
+         if (!done)
+         {
+            cancelAll(futures);
+         }
+      }
    }
 
+   /**
+    * {@inheritDoc}
+    * Once one invocation has succeeded, the others are cancelled, in the
+    * container if already dispatched.
+    * @see java.util.concurrent.ExecutorService#invokeAny(java.util.Collection)
+    */
    @Override
-   public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
-         throws InterruptedException
+   public <T> T invokeAny(final Collection<? extends Callable<T>> tasks) throws InterruptedException,
+         ExecutionException
    {
-      return delegate.invokeAll(tasks, timeout, unit);
+      try
+      {
+         return this.doInvokeAny(tasks, false, 0);
+      }
+      catch (final TimeoutException toe)
+      {
+         // Untimed
+         throw new IllegalStateException(toe);
+      }
    }
 
+   /**
+    * {@inheritDoc}
+    * Once one invocation has succeeded, or upon timeout, the others are cancelled, 
+    * in the container if already dispatched.
+    * @see java.util.concurrent.ExecutorService#invokeAny(java.util.Collection, long, java.util.concurrent.TimeUnit)
+    */
    @Override
-   public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException
+   public <T> T invokeAny(final Collection<? extends Callable<T>> tasks, final long timeout, final TimeUnit unit)
+         throws InterruptedException, ExecutionException, TimeoutException
    {
-      return delegate.invokeAny(tasks);
+      if (unit == null)
+         throw new NullPointerException();
+      return this.doInvokeAny(tasks, true, unit.toNanos(timeout));
    }
 
+   /*
+    * Everything below this line delegates 
+    * to the delegate ES
+    */
+
    @Override
-   public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
-         throws InterruptedException, ExecutionException, TimeoutException
+   public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
    {
-      return delegate.invokeAny(tasks, timeout, unit);
+      return delegate.awaitTermination(timeout, unit);
    }
 
    @Override
@@ -213,4 +327,133 @@ public class ResultUnwrappingExecutorService implements ExecutorService
       delegate.execute(command);
    }
 
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the ID of the invocation being submitted, as marked upon the current Thread
+    * (ie. by the client interceptor), or a new ID if the task is submitted directly
+    */
+   private static AsyncInvocationId currentInvocationId()
+   {
+      final AsyncInvocationId current = CurrentAsyncInvocation.getCurrentAsyncInvocationId();
+      return current != null ? current : new AsyncInvocationIdSequenceImpl();
+   }
+
+   /**
+    * Submits the specified task as the invocation with the specified ID
+    */
+   private <T> AsynchronousClientFuture<T> submitInvocation(final Callable<T> task, final AsyncInvocationId id)
+   {
+      final AsynchronousClientFuture<T> ftask = new LocalJvmSerializableClientFuture<T>(task, id, this.container,
+            delegate);
+      delegate.execute(ftask);
+      return ftask;
+   }
+
+   /**
+    * Submits each of the specified tasks as a new invocation, cancelling 
+    * those already submitted should any fail to be
+    */
+   private <T> List<Future<T>> submitAll(final Collection<? extends Callable<T>> tasks)
+   {
+      if (tasks == null)
+         throw new NullPointerException();
+      final List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+      boolean submitted = false;
+      try
+      {
+         for (final Callable<T> task : tasks)
+         {
+            if (task == null)
+               throw new NullPointerException();
+            futures.add(this.submitInvocation(task, new AsyncInvocationIdSequenceImpl()));
+         }
+         submitted = true;
+         return futures;
+      }
+      finally
+      {
+         if (!submitted)
+         {
+            cancelAll(futures);
+         }
+      }
+   }
+
+   /**
+    * Submits the specified tasks, returning the result of the first to succeed and 
+    * cancelling the rest; the completion of each is signalled by listener, so the 
+    * results are taken in order of completion
+    */
+   private <T> T doInvokeAny(final Collection<? extends Callable<T>> tasks, final boolean timed, final long nanos)
+         throws InterruptedException, ExecutionException, TimeoutException
+   {
+      if (tasks == null)
+         throw new NullPointerException();
+      if (tasks.isEmpty())
+         throw new IllegalArgumentException("No tasks specified");
+      final long deadline = timed ? System.nanoTime() + nanos : 0;
+      final BlockingQueue<Future<T>> completed = new LinkedBlockingQueue<Future<T>>();
+      final List<Future<T>> futures = this.submitAll(tasks);
+      try
+      {
+         for (final Future<T> future : futures)
+         {
+            ((AsyncStage<T>) future).addListener(new Runnable()
+            {
+               public void run()
+               {
+                  completed.add(future);
+               }
+            }, DirectExecutor.INSTANCE);
+         }
+         ExecutionException lastFailure = null;
+         for (int remaining = futures.size(); remaining > 0; remaining--)
+         {
+            final Future<T> future;
+            if (timed)
+            {
+               future = completed.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+               if (future == null)
+               {
+                  throw new TimeoutException();
+               }
+            }
+            else
+            {
+               future = completed.take();
+            }
+            try
+            {
+               return future.get();
+            }
+            catch (final ExecutionException ee)
+            {
+               lastFailure = ee;
+            }
+            catch (final CancellationException ce)
+            {
+               lastFailure = new ExecutionException(ce);
+            }
+         }
+         throw lastFailure;
+      }
+      finally
+      {
+         cancelAll(futures);
+      }
+   }
+
+   /**
+    * Cancels those of the specified invocations not yet complete; those already
+    * dispatched are cancelled in the container, with one request per container
+    * where supported (see {@link AsyncFutures#cancelAll(Collection, boolean)})
+    */
+   private static <T> void cancelAll(final List<Future<T>> futures)
+   {
+      AsyncFutures.cancelAll(futures, true);
+   }
+
 }
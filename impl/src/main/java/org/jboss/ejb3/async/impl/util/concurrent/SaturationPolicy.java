@@ -0,0 +1,156 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.util.concurrent;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.async.spi.AsynchronousClientFuture;
+
+/**
+ * Action taken when a bounded executor has no free Thread and
+ * no remaining queue capacity to accept an asynchronous invocation
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public enum SaturationPolicy {
+
+   /**
+    * The invocation is refused immediately; its {@link AsynchronousClientFuture} 
+    * will report a {@link RejectedExecutionException} as the cause of 
+    * its failure
+    */
+   FAIL_FAST {
+      @Override
+      public RejectedExecutionHandler newHandler(final long blockTimeout, final TimeUnit unit)
+      {
+         return new RejectedExecutionHandler()
+         {
+            @Override
+            public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor)
+            {
+               reject(r, executor, "saturated");
+            }
+         };
+      }
+   },
+
+   /**
+    * The invocation is carried out synchronously by the submitting Thread
+    */
+   CALLER_RUNS {
+      @Override
+      public RejectedExecutionHandler newHandler(final long blockTimeout, final TimeUnit unit)
+      {
+         return new RejectedExecutionHandler()
+         {
+            @Override
+            public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor)
+            {
+               if (executor.isShutdown())
+               {
+                  reject(r, executor, "shut down");
+                  return;
+               }
+               r.run();
+            }
+         };
+      }
+   },
+
+   /**
+    * The submitting Thread waits up to the configured timeout for queue capacity, 
+    * after which the invocation is refused as in {@link SaturationPolicy#FAIL_FAST}
+    */
+   BLOCK {
+      @Override
+      public RejectedExecutionHandler newHandler(final long blockTimeout, final TimeUnit unit)
+      {
+         if (unit == null)
+         {
+            throw new IllegalArgumentException("Block timeout unit must be specified");
+         }
+         return new RejectedExecutionHandler()
+         {
+            @Override
+            public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor)
+            {
+               if (executor.isShutdown())
+               {
+                  reject(r, executor, "shut down");
+                  return;
+               }
+               final boolean queued;
+               try
+               {
+                  queued = executor.getQueue().offer(r, blockTimeout, unit);
+               }
+               catch (final InterruptedException ie)
+               {
+                  Thread.currentThread().interrupt();
+                  reject(r, executor, "interrupted while waiting for capacity");
+                  return;
+               }
+               if (!queued)
+               {
+                  reject(r, executor, "saturated for " + blockTimeout + " " + unit);
+               }
+            }
+         };
+      }
+   };
+
+   // --------------------------------------------------------------------------------||
+   // Contracts ----------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new handler enforcing this policy
+    * @param blockTimeout Time to wait for capacity; used only by {@link SaturationPolicy#BLOCK}
+    * @param unit Unit of the block timeout
+    * @return
+    */
+   public abstract RejectedExecutionHandler newHandler(long blockTimeout, TimeUnit unit);
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Refuses the specified task; {@link AsynchronousClientFuture}s are completed 
+    * with the rejection such that the caller receives a failed {@link java.util.concurrent.Future},
+    * other tasks are refused by throwing {@link RejectedExecutionException}
+    */
+   private static void reject(final Runnable r, final ThreadPoolExecutor executor, final String reason)
+   {
+      final RejectedExecutionException ree = new RejectedExecutionException("Asynchronous invocation " + r
+            + " rejected by " + executor + ": " + reason);
+      if (r instanceof AsynchronousClientFuture<?>)
+      {
+         ((AsynchronousClientFuture<?>) r).reject(ree);
+         return;
+      }
+      throw ree;
+   }
+}
@@ -0,0 +1,265 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.async.spi.AsyncCancellationRegistry;
+import org.jboss.ejb3.async.spi.AsyncCancellationToken;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.jboss.ejb3.async.spi.AsyncInvocationTaskBase;
+import org.jboss.ejb3.async.spi.CurrentAsyncInvocation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that cancellation requests made by {@link AsyncInvocationId} 
+ * reach the {@link AsyncCancellationToken} polled by running invocations
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class AsyncCancellationTokenTestCase
+{
+
+   private ExecutorService executor;
+
+   @Before
+   public void createExecutor()
+   {
+      executor = Executors.newSingleThreadExecutor();
+   }
+
+   @After
+   public void shutdownExecutor()
+   {
+      executor.shutdownNow();
+   }
+
+   /**
+    * Ensures a running invocation sees a cancellation routed by its ID, 
+    * and is no longer reachable once done
+    */
+   @Test
+   public void cancellationIsRoutedToRunningInvocation() throws Exception
+   {
+      final AsyncInvocationId id = new AsyncInvocationIdSequenceImpl();
+      final PollingTask task = new PollingTask(id, false);
+      final Future<Boolean> future = executor.submit(task);
+      Assert.assertTrue("Invocation did not start", task.started.await(5, TimeUnit.SECONDS));
+
+      Assert.assertTrue("Running invocation was not flagged", AsyncCancellationRegistry.cancel(id, true));
+      Assert.assertFalse("Cancellation should be flagged only once", AsyncCancellationRegistry.cancel(id, true));
+      Assert.assertFalse("Non-interruptible invocation should see only the flag", future.get(5, TimeUnit.SECONDS));
+
+      Assert.assertNull("Token should not be routable after the invocation", AsyncCancellationRegistry.getToken(id));
+      Assert.assertTrue("Cancellation of invocation not running should be kept", AsyncCancellationRegistry.cancel(id,
+            false));
+      Assert.assertTrue(AsyncCancellationRegistry.discardPending(id));
+      Assert.assertNull("Token should not outlive the invocation on its Thread", executor.submit(new CurrentToken())
+            .get());
+   }
+
+   /**
+    * Ensures an interruptible invocation is interrupted only when requested
+    */
+   @Test
+   public void interruptibleInvocationIsInterrupted() throws Exception
+   {
+      final AsyncInvocationId id = new AsyncInvocationIdSequenceImpl();
+      final PollingTask task = new PollingTask(id, true);
+      final Future<Boolean> future = executor.submit(task);
+      Assert.assertTrue("Invocation did not start", task.started.await(5, TimeUnit.SECONDS));
+
+      Assert.assertTrue(AsyncCancellationRegistry.cancel(id, true));
+      Assert.assertTrue("Interruptible invocation was not interrupted", future.get(5, TimeUnit.SECONDS));
+   }
+
+   /**
+    * Ensures a cancellation requested while the invocation is still queued
+    * is seen by the invocation as soon as it starts
+    */
+   @Test
+   public void cancellationWhileQueuedIsSeenOnStart() throws Exception
+   {
+      final CountDownLatch release = new CountDownLatch(1);
+      executor.submit(new Callable<Void>()
+      {
+         @Override
+         public Void call() throws Exception
+         {
+            release.await();
+            return null;
+         }
+      });
+      final AsyncInvocationId id = new AsyncInvocationIdSequenceImpl();
+      final Future<Boolean> future = executor.submit(new WasCancelCalledTask(id));
+
+      Assert.assertNull("Invocation should still be queued", AsyncCancellationRegistry.getToken(id));
+      Assert.assertTrue("Cancellation of queued invocation was not kept", AsyncCancellationRegistry.cancel(id, true));
+      Assert.assertFalse("Cancellation should be kept only once", AsyncCancellationRegistry.cancel(id, true));
+      Assert.assertTrue(AsyncCancellationRegistry.isPending(id));
+      release.countDown();
+
+      Assert.assertTrue("Invocation cancelled while queued should see the cancellation", future.get(5,
+            TimeUnit.SECONDS));
+      Assert.assertFalse("Pending cancellation should be claimed by the invocation", AsyncCancellationRegistry
+            .isPending(id));
+   }
+
+   /**
+    * Ensures that of concurrent cancellations, only one flags the token
+    */
+   @Test
+   public void concurrentCancellationFlagsOnce() throws Exception
+   {
+      final int threads = 8;
+      final ExecutorService cancellers = Executors.newFixedThreadPool(threads);
+      try
+      {
+         for (int attempt = 0; attempt < 100; attempt++)
+         {
+            final AsyncCancellationToken token = new AsyncCancellationToken(new AsyncInvocationIdSequenceImpl(), false);
+            final CyclicBarrier barrier = new CyclicBarrier(threads);
+            final Callable<Boolean> cancel = new Callable<Boolean>()
+            {
+               @Override
+               public Boolean call() throws Exception
+               {
+                  barrier.await();
+                  return token.cancel(false);
+               }
+            };
+            final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < threads; i++)
+            {
+               results.add(cancellers.submit(cancel));
+            }
+            int flagged = 0;
+            for (final Future<Boolean> result : results)
+            {
+               if (result.get(5, TimeUnit.SECONDS))
+               {
+                  flagged++;
+               }
+            }
+            Assert.assertEquals("Exactly one cancellation should flag the token", 1, flagged);
+         }
+      }
+      finally
+      {
+         cancellers.shutdownNow();
+      }
+   }
+
+   /**
+    * Returns whether cancellation was requested, as soon as started
+    */
+   private static final class WasCancelCalledTask extends AsyncInvocationTaskBase<Boolean>
+   {
+      WasCancelCalledTask(final AsyncInvocationId id)
+      {
+         super(null, id, WasCancelCalledTask.class.getClassLoader());
+      }
+
+      @Override
+      protected void before() throws Exception
+      {
+      }
+
+      @Override
+      protected Boolean proceed() throws Throwable
+      {
+         return CurrentAsyncInvocation.wasCancelCalled();
+      }
+
+      @Override
+      protected void after() throws Exception
+      {
+      }
+   }
+
+   /**
+    * Polls its token until cancelled, returning whether it was interrupted
+    */
+   private static final class PollingTask extends AsyncInvocationTaskBase<Boolean>
+   {
+      final CountDownLatch started = new CountDownLatch(1);
+
+      private final boolean interruptible;
+
+      PollingTask(final AsyncInvocationId id, final boolean interruptible)
+      {
+         super(null, id, PollingTask.class.getClassLoader());
+         this.interruptible = interruptible;
+      }
+
+      @Override
+      protected boolean isInterruptible()
+      {
+         return interruptible;
+      }
+
+      @Override
+      protected void before() throws Exception
+      {
+      }
+
+      @Override
+      protected Boolean proceed() throws Throwable
+      {
+         final AsyncCancellationToken token = CurrentAsyncInvocation.getCurrentCancellationToken();
+         Assert.assertEquals(id, token.getId());
+         started.countDown();
+         boolean interrupted = false;
+         while (!token.isCancelled() || (interruptible && !interrupted))
+         {
+            interrupted |= Thread.interrupted();
+         }
+         Assert.assertTrue(CurrentAsyncInvocation.wasCancelCalled());
+         return interrupted;
+      }
+
+      @Override
+      protected void after() throws Exception
+      {
+      }
+   }
+
+   private static final class CurrentToken implements Callable<AsyncCancellationToken>
+   {
+      @Override
+      public AsyncCancellationToken call() throws Exception
+      {
+         return CurrentAsyncInvocation.getCurrentCancellationToken();
+      }
+   }
+}
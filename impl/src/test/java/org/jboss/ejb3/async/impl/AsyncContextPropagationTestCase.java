@@ -0,0 +1,253 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jboss.ejb3.async.spi.AsyncContextPropagation;
+import org.jboss.ejb3.async.spi.AsyncContextPropagator;
+import org.jboss.ejb3.async.spi.AsyncContextSnapshot;
+import org.jboss.ejb3.async.spi.AsyncInvocationTaskBase;
+import org.jboss.ejb3.async.spi.AsyncMethodIndex;
+import org.jboss.ejb3.async.spi.SecurityContextPropagator;
+import org.jboss.ejb3.async.spi.ThreadContextClassLoaderPropagator;
+import org.jboss.metadata.ejb.spec.AsyncMethodMetaData;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.jboss.metadata.ejb.spec.MethodParametersMetaData;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that {@link AsyncContextPropagation} resolves the applicable 
+ * {@link AsyncContextPropagator}s per method, and that the contexts they
+ * capture are applied to and restored from the executing Thread
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class AsyncContextPropagationTestCase
+{
+
+   private static final String EJB_NAME = "AsyncBean";
+
+   private static final ThreadLocal<String> CONTEXT = new ThreadLocal<String>();
+
+   /**
+    * Ensures propagators are consulted per bean and method, and only those
+    * applicable are asked to capture
+    */
+   @Test
+   public void propagatorsResolvedPerMethod() throws Exception
+   {
+      final ThreadLocalPropagator everywhere = new ThreadLocalPropagator(null, null);
+      final ThreadLocalPropagator firstOnly = new ThreadLocalPropagator(EJB_NAME, "first()");
+      final ThreadLocalPropagator otherBean = new ThreadLocalPropagator("OtherBean", null);
+      final AsyncContextPropagation propagation = AsyncContextPropagation.resolve(EJB_NAME, index(),
+            Arrays.asList(everywhere, firstOnly, otherBean));
+
+      final Method first = AsyncView.class.getMethod("first");
+      final Method second = AsyncView.class.getMethod("second", String.class);
+      Assert.assertEquals(Arrays.asList(everywhere, firstOnly), propagation.getPropagators(first));
+      Assert.assertEquals(Arrays.<AsyncContextPropagator> asList(everywhere), propagation.getPropagators(second));
+
+      propagation.capture(second);
+      Assert.assertEquals(1, everywhere.captures);
+      Assert.assertEquals(0, firstOnly.captures);
+      Assert.assertEquals(0, otherBean.captures);
+   }
+
+   /**
+    * Ensures a snapshot is reused only while the captured contexts are unchanged
+    */
+   @Test
+   public void snapshotReusedWhileContextsUnchanged() throws Exception
+   {
+      final AsyncContextPropagation propagation = AsyncContextPropagation.resolve(EJB_NAME, index(), Arrays
+            .asList(new ThreadLocalPropagator(null, null), new ThreadLocalPropagator(EJB_NAME, null)));
+      final Method first = AsyncView.class.getMethod("first");
+      try
+      {
+         CONTEXT.set("a");
+         final AsyncContextSnapshot snapshot = propagation.capture(first);
+         Assert.assertSame("Unchanged contexts should share a snapshot", snapshot, propagation.capture(first));
+
+         CONTEXT.set("b");
+         final AsyncContextSnapshot changed = propagation.capture(first);
+         Assert.assertNotSame("Changed contexts must not share a snapshot", snapshot, changed);
+
+         CONTEXT.set("worker");
+         final ContextRecordingTask task = new ContextRecordingTask(changed);
+         task.call();
+         Assert.assertEquals("b", task.contextDuring);
+      }
+      finally
+      {
+         CONTEXT.remove();
+      }
+   }
+
+   /**
+    * Ensures the security context and TCCL are propagated where nothing
+    * has been resolved at deployment
+    */
+   @Test
+   public void defaultPropagatesSecurityAndTccl() throws Exception
+   {
+      final List<AsyncContextPropagator> propagators = AsyncContextPropagation.getDefault().getPropagators(
+            AsyncView.class.getMethod("first"));
+      Assert.assertEquals(2, propagators.size());
+      Assert.assertTrue(propagators.get(0) instanceof SecurityContextPropagator);
+      Assert.assertTrue(propagators.get(1) instanceof ThreadContextClassLoaderPropagator);
+   }
+
+   /**
+    * Ensures the caller's context is seen by the invocation, and the 
+    * executing Thread's context is restored afterward
+    */
+   @Test
+   public void capturedContextAppliedAndRestored() throws Exception
+   {
+      CONTEXT.set("caller");
+      try
+      {
+         final AsyncContextSnapshot contexts = AsyncContextSnapshot.capture(new ThreadLocalPropagator(null, null));
+         CONTEXT.set("worker");
+
+         final ContextRecordingTask task = new ContextRecordingTask(contexts);
+         task.call();
+
+         Assert.assertEquals("caller", task.contextDuring);
+         Assert.assertEquals("worker", CONTEXT.get());
+      }
+      finally
+      {
+         CONTEXT.remove();
+      }
+   }
+
+   /**
+    * Index of the async methods of {@link AsyncView}
+    */
+   private static AsyncMethodIndex index()
+   {
+      final AsyncMethodsMetaData asyncMethods = new AsyncMethodsMetaData();
+      for (final Method method : AsyncView.class.getMethods())
+      {
+         final AsyncMethodMetaData asyncMethod = new AsyncMethodMetaData();
+         asyncMethod.setMethodName(method.getName());
+         final MethodParametersMetaData paramsMd = new MethodParametersMetaData();
+         for (final Class<?> paramType : method.getParameterTypes())
+         {
+            paramsMd.add(paramType.getName());
+         }
+         asyncMethod.setMethodParams(paramsMd);
+         asyncMethods.add(asyncMethod);
+      }
+      return new AsyncMethodIndex(asyncMethods);
+   }
+
+   /**
+    * Business view whose methods are all asynchronous
+    */
+   public interface AsyncView
+   {
+      void first();
+
+      void second(String arg);
+   }
+
+   /**
+    * Propagates {@link AsyncContextPropagationTestCase#CONTEXT}, optionally
+    * limited to a bean and method
+    */
+   private static final class ThreadLocalPropagator implements AsyncContextPropagator
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final String ejbName;
+
+      private final String methodSignature;
+
+      int captures;
+
+      ThreadLocalPropagator(final String ejbName, final String methodSignature)
+      {
+         this.ejbName = ejbName;
+         this.methodSignature = methodSignature;
+      }
+
+      public boolean appliesTo(final String ejbName, final String methodSignature)
+      {
+         return (this.ejbName == null || this.ejbName.equals(ejbName))
+               && (this.methodSignature == null || this.methodSignature.equals(methodSignature));
+      }
+
+      public Object capture()
+      {
+         captures++;
+         return CONTEXT.get();
+      }
+
+      public Object apply(final Object captured)
+      {
+         final String old = CONTEXT.get();
+         CONTEXT.set((String) captured);
+         return old;
+      }
+
+      public void restore(final Object previous)
+      {
+         CONTEXT.set((String) previous);
+      }
+   }
+
+   /**
+    * Records the context under which it is invoked
+    */
+   private static final class ContextRecordingTask extends AsyncInvocationTaskBase<Void>
+   {
+      String contextDuring;
+
+      ContextRecordingTask(final AsyncContextSnapshot contexts)
+      {
+         super(contexts, new AsyncInvocationIdSequenceImpl());
+      }
+
+      @Override
+      protected void before() throws Exception
+      {
+      }
+
+      @Override
+      protected Void proceed() throws Throwable
+      {
+         contextDuring = CONTEXT.get();
+         return null;
+      }
+
+      @Override
+      protected void after() throws Exception
+      {
+      }
+   }
+}
@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that {@link AsyncInvocationId} implementations are
+ * unique, and equal only to themselves and their serialized forms
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class AsyncInvocationIdTestCase
+{
+
+   /**
+    * Ensures that the sequence ID is unique across Threads
+    */
+   @Test
+   public void sequenceIdsAreUnique() throws Exception
+   {
+      final int threads = 8;
+      final int idsPerThread = AsyncInvocationIdSequenceImpl.BLOCK_SIZE * 3 + 7;
+      final ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try
+      {
+         final List<Future<List<AsyncInvocationId>>> futures = new ArrayList<Future<List<AsyncInvocationId>>>();
+         for (int i = 0; i < threads; i++)
+         {
+            futures.add(executor.submit(new Callable<List<AsyncInvocationId>>()
+            {
+               @Override
+               public List<AsyncInvocationId> call() throws Exception
+               {
+                  final List<AsyncInvocationId> ids = new ArrayList<AsyncInvocationId>(idsPerThread);
+                  for (int j = 0; j < idsPerThread; j++)
+                  {
+                     ids.add(new AsyncInvocationIdSequenceImpl());
+                  }
+                  return ids;
+               }
+            }));
+         }
+         final Set<AsyncInvocationId> all = Collections.synchronizedSet(new HashSet<AsyncInvocationId>());
+         for (final Future<List<AsyncInvocationId>> future : futures)
+         {
+            all.addAll(future.get());
+         }
+         Assert.assertEquals("IDs should be unique", threads * idsPerThread, all.size());
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * Ensures that the sequence ID is equal to its serialized form, and not to other IDs
+    */
+   @Test
+   public void sequenceIdEquality() throws Exception
+   {
+      this.assertEquality(new AsyncInvocationIdSequenceImpl(), new AsyncInvocationIdSequenceImpl());
+   }
+
+   /**
+    * Ensures that the UUID ID is equal to its serialized form, and not to other IDs
+    */
+   @Test
+   public void uuidIdEquality() throws Exception
+   {
+      this.assertEquality(new AsyncInvocationIdUUIDImpl(), new AsyncInvocationIdUUIDImpl());
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private void assertEquality(final AsyncInvocationId id, final AsyncInvocationId other) throws Exception
+   {
+      Assert.assertEquals("ID should be equal to itself", id, id);
+      Assert.assertFalse("Distinct IDs should not be equal", id.equals(other));
+      Assert.assertFalse("ID should not be equal to null", id.equals(null));
+
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final ObjectOutputStream oos = new ObjectOutputStream(out);
+      oos.writeObject(id);
+      oos.close();
+      final AsyncInvocationId roundTrip = (AsyncInvocationId) new ObjectInputStream(new ByteArrayInputStream(out
+            .toByteArray())).readObject();
+      Assert.assertEquals("ID should be equal to its serialized form", id, roundTrip);
+      Assert.assertEquals("Equal IDs should have equal hash codes", id.hashCode(), roundTrip.hashCode());
+   }
+}
@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.jboss.ejb3.async.spi.AsyncInvocationTaskBase;
+import org.jboss.security.SecurityContext;
+import org.jboss.security.SecurityContextAssociation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that {@link AsyncInvocationTaskBase} runs the invocation under its captured
+ * security context and TCCL, and leaves the executing Thread as it was found
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class AsyncInvocationTaskBaseTestCase
+{
+
+   private ClassLoader originalCl;
+
+   private SecurityContext originalSc;
+
+   @Before
+   public void recordThreadContext()
+   {
+      originalCl = Thread.currentThread().getContextClassLoader();
+      originalSc = SecurityContextAssociation.getSecurityContext();
+   }
+
+   @After
+   public void restoreThreadContext()
+   {
+      Thread.currentThread().setContextClassLoader(originalCl);
+      SecurityContextAssociation.setSecurityContext(originalSc);
+   }
+
+   /**
+    * Ensures a differing context is applied for the invocation, then restored
+    */
+   @Test
+   public void contextIsSwappedAndRestored() throws Exception
+   {
+      final ClassLoader invokingCl = new URLClassLoader(new URL[0]);
+      final SecurityContext invokingSc = new SecurityContext()
+      {
+      };
+      final ContextRecordingTask task = new ContextRecordingTask(invokingSc, invokingCl, null);
+
+      task.call();
+
+      Assert.assertSame(invokingCl, task.clDuring);
+      Assert.assertSame(invokingSc, task.scDuring);
+      Assert.assertSame(originalCl, Thread.currentThread().getContextClassLoader());
+      Assert.assertSame(originalSc, SecurityContextAssociation.getSecurityContext());
+   }
+
+   /**
+    * Ensures that when the context already matches, changes made by the 
+    * invocation itself are nonetheless undone
+    */
+   @Test
+   public void matchingContextIsRestoredIfChanged() throws Exception
+   {
+      final ClassLoader leaked = new URLClassLoader(new URL[0]);
+      final ContextRecordingTask task = new ContextRecordingTask(originalSc, originalCl, leaked);
+
+      task.call();
+
+      Assert.assertSame(originalCl, task.clDuring);
+      Assert.assertSame(originalCl, Thread.currentThread().getContextClassLoader());
+      Assert.assertSame(originalSc, SecurityContextAssociation.getSecurityContext());
+   }
+
+   /**
+    * Records the context under which it is invoked, optionally replacing the TCCL
+    */
+   private static final class ContextRecordingTask extends AsyncInvocationTaskBase<Void>
+   {
+      private final ClassLoader replacementCl;
+
+      ClassLoader clDuring;
+
+      SecurityContext scDuring;
+
+      ContextRecordingTask(final SecurityContext sc, final ClassLoader invokingCl, final ClassLoader replacementCl)
+      {
+         super(sc, new AsyncInvocationIdSequenceImpl(), invokingCl);
+         this.replacementCl = replacementCl;
+      }
+
+      @Override
+      protected void before() throws Exception
+      {
+      }
+
+      @Override
+      protected Void proceed() throws Throwable
+      {
+         clDuring = Thread.currentThread().getContextClassLoader();
+         scDuring = SecurityContextAssociation.getSecurityContext();
+         if (replacementCl != null)
+         {
+            Thread.currentThread().setContextClassLoader(replacementCl);
+         }
+         return null;
+      }
+
+      @Override
+      protected void after() throws Exception
+      {
+      }
+   }
+}
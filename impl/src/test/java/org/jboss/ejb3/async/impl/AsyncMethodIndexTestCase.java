@@ -0,0 +1,186 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import org.jboss.ejb3.async.spi.AsyncMethodIndex;
+import org.jboss.metadata.ejb.spec.AsyncMethodMetaData;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.jboss.metadata.ejb.spec.MethodParametersMetaData;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that {@link AsyncMethodIndex} matches invoked methods by name and 
+ * parameter types, and caches its decision for each {@link Method}
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class AsyncMethodIndexTestCase
+{
+
+   /**
+    * Ensures overloads are told apart by their parameter types
+    */
+   @Test
+   public void overloadsMatchedByParameters() throws Exception
+   {
+      final AsyncMethodIndex index = index(method("process", "java.lang.String"), method("process", "int",
+            "[Ljava.lang.Object;"));
+
+      Assert.assertTrue(index.isAsynchronous(View.class.getMethod("process", String.class)));
+      Assert.assertTrue(index.isAsynchronous(View.class.getMethod("process", int.class, Object[].class)));
+      Assert.assertFalse("Overload not declared async", index.isAsynchronous(View.class.getMethod("process")));
+      Assert.assertFalse("Overload not declared async", index.isAsynchronous(View.class.getMethod("process",
+            Integer.class)));
+      Assert.assertFalse(index.isAsynchronous(View.class.getMethod("other")));
+   }
+
+   /**
+    * Ensures metadata without parameters denotes the zero-arg method
+    */
+   @Test
+   public void nullParametersAreZeroArg() throws Exception
+   {
+      final AsyncMethodMetaData zeroArg = new AsyncMethodMetaData();
+      zeroArg.setMethodName("process");
+      final AsyncMethodIndex index = index(zeroArg);
+
+      Assert.assertEquals(AsyncMethodIndex.getSignature(View.class.getMethod("process")), index.getSignatures()
+            .iterator().next());
+      Assert.assertTrue(index.isAsynchronous(View.class.getMethod("process")));
+      Assert.assertFalse(index.isAsynchronous(View.class.getMethod("process", String.class)));
+      Assert.assertEquals("Null and empty parameters should index alike", index(method("process")), index);
+   }
+
+   /**
+    * Ensures each invoked {@link Method} is matched once, the decision being cached
+    * for both async and synchronous methods, and rebuilt after deserialization
+    */
+   @Test
+   public void decisionsCachedPerMethod() throws Exception
+   {
+      final AsyncMethodIndex index = index(method("process", "java.lang.String"));
+      final Method async = View.class.getMethod("process", String.class);
+      final Method sync = View.class.getMethod("other");
+      Assert.assertTrue(cache(index) == null || cache(index).isEmpty());
+
+      Assert.assertTrue(index.isAsynchronous(async));
+      Assert.assertFalse(index.isAsynchronous(sync));
+      Assert.assertEquals(Boolean.TRUE, cache(index).get(async));
+      Assert.assertEquals(Boolean.FALSE, cache(index).get(sync));
+
+      // Served from the cache; an equal Method obtained afresh shares the entry
+      Assert.assertTrue(index.isAsynchronous(View.class.getMethod("process", String.class)));
+      Assert.assertFalse(index.isAsynchronous(sync));
+      Assert.assertEquals(2, cache(index).size());
+
+      // The cache is not serialized, and is rebuilt on use
+      final AsyncMethodIndex copy = roundTrip(index);
+      Assert.assertEquals(index, copy);
+      Assert.assertNull(cache(copy));
+      Assert.assertTrue(copy.isAsynchronous(async));
+      Assert.assertEquals(1, cache(copy).size());
+   }
+
+   /**
+    * Ensures indexes of the same signatures are equal, such that they may be shared
+    */
+   @Test
+   public void equalSignaturesEqualIndexes()
+   {
+      final AsyncMethodIndex first = index(method("process", "java.lang.String"), method("other"));
+      final AsyncMethodIndex second = index(method("other"), method("process", "java.lang.String"));
+      Assert.assertEquals(first, second);
+      Assert.assertEquals(first.hashCode(), second.hashCode());
+      Assert.assertFalse(first.equals(index(method("process", "int"))));
+      Assert.assertTrue(index().isEmpty());
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private static AsyncMethodMetaData method(final String name, final String... paramTypes)
+   {
+      final AsyncMethodMetaData method = new AsyncMethodMetaData();
+      method.setMethodName(name);
+      final MethodParametersMetaData params = new MethodParametersMetaData();
+      for (final String paramType : paramTypes)
+      {
+         params.add(paramType);
+      }
+      method.setMethodParams(params);
+      return method;
+   }
+
+   private static AsyncMethodIndex index(final AsyncMethodMetaData... methods)
+   {
+      final AsyncMethodsMetaData md = new AsyncMethodsMetaData();
+      for (final AsyncMethodMetaData method : methods)
+      {
+         md.add(method);
+      }
+      return new AsyncMethodIndex(md);
+   }
+
+   @SuppressWarnings("unchecked")
+   private static Map<Method, Boolean> cache(final AsyncMethodIndex index) throws Exception
+   {
+      final Field field = AsyncMethodIndex.class.getDeclaredField("resolved");
+      field.setAccessible(true);
+      return (Map<Method, Boolean>) field.get(index);
+   }
+
+   private static AsyncMethodIndex roundTrip(final AsyncMethodIndex index) throws Exception
+   {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(index);
+      out.close();
+      final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+      return (AsyncMethodIndex) in.readObject();
+   }
+
+   /**
+    * View declaring overloaded methods
+    */
+   public interface View
+   {
+      void process();
+
+      void process(String value);
+
+      void process(Integer value);
+
+      void process(int value, Object[] values);
+
+      void other();
+   }
+}
@@ -0,0 +1,179 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.ejb3.async.impl.util.concurrent.ExecutionMode;
+import org.jboss.ejb3.async.impl.util.concurrent.SaturationPolicy;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that {@link ClientExecutorConfiguration#fromSystemProperties()} 
+ * tolerates invalid values, and always yields a valid configuration, and that
+ * the defaults do not bound the client executor
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class ClientExecutorConfigurationTestCase
+{
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private static final String[] PROPERTIES =
+   {"coreThreads", "maxThreads", "queueCapacity", "keepAliveMillis", "saturationPolicy", "blockTimeoutMillis",
+         "executionMode"};
+
+   // --------------------------------------------------------------------------------||
+   // Lifecycle ----------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   @After
+   public void clearProperties()
+   {
+      for (final String property : PROPERTIES)
+      {
+         System.clearProperty(ClientExecutorConfiguration.PROPERTY_PREFIX + property);
+      }
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Tests --------------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that a max below the core lowers the core, rather than
+    * yielding an invalid configuration
+    */
+   @Test
+   public void coreThreadsClampedToMaxThreads()
+   {
+      set("coreThreads", "32");
+      set("maxThreads", "16");
+      final ClientExecutorConfiguration config = ClientExecutorConfiguration.fromSystemProperties();
+      config.validate();
+      Assert.assertEquals(16, config.getMaxThreads());
+      Assert.assertEquals(16, config.getCoreThreads());
+   }
+
+   /**
+    * Ensures that enum values are matched regardless of case
+    */
+   @Test
+   public void enumsCaseInsensitive()
+   {
+      set("saturationPolicy", "caller_runs");
+      set("executionMode", " Virtual ");
+      final ClientExecutorConfiguration config = ClientExecutorConfiguration.fromSystemProperties();
+      Assert.assertEquals(SaturationPolicy.CALLER_RUNS, config.getSaturationPolicy());
+      Assert.assertEquals(ExecutionMode.VIRTUAL, config.getExecutionMode());
+   }
+
+   /**
+    * Ensures that unknown and out-of-range values fall back upon the defaults
+    */
+   @Test
+   public void invalidValuesIgnored()
+   {
+      set("saturationPolicy", "discard");
+      set("executionMode", "green");
+      set("coreThreads", "-1");
+      set("maxThreads", "0");
+      set("queueCapacity", "lots");
+      set("keepAliveMillis", "-5");
+      set("blockTimeoutMillis", "99999999999999999999");
+      final ClientExecutorConfiguration config = ClientExecutorConfiguration.fromSystemProperties();
+      config.validate();
+      Assert.assertEquals(ClientExecutorConfiguration.DEFAULT_SATURATION_POLICY, config.getSaturationPolicy());
+      Assert.assertEquals(ClientExecutorConfiguration.DEFAULT_EXECUTION_MODE, config.getExecutionMode());
+      Assert.assertEquals(ClientExecutorConfiguration.DEFAULT_CORE_THREADS, config.getCoreThreads());
+      Assert.assertEquals(ClientExecutorConfiguration.DEFAULT_MAX_THREADS, config.getMaxThreads());
+      Assert.assertEquals(ClientExecutorConfiguration.DEFAULT_QUEUE_CAPACITY, config.getQueueCapacity());
+      Assert.assertEquals(ClientExecutorConfiguration.DEFAULT_KEEP_ALIVE_MILLIS, config.getKeepAliveMillis());
+      Assert.assertEquals(ClientExecutorConfiguration.DEFAULT_BLOCK_TIMEOUT_MILLIS, config.getBlockTimeoutMillis());
+   }
+
+   /**
+    * Ensures that, as the cached thread pool it replaces, the default client executor
+    * accepts a burst of invocations beyond any bound without refusing them
+    */
+   @Test
+   public void defaultsAcceptBursts() throws Exception
+   {
+      final ClientExecutorConfiguration defaults = new ClientExecutorConfiguration();
+      Assert.assertEquals(SaturationPolicy.CALLER_RUNS, defaults.getSaturationPolicy());
+      ClientExecutorService.INSTANCE.configure(defaults);
+
+      final int burst = 1500;
+      final CountDownLatch release = new CountDownLatch(1);
+      final CountDownLatch running = new CountDownLatch(burst);
+      final Thread caller = Thread.currentThread();
+      final AtomicInteger callerRuns = new AtomicInteger();
+      try
+      {
+         for (int i = 0; i < burst; i++)
+         {
+            ClientExecutorService.INSTANCE.execute(new Runnable()
+            {
+               public void run()
+               {
+                  if (Thread.currentThread() == caller)
+                  {
+                     callerRuns.incrementAndGet();
+                     running.countDown();
+                     return;
+                  }
+                  running.countDown();
+                  try
+                  {
+                     release.await();
+                  }
+                  catch (final InterruptedException ie)
+                  {
+                     Thread.currentThread().interrupt();
+                  }
+               }
+            });
+         }
+         Assert.assertTrue("Invocations of the burst did not all run", running.await(30, TimeUnit.SECONDS));
+         Assert.assertEquals("Invocations should each be given a Thread of the pool", 0, callerRuns.get());
+      }
+      finally
+      {
+         release.countDown();
+      }
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private static void set(final String property, final String value)
+   {
+      System.setProperty(ClientExecutorConfiguration.PROPERTY_PREFIX + property, value);
+   }
+}
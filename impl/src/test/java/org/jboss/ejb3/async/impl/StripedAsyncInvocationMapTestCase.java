@@ -0,0 +1,166 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link StripedAsyncInvocationMap} honors the
+ * {@link java.util.concurrent.ConcurrentMap} contract and expires orphans
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class StripedAsyncInvocationMapTestCase
+{
+
+   /**
+    * Ensures that entries may be tracked, cancelled and removed
+    */
+   @Test
+   public void trackCancelAndRemove()
+   {
+      final StripedAsyncInvocationMap map = new StripedAsyncInvocationMap();
+      final List<AsyncInvocationId> ids = new ArrayList<AsyncInvocationId>();
+      for (int i = 0; i < 10000; i++)
+      {
+         final AsyncInvocationId id = new AsyncInvocationIdSequenceImpl();
+         ids.add(id);
+         Assert.assertNull(map.putIfAbsent(id, Boolean.FALSE));
+      }
+      Assert.assertEquals(ids.size(), map.size());
+
+      // Cancel every other, remove every third
+      for (int i = 0; i < ids.size(); i++)
+      {
+         final AsyncInvocationId id = ids.get(i);
+         if (i % 2 == 0)
+         {
+            Assert.assertTrue("Should be cancelled", map.replace(id, Boolean.FALSE, Boolean.TRUE));
+         }
+         if (i % 3 == 0)
+         {
+            Assert.assertNotNull("Should be removed", map.remove(id));
+         }
+      }
+      for (int i = 0; i < ids.size(); i++)
+      {
+         final Boolean cancelled = map.get(ids.get(i));
+         if (i % 3 == 0)
+         {
+            Assert.assertNull("Removed entry should not be found", cancelled);
+         }
+         else
+         {
+            Assert.assertEquals(Boolean.valueOf(i % 2 == 0), cancelled);
+         }
+      }
+      Assert.assertEquals(ids.size() - (ids.size() + 2) / 3, map.size());
+      Assert.assertEquals(map.size(), map.entrySet().size());
+
+      // Equal IDs created elsewhere (ie. deserialized) are found
+      final AsyncInvocationIdSequenceImpl retained = (AsyncInvocationIdSequenceImpl) ids.get(1);
+      Assert.assertTrue(map.containsKey(new AsyncInvocationIdSequenceImpl(retained.getNode(), retained.getSequence())));
+   }
+
+   /**
+    * Ensures that IDs of other types are tracked
+    */
+   @Test
+   public void foreignIds()
+   {
+      final StripedAsyncInvocationMap map = new StripedAsyncInvocationMap();
+      final AsyncInvocationId id = new AsyncInvocationIdUUIDImpl();
+      map.put(id, Boolean.FALSE);
+      map.put(id, Boolean.TRUE);
+      Assert.assertEquals(Boolean.TRUE, map.get(id));
+      Assert.assertEquals(1, map.size());
+      Assert.assertEquals(Boolean.TRUE, map.remove(id));
+      Assert.assertTrue(map.isEmpty());
+   }
+
+   /**
+    * Ensures that entries not removed are expired once older than the timeout
+    */
+   @Test
+   public void orphansExpire()
+   {
+      final ManualClockMap map = new ManualClockMap();
+      final AsyncInvocationId orphan = new AsyncInvocationIdSequenceImpl();
+      final AsyncInvocationId completed = new AsyncInvocationIdSequenceImpl();
+      map.put(orphan, Boolean.FALSE);
+      map.put(completed, Boolean.FALSE);
+      map.remove(completed);
+
+      map.advance(30, TimeUnit.SECONDS);
+      map.expireOrphans();
+      Assert.assertTrue("Entry should not yet be expired", map.containsKey(orphan));
+      Assert.assertEquals(0, map.getEvictionCount());
+
+      map.advance(31, TimeUnit.SECONDS);
+      map.expireOrphans();
+      Assert.assertFalse("Orphan should have been expired", map.containsKey(orphan));
+      Assert.assertEquals("Only the orphan should have been expired", 1, map.getEvictionCount());
+      Assert.assertTrue(map.isEmpty());
+
+      // Long idle periods expire everything due
+      final AsyncInvocationId later = new AsyncInvocationIdSequenceImpl();
+      map.put(later, Boolean.FALSE);
+      map.advance(1, TimeUnit.HOURS);
+      map.expireOrphans();
+      Assert.assertFalse(map.containsKey(later));
+      Assert.assertEquals(2, map.getEvictionCount());
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Inner Classes ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Map with a one minute orphan timeout and a manually-advanced clock
+    */
+   private static final class ManualClockMap extends StripedAsyncInvocationMap
+   {
+      private long nanos;
+
+      ManualClockMap()
+      {
+         super(4, 1, TimeUnit.MINUTES);
+      }
+
+      void advance(final long duration, final TimeUnit unit)
+      {
+         nanos += unit.toNanos(duration);
+      }
+
+      @Override
+      long currentTimeNanos()
+      {
+         return nanos;
+      }
+   }
+}
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.jboss.ejb3.async.spi.AsyncCancellationRegistry;
+import org.jboss.ejb3.async.spi.AsyncCancellationToken;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.jboss.ejb3.async.spi.CurrentAsyncInvocation;
+import org.jboss.ejb3.async.spi.lang.ThreadLocalStack;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that {@link ThreadLocalStack} behaves as a stack per Thread
+ * across growth, emptying and clearing
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class ThreadLocalStackTestCase
+{
+
+   /**
+    * Ensures elements are popped in reverse order of pushing, including
+    * when nested beyond the initial capacity
+    */
+   @Test
+   public void elementsArePoppedLastInFirstOut()
+   {
+      final ThreadLocalStack<Integer> stack = new ThreadLocalStack<Integer>();
+      for (int round = 0; round < 2; round++)
+      {
+         for (int i = 0; i < 20; i++)
+         {
+            stack.push(i);
+            Assert.assertEquals(Integer.valueOf(i), stack.get());
+         }
+         for (int i = 19; i >= 0; i--)
+         {
+            Assert.assertEquals(Integer.valueOf(i), stack.pop());
+         }
+         Assert.assertTrue(stack.isEmpty());
+         Assert.assertNull(stack.get());
+         Assert.assertNull("Popping an empty stack should yield null", stack.pop());
+      }
+   }
+
+   /**
+    * Ensures null may be pushed without being mistaken for the top of the stack
+    */
+   @Test
+   public void nullElementsAreSupported()
+   {
+      final ThreadLocalStack<String> stack = new ThreadLocalStack<String>();
+      stack.push("outer");
+      stack.push(null);
+      Assert.assertFalse(stack.isEmpty());
+      Assert.assertNull(stack.pop());
+      Assert.assertEquals("outer", stack.pop());
+      Assert.assertTrue(stack.isEmpty());
+   }
+
+   /**
+    * Ensures each Thread sees only its own elements, and that clearing
+    * discards them
+    */
+   @Test
+   public void elementsAreConfinedToThreadAndCleared() throws Exception
+   {
+      final ThreadLocalStack<String> stack = new ThreadLocalStack<String>();
+      stack.push("caller");
+      final ExecutorService executor = Executors.newSingleThreadExecutor();
+      try
+      {
+         Assert.assertNull(executor.submit(new Callable<String>()
+         {
+            public String call() throws Exception
+            {
+               return stack.get();
+            }
+         }).get());
+      }
+      finally
+      {
+         executor.shutdownNow();
+      }
+      Assert.assertEquals("caller", stack.get());
+
+      stack.clear();
+      Assert.assertTrue(stack.isEmpty());
+      Assert.assertNull(stack.pop());
+   }
+
+   /**
+    * Ensures clearing a Thread of invocation state also stops routing
+    * cancellations to tokens left upon it
+    */
+   @Test
+   public void clearingThreadUnregistersTokens()
+   {
+      final AsyncInvocationId id = new AsyncInvocationIdSequenceImpl();
+      CurrentAsyncInvocation.markCurrentInvocationOnThread(id);
+      CurrentAsyncInvocation.markCurrentCancellationTokenOnThread(new AsyncCancellationToken(id, false));
+      Assert.assertNotNull(AsyncCancellationRegistry.getToken(id));
+
+      CurrentAsyncInvocation.clearCurrentThread();
+
+      Assert.assertNull(CurrentAsyncInvocation.getCurrentAsyncInvocationId());
+      Assert.assertNull(CurrentAsyncInvocation.getCurrentCancellationToken());
+      Assert.assertNull("Token should not be routable once cleared", AsyncCancellationRegistry.getToken(id));
+   }
+}
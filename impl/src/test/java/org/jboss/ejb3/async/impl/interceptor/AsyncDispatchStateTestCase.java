@@ -0,0 +1,301 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.interceptor;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ejb.AsyncResult;
+
+import org.jboss.aop.advice.Interceptor;
+import org.jboss.aop.joinpoint.Invocation;
+import org.jboss.aop.joinpoint.MethodInvocation;
+import org.jboss.aop.metadata.SimpleMetaData;
+import org.jboss.ejb3.async.spi.AsyncContextPropagation;
+import org.jboss.ejb3.async.spi.AsyncDispatchState;
+import org.jboss.ejb3.async.spi.AsyncEndpoint;
+import org.jboss.ejb3.async.spi.AsyncExecutorLookup;
+import org.jboss.ejb3.async.spi.AsyncInvocation;
+import org.jboss.ejb3.async.spi.AsyncInvocationContext;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.jboss.ejb3.async.spi.AsyncMethodIndex;
+import org.jboss.metadata.ejb.spec.AsyncMethodMetaData;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.jboss.metadata.ejb.spec.MethodParametersMetaData;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that invocations implementing {@link AsyncDispatchState} carry their 
+ * dispatch state in typed fields through the {@link AsynchronousClientInterceptor},
+ * without reading or writing invocation metadata
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class AsyncDispatchStateTestCase
+{
+
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private ExecutorService pool;
+
+   private AsynchronousClientInterceptor interceptor;
+
+   // --------------------------------------------------------------------------------||
+   // Lifecycle ----------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   @Before
+   public void createInterceptor()
+   {
+      pool = Executors.newSingleThreadExecutor();
+      final AsyncMethodMetaData asyncMethod = new AsyncMethodMetaData();
+      asyncMethod.setMethodName("getValueAsynchronous");
+      asyncMethod.setMethodParams(new MethodParametersMetaData());
+      final AsyncMethodsMetaData asyncMethods = new AsyncMethodsMetaData();
+      asyncMethods.add(asyncMethod);
+      interceptor = new AsynchronousClientInterceptor(new AsyncMethodIndex(asyncMethods), AsyncContextPropagation
+            .getDefault(), Target.class.getSimpleName(), new AsyncExecutorLookup()
+      {
+         @Override
+         public ExecutorService getExecutor(final String ejbName, final Method method)
+         {
+            return pool;
+         }
+      });
+   }
+
+   @After
+   public void shutdown()
+   {
+      pool.shutdownNow();
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Tests --------------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Ensures the dispatched copy is flagged and carries its ID in typed fields
+    * while running, that neither is left behind, and that no metadata is touched
+    */
+   @Test
+   public void dispatchStateIsTyped() throws Throwable
+   {
+      final RecordingInterceptor recorder = new RecordingInterceptor();
+      final TypedInvocation invocation = new TypedInvocation(new Interceptor[]
+      {interceptor, recorder}, Target.class.getMethod("getValueAsynchronous"), new Target());
+
+      final Future<?> future = (Future<?>) invocation.invokeNext();
+      Assert.assertEquals(Target.VALUE, future.get(10, TimeUnit.SECONDS));
+
+      Assert.assertNotNull("Invocation should have proceeded upon dispatch", recorder.invocation);
+      Assert.assertNotSame("A copy of the invocation should be dispatched", invocation, recorder.invocation);
+      Assert.assertTrue("Dispatched copy should be flagged", recorder.dispatched);
+      Assert.assertNotNull("Dispatched copy should carry its ID while running", recorder.id);
+      Assert.assertNull("ID should be cleared once run", recorder.invocation.getAsyncInvocationId());
+      Assert.assertFalse("Caller's invocation should not be flagged", invocation.isAsyncDispatched());
+      Assert.assertEquals("Metadata should not be consulted", 0, invocation.metaDataAccesses.get());
+   }
+
+   /**
+    * Ensures an invocation already flagged is not dispatched again
+    */
+   @Test
+   public void dispatchedInvocationProceedsSynchronously() throws Throwable
+   {
+      final RecordingInterceptor recorder = new RecordingInterceptor();
+      final TypedInvocation invocation = new TypedInvocation(new Interceptor[]
+      {interceptor, recorder}, Target.class.getMethod("getValueAsynchronous"), new Target());
+      invocation.markAsyncDispatched();
+
+      final Object result = invocation.invokeNext();
+      Assert.assertTrue("Should have proceeded in the caller's Thread", result instanceof AsyncResult<?>);
+      Assert.assertSame(invocation, recorder.invocation);
+      Assert.assertEquals("Metadata should not be consulted", 0, invocation.metaDataAccesses.get());
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Inner Classes ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Bean invoked upon
+    */
+   public static final class Target
+   {
+      static final String VALUE = "Typed";
+
+      public Future<String> getValueAsynchronous()
+      {
+         return new AsyncResult<String>(VALUE);
+      }
+   }
+
+   /**
+    * {@link MethodInvocation} holding its dispatch state in fields, and counting 
+    * accesses to its metadata
+    */
+   private static final class TypedInvocation extends MethodInvocation implements AsyncInvocation, AsyncDispatchState
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final AtomicInteger metaDataAccesses;
+
+      private volatile boolean asyncDispatched;
+
+      private volatile AsyncInvocationId asyncInvocationId;
+
+      TypedInvocation(final Interceptor[] interceptors, final Method method, final Object target)
+      {
+         this(interceptors, method, target, new AtomicInteger());
+      }
+
+      private TypedInvocation(final Interceptor[] interceptors, final Method method, final Object target,
+            final AtomicInteger metaDataAccesses)
+      {
+         super(interceptors, 0L, method, method, null);
+         this.setTargetObject(target);
+         this.setArguments(new Object[]
+         {});
+         this.metaDataAccesses = metaDataAccesses;
+      }
+
+      @Override
+      public Invocation copy()
+      {
+         final TypedInvocation copy = new TypedInvocation(interceptors, this.getActualMethod(), this
+               .getTargetObject(), metaDataAccesses);
+         copy.currentInterceptor = this.currentInterceptor;
+         copy.asyncDispatched = this.asyncDispatched;
+         copy.asyncInvocationId = this.asyncInvocationId;
+         return copy;
+      }
+
+      @Override
+      public SimpleMetaData getMetaData()
+      {
+         metaDataAccesses.incrementAndGet();
+         return super.getMetaData();
+      }
+
+      @Override
+      public Object getMetaData(final Object group, final Object attr)
+      {
+         metaDataAccesses.incrementAndGet();
+         return super.getMetaData(group, attr);
+      }
+
+      @Override
+      public boolean isAsyncDispatched()
+      {
+         return asyncDispatched;
+      }
+
+      @Override
+      public void markAsyncDispatched()
+      {
+         asyncDispatched = true;
+      }
+
+      @Override
+      public AsyncInvocationId getAsyncInvocationId()
+      {
+         return asyncInvocationId;
+      }
+
+      @Override
+      public void setAsyncInvocationId(final AsyncInvocationId id)
+      {
+         asyncInvocationId = id;
+      }
+
+      @Override
+      public AsyncInvocationContext getAsyncInvocationContext()
+      {
+         throw new IllegalStateException("Executor should be resolved by the lookup");
+      }
+
+      @Override
+      public AsyncEndpoint getContainer()
+      {
+         return NoopEndpoint.INSTANCE;
+      }
+   }
+
+   /**
+    * Records the state of the invocation upon proceeding, before it is cleared
+    */
+   private static final class RecordingInterceptor implements Interceptor
+   {
+      private volatile TypedInvocation invocation;
+
+      private volatile boolean dispatched;
+
+      private volatile AsyncInvocationId id;
+
+      @Override
+      public String getName()
+      {
+         return this.getClass().getSimpleName();
+      }
+
+      @Override
+      public Object invoke(final Invocation invocation) throws Throwable
+      {
+         this.invocation = (TypedInvocation) invocation;
+         this.dispatched = this.invocation.isAsyncDispatched();
+         this.id = this.invocation.getAsyncInvocationId();
+         return invocation.invokeNext();
+      }
+   }
+
+   /**
+    * {@link AsyncEndpoint} which does nothing
+    */
+   private static final class NoopEndpoint implements AsyncEndpoint
+   {
+      static final NoopEndpoint INSTANCE = new NoopEndpoint();
+
+      @Override
+      public boolean cancel(final AsyncInvocationId id) throws IllegalArgumentException
+      {
+         return false;
+      }
+
+      @Override
+      public Object invokeAsync(final Serializable session, final Class<?> invokedBusinessInterface,
+            final Method method, final Object[] args) throws Throwable
+      {
+         return null;
+      }
+   }
+}
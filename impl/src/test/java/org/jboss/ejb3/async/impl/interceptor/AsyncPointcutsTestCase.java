@@ -0,0 +1,153 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.interceptor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Scanner;
+
+import org.jboss.ejb3.async.impl.test.common.Pojo;
+import org.jboss.ejb3.async.impl.test.common.TestConstants;
+import org.jboss.ejb3.async.spi.AsyncMethodIndex;
+import org.jboss.metadata.ejb.spec.AsyncMethodMetaData;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.jboss.metadata.ejb.spec.MethodParametersMetaData;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that {@link AsyncPointcuts} creates pointcut expressions matching
+ * only the @Asynchronous methods of a bean
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class AsyncPointcutsTestCase
+{
+
+   private static final String BEAN_CLASS_NAME = "org.example.AsyncBean";
+
+   /**
+    * Ensures one execution pointcut is made per signature, with zero-arg 
+    * and array parameters in pointcut syntax
+    */
+   @Test
+   public void expressionMatchesEachAsyncMethod()
+   {
+      final String expression = AsyncPointcuts.createPointcutExpression(BEAN_CLASS_NAME, index(method("run"),
+            method("run", "int", "[Ljava.lang.String;")));
+      final String zeroArg = "execution(* " + BEAN_CLASS_NAME + "->run())";
+      final String withParams = "execution(* " + BEAN_CLASS_NAME + "->run(int, java.lang.String[]))";
+      Assert.assertTrue("Unexpected expression: " + expression, expression.equals(zeroArg + " OR " + withParams)
+            || expression.equals(withParams + " OR " + zeroArg));
+   }
+
+   /**
+    * Ensures no expression is made where there is nothing to bind
+    */
+   @Test
+   public void noExpressionWithoutAsyncMethods()
+   {
+      Assert.assertNull(AsyncPointcuts.createPointcutExpression(BEAN_CLASS_NAME, index()));
+   }
+
+   /**
+    * Ensures the expression made from a bean class is that made from its name
+    */
+   @Test
+   public void expressionForClassUsesItsName()
+   {
+      final AsyncMethodIndex index = index(method("incrementCounterAsynchronous"));
+      Assert.assertEquals(AsyncPointcuts.createPointcutExpression(Pojo.class.getName(), index), AsyncPointcuts
+            .createPointcutExpression(Pojo.class, index));
+   }
+
+   /**
+    * Ensures the selective AOP configuration used in benchmarking binds
+    * the expression generated for {@link Pojo}
+    */
+   @Test
+   public void selectiveConfigurationBindsGeneratedExpression() throws IOException
+   {
+      final String expression = AsyncPointcuts.createPointcutExpression(Pojo.class,
+            index(method(TestConstants.METHOD_NAME_INCREMENT_COUNTER_ASYNCHRONOUS)));
+      final InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(
+            TestConstants.AOP_DEPLOYABLE_FILENAME_SELECTIVE);
+      Assert.assertNotNull(TestConstants.AOP_DEPLOYABLE_FILENAME_SELECTIVE + " not found", in);
+      final String configuration;
+      try
+      {
+         configuration = new Scanner(in, "UTF-8").useDelimiter("\\A").next();
+      }
+      finally
+      {
+         in.close();
+      }
+      Assert.assertTrue("Configuration does not bind " + expression, configuration.contains("pointcut=\""
+            + expression + "\""));
+   }
+
+   /**
+    * Ensures binary names are converted to pointcut type names
+    */
+   @Test
+   public void binaryNamesConverted()
+   {
+      Assert.assertEquals("java.lang.String", AsyncPointcuts.toPointcutTypeName("java.lang.String"));
+      Assert.assertEquals("int", AsyncPointcuts.toPointcutTypeName("int"));
+      Assert.assertEquals("java.lang.String[]", AsyncPointcuts.toPointcutTypeName("[Ljava.lang.String;"));
+      Assert.assertEquals("long[][]", AsyncPointcuts.toPointcutTypeName("[[J"));
+      Assert.assertEquals("boolean[]", AsyncPointcuts.toPointcutTypeName(boolean[].class.getName()));
+      Assert.assertEquals("java.lang.Object[][]", AsyncPointcuts.toPointcutTypeName(Object[][].class.getName()));
+   }
+
+   /**
+    * Ensures unknown array component codes are rejected
+    */
+   @Test(expected = IllegalArgumentException.class)
+   public void unknownComponentRejected()
+   {
+      AsyncPointcuts.toPointcutTypeName("[Q");
+   }
+
+   private static AsyncMethodMetaData method(final String name, final String... paramTypes)
+   {
+      final AsyncMethodMetaData method = new AsyncMethodMetaData();
+      method.setMethodName(name);
+      final MethodParametersMetaData params = new MethodParametersMetaData();
+      for (final String paramType : paramTypes)
+      {
+         params.add(paramType);
+      }
+      method.setMethodParams(params);
+      return method;
+   }
+
+   private static AsyncMethodIndex index(final AsyncMethodMetaData... methods)
+   {
+      final AsyncMethodsMetaData md = new AsyncMethodsMetaData();
+      for (final AsyncMethodMetaData method : methods)
+      {
+         md.add(method);
+      }
+      return new AsyncMethodIndex(md);
+   }
+}
@@ -0,0 +1,158 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.interceptor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures the {@link RemoteEndpointCache} creates one endpoint
+ * per remote target, and respects its bounds
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class RemoteEndpointCacheTestCase
+{
+
+   /**
+    * Ensures that requests for the same target are served from the cache
+    */
+   @Test
+   public void sameTargetIsCached()
+   {
+      final RemoteEndpointCache cache = new RemoteEndpointCache();
+      final ExecutorService first = cache.getExecutor("oid", null);
+      final ExecutorService second = cache.getExecutor("oid", null);
+      Assert.assertSame("Same target should receive the same executor", first, second);
+      Assert.assertEquals("Expected one miss", 1, cache.getMissCount());
+      Assert.assertEquals("Expected one hit", 1, cache.getHitCount());
+
+      final ExecutorService other = cache.getExecutor("otherOid", null);
+      Assert.assertNotSame("Different target should receive a different executor", first, other);
+      Assert.assertEquals("Expected two entries", 2, cache.size());
+   }
+
+   /**
+    * Ensures that the least-recently used target is evicted when the cache is full
+    */
+   @Test
+   public void leastRecentlyUsedIsEvicted()
+   {
+      final RemoteEndpointCache cache = new RemoteEndpointCache(2, 1, TimeUnit.HOURS);
+      final ExecutorService first = cache.getExecutor("first", null);
+      cache.getExecutor("second", null);
+      cache.getExecutor("first", null);
+      cache.getExecutor("third", null);
+      Assert.assertEquals("Cache should be bounded", 2, cache.size());
+      Assert.assertEquals("Expected one eviction", 1, cache.getEvictionCount());
+      Assert.assertSame("Recently used target should have been retained", first, cache.getExecutor("first", null));
+   }
+
+   /**
+    * Ensures that idle targets are evicted
+    */
+   @Test
+   public void idleTargetIsEvicted() throws InterruptedException
+   {
+      final RemoteEndpointCache cache = new RemoteEndpointCache(10, 10, TimeUnit.MILLISECONDS);
+      final ExecutorService first = cache.getExecutor("oid", null);
+      Thread.sleep(50);
+      final ExecutorService second = cache.getExecutor("oid", null);
+      Assert.assertNotSame("Idle target should have been evicted", first, second);
+      Assert.assertEquals("Expected one eviction", 1, cache.getEvictionCount());
+   }
+
+   /**
+    * Ensures that idle targets are swept out without being requested again
+    */
+   @Test
+   public void idleTargetsAreSwept() throws InterruptedException
+   {
+      final RemoteEndpointCache cache = new RemoteEndpointCache(10, 10, TimeUnit.MILLISECONDS);
+      cache.getExecutor("first", null);
+      cache.getExecutor("second", null);
+      Thread.sleep(50);
+      cache.getExecutor("third", null);
+      Assert.assertEquals("Idle targets should have been swept", 1, cache.size());
+      Assert.assertEquals("Expected two evictions", 2, cache.getEvictionCount());
+   }
+
+   /**
+    * Ensures that concurrent requests for the same target all receive the cached executor
+    */
+   @Test
+   public void concurrentRequestsShareExecutor() throws Exception
+   {
+      final RemoteEndpointCache cache = new RemoteEndpointCache();
+      final int threads = 8;
+      final int requests = 1000;
+      final CountDownLatch start = new CountDownLatch(1);
+      final ExecutorService pool = Executors.newFixedThreadPool(threads);
+      try
+      {
+         final List<Future<Set<ExecutorService>>> results = new ArrayList<Future<Set<ExecutorService>>>();
+         for (int i = 0; i < threads; i++)
+         {
+            results.add(pool.submit(new Callable<Set<ExecutorService>>()
+            {
+               @Override
+               public Set<ExecutorService> call() throws Exception
+               {
+                  final Set<ExecutorService> seen = Collections
+                        .newSetFromMap(new IdentityHashMap<ExecutorService, Boolean>());
+                  start.await();
+                  for (int j = 0; j < requests; j++)
+                  {
+                     seen.add(cache.getExecutor("oid", null));
+                  }
+                  return seen;
+               }
+            }));
+         }
+         start.countDown();
+         final Set<ExecutorService> seen = Collections.newSetFromMap(new IdentityHashMap<ExecutorService, Boolean>());
+         for (final Future<Set<ExecutorService>> result : results)
+         {
+            seen.addAll(result.get(10, TimeUnit.SECONDS));
+         }
+         Assert.assertEquals("All requests should share one executor", 1, seen.size());
+         Assert.assertEquals(1, cache.size());
+         Assert.assertEquals(threads * requests, cache.getHitCount() + cache.getMissCount());
+      }
+      finally
+      {
+         pool.shutdownNow();
+      }
+   }
+}
@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.test.bulkhead;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.aop.Advisor;
+import org.jboss.ejb3.async.impl.interceptor.AsynchronousClientInterceptor;
+import org.jboss.ejb3.async.impl.test.interceptor.TestAsynchronousInterceptorFactory;
+import org.jboss.ejb3.async.spi.AsyncContextPropagation;
+import org.jboss.ejb3.async.spi.AsyncExecutorLookup;
+import org.jboss.ejb3.async.spi.AsyncMethodIndex;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+
+/**
+ * Factory to create instances of the {@link AsynchronousClientInterceptor}
+ * dispatching to the executors resolved by {@link TestBulkheadInterceptorFactory#LOOKUP},
+ * as would a container given the {@link AsyncExecutorLookup} of its deployment
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class TestBulkheadInterceptorFactory extends TestAsynchronousInterceptorFactory
+{
+
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Lookup used by all interceptors created
+    */
+   public static final RecordingExecutorLookup LOOKUP = new RecordingExecutorLookup();
+
+   // --------------------------------------------------------------------------------||
+   // Overridden Implementations -----------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.async.impl.test.interceptor.TestAsynchronousInterceptorFactory#createInterceptor(org.jboss.aop.Advisor, org.jboss.metadata.ejb.spec.AsyncMethodsMetaData)
+    */
+   @Override
+   protected AsynchronousClientInterceptor createInterceptor(final Advisor advisor,
+         final AsyncMethodsMetaData asyncMethods)
+   {
+      return new AsynchronousClientInterceptor(new AsyncMethodIndex(asyncMethods), AsyncContextPropagation
+            .getDefault(), advisor.getClazz().getSimpleName(), LOOKUP);
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Inner Classes ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * {@link AsyncExecutorLookup} recording each lookup, and resolving all to one 
+    * executor; as would that of a deployment, returns the raw executor
+    */
+   public static final class RecordingExecutorLookup implements AsyncExecutorLookup
+   {
+      /**
+       * Executor backing that resolved
+       */
+      public final ThreadPoolExecutor bulkhead = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>());
+
+      /**
+       * Methods looked up, in form "ejbName.methodName"
+       */
+      public final List<String> lookedUp = new CopyOnWriteArrayList<String>();
+
+      @Override
+      public ExecutorService getExecutor(final String ejbName, final Method method) throws IllegalArgumentException
+      {
+         lookedUp.add(ejbName + "." + method.getName());
+         return bulkhead;
+      }
+   }
+}
@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.test.bulkhead.unit;
+
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jboss.aspects.common.AOPDeployer;
+import org.jboss.ejb3.async.impl.test.bulkhead.TestBulkheadInterceptorFactory;
+import org.jboss.ejb3.async.impl.test.bulkhead.TestBulkheadInterceptorFactory.RecordingExecutorLookup;
+import org.jboss.ejb3.async.impl.test.common.Pojo;
+import org.jboss.ejb3.async.impl.test.common.TestConstants;
+import org.jboss.ejb3.async.impl.test.common.ThreadPoolAsyncContainer;
+import org.jboss.ejb3.async.spi.AsynchronousClientFuture;
+import org.jboss.ejb3.interceptors.container.BeanContext;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * ExecutorLookupTestCase
+ * 
+ * Tests that asynchronous invocations are dispatched to the executor 
+ * resolved for their bean and method, rather than that of the container,
+ * with results unwrapped as by the container's own executor
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public class ExecutorLookupTestCase
+{
+
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private static final AOPDeployer aopDeployer = new AOPDeployer(TestConstants.AOP_DEPLOYABLE_FILENAME_BULKHEAD);
+
+   private static ThreadPoolAsyncContainer<Pojo> container;
+
+   // --------------------------------------------------------------------------------||
+   // Test Lifecycle -----------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   @BeforeClass
+   public static void beforeClass() throws Throwable
+   {
+      aopDeployer.deploy();
+      container = new ThreadPoolAsyncContainer<Pojo>("Test Bulkhead POJO Container", TestConstants.DOMAIN_BULKHEAD,
+            Pojo.class);
+   }
+
+   @AfterClass
+   public static void afterClass() throws Throwable
+   {
+      aopDeployer.undeploy();
+      TestBulkheadInterceptorFactory.LOOKUP.bulkhead.shutdownNow();
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Tests --------------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Tests that an asynchronous invocation is carried out by the executor
+    * resolved for its bean and method, and that synchronous invocations
+    * do not consult the lookup
+    * 
+    * @throws Throwable 
+    */
+   @Test
+   public void testInvocationUsesResolvedExecutor() throws Throwable
+   {
+      final RecordingExecutorLookup lookup = TestBulkheadInterceptorFactory.LOOKUP;
+      final BeanContext<Pojo> bean = container.construct();
+
+      // Synchronous
+      final String syncValue = container.invoke(bean, TestConstants.METHOD_NAME_GET_VALUE_SYNCHRONOUS);
+      TestCase.assertEquals(Pojo.VALUE, syncValue);
+      TestCase.assertTrue("Synchronous invocation should not look up an executor", lookup.lookedUp.isEmpty());
+
+      // Asynchronous
+      final Future<?> future = (Future<?>) container.invoke(bean, TestConstants.METHOD_NAME_GET_VALUE_ASYNCHRONOUS);
+      TestCase.assertTrue("Invocation upon resolved executor not cancellable in the container: " + future,
+            future instanceof AsynchronousClientFuture);
+      TestCase.assertEquals("Result of invocation upon resolved executor not unwrapped", Pojo.VALUE, future.get(
+            10, TimeUnit.SECONDS));
+      TestCase.assertEquals("Executor not looked up for bean and method", Arrays.asList(Pojo.class.getSimpleName()
+            + "." + TestConstants.METHOD_NAME_GET_VALUE_ASYNCHRONOUS), lookup.lookedUp);
+      TestCase.assertEquals("Invocation not carried out by the resolved executor", 1, lookup.bulkhead
+            .getTaskCount());
+   }
+}
@@ -39,6 +39,14 @@ public interface TestConstants
 
    String AOP_DEPLOYABLE_FILENAME_SIMPLE = "simple/jboss-aop.xml";
 
+   String DOMAIN_SELECTIVE = "Selective Asynchronous Container";
+
+   String AOP_DEPLOYABLE_FILENAME_SELECTIVE = "selective/jboss-aop.xml";
+
+   String DOMAIN_BULKHEAD = "Bulkhead Asynchronous Container";
+
+   String AOP_DEPLOYABLE_FILENAME_BULKHEAD = "bulkhead/jboss-aop.xml";
+
    // --------------------------------------------------------------------------------||
    // Test POJO Method Names ---------------------------------------------------------||
    // --------------------------------------------------------------------------------||
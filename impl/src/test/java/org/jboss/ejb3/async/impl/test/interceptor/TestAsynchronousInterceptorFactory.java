@@ -86,8 +86,25 @@ public class TestAsynchronousInterceptorFactory extends CreatePerClassAspectFact
             asyncMethods.add(asyncMethod);
          }
       }
-      final Object interceptor = new AsynchronousClientInterceptor(asyncMethods);
+      final Object interceptor = this.createInterceptor(advisor, asyncMethods);
       log.info("Created: " + interceptor);
       return interceptor;
    }
+
+   // --------------------------------------------------------------------------------||
+   // Functional Methods -------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Creates the interceptor for the bean of the specified advisor, handling 
+    * the specified asynchronous methods
+    * @param advisor
+    * @param asyncMethods
+    * @return
+    */
+   protected AsynchronousClientInterceptor createInterceptor(final Advisor advisor,
+         final AsyncMethodsMetaData asyncMethods)
+   {
+      return new AsynchronousClientInterceptor(asyncMethods);
+   }
 }
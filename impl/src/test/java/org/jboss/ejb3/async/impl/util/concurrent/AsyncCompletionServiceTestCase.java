@@ -0,0 +1,183 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.util.concurrent;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ejb.AsyncResult;
+
+import org.jboss.ejb3.async.spi.AsyncEndpoint;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that the {@link AsyncCompletionService} hands back invocations
+ * in order of completion, and cancels those remaining
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class AsyncCompletionServiceTestCase
+{
+
+   private ExecutorService delegate;
+
+   private CountingEndpoint endpoint;
+
+   private AsyncCompletionService<Object> service;
+
+   private CountDownLatch release;
+
+   @Before
+   public void createService()
+   {
+      delegate = Executors.newFixedThreadPool(4);
+      endpoint = new CountingEndpoint();
+      service = new AsyncCompletionService<Object>(new ResultUnwrappingExecutorService(delegate, endpoint));
+      release = new CountDownLatch(1);
+   }
+
+   @After
+   public void shutdownExecutor()
+   {
+      release.countDown();
+      delegate.shutdownNow();
+   }
+
+   /**
+    * Ensures results are handed back as they complete, not as submitted
+    */
+   @Test
+   public void resultsAreTakenInCompletionOrder() throws Exception
+   {
+      final Future<Object> slow = service.submit(blocked("slow"));
+      service.submit(result("fast"));
+
+      final Future<Object> first = service.poll(5, TimeUnit.SECONDS);
+      Assert.assertNotNull(first);
+      Assert.assertEquals("fast", first.get());
+      Assert.assertEquals(1, service.getRemainingCount());
+      Assert.assertNull(service.poll());
+
+      release.countDown();
+      Assert.assertSame(slow, service.take());
+      Assert.assertEquals("slow", slow.get());
+      Assert.assertEquals(0, service.getRemainingCount());
+   }
+
+   /**
+    * Ensures invocations remaining are cancelled, in the container if running
+    */
+   @Test
+   public void remainingAreCancelled() throws Exception
+   {
+      final Future<Object> slow = service.submit(blocked("slow"));
+      final Future<Object> slower = service.submit(blocked("slower"));
+      service.submit(result("fast"));
+      Assert.assertEquals("fast", service.take().get());
+      while (endpoint.started.get() < 2)
+      {
+         Thread.sleep(10);
+      }
+
+      Assert.assertEquals(2, service.cancelRemaining(true));
+      Assert.assertTrue(slow.isCancelled());
+      Assert.assertTrue(slower.isCancelled());
+      Assert.assertEquals("Running invocations were not cancelled in the container", 2, endpoint.cancels.get());
+
+      // Cancelled invocations are handed back as complete
+      Assert.assertNotNull(service.poll());
+      Assert.assertNotNull(service.poll());
+      Assert.assertEquals(0, service.getRemainingCount());
+   }
+
+   /**
+    * Ensures only invocations signalling completion may be added
+    */
+   @Test(expected = IllegalArgumentException.class)
+   public void plainFuturesMayNotBeAdded()
+   {
+      new AsyncCompletionService<Object>().add(delegate.submit(result("plain")));
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private static Callable<Object> result(final String value)
+   {
+      return new Callable<Object>()
+      {
+         public Object call()
+         {
+            return new AsyncResult<String>(value);
+         }
+      };
+   }
+
+   private Callable<Object> blocked(final String value)
+   {
+      return new Callable<Object>()
+      {
+         public Object call() throws Exception
+         {
+            endpoint.started.incrementAndGet();
+            release.await();
+            return new AsyncResult<String>(value);
+         }
+      };
+   }
+
+   /**
+    * {@link AsyncEndpoint} counting cancel requests, and invocations started
+    */
+   private static final class CountingEndpoint implements AsyncEndpoint
+   {
+      final AtomicInteger cancels = new AtomicInteger();
+
+      final AtomicInteger started = new AtomicInteger();
+
+      @Override
+      public boolean cancel(final AsyncInvocationId id) throws IllegalArgumentException
+      {
+         cancels.incrementAndGet();
+         return true;
+      }
+
+      @Override
+      public Object invokeAsync(Serializable session, Class<?> invokedBusinessInterface, Method method, Object[] args)
+            throws Throwable
+      {
+         return null;
+      }
+   }
+}
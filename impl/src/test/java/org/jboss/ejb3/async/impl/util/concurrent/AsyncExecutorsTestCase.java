@@ -0,0 +1,98 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.util.concurrent;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that {@link AsyncExecutors} creates virtual Thread executors 
+ * where supported, and refuses to otherwise
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class AsyncExecutorsTestCase
+{
+
+   /**
+    * Ensures that tasks run on distinct, named Threads which do not
+    * inherit inheritable Thread locals of the submitter
+    */
+   @Test
+   public void virtualThreadPerTask() throws Exception
+   {
+      if (!AsyncExecutors.isVirtualThreadSupported())
+      {
+         return;
+      }
+      final InheritableThreadLocal<String> inherited = new InheritableThreadLocal<String>();
+      inherited.set("submitter");
+      final ExecutorService executor = AsyncExecutors.newVirtualThreadPerTaskExecutor("AsyncExecutorsTestCase");
+      try
+      {
+         final Callable<Thread> task = new Callable<Thread>()
+         {
+            @Override
+            public Thread call() throws Exception
+            {
+               Assert.assertNull("Inheritable thread locals should not be inherited", inherited.get());
+               return Thread.currentThread();
+            }
+         };
+         final Thread first = executor.submit(task).get(10, TimeUnit.SECONDS);
+         final Thread second = executor.submit(task).get(10, TimeUnit.SECONDS);
+         Assert.assertNotSame("Each task should receive its own Thread", first, second);
+         Assert.assertTrue("Thread should be named with the prefix: " + first.getName(), first.getName().startsWith(
+               "AsyncExecutorsTestCase-"));
+      }
+      finally
+      {
+         executor.shutdown();
+         inherited.remove();
+      }
+   }
+
+   /**
+    * Ensures that runtimes without virtual Threads are refused
+    */
+   @Test
+   public void unsupportedRuntimeIsRefused()
+   {
+      if (AsyncExecutors.isVirtualThreadSupported())
+      {
+         return;
+      }
+      try
+      {
+         AsyncExecutors.newVirtualThreadPerTaskExecutor("AsyncExecutorsTestCase");
+         Assert.fail("Virtual thread executor should not be created on this runtime");
+      }
+      catch (final UnsupportedOperationException expected)
+      {
+         // Expected
+      }
+   }
+}
@@ -0,0 +1,210 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.util.concurrent;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.async.impl.AsyncInvocationIdSequenceImpl;
+import org.jboss.ejb3.async.spi.AsyncBulkCancellableContextBase;
+import org.jboss.ejb3.async.spi.AsyncEndpoint;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.jboss.ejb3.async.spi.CurrentAsyncInvocation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that {@link AsyncFutures} cancels undispatched invocations locally
+ * and dispatched invocations with a single request per container
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class AsyncFuturesTestCase
+{
+
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private static final int NUM_RUNNING = 2;
+
+   private static final int NUM_QUEUED = 100;
+
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Holds dispatched invocations running
+    */
+   private final CountDownLatch release = new CountDownLatch(1);
+
+   private final CountingContainer container = new CountingContainer();
+
+   private final ThreadPoolExecutor executor = new ThreadPoolExecutor(NUM_RUNNING, NUM_RUNNING, 0,
+         TimeUnit.MILLISECONDS, new AsyncWorkQueue(), new NamedThreadFactory("AsyncFuturesTestCase", true));
+
+   @After
+   public void shutdown()
+   {
+      release.countDown();
+      executor.shutdownNow();
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Tests --------------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that all invocations are cancelled with one bulk request
+    */
+   @Test
+   public void cancelAllWithOneRequest() throws Exception
+   {
+      final List<Future<?>> futures = this.submitAll();
+      Assert.assertEquals(NUM_RUNNING + NUM_QUEUED, AsyncFutures.cancelAll(futures, true));
+      Assert.assertEquals("Expected one bulk request", 1, container.bulkRequests);
+      Assert.assertEquals("Only dispatched invocations should be requested", NUM_RUNNING, container.requested
+            .size());
+      Assert.assertEquals("Queued invocations should have been removed", 0, executor.getQueue().size());
+   }
+
+   /**
+    * Ensures that cancel requests may be issued without blocking the cancelling Thread
+    */
+   @Test
+   public void cancelAllWithoutBlocking() throws Exception
+   {
+      final List<Future<?>> futures = this.submitAll();
+      final List<Runnable> deferred = new ArrayList<Runnable>();
+      final Future<Integer> result = AsyncFutures.cancelAllAsync(futures, true, new Executor()
+      {
+         @Override
+         public void execute(final Runnable command)
+         {
+            deferred.add(command);
+         }
+      });
+      Assert.assertEquals("Queued invocations should be cancelled before returning", 0, executor.getQueue().size());
+      Assert.assertEquals("No request should have been issued by the cancelling Thread", 0, container.bulkRequests);
+      Assert.assertFalse(result.isDone());
+
+      deferred.get(0).run();
+      Assert.assertEquals(NUM_RUNNING + NUM_QUEUED, result.get().intValue());
+      Assert.assertEquals(1, container.bulkRequests);
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Submits invocations occupying all workers, then invocations left queued
+    */
+   private List<Future<?>> submitAll() throws InterruptedException
+   {
+      final ResultUnwrappingExecutorService es = new ResultUnwrappingExecutorService(executor, container);
+      final CountDownLatch running = new CountDownLatch(NUM_RUNNING);
+      final List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (int i = 0; i < NUM_RUNNING + NUM_QUEUED; i++)
+      {
+         CurrentAsyncInvocation.markCurrentInvocationOnThread(new AsyncInvocationIdSequenceImpl());
+         try
+         {
+            futures.add(es.submit(new Runnable()
+            {
+               @Override
+               public void run()
+               {
+                  running.countDown();
+                  try
+                  {
+                     release.await();
+                  }
+                  catch (final InterruptedException ie)
+                  {
+                     Thread.currentThread().interrupt();
+                  }
+               }
+            }));
+         }
+         finally
+         {
+            CurrentAsyncInvocation.unmarkCurrentInvocationFromThread();
+         }
+      }
+      Assert.assertTrue("Invocations should be running", running.await(10, TimeUnit.SECONDS));
+      return futures;
+   }
+
+   /**
+    * Container recording cancel requests
+    */
+   private static final class CountingContainer extends AsyncBulkCancellableContextBase implements AsyncEndpoint
+   {
+      final List<AsyncInvocationId> requested = new ArrayList<AsyncInvocationId>();
+
+      int bulkRequests;
+
+      @Override
+      public int cancelAll(final Collection<AsyncInvocationId> ids) throws IllegalArgumentException
+      {
+         bulkRequests++;
+         return super.cancelAll(ids);
+      }
+
+      @Override
+      public boolean cancel(final AsyncInvocationId id) throws IllegalArgumentException
+      {
+         requested.add(id);
+         return true;
+      }
+
+      @Override
+      public int cancelAllInSession(final Serializable session) throws IllegalArgumentException
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public int cancelAllInvocations()
+      {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public Object invokeAsync(final Serializable session, final Class<?> invokedBusinessInterface,
+            final Method method, final Object[] args) throws Throwable
+      {
+         return null;
+      }
+   }
+}
@@ -0,0 +1,349 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.util.concurrent;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.ejb.AsyncResult;
+
+import org.jboss.ejb3.async.impl.AsyncInvocationIdSequenceImpl;
+import org.jboss.ejb3.async.spi.AsyncCompletionCallback;
+import org.jboss.ejb3.async.spi.AsyncEndpoint;
+import org.jboss.ejb3.async.spi.AsyncFunction;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.jboss.ejb3.async.spi.AsyncStage;
+import org.jboss.ejb3.async.spi.CurrentAsyncInvocation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that continuations attached to {@link AsyncStage}s run upon
+ * completion, and that cancellation reaches the container
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class AsyncStageTestCase
+{
+
+   private ExecutorService delegate;
+
+   private ExecutorService continuations;
+
+   private CountingEndpoint endpoint;
+
+   private ResultUnwrappingExecutorService es;
+
+   @Before
+   public void createExecutors()
+   {
+      delegate = Executors.newFixedThreadPool(2);
+      continuations = Executors.newSingleThreadExecutor();
+      endpoint = new CountingEndpoint();
+      es = new ResultUnwrappingExecutorService(delegate, endpoint);
+   }
+
+   @After
+   public void shutdownExecutors()
+   {
+      delegate.shutdownNow();
+      continuations.shutdownNow();
+   }
+
+   /**
+    * Ensures functions are applied to the unwrapped result, in order
+    */
+   @Test
+   public void thenApplyTransformsResult() throws Exception
+   {
+      final AsyncStage<Integer> stage = submit(new Callable<Object>()
+      {
+         public Object call()
+         {
+            return new AsyncResult<String>("async");
+         }
+      }).thenApply(new AsyncFunction<Object, String>()
+      {
+         public String apply(final Object result)
+         {
+            return result + "-stage";
+         }
+      }).thenApply(new AsyncFunction<String, Integer>()
+      {
+         public Integer apply(final String result)
+         {
+            return result.length();
+         }
+      }, continuations);
+
+      Assert.assertEquals(Integer.valueOf("async-stage".length()), stage.get(5, TimeUnit.SECONDS));
+   }
+
+   /**
+    * Ensures callbacks are notified of failure, and that dependents 
+    * fail with the original cause
+    */
+   @Test
+   public void whenCompleteReportsFailure() throws Exception
+   {
+      final IllegalStateException failure = new IllegalStateException("Bean failure");
+      final AtomicReference<Throwable> notified = new AtomicReference<Throwable>();
+      final AsyncStage<Object> stage = submit(new Callable<Object>()
+      {
+         public Object call()
+         {
+            throw failure;
+         }
+      }).whenComplete(new AsyncCompletionCallback<Object>()
+      {
+         public void onCompletion(final Object result, final Throwable cause)
+         {
+            notified.set(cause);
+         }
+      });
+
+      try
+      {
+         stage.get(5, TimeUnit.SECONDS);
+         Assert.fail("Failure was not reported");
+      }
+      catch (final ExecutionException ee)
+      {
+         Assert.assertSame(failure, ee.getCause());
+      }
+      Assert.assertSame("Callback was not notified of failure", failure, notified.get());
+   }
+
+   /**
+    * Ensures continuations attached to a completed stage run immediately
+    */
+   @Test
+   public void continuationOfCompletedStageRunsInline() throws Exception
+   {
+      final AsyncStage<Object> source = submit(new Callable<Object>()
+      {
+         public Object call()
+         {
+            return new AsyncResult<String>("done");
+         }
+      });
+      source.get(5, TimeUnit.SECONDS);
+
+      final Thread caller = Thread.currentThread();
+      final AtomicReference<Thread> ranIn = new AtomicReference<Thread>();
+      final AsyncStage<Object> stage = source.whenComplete(new AsyncCompletionCallback<Object>()
+      {
+         public void onCompletion(final Object result, final Throwable cause)
+         {
+            ranIn.set(Thread.currentThread());
+         }
+      });
+      Assert.assertTrue(stage.isDone());
+      Assert.assertSame(caller, ranIn.get());
+   }
+
+   /**
+    * Ensures cancelling a dependent stage cancels the running invocation in the container
+    */
+   @Test
+   public void cancellingDependentCancelsInvocation() throws Exception
+   {
+      final CountDownLatch running = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      final AsyncStage<Object> source = submit(new Callable<Object>()
+      {
+         public Object call() throws Exception
+         {
+            running.countDown();
+            release.await();
+            return new AsyncResult<String>("late");
+         }
+      });
+      final AtomicInteger notified = new AtomicInteger();
+      source.whenComplete(new AsyncCompletionCallback<Object>()
+      {
+         public void onCompletion(final Object result, final Throwable cause)
+         {
+            Assert.assertTrue(cause instanceof CancellationException);
+            notified.incrementAndGet();
+         }
+      });
+      final AsyncStage<Integer> stage = source.thenApply(new AsyncFunction<Object, Integer>()
+      {
+         public Integer apply(final Object result)
+         {
+            return 0;
+         }
+      });
+      Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+
+      Assert.assertTrue("Dependent stage was not cancelled", stage.cancel(true));
+      Assert.assertTrue(stage.isCancelled());
+      Assert.assertTrue(source.isCancelled());
+      Assert.assertEquals("Container was not asked to cancel", 1, endpoint.cancels.get());
+      Assert.assertEquals("Callback was not notified of cancellation", 1, notified.get());
+      release.countDown();
+   }
+
+   /**
+    * Ensures listeners are run exactly once upon success, failure or cancellation,
+    * whether registered before or after completion
+    */
+   @Test
+   public void listenersRunOnceUponEachOutcome() throws Exception
+   {
+      final CountDownLatch release = new CountDownLatch(1);
+      final AsyncStage<Object> succeeded = submit(new Callable<Object>()
+      {
+         public Object call() throws Exception
+         {
+            release.await();
+            return new AsyncResult<String>("done");
+         }
+      });
+      final AsyncStage<Object> failed = submit(new Callable<Object>()
+      {
+         public Object call() throws Exception
+         {
+            release.await();
+            throw new IllegalStateException("Bean failure");
+         }
+      });
+      final AsyncStage<Object> cancelled = submit(new Callable<Object>()
+      {
+         public Object call() throws Exception
+         {
+            release.await();
+            return null;
+         }
+      });
+
+      final AtomicInteger before = new AtomicInteger();
+      final CountDownLatch notified = new CountDownLatch(3);
+      final Runnable countBefore = new Runnable()
+      {
+         public void run()
+         {
+            before.incrementAndGet();
+            notified.countDown();
+         }
+      };
+      succeeded.addListener(countBefore, continuations);
+      failed.addListener(countBefore, continuations);
+      cancelled.addListener(countBefore, continuations);
+
+      cancelled.cancel(true);
+      release.countDown();
+      try
+      {
+         failed.get(5, TimeUnit.SECONDS);
+         Assert.fail("Failure was not reported");
+      }
+      catch (final ExecutionException expected)
+      {
+      }
+      succeeded.get(5, TimeUnit.SECONDS);
+
+      // Listeners registered now are dispatched immediately
+      final AtomicInteger after = new AtomicInteger();
+      final Thread caller = Thread.currentThread();
+      final Executor direct = new Executor()
+      {
+         public void execute(final Runnable command)
+         {
+            Assert.assertSame(caller, Thread.currentThread());
+            command.run();
+         }
+      };
+      final Runnable countAfter = new Runnable()
+      {
+         public void run()
+         {
+            after.incrementAndGet();
+         }
+      };
+      succeeded.addListener(countAfter, direct);
+      failed.addListener(countAfter, direct);
+      cancelled.addListener(countAfter, direct);
+      Assert.assertEquals(3, after.get());
+
+      // Listeners registered beforehand run once each
+      Assert.assertTrue(notified.await(5, TimeUnit.SECONDS));
+      Thread.sleep(100);
+      Assert.assertEquals(3, before.get());
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Submits the specified task as a new asynchronous invocation
+    */
+   private AsyncStage<Object> submit(final Callable<Object> task)
+   {
+      final AsyncInvocationId id = new AsyncInvocationIdSequenceImpl();
+      CurrentAsyncInvocation.markCurrentInvocationOnThread(id);
+      try
+      {
+         return es.submit(task);
+      }
+      finally
+      {
+         CurrentAsyncInvocation.unmarkCurrentInvocationFromThread();
+      }
+   }
+
+   /**
+    * {@link AsyncEndpoint} counting cancel requests
+    */
+   private static final class CountingEndpoint implements AsyncEndpoint
+   {
+      final AtomicInteger cancels = new AtomicInteger();
+
+      @Override
+      public boolean cancel(final AsyncInvocationId id) throws IllegalArgumentException
+      {
+         cancels.incrementAndGet();
+         return true;
+      }
+
+      @Override
+      public Object invokeAsync(Serializable session, Class<?> invokedBusinessInterface, Method method, Object[] args)
+            throws Throwable
+      {
+         return null;
+      }
+   }
+}
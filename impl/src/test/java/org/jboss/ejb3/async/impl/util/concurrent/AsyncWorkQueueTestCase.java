@@ -0,0 +1,302 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.util.concurrent;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.async.impl.AsyncInvocationIdSequenceImpl;
+import org.jboss.ejb3.async.spi.AsyncEndpoint;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.jboss.ejb3.async.spi.CurrentAsyncInvocation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that cancelled invocations are removed from an 
+ * {@link AsyncWorkQueue} immediately, rather than when dequeued
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class AsyncWorkQueueTestCase
+{
+
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Number of invocations queued
+    */
+   private static final int NUM_INVOCATIONS = 100000;
+
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Holds the single worker Thread busy such that all invocations are queued
+    */
+   private final CountDownLatch release = new CountDownLatch(1);
+
+   private AsyncWorkQueue queue;
+
+   private ThreadPoolExecutor executor;
+
+   // --------------------------------------------------------------------------------||
+   // Lifecycle ----------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   @Before
+   public void occupyWorker()
+   {
+      queue = new AsyncWorkQueue(NUM_INVOCATIONS);
+      executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, queue, new NamedThreadFactory(
+            "AsyncWorkQueueTestCase", true));
+      executor.execute(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            try
+            {
+               release.await();
+            }
+            catch (final InterruptedException ie)
+            {
+               Thread.currentThread().interrupt();
+            }
+         }
+      });
+   }
+
+   @After
+   public void shutdown()
+   {
+      release.countDown();
+      executor.shutdownNow();
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Tests --------------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that cancelling a full queue of client invocations drains the queue, 
+    * such that new invocations are accepted without waiting for a worker
+    */
+   @Test
+   public void cancelledInvocationsDrainQueue() throws Exception
+   {
+      final ResultUnwrappingExecutorService es = new ResultUnwrappingExecutorService(executor, new NoopEndpoint());
+      final List<Future<Object>> futures = new ArrayList<Future<Object>>(NUM_INVOCATIONS);
+      for (int i = 0; i < NUM_INVOCATIONS; i++)
+      {
+         futures.add(this.submit(es, new AsyncInvocationIdSequenceImpl()));
+      }
+      Assert.assertEquals("All invocations should be queued", NUM_INVOCATIONS, queue.size());
+      Assert.assertEquals("Queue should be full", 0, queue.remainingCapacity());
+
+      for (final Future<Object> future : futures)
+      {
+         Assert.assertTrue("Queued invocation should be cancelled", future.cancel(true));
+      }
+      Assert.assertEquals("Queue should have been drained by cancellation", 0, queue.size());
+      Assert.assertEquals(NUM_INVOCATIONS, queue.getRemovedCount());
+
+      // New work is accepted
+      final Future<Object> accepted = this.submit(es, new AsyncInvocationIdSequenceImpl());
+      Assert.assertEquals(1, queue.size());
+      release.countDown();
+      Assert.assertNull("New invocation should have run", accepted.get(10, TimeUnit.SECONDS));
+   }
+
+   /**
+    * Ensures that queued invocations may be cancelled by ID, as by the container
+    */
+   @Test
+   public void cancelQueuedById() throws Exception
+   {
+      final ResultUnwrappingExecutorService es = new ResultUnwrappingExecutorService(executor, new NoopEndpoint());
+      final AsyncInvocationId id = new AsyncInvocationIdSequenceImpl();
+      final Future<Object> cancelled = this.submit(es, id);
+      final Future<Object> retained = this.submit(es, new AsyncInvocationIdSequenceImpl());
+
+      Assert.assertTrue("Queued invocation should be removed", AsyncWorkQueue.cancelQueued(executor, id));
+      Assert.assertFalse("Invocation should no longer be queued", AsyncWorkQueue.cancelQueued(executor, id));
+      Assert.assertTrue(cancelled.isCancelled());
+      Assert.assertEquals(1, queue.size());
+
+      release.countDown();
+      Assert.assertNull("Retained invocation should have run", retained.get(10, TimeUnit.SECONDS));
+   }
+
+   /**
+    * Ensures the same task may be executed more than once while still queued, 
+    * as with any {@link java.util.concurrent.BlockingQueue}
+    */
+   @Test
+   public void sameTaskQueuedTwice() throws Exception
+   {
+      final CountDownLatch ran = new CountDownLatch(2);
+      final Runnable task = new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            ran.countDown();
+         }
+      };
+      executor.execute(task);
+      executor.execute(task);
+      Assert.assertEquals("Both executions should be queued", 2, queue.size());
+
+      release.countDown();
+      Assert.assertTrue("Task should have run twice", ran.await(10, TimeUnit.SECONDS));
+   }
+
+   /**
+    * Ensures a task queued more than once is removed one node at a time, 
+    * oldest first, and remains indexed until its last node is gone
+    */
+   @Test
+   public void duplicateTasksRemovedOneAtATime() throws Exception
+   {
+      final AsyncWorkQueue queue = new AsyncWorkQueue(10);
+      final Runnable duplicated = new NamedRunnable("duplicated");
+      final Runnable other = new NamedRunnable("other");
+      queue.put(duplicated);
+      queue.put(other);
+      queue.put(duplicated);
+      Assert.assertEquals(3, queue.size());
+
+      Assert.assertTrue(queue.remove(duplicated));
+      Assert.assertEquals(2, queue.size());
+      Assert.assertTrue("Second node should still be queued", queue.contains(duplicated));
+      Assert.assertSame(other, queue.poll());
+      Assert.assertTrue(queue.remove(duplicated));
+      Assert.assertFalse(queue.contains(duplicated));
+      Assert.assertFalse(queue.remove(duplicated));
+      Assert.assertEquals(0, queue.size());
+
+      // Indexed afresh once fully removed
+      queue.put(duplicated);
+      queue.put(duplicated);
+      Assert.assertSame(duplicated, queue.poll());
+      Assert.assertSame(duplicated, queue.poll());
+      Assert.assertNull(queue.poll());
+   }
+
+   /**
+    * Ensures an invocation queued more than once may be removed by ID for each node
+    */
+   @Test
+   public void duplicateInvocationRemovedById() throws Exception
+   {
+      final ResultUnwrappingExecutorService es = new ResultUnwrappingExecutorService(executor, new NoopEndpoint());
+      final AsyncInvocationId id = new AsyncInvocationIdSequenceImpl();
+      final Future<Object> future = this.submit(es, id);
+      Assert.assertTrue(queue.offer((Runnable) future));
+      Assert.assertEquals(2, queue.size());
+
+      Assert.assertSame(future, queue.removeById(id));
+      Assert.assertSame(future, queue.removeById(id));
+      Assert.assertNull(queue.removeById(id));
+      Assert.assertEquals(0, queue.size());
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private Future<Object> submit(final ResultUnwrappingExecutorService es, final AsyncInvocationId id)
+   {
+      CurrentAsyncInvocation.markCurrentInvocationOnThread(id);
+      try
+      {
+         return es.submit(new Runnable()
+         {
+            @Override
+            public void run()
+            {
+               // NOOP
+            }
+         }, null);
+      }
+      finally
+      {
+         CurrentAsyncInvocation.unmarkCurrentInvocationFromThread();
+      }
+   }
+
+   /**
+    * Task which does nothing, named for diagnostics
+    */
+   private static final class NamedRunnable implements Runnable
+   {
+      private final String name;
+
+      NamedRunnable(final String name)
+      {
+         this.name = name;
+      }
+
+      @Override
+      public void run()
+      {
+         // NOOP
+      }
+
+      @Override
+      public String toString()
+      {
+         return name;
+      }
+   }
+
+   /**
+    * Endpoint which is never asked to cancel, as invocations are cancelled while queued
+    */
+   private static final class NoopEndpoint implements AsyncEndpoint
+   {
+      @Override
+      public boolean cancel(final AsyncInvocationId id) throws IllegalArgumentException
+      {
+         throw new IllegalStateException("Queued invocation should not be cancelled by the container");
+      }
+
+      @Override
+      public Object invokeAsync(final Serializable session, final Class<?> invokedBusinessInterface,
+            final Method method, final Object[] args) throws Throwable
+      {
+         return null;
+      }
+   }
+}
@@ -0,0 +1,308 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.util.concurrent;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.ejb.AsyncResult;
+
+import org.jboss.ejb3.async.impl.AsyncInvocationIdSequenceImpl;
+import org.jboss.ejb3.async.spi.AsyncEndpoint;
+import org.jboss.ejb3.async.spi.AsyncInvocationFuture;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.jboss.ejb3.async.spi.CurrentAsyncInvocation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that an invocation whose bean provider returns the Future of
+ * another asynchronous invocation still in flight completes along with it,
+ * without blocking a worker
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class ChainedFutureTestCase
+{
+
+   private ExecutorService delegate;
+
+   private ExecutorService es;
+
+   private RecordingEndpoint endpoint;
+
+   @Before
+   public void createExecutor()
+   {
+      // A single worker; were it to block upon the chained invocation, it would never run
+      delegate = Executors.newSingleThreadExecutor();
+      endpoint = new RecordingEndpoint();
+      es = new ResultUnwrappingExecutorService(delegate, endpoint);
+   }
+
+   @After
+   public void shutdownExecutor()
+   {
+      delegate.shutdownNow();
+   }
+
+   /**
+    * Ensures the outer invocation completes with the value of the chained one
+    */
+   @Test
+   public void chainedResultCompletesOuter() throws Exception
+   {
+      final CountDownLatch release = new CountDownLatch(1);
+      final Future<?> outer = submit(new Callable<Future<?>>()
+      {
+         public Future<?> call() throws Exception
+         {
+            return submit(new Callable<Future<String>>()
+            {
+               public Future<String> call() throws Exception
+               {
+                  release.await();
+                  return new AsyncResult<String>("Chained");
+               }
+            });
+         }
+      });
+
+      Assert.assertFalse("Outer invocation should await the chained one", awaitDone(outer, 200));
+      release.countDown();
+      Assert.assertEquals("Chained", outer.get(5, TimeUnit.SECONDS));
+   }
+
+   /**
+    * Ensures the outer invocation reports the failure of the chained one
+    */
+   @Test
+   public void chainedFailureCompletesOuter() throws Exception
+   {
+      final IllegalStateException failure = new IllegalStateException("Chained failure");
+      final Future<?> outer = submit(new Callable<Future<?>>()
+      {
+         public Future<?> call() throws Exception
+         {
+            return submit(new Callable<Future<String>>()
+            {
+               public Future<String> call() throws Exception
+               {
+                  throw failure;
+               }
+            });
+         }
+      });
+
+      try
+      {
+         outer.get(5, TimeUnit.SECONDS);
+         Assert.fail("Failure of chained invocation was not reported");
+      }
+      catch (final ExecutionException ee)
+      {
+         Assert.assertSame(failure, ee.getCause());
+      }
+   }
+
+   /**
+    * Ensures cancelling the outer invocation cancels the chained one
+    */
+   @Test
+   public void cancellationPropagatesToChained() throws Exception
+   {
+      final CountDownLatch release = new CountDownLatch(1);
+      final Future<?>[] chained = new Future<?>[1];
+      final Future<?> outer = submit(new Callable<Future<?>>()
+      {
+         public Future<?> call() throws Exception
+         {
+            submit(new Callable<Future<String>>()
+            {
+               public Future<String> call() throws Exception
+               {
+                  release.await();
+                  return new AsyncResult<String>("Chained");
+               }
+            });
+            // Queued behind this one, so not yet running; this will be cancelled
+            chained[0] = submit(new Callable<Future<String>>()
+            {
+               public Future<String> call() throws Exception
+               {
+                  return new AsyncResult<String>("Never");
+               }
+            });
+            return chained[0];
+         }
+      });
+
+      Assert.assertFalse(awaitDone(outer, 200));
+      Assert.assertTrue("Outer invocation was not cancelled", outer.cancel(true));
+      Assert.assertTrue("Chained invocation was not cancelled", chained[0].isCancelled());
+      Assert.assertTrue(outer.isCancelled());
+      release.countDown();
+   }
+
+   /**
+    * Ensures bulk cancellation of the outer invocation cancels the chained one 
+    * while still queued, rather than only the outer view
+    */
+   @Test
+   public void bulkCancellationPropagatesToQueuedChained() throws Exception
+   {
+      final CountDownLatch release = new CountDownLatch(1);
+      final Future<?>[] chained = new Future<?>[1];
+      final Future<?> outer = submit(new Callable<Future<?>>()
+      {
+         public Future<?> call() throws Exception
+         {
+            submit(new Callable<Future<String>>()
+            {
+               public Future<String> call() throws Exception
+               {
+                  release.await();
+                  return new AsyncResult<String>("Chained");
+               }
+            });
+            chained[0] = submit(new Callable<Future<String>>()
+            {
+               public Future<String> call() throws Exception
+               {
+                  return new AsyncResult<String>("Never");
+               }
+            });
+            return chained[0];
+         }
+      });
+
+      Assert.assertFalse(awaitDone(outer, 200));
+      Assert.assertEquals("Outer and chained invocations should be cancelled", 2, AsyncFutures.cancelAll(
+            Collections.singletonList(outer), true));
+      Assert.assertTrue("Chained invocation was not cancelled", chained[0].isCancelled());
+      Assert.assertTrue(outer.isCancelled());
+      Assert.assertTrue("No request should be issued for the completed outer invocation", endpoint.requested
+            .isEmpty());
+      release.countDown();
+   }
+
+   /**
+    * Ensures bulk cancellation of the outer invocation requests cancellation
+    * of the chained one once running, not of the outer one
+    */
+   @Test
+   public void bulkCancellationRequestsRunningChained() throws Exception
+   {
+      final CountDownLatch running = new CountDownLatch(1);
+      final CountDownLatch release = new CountDownLatch(1);
+      final Future<?>[] chained = new Future<?>[1];
+      final Future<?> outer = submit(new Callable<Future<?>>()
+      {
+         public Future<?> call() throws Exception
+         {
+            chained[0] = submit(new Callable<Future<String>>()
+            {
+               public Future<String> call() throws Exception
+               {
+                  running.countDown();
+                  release.await();
+                  return new AsyncResult<String>("Chained");
+               }
+            });
+            return chained[0];
+         }
+      });
+
+      Assert.assertTrue("Chained invocation did not start", running.await(5, TimeUnit.SECONDS));
+      Assert.assertTrue(AsyncFutures.cancelAll(Collections.singletonList(outer), true) > 0);
+      Assert.assertEquals("Cancellation should be requested of the chained invocation only", Collections
+            .singletonList(((AsyncInvocationFuture<?>) chained[0]).getInvocationId()), endpoint.requested);
+      Assert.assertTrue(chained[0].isCancelled());
+      Assert.assertTrue(outer.isCancelled());
+      release.countDown();
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Submits the specified task as a new asynchronous invocation
+    */
+   private <T> Future<T> submit(final Callable<T> task)
+   {
+      final AsyncInvocationId id = new AsyncInvocationIdSequenceImpl();
+      CurrentAsyncInvocation.markCurrentInvocationOnThread(id);
+      try
+      {
+         return es.submit(task);
+      }
+      finally
+      {
+         CurrentAsyncInvocation.unmarkCurrentInvocationFromThread();
+      }
+   }
+
+   private static boolean awaitDone(final Future<?> future, final long millis) throws InterruptedException
+   {
+      final long deadline = System.currentTimeMillis() + millis;
+      while (!future.isDone() && System.currentTimeMillis() < deadline)
+      {
+         Thread.sleep(10);
+      }
+      return future.isDone();
+   }
+
+   /**
+    * {@link AsyncEndpoint} which records cancel requests, and otherwise does nothing
+    */
+   private static final class RecordingEndpoint implements AsyncEndpoint
+   {
+      final List<AsyncInvocationId> requested = new CopyOnWriteArrayList<AsyncInvocationId>();
+
+      @Override
+      public boolean cancel(final AsyncInvocationId id) throws IllegalArgumentException
+      {
+         requested.add(id);
+         return false;
+      }
+
+      @Override
+      public Object invokeAsync(Serializable session, Class<?> invokedBusinessInterface, Method method, Object[] args)
+            throws Throwable
+      {
+         return null;
+      }
+   }
+}
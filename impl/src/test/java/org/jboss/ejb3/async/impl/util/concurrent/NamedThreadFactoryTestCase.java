@@ -0,0 +1,118 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.util.concurrent;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.ejb3.async.impl.AsyncInvocationIdSequenceImpl;
+import org.jboss.ejb3.async.spi.AsyncCancellationRegistry;
+import org.jboss.ejb3.async.spi.AsyncCancellationToken;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.jboss.ejb3.async.spi.CurrentAsyncInvocation;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that Threads created by the {@link NamedThreadFactory} discard 
+ * asynchronous invocation state left upon them as they exit
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class NamedThreadFactoryTestCase
+{
+
+   /**
+    * Ensures a cancellation token left upon an exiting Thread is no longer registered
+    */
+   @Test
+   public void exitingThreadClearsInvocationState() throws Exception
+   {
+      final AsyncInvocationId id = new AsyncInvocationIdSequenceImpl();
+      final Thread thread = new NamedThreadFactory("NamedThreadFactoryTestCase", true).newThread(new LeavingState(id));
+      thread.start();
+      thread.join(5000);
+      Assert.assertFalse("Thread did not exit", thread.isAlive());
+
+      Assert.assertNull("Token left upon the exited Thread is still registered", AsyncCancellationRegistry
+            .getToken(id));
+   }
+
+   /**
+    * Ensures state left upon the Threads of a pool is discarded once the pool
+    * is shut down, as are the bulkheads of a deployment upon undeploy
+    */
+   @Test
+   public void poolShutdownClearsInvocationState() throws Exception
+   {
+      final AsyncInvocationId id = new AsyncInvocationIdSequenceImpl();
+      final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+      final ThreadFactory factory = new NamedThreadFactory("NamedThreadFactoryTestCase", true);
+      final ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new AsyncWorkQueue(),
+            new ThreadFactory()
+            {
+               public Thread newThread(final Runnable r)
+               {
+                  final Thread thread = factory.newThread(r);
+                  threads.add(thread);
+                  return thread;
+               }
+            });
+      pool.submit(new LeavingState(id)).get(5, TimeUnit.SECONDS);
+      Assert.assertNotNull("Token should remain registered while the Thread lives", AsyncCancellationRegistry
+            .getToken(id));
+
+      // The pool terminates before its Threads have exited
+      pool.shutdown();
+      Assert.assertTrue("Pool did not terminate", pool.awaitTermination(5, TimeUnit.SECONDS));
+      for (final Thread thread : threads)
+      {
+         thread.join(5000);
+         Assert.assertFalse("Thread did not exit", thread.isAlive());
+      }
+      Assert.assertNull("Token left upon the pool's Thread is still registered", AsyncCancellationRegistry
+            .getToken(id));
+   }
+
+   /**
+    * Marks an invocation and its cancellation token upon the running Thread, 
+    * and leaves them there, as would an invocation failing to unmark itself
+    */
+   private static final class LeavingState implements Runnable
+   {
+      private final AsyncInvocationId id;
+
+      LeavingState(final AsyncInvocationId id)
+      {
+         this.id = id;
+      }
+
+      public void run()
+      {
+         CurrentAsyncInvocation.markCurrentInvocationOnThread(id);
+         CurrentAsyncInvocation.markCurrentCancellationTokenOnThread(new AsyncCancellationToken(id, false));
+      }
+   }
+}
@@ -0,0 +1,248 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.util.concurrent;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ejb.AsyncResult;
+
+import org.jboss.ejb3.async.spi.AsyncBulkCancellableContextBase;
+import org.jboss.ejb3.async.spi.AsyncEndpoint;
+import org.jboss.ejb3.async.spi.AsyncInvocationFuture;
+import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Ensures that {@link ResultUnwrappingExecutorService#invokeAll(java.util.Collection)}
+ * and {@link ResultUnwrappingExecutorService#invokeAny(java.util.Collection)} unwrap 
+ * results and cancel invocations no longer needed in the container, in one
+ * request per container
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class ResultUnwrappingExecutorServiceTestCase
+{
+
+   private ExecutorService delegate;
+
+   private CountingEndpoint endpoint;
+
+   private ExecutorService es;
+
+   private CountDownLatch release;
+
+   private CountDownLatch started;
+
+   @Before
+   public void createExecutor()
+   {
+      delegate = Executors.newFixedThreadPool(4);
+      endpoint = new CountingEndpoint();
+      es = new ResultUnwrappingExecutorService(delegate, endpoint);
+      release = new CountDownLatch(1);
+      started = new CountDownLatch(2);
+   }
+
+   @After
+   public void shutdownExecutor()
+   {
+      release.countDown();
+      delegate.shutdownNow();
+   }
+
+   /**
+    * Ensures each task is its own invocation, with its result unwrapped
+    */
+   @Test
+   @SuppressWarnings("unchecked")
+   public void invokeAllUnwrapsResults() throws Exception
+   {
+      final List<Future<Object>> futures = es.invokeAll(Arrays.asList(result("a"), result("b"), result("c")));
+
+      final Set<AsyncInvocationId> ids = new HashSet<AsyncInvocationId>();
+      Assert.assertEquals(3, futures.size());
+      Assert.assertEquals("a", futures.get(0).get());
+      Assert.assertEquals("b", futures.get(1).get());
+      Assert.assertEquals("c", futures.get(2).get());
+      for (final Future<Object> future : futures)
+      {
+         ids.add(((AsyncInvocationFuture<Object>) future).getInvocationId());
+      }
+      Assert.assertEquals("Each task should be its own invocation", 3, ids.size());
+   }
+
+   /**
+    * Ensures invocations still running at the deadline are cancelled in the container
+    */
+   @Test
+   @SuppressWarnings("unchecked")
+   public void timedInvokeAllCancelsStragglers() throws Exception
+   {
+      final List<Future<Object>> futures = es.invokeAll(Arrays.asList(result("fast"), blocked("slow")), 200,
+            TimeUnit.MILLISECONDS);
+
+      Assert.assertEquals("fast", futures.get(0).get());
+      Assert.assertTrue("Straggler was not cancelled", futures.get(1).isCancelled());
+      Assert.assertEquals("Straggler was not cancelled in the container", 1, endpoint.cancels.get());
+      Assert.assertEquals("Straggler should be cancelled in one request", 1, endpoint.bulkRequests.get());
+   }
+
+   /**
+    * Ensures the first result is returned, and the losers cancelled in the container
+    */
+   @Test
+   @SuppressWarnings("unchecked")
+   public void invokeAnyCancelsLosers() throws Exception
+   {
+      // The winner completes only once the losers are running
+      final Callable<Object> fast = new Callable<Object>()
+      {
+         public Object call() throws Exception
+         {
+            started.await();
+            return new AsyncResult<String>("fast");
+         }
+      };
+      final Object result = es.invokeAny(Arrays.asList(blocked("slow"), fast, blocked("slower")));
+
+      Assert.assertEquals("fast", result);
+      Assert.assertEquals("Losers were not cancelled in the container", 2, endpoint.cancels.get());
+      Assert.assertEquals("Losers should be cancelled in one request", 1, endpoint.bulkRequests.get());
+   }
+
+   /**
+    * Ensures failure is reported if no task succeeds
+    */
+   @Test
+   @SuppressWarnings("unchecked")
+   public void invokeAnyReportsFailure() throws Exception
+   {
+      try
+      {
+         es.invokeAny(Arrays.asList(failure(), failure()));
+         Assert.fail("Failure was not reported");
+      }
+      catch (final ExecutionException ee)
+      {
+         Assert.assertTrue(ee.getCause() instanceof IllegalStateException);
+      }
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private static Callable<Object> result(final String value)
+   {
+      return new Callable<Object>()
+      {
+         public Object call()
+         {
+            return new AsyncResult<String>(value);
+         }
+      };
+   }
+
+   private Callable<Object> blocked(final String value)
+   {
+      return new Callable<Object>()
+      {
+         public Object call() throws Exception
+         {
+            started.countDown();
+            release.await();
+            return new AsyncResult<String>(value);
+         }
+      };
+   }
+
+   private static Callable<Object> failure()
+   {
+      return new Callable<Object>()
+      {
+         public Object call()
+         {
+            throw new IllegalStateException("Bean failure");
+         }
+      };
+   }
+
+   /**
+    * {@link AsyncEndpoint} counting cancel requests, and the bulk requests issuing them
+    */
+   private static final class CountingEndpoint extends AsyncBulkCancellableContextBase implements AsyncEndpoint
+   {
+      final AtomicInteger cancels = new AtomicInteger();
+
+      final AtomicInteger bulkRequests = new AtomicInteger();
+
+      @Override
+      public boolean cancel(final AsyncInvocationId id) throws IllegalArgumentException
+      {
+         cancels.incrementAndGet();
+         return true;
+      }
+
+      @Override
+      public int cancelAll(final Collection<AsyncInvocationId> ids) throws IllegalArgumentException
+      {
+         bulkRequests.incrementAndGet();
+         return super.cancelAll(ids);
+      }
+
+      @Override
+      public int cancelAllInSession(final Serializable session) throws IllegalArgumentException
+      {
+         return 0;
+      }
+
+      @Override
+      public int cancelAllInvocations()
+      {
+         return 0;
+      }
+
+      @Override
+      public Object invokeAsync(Serializable session, Class<?> invokedBusinessInterface, Method method, Object[] args)
+            throws Throwable
+      {
+         return null;
+      }
+   }
+}
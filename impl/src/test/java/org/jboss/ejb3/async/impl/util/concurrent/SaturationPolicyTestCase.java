@@ -0,0 +1,164 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.impl.util.concurrent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Ensures that each {@link SaturationPolicy} is honored
+ * by a saturated executor
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class SaturationPolicyTestCase
+{
+
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Holds the single worker Thread busy
+    */
+   private final CountDownLatch release = new CountDownLatch(1);
+
+   /**
+    * Executor under test
+    */
+   private ThreadPoolExecutor executor;
+
+   // --------------------------------------------------------------------------------||
+   // Lifecycle ----------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   @After
+   public void shutdown()
+   {
+      release.countDown();
+      if (executor != null)
+      {
+         executor.shutdownNow();
+      }
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Tests --------------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Ensures that submissions to a saturated executor are refused immediately
+    */
+   @Test(expected = RejectedExecutionException.class)
+   public void failFast()
+   {
+      this.saturate(SaturationPolicy.FAIL_FAST, 0);
+      executor.execute(new NoopTask());
+   }
+
+   /**
+    * Ensures that submissions to a saturated executor are run by the caller
+    */
+   @Test
+   public void callerRuns()
+   {
+      this.saturate(SaturationPolicy.CALLER_RUNS, 0);
+      final AtomicReference<Thread> runner = new AtomicReference<Thread>();
+      executor.execute(new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            runner.set(Thread.currentThread());
+         }
+      });
+      Assert.assertSame("Task should have been run by the caller", Thread.currentThread(), runner.get());
+   }
+
+   /**
+    * Ensures that submissions to a saturated executor wait for capacity, 
+    * then are refused
+    */
+   @Test
+   public void blockTimesOut()
+   {
+      this.saturate(SaturationPolicy.BLOCK, 50);
+      final long start = System.currentTimeMillis();
+      try
+      {
+         executor.execute(new NoopTask());
+         Assert.fail("Submission should have been rejected after the block timeout");
+      }
+      catch (final RejectedExecutionException expected)
+      {
+         // Expected
+      }
+      Assert.assertTrue("Submission should have waited for capacity", System.currentTimeMillis() - start >= 40);
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Creates an executor with one Thread and one queue slot, and fills both
+    */
+   private void saturate(final SaturationPolicy policy, final long blockTimeoutMillis)
+   {
+      executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(1),
+            new NamedThreadFactory("SaturationPolicyTestCase", true), policy.newHandler(blockTimeoutMillis,
+                  TimeUnit.MILLISECONDS));
+      final Runnable blocker = new Runnable()
+      {
+         @Override
+         public void run()
+         {
+            try
+            {
+               release.await();
+            }
+            catch (final InterruptedException ie)
+            {
+               Thread.currentThread().interrupt();
+            }
+         }
+      };
+      executor.execute(blocker);
+      executor.execute(blocker);
+   }
+
+   private static final class NoopTask implements Runnable
+   {
+      @Override
+      public void run()
+      {
+      }
+   }
+}
@@ -30,6 +30,8 @@ import java.lang.reflect.Method;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.ejb.AsyncResult;
 
@@ -37,6 +39,7 @@ import org.jboss.ejb3.async.impl.AsyncInvocationIdUUIDImpl;
 import org.jboss.ejb3.async.impl.ClientExecutorService;
 import org.jboss.ejb3.async.spi.AsyncEndpoint;
 import org.jboss.ejb3.async.spi.AsyncInvocationId;
+import org.jboss.ejb3.async.spi.AsynchronousClientFuture;
 import org.jboss.ejb3.async.spi.CurrentAsyncInvocation;
 import org.junit.Assert;
 import org.junit.Test;
@@ -51,7 +54,7 @@ public class SerializableFutureTestCase
 {
 
    /**
-    * Ensures that {@link LocalJvmSerializableFutureWrapper} instances
+    * Ensures that {@link LocalJvmSerializableClientFuture} instances
     * may be serialized
     * @throws Throwable
     */
@@ -109,6 +112,106 @@ public class SerializableFutureTestCase
 
       // Test
       Assert.assertEquals("Value was not as expected after serialization roundtrip", expectedValue, roundtrip.get());
+      Assert.assertSame("Serialization roundtrip should resolve to the same Future", serializableFuture, roundtrip);
+   }
+
+   /**
+    * Ensures that the bean provider's return value is unwrapped once, upon 
+    * completion, rather than upon each request for the result
+    * @throws Throwable
+    */
+   @Test
+   public void resultIsUnwrappedOnCompletion() throws Exception
+   {
+      final ExecutorService es = new ResultUnwrappingExecutorService(ClientExecutorService.INSTANCE, new NoopEndpoint());
+      final AtomicInteger unwraps = new AtomicInteger();
+      final String expectedValue = "Expected Value";
+      final AsyncInvocationId id = new AsyncInvocationIdUUIDImpl();
+      CurrentAsyncInvocation.markCurrentInvocationOnThread(id);
+      final Future<?> future;
+      try
+      {
+         future = es.submit(new Callable<Future<String>>()
+         {
+            public Future<String> call()
+            {
+               return new CountingResult(expectedValue, unwraps);
+            }
+         });
+      }
+      finally
+      {
+         CurrentAsyncInvocation.unmarkCurrentInvocationFromThread();
+      }
+
+      // Test
+      Assert.assertTrue("Submitted task should itself be the Future", future instanceof AsynchronousClientFuture);
+      for (int i = 0; i < 3; i++)
+      {
+         Assert.assertEquals("Value was not as expected", expectedValue, future.get(5, TimeUnit.SECONDS));
+      }
+      Assert.assertEquals("Return value should be unwrapped only once", 1, unwraps.get());
+   }
+
+   /**
+    * Completed bean provider return value counting requests for its value
+    */
+   private static final class CountingResult implements Future<String>
+   {
+      private final String value;
+
+      private final AtomicInteger gets;
+
+      CountingResult(final String value, final AtomicInteger gets)
+      {
+         this.value = value;
+         this.gets = gets;
+      }
+
+      public boolean cancel(final boolean mayInterruptIfRunning)
+      {
+         return false;
+      }
+
+      public String get()
+      {
+         gets.incrementAndGet();
+         return value;
+      }
+
+      public String get(final long timeout, final TimeUnit unit)
+      {
+         return this.get();
+      }
+
+      public boolean isCancelled()
+      {
+         return false;
+      }
+
+      public boolean isDone()
+      {
+         return true;
+      }
+   }
+
+   /**
+    * {@link AsyncEndpoint} which does nothing
+    */
+   private static final class NoopEndpoint implements AsyncEndpoint
+   {
+      @Override
+      public boolean cancel(final AsyncInvocationId id) throws IllegalArgumentException
+      {
+         return false;
+      }
+
+      @Override
+      public Object invokeAsync(Serializable session, Class<?> invokedBusinessInterface, Method method, Object[] args)
+            throws Throwable
+      {
+         return null;
+      }
    }
 
 }
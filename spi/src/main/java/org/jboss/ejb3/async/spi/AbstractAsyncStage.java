@@ -0,0 +1,386 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.spi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Base {@link FutureTask} implementation of {@link AsyncStage}, running 
+ * registered continuations and listeners once upon completion, cancellation 
+ * or failure.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public abstract class AbstractAsyncStage<V> extends FutureTask<V> implements AsyncStage<V>
+{
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private static final Logger log = Logger.getLogger(AbstractAsyncStage.class);
+
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Callbacks to be run upon completion; guarded by this
+    */
+   private List<Runnable> completionCallbacks;
+
+   /**
+    * Whether completion callbacks have been run; guarded by this
+    */
+   private boolean completed;
+
+   // --------------------------------------------------------------------------------||
+   // Constructor --------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /*
+    * Delegate constructors back up to the super implementation
+    */
+
+   protected AbstractAsyncStage(final Callable<V> callable)
+   {
+      super(callable);
+   }
+
+   protected AbstractAsyncStage(final Runnable runnable, final V result)
+   {
+      super(runnable, result);
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Required Implementations -------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.async.spi.AsyncStage#thenApply(org.jboss.ejb3.async.spi.AsyncFunction)
+    */
+   public <R> AsyncStage<R> thenApply(final AsyncFunction<? super V, ? extends R> fn)
+         throws IllegalArgumentException
+   {
+      if (fn == null)
+      {
+         throw new IllegalArgumentException("Function must be specified");
+      }
+      return this.dependent(new ApplyFunction<V, R>(this, fn), null);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.async.spi.AsyncStage#thenApply(org.jboss.ejb3.async.spi.AsyncFunction, java.util.concurrent.Executor)
+    */
+   public <R> AsyncStage<R> thenApply(final AsyncFunction<? super V, ? extends R> fn, final Executor executor)
+         throws IllegalArgumentException
+   {
+      if (fn == null)
+      {
+         throw new IllegalArgumentException("Function must be specified");
+      }
+      if (executor == null)
+      {
+         throw new IllegalArgumentException(Executor.class.getSimpleName() + " must be specified");
+      }
+      return this.dependent(new ApplyFunction<V, R>(this, fn), executor);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.async.spi.AsyncStage#whenComplete(org.jboss.ejb3.async.spi.AsyncCompletionCallback)
+    */
+   public AsyncStage<V> whenComplete(final AsyncCompletionCallback<? super V> callback)
+         throws IllegalArgumentException
+   {
+      if (callback == null)
+      {
+         throw new IllegalArgumentException("Callback must be specified");
+      }
+      return this.dependent(new NotifyCallback<V>(this, callback), null);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.async.spi.AsyncStage#whenComplete(org.jboss.ejb3.async.spi.AsyncCompletionCallback, java.util.concurrent.Executor)
+    */
+   public AsyncStage<V> whenComplete(final AsyncCompletionCallback<? super V> callback, final Executor executor)
+         throws IllegalArgumentException
+   {
+      if (callback == null)
+      {
+         throw new IllegalArgumentException("Callback must be specified");
+      }
+      if (executor == null)
+      {
+         throw new IllegalArgumentException(Executor.class.getSimpleName() + " must be specified");
+      }
+      return this.dependent(new NotifyCallback<V>(this, callback), executor);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.async.spi.AsyncStage#addListener(java.lang.Runnable, java.util.concurrent.Executor)
+    */
+   public void addListener(final Runnable listener, final Executor executor) throws IllegalArgumentException
+   {
+      if (listener == null)
+      {
+         throw new IllegalArgumentException("Listener must be specified");
+      }
+      if (executor == null)
+      {
+         throw new IllegalArgumentException(Executor.class.getSimpleName() + " must be specified");
+      }
+      this.whenDone(new Runnable()
+      {
+         public void run()
+         {
+            try
+            {
+               executor.execute(listener);
+            }
+            catch (final RejectedExecutionException ree)
+            {
+               log.warn("Could not notify listener " + listener + " of completion of " + AbstractAsyncStage.this,
+                     ree);
+            }
+         }
+      });
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Overridden Implementations -----------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Runs the completion callbacks
+    * @see java.util.concurrent.FutureTask#done()
+    */
+   @Override
+   protected void done()
+   {
+      final List<Runnable> callbacks;
+      synchronized (this)
+      {
+         completed = true;
+         callbacks = completionCallbacks;
+         completionCallbacks = null;
+      }
+      if (callbacks == null)
+      {
+         return;
+      }
+      for (final Runnable callback : callbacks)
+      {
+         try
+         {
+            callback.run();
+         }
+         catch (final RuntimeException re)
+         {
+            log.warn("Completion callback " + callback + " of " + this + " failed", re);
+         }
+      }
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Runs the specified callback upon completion of this stage, or immediately 
+    * in the calling Thread if already complete
+    */
+   void whenDone(final Runnable callback)
+   {
+      synchronized (this)
+      {
+         // FutureTask reports done before running done(); run inline either way
+         if (!completed && !this.isDone())
+         {
+            if (completionCallbacks == null)
+            {
+               completionCallbacks = new ArrayList<Runnable>(2);
+            }
+            completionCallbacks.add(callback);
+            return;
+         }
+      }
+      callback.run();
+   }
+
+   /**
+    * Creates a stage computed by the specified task once this one completes, 
+    * in the completing Thread or using the specified {@link Executor}, if any
+    */
+   private <R> AsyncStage<R> dependent(final Callable<R> task, final Executor executor)
+   {
+      final DerivedStage<R> stage = new DerivedStage<R>(task, this);
+      this.whenDone(new Runnable()
+      {
+         public void run()
+         {
+            if (executor == null)
+            {
+               stage.run();
+               return;
+            }
+            try
+            {
+               executor.execute(stage);
+            }
+            catch (final RejectedExecutionException ree)
+            {
+               stage.fail(ree);
+            }
+         }
+      });
+      return stage;
+   }
+
+   /**
+    * Obtains the result of the specified completed Future, rethrowing 
+    * the cause of its failure as-is
+    */
+   private static <T> T resultOf(final Future<T> future) throws Exception
+   {
+      try
+      {
+         return future.get();
+      }
+      catch (final ExecutionException ee)
+      {
+         final Throwable cause = ee.getCause();
+         if (cause instanceof Exception)
+         {
+            throw (Exception) cause;
+         }
+         if (cause instanceof Error)
+         {
+            throw (Error) cause;
+         }
+         throw ee;
+      }
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Inner Classes ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Stage depending upon another; cancellation is passed along to the source, such 
+    * that cancelling any dependent stage cancels the invocation (ie. in the container)
+    */
+   private static final class DerivedStage<V> extends AbstractAsyncStage<V>
+   {
+      private final Future<?> source;
+
+      DerivedStage(final Callable<V> task, final Future<?> source)
+      {
+         super(task);
+         this.source = source;
+      }
+
+      @Override
+      public boolean cancel(final boolean mayInterruptIfRunning)
+      {
+         final boolean cancelled = super.cancel(false);
+         source.cancel(mayInterruptIfRunning);
+         return cancelled;
+      }
+
+      void fail(final Throwable cause)
+      {
+         this.setException(cause);
+      }
+   }
+
+   /**
+    * Applies a function to the result of the source
+    */
+   private static final class ApplyFunction<T, R> implements Callable<R>
+   {
+      private final Future<T> source;
+
+      private final AsyncFunction<? super T, ? extends R> fn;
+
+      ApplyFunction(final Future<T> source, final AsyncFunction<? super T, ? extends R> fn)
+      {
+         this.source = source;
+         this.fn = fn;
+      }
+
+      public R call() throws Exception
+      {
+         return fn.apply(resultOf(source));
+      }
+   }
+
+   /**
+    * Notifies a callback of the outcome of the source, then completes likewise
+    */
+   private static final class NotifyCallback<V> implements Callable<V>
+   {
+      private final Future<V> source;
+
+      private final AsyncCompletionCallback<? super V> callback;
+
+      NotifyCallback(final Future<V> source, final AsyncCompletionCallback<? super V> callback)
+      {
+         this.source = source;
+         this.callback = callback;
+      }
+
+      public V call() throws Exception
+      {
+         final V result;
+         try
+         {
+            result = resultOf(source);
+         }
+         catch (final Exception e)
+         {
+            callback.onCompletion(null, e);
+            throw e;
+         }
+         catch (final Error e)
+         {
+            callback.onCompletion(null, e);
+            throw e;
+         }
+         callback.onCompletion(result, null);
+         return result;
+      }
+   }
+}
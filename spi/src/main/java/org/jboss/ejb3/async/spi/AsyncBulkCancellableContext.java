@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.spi;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+/**
+ * {@link AsyncCancellableContext} accepting many cancel requests at once, 
+ * such that aborting a fan-out of invocations costs a single call 
+ * (ie. round trip to a remote container) rather than one per invocation
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public interface AsyncBulkCancellableContext extends AsyncCancellableContext
+{
+   // ------------------------------------------------------------------------------||
+   // Contracts --------------------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * Submits a cancel request to the container for each invocation with the specified IDs
+    * @param ids
+    * @return The number of invocations for which the request was accepted
+    * @throws IllegalArgumentException If the IDs are not supplied
+    */
+   int cancelAll(Collection<AsyncInvocationId> ids) throws IllegalArgumentException;
+
+   /**
+    * Submits a cancel request to the container for every outstanding 
+    * invocation made under the specified session
+    * @param session
+    * @return The number of invocations for which the request was accepted
+    * @throws IllegalArgumentException If the session is not supplied
+    */
+   int cancelAllInSession(Serializable session) throws IllegalArgumentException;
+
+   /**
+    * Submits a cancel request to the container for every outstanding
+    * invocation upon the bean
+    * @return The number of invocations for which the request was accepted
+    */
+   int cancelAllInvocations();
+}
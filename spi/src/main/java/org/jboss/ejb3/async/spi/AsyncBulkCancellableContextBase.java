@@ -0,0 +1,57 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.spi;
+
+import java.util.Collection;
+
+/**
+ * Base {@link AsyncBulkCancellableContext} implementation carrying out
+ * {@link AsyncBulkCancellableContext#cancelAll(Collection)} as a series of 
+ * {@link AsyncCancellableContext#cancel(AsyncInvocationId)} requests; containers
+ * need only track invocations by session and bean
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public abstract class AsyncBulkCancellableContextBase implements AsyncBulkCancellableContext
+{
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.async.spi.AsyncBulkCancellableContext#cancelAll(java.util.Collection)
+    */
+   @Override
+   public int cancelAll(final Collection<AsyncInvocationId> ids) throws IllegalArgumentException
+   {
+      if (ids == null)
+      {
+         throw new IllegalArgumentException("IDs must be supplied");
+      }
+      int cancelled = 0;
+      for (final AsyncInvocationId id : ids)
+      {
+         if (id != null && this.cancel(id))
+         {
+            cancelled++;
+         }
+      }
+      return cancelled;
+   }
+}
@@ -0,0 +1,227 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.spi;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.logging.Logger;
+
+/**
+ * Routes cancellation requests arriving by {@link AsyncInvocationId}
+ * (ie. from {@link AsyncCancellableContext#cancel(AsyncInvocationId)}) to the 
+ * {@link AsyncCancellationToken} of the running invocation.  Tokens are 
+ * registered only while their invocation runs; a cancellation arriving for 
+ * an invocation not yet started (ie. still queued) is kept as pending, and 
+ * flags the token as soon as the invocation registers it.  The bean itself 
+ * never consults this registry, but polls its token directly.
+ * 
+ * This registry cannot tell a queued invocation from one which has already 
+ * finished, so containers should route only cancellations for invocations 
+ * they still track (ie. in their {@link AsyncInvocationMap}), and 
+ * {@link AsyncCancellationRegistry#discardPending(AsyncInvocationId)} those 
+ * which will never run (ie. removed from the queue).  Pending cancellations 
+ * which are never claimed expire after {@link AsyncCancellationRegistry#PENDING_TIMEOUT_MILLIS}.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public final class AsyncCancellationRegistry
+{
+
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(AsyncCancellationRegistry.class);
+
+   /**
+    * Time after which a cancellation for an invocation which never started is discarded
+    */
+   public static final long PENDING_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+   /**
+    * Number of pending cancellations recorded between sweeps for expired ones
+    */
+   private static final int SWEEP_INTERVAL = 256;
+
+   /**
+    * Tokens of running invocations, by ID
+    */
+   private static final ConcurrentMap<AsyncInvocationId, AsyncCancellationToken> RUNNING = new ConcurrentHashMap<AsyncInvocationId, AsyncCancellationToken>();
+
+   /**
+    * Time (in nanoseconds) at which cancellation was requested of invocations 
+    * not yet started, by ID
+    */
+   private static final ConcurrentMap<AsyncInvocationId, Long> PENDING = new ConcurrentHashMap<AsyncInvocationId, Long>();
+
+   /**
+    * Pending cancellations recorded since the last sweep
+    */
+   private static final AtomicInteger RECORDED_SINCE_SWEEP = new AtomicInteger();
+
+   // --------------------------------------------------------------------------------||
+   // Constructor --------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Internal ctor, prohibited use
+    */
+   private AsyncCancellationRegistry()
+   {
+      throw new UnsupportedOperationException("No instances");
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Functional Methods -------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Requests cancellation of the invocation with the specified ID.  If running, 
+    * its token is flagged now; otherwise the request is kept as pending, and the 
+    * token is flagged when the invocation starts.
+    * 
+    * @param id
+    * @param mayInterruptIfRunning Whether to interrupt the running Thread, if the token permits
+    * @return Whether this call flagged the invocation as cancelled, or recorded the 
+    *   first pending cancellation for it
+    * @throws IllegalArgumentException If the ID is not supplied
+    */
+   public static boolean cancel(final AsyncInvocationId id, final boolean mayInterruptIfRunning)
+         throws IllegalArgumentException
+   {
+      if (id == null)
+      {
+         throw new IllegalArgumentException("Async Invocation ID must be supplied");
+      }
+      final AsyncCancellationToken running = RUNNING.get(id);
+      if (running != null)
+      {
+         return running.cancel(mayInterruptIfRunning);
+      }
+
+      // Not (yet) running; keep for when it starts
+      final boolean recorded = PENDING.putIfAbsent(id, System.nanoTime()) == null;
+      if (log.isTraceEnabled())
+      {
+         log.trace("Cancellation pending for invocation not running with ID " + id);
+      }
+      if (recorded && RECORDED_SINCE_SWEEP.incrementAndGet() % SWEEP_INTERVAL == 0)
+      {
+         expirePending();
+      }
+
+      // The invocation may have registered since we looked; if so it may not have seen the pending record
+      final AsyncCancellationToken started = RUNNING.get(id);
+      if (started != null && PENDING.remove(id) != null)
+      {
+         started.cancel(mayInterruptIfRunning);
+      }
+      return recorded;
+   }
+
+   /**
+    * Obtains the token of the running invocation with the specified ID, or null
+    * @param id
+    * @return
+    */
+   public static AsyncCancellationToken getToken(final AsyncInvocationId id)
+   {
+      return RUNNING.get(id);
+   }
+
+   /**
+    * Returns whether a cancellation is pending for the invocation with the 
+    * specified ID, which has not yet started
+    * @param id
+    * @return
+    */
+   public static boolean isPending(final AsyncInvocationId id)
+   {
+      return PENDING.containsKey(id);
+   }
+
+   /**
+    * Discards any pending cancellation for the invocation with the specified ID, 
+    * which will not run (ie. it has been removed from the queue, or rejected)
+    * @param id
+    * @return Whether a pending cancellation was discarded
+    */
+   public static boolean discardPending(final AsyncInvocationId id)
+   {
+      return PENDING.remove(id) != null;
+   }
+
+   /**
+    * Registers the specified token for routing of cancellations by ID, flagging
+    * it if cancellation was requested before the invocation started
+    * @param token
+    */
+   static void register(final AsyncCancellationToken token)
+   {
+      final AsyncInvocationId id = token.getId();
+      RUNNING.put(id, token);
+      if (PENDING.remove(id) != null)
+      {
+         token.cancel(false);
+      }
+   }
+
+   /**
+    * Removes the specified token from routing
+    * @param token
+    */
+   static void unregister(final AsyncCancellationToken token)
+   {
+      RUNNING.remove(token.getId(), token);
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Removes pending cancellations older than {@link AsyncCancellationRegistry#PENDING_TIMEOUT_MILLIS}
+    */
+   private static void expirePending()
+   {
+      final long now = System.nanoTime();
+      final long timeout = TimeUnit.MILLISECONDS.toNanos(PENDING_TIMEOUT_MILLIS);
+      final Iterator<Map.Entry<AsyncInvocationId, Long>> entries = PENDING.entrySet().iterator();
+      while (entries.hasNext())
+      {
+         final Map.Entry<AsyncInvocationId, Long> entry = entries.next();
+         if (now - entry.getValue().longValue() > timeout)
+         {
+            entries.remove();
+         }
+      }
+   }
+}
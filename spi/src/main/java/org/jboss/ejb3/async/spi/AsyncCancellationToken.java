@@ -0,0 +1,176 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.spi;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cancellation flag of a single running asynchronous invocation.
+ * 
+ * Obtained by the bean via {@link CurrentAsyncInvocation#getCurrentCancellationToken()},
+ * after which polling {@link AsyncCancellationToken#isCancelled()} is a single volatile read.
+ * Cancellation requests arriving by {@link AsyncInvocationId} are routed to the
+ * token through {@link AsyncCancellationRegistry}, including those which arrived 
+ * before the invocation started.
+ *
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ * @version $Revision: $
+ */
+public final class AsyncCancellationToken
+{
+
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * ID of the invocation
+    */
+   private final AsyncInvocationId id;
+
+   /**
+    * Whether the running Thread may be interrupted upon cancellation
+    */
+   private final boolean interruptible;
+
+   /**
+    * Whether cancellation has been requested
+    */
+   private final AtomicBoolean cancelled = new AtomicBoolean();
+
+   /**
+    * Thread running the invocation, if any; guarded by this
+    */
+   private Thread runner;
+
+   // --------------------------------------------------------------------------------||
+   // Constructor --------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new token for the invocation with the specified ID
+    * @param id
+    * @param interruptible Whether the running Thread may be interrupted upon cancellation
+    * @throws IllegalArgumentException If the ID is not supplied
+    */
+   public AsyncCancellationToken(final AsyncInvocationId id, final boolean interruptible)
+         throws IllegalArgumentException
+   {
+      if (id == null)
+      {
+         throw new IllegalArgumentException("Async Invocation ID must be supplied");
+      }
+      this.id = id;
+      this.interruptible = interruptible;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Functional Methods -------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Returns whether cancellation of the invocation has been requested
+    * @return
+    */
+   public boolean isCancelled()
+   {
+      return cancelled.get();
+   }
+
+   /**
+    * Requests cancellation of the invocation, interrupting the running Thread
+    * if requested and this token permits it
+    * 
+    * @param mayInterruptIfRunning
+    * @return Whether this call flagged the invocation as cancelled
+    */
+   public boolean cancel(final boolean mayInterruptIfRunning)
+   {
+      if (!cancelled.compareAndSet(false, true))
+      {
+         return false;
+      }
+      if (mayInterruptIfRunning && interruptible)
+      {
+         synchronized (this)
+         {
+            if (runner != null)
+            {
+               runner.interrupt();
+            }
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Obtains the ID of the invocation
+    * @return
+    */
+   public AsyncInvocationId getId()
+   {
+      return id;
+   }
+
+   /**
+    * Returns whether the running Thread may be interrupted upon cancellation
+    * @return
+    */
+   public boolean isInterruptible()
+   {
+      return interruptible;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Associates the token with the current Thread, which becomes eligible for interruption
+    */
+   synchronized void bind()
+   {
+      runner = Thread.currentThread();
+   }
+
+   /**
+    * Dissociates the token from its Thread; no interrupt is delivered afterward
+    */
+   synchronized void unbind()
+   {
+      runner = null;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Overridden Implementations -----------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "AsyncCancellationToken [id=" + id + ", cancelled=" + cancelled.get() + "]";
+   }
+}
@@ -0,0 +1,276 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.spi;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.logging.Logger;
+
+/**
+ * The {@link AsyncContextPropagator}s applicable to each @Asynchronous
+ * method of an EJB, resolved once at deployment by consulting 
+ * {@link AsyncContextPropagator#appliesTo(String, String)}.  Upon submission
+ * of an invocation only the applicable propagators are asked to
+ * {@link #capture(Method)} the caller's context; as with {@link AsyncMethodIndex},
+ * each invoked {@link Method} is matched against the resolved signatures at most once.
+ * 
+ * The last {@link AsyncContextSnapshot} taken for each set of propagators is 
+ * remembered, and handed out again while the caller's contexts remain the same 
+ * instances (as the TCCL, and often the security context, of repeated calls from
+ * within a deployment do); snapshots are immutable, so may be shared between invocations.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class AsyncContextPropagation implements Serializable
+{
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * serialVersionUID
+    */
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(AsyncContextPropagation.class);
+
+   /**
+    * Propagators of the security context and TCCL, used where no propagation
+    * has been resolved at deployment
+    */
+   private static final AsyncContextPropagator[] SECURITY_AND_TCCL = new AsyncContextPropagator[]
+   {new SecurityContextPropagator(), new ThreadContextClassLoaderPropagator()};
+
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Applicable propagators of each method signature, in form "name(paramType1,paramType2)"
+    */
+   private final Map<String, PropagatorGroup> bySignature;
+
+   /**
+    * Propagators applicable to methods not resolved by signature
+    */
+   private final PropagatorGroup fallback;
+
+   /**
+    * Propagators already matched to invoked methods; rebuilt lazily after deserialization
+    * as {@link Method} is not {@link Serializable}
+    */
+   private transient volatile ConcurrentMap<Method, PropagatorGroup> resolved;
+
+   // --------------------------------------------------------------------------------||
+   // Constructor --------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   private AsyncContextPropagation(final Map<String, PropagatorGroup> bySignature, final PropagatorGroup fallback)
+   {
+      this.bySignature = bySignature;
+      this.fallback = fallback;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Functional Methods -------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Resolves which of the specified propagators apply to each of the 
+    * asynchronous methods of the specified EJB
+    * @param ejbName Name of the EJB
+    * @param asyncMethods Index of the EJB's asynchronous methods
+    * @param propagators Candidate propagators, in order of application
+    * @return
+    * @throws IllegalArgumentException If any argument is not specified
+    */
+   public static AsyncContextPropagation resolve(final String ejbName, final AsyncMethodIndex asyncMethods,
+         final List<? extends AsyncContextPropagator> propagators) throws IllegalArgumentException
+   {
+      if (asyncMethods == null)
+      {
+         throw new IllegalArgumentException(AsyncMethodIndex.class.getSimpleName() + " must be specified");
+      }
+      if (propagators == null)
+      {
+         throw new IllegalArgumentException("Propagators must be specified");
+      }
+
+      // Methods sharing the same propagators share one group
+      final Map<String, PropagatorGroup> bySignature = new HashMap<String, PropagatorGroup>();
+      final Map<List<AsyncContextPropagator>, PropagatorGroup> canonical;
+      canonical = new HashMap<List<AsyncContextPropagator>, PropagatorGroup>();
+      for (final String signature : asyncMethods.getSignatures())
+      {
+         final List<AsyncContextPropagator> applicable = new ArrayList<AsyncContextPropagator>(propagators.size());
+         for (final AsyncContextPropagator propagator : propagators)
+         {
+            if (propagator.appliesTo(ejbName, signature))
+            {
+               applicable.add(propagator);
+            }
+         }
+         PropagatorGroup shared = canonical.get(applicable);
+         if (shared == null)
+         {
+            shared = new PropagatorGroup(applicable.toArray(new AsyncContextPropagator[applicable.size()]));
+            canonical.put(applicable, shared);
+         }
+         bySignature.put(signature, shared);
+         if (log.isTraceEnabled())
+         {
+            log.trace("Propagating to " + ejbName + "." + signature + ": " + applicable);
+         }
+      }
+      return new AsyncContextPropagation(bySignature, new PropagatorGroup(new AsyncContextPropagator[]
+      {}));
+   }
+
+   /**
+    * Obtains a new propagation for use where none has been resolved at deployment; 
+    * the security context and TCCL are propagated to every method
+    * @return
+    */
+   public static AsyncContextPropagation getDefault()
+   {
+      return new AsyncContextPropagation(new HashMap<String, PropagatorGroup>(), new PropagatorGroup(
+            SECURITY_AND_TCCL));
+   }
+
+   /**
+    * Obtains the propagators applicable to the specified invoked method, in 
+    * order of application
+    * @param invokedMethod
+    * @return
+    */
+   public List<AsyncContextPropagator> getPropagators(final Method invokedMethod)
+   {
+      return Collections.unmodifiableList(Arrays.asList(this.groupFor(invokedMethod).propagators));
+   }
+
+   /**
+    * Captures the contexts of the current Thread applicable to 
+    * an async invocation of the specified method
+    * @param invokedMethod
+    * @return
+    */
+   public AsyncContextSnapshot capture(final Method invokedMethod)
+   {
+      final PropagatorGroup group = this.groupFor(invokedMethod);
+      final AsyncContextSnapshot last = group.last;
+      final AsyncContextSnapshot snapshot = AsyncContextSnapshot.capture(group.propagators, last);
+      if (snapshot != last)
+      {
+         group.last = snapshot;
+      }
+      return snapshot;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Overridden Implementations -----------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "AsyncContextPropagation "
+            + (bySignature.isEmpty() ? Arrays.toString(fallback.propagators) : bySignature.keySet());
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the propagators applicable to the specified invoked method
+    */
+   private PropagatorGroup groupFor(final Method invokedMethod)
+   {
+      assert invokedMethod != null : "Invoked method must be specified";
+
+      // No per-method resolution
+      if (bySignature.isEmpty())
+      {
+         return fallback;
+      }
+
+      // Fast path; we've already seen this method
+      ConcurrentMap<Method, PropagatorGroup> resolved = this.resolved;
+      if (resolved == null)
+      {
+         resolved = new ConcurrentHashMap<Method, PropagatorGroup>();
+         this.resolved = resolved;
+      }
+      PropagatorGroup group = resolved.get(invokedMethod);
+      if (group == null)
+      {
+         group = bySignature.get(AsyncMethodIndex.signature(invokedMethod));
+         if (group == null)
+         {
+            group = fallback;
+         }
+         resolved.put(invokedMethod, group);
+      }
+      return group;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Inner Classes ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Propagators applicable to one or more methods, along with the last
+    * snapshot taken by them
+    */
+   private static final class PropagatorGroup implements Serializable
+   {
+      private static final long serialVersionUID = 1L;
+
+      private final AsyncContextPropagator[] propagators;
+
+      /**
+       * Last snapshot taken; a stale read only costs a new snapshot
+       */
+      private transient volatile AsyncContextSnapshot last;
+
+      PropagatorGroup(final AsyncContextPropagator[] propagators)
+      {
+         this.propagators = propagators;
+      }
+   }
+}
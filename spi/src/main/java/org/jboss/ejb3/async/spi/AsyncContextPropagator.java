@@ -0,0 +1,81 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.spi;
+
+import java.io.Serializable;
+
+/**
+ * Contract of a context to be carried from the Thread submitting an asynchronous 
+ * invocation to the Thread running it.  The context is captured upon submission, 
+ * applied upon the executing Thread immediately before the invocation proceeds, 
+ * and restored once it completes.
+ * 
+ * Whether a propagator takes part in the invocations upon a given 
+ * bean method is decided once, at deployment, via {@link #appliesTo(String, String)};
+ * propagators not applicable to a method are never consulted when it is invoked.
+ * 
+ * Implementations are shared between all invocations and must be stateless 
+ * (or Thread-safe); they travel with the client interceptors, so must also
+ * be {@link Serializable}.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public interface AsyncContextPropagator extends Serializable
+{
+   // ------------------------------------------------------------------------------||
+   // Contracts --------------------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * Determines whether this context is to be propagated for async invocations 
+    * upon the specified method of the specified bean.  Called at deployment time only.
+    * 
+    * @param ejbName Name of the EJB
+    * @param methodSignature Signature of the @Asynchronous method, in form 
+    *   "name(paramType1,paramType2)" (see {@link AsyncMethodIndex#getSignature(java.lang.reflect.Method)})
+    * @return
+    */
+   boolean appliesTo(String ejbName, String methodSignature);
+
+   /**
+    * Captures the context of the current (submitting) Thread.  The same captured 
+    * context may be applied to several invocations concurrently (see {@link AsyncContextSnapshot}),
+    * so must be safe for concurrent use.
+    * @return The captured context, possibly null
+    */
+   Object capture();
+
+   /**
+    * Applies the previously-captured context to the current (executing) Thread
+    * @param captured The value obtained from {@link #capture()}
+    * @return The context of the current Thread prior to the call, to be
+    *   passed to {@link #restore(Object)}
+    */
+   Object apply(Object captured);
+
+   /**
+    * Restores the context of the current (executing) Thread to that 
+    * in place before {@link #apply(Object)} was called
+    * @param previous The value obtained from {@link #apply(Object)}
+    */
+   void restore(Object previous);
+}
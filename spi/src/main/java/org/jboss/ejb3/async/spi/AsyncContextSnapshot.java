@@ -0,0 +1,232 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.spi;
+
+import java.util.Arrays;
+
+/**
+ * The contexts captured from the Thread submitting an asynchronous invocation,
+ * along with the {@link AsyncContextPropagator}s which captured them.  Applied 
+ * to and restored from the executing Thread by {@link AsyncInvocationTaskBase}.
+ * 
+ * Instances are immutable, and may be shared between invocations: 
+ * {@link AsyncContextPropagation} hands the same snapshot to each invocation 
+ * submitted from a Thread for as long as that Thread's contexts remain the 
+ * same instances, so one snapshot may be applied upon several executing 
+ * Threads at once.  The captured contexts must therefore be safe for 
+ * concurrent use (ie. immutable or Thread-safe), and must not be modified 
+ * when applied or restored.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class AsyncContextSnapshot
+{
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Snapshot propagating no contexts at all
+    */
+   public static final AsyncContextSnapshot EMPTY = new AsyncContextSnapshot(new AsyncContextPropagator[]
+   {}, new Object[]
+   {});
+
+   /**
+    * Contexts replaced by applying {@link #EMPTY}
+    */
+   private static final Object[] NONE_REPLACED = new Object[]
+   {};
+
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Propagators, in order of application
+    */
+   private final AsyncContextPropagator[] propagators;
+
+   /**
+    * Contexts captured by each of the propagators, by index
+    */
+   private final Object[] captured;
+
+   // --------------------------------------------------------------------------------||
+   // Constructor --------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   AsyncContextSnapshot(final AsyncContextPropagator[] propagators, final Object[] captured)
+   {
+      assert propagators != null : "Propagators must be specified";
+      assert captured != null && captured.length == propagators.length : "A context must be captured by each propagator";
+      this.propagators = propagators;
+      this.captured = captured;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Functional Methods -------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Captures the contexts of the current Thread using the specified propagators
+    * @param propagators
+    * @return
+    * @throws IllegalArgumentException If the propagators are not specified
+    */
+   public static AsyncContextSnapshot capture(final AsyncContextPropagator... propagators)
+         throws IllegalArgumentException
+   {
+      if (propagators == null)
+      {
+         throw new IllegalArgumentException("Propagators must be specified");
+      }
+      return capture(propagators, null);
+   }
+
+   /**
+    * Captures the contexts of the current Thread using the specified propagators,
+    * returning the last snapshot taken by them if all contexts are still 
+    * the same instances
+    * @param propagators
+    * @param last The last snapshot taken by the same propagators, or null
+    * @return
+    */
+   static AsyncContextSnapshot capture(final AsyncContextPropagator[] propagators, final AsyncContextSnapshot last)
+   {
+      if (propagators.length == 0)
+      {
+         return EMPTY;
+      }
+      assert last == null || last.propagators == propagators : "Last snapshot taken by other propagators";
+
+      // Allocate only upon the first context differing from the last snapshot
+      Object[] captured = null;
+      for (int i = 0; i < propagators.length; i++)
+      {
+         final Object context = propagators[i].capture();
+         if (captured == null)
+         {
+            if (last != null && last.captured[i] == context)
+            {
+               continue;
+            }
+            captured = new Object[propagators.length];
+            if (last != null)
+            {
+               System.arraycopy(last.captured, 0, captured, 0, i);
+            }
+         }
+         captured[i] = context;
+      }
+      return captured == null ? last : new AsyncContextSnapshot(propagators, captured);
+   }
+
+   /**
+    * Applies the captured contexts to the current Thread, returning the 
+    * contexts they replaced.  Should any propagator fail, those already applied
+    * are restored before the failure is rethrown.
+    */
+   Object[] apply()
+   {
+      if (propagators.length == 0)
+      {
+         return NONE_REPLACED;
+      }
+      final Object[] previous = new Object[propagators.length];
+      int applied = 0;
+      try
+      {
+         for (; applied < propagators.length; applied++)
+         {
+            previous[applied] = propagators[applied].apply(captured[applied]);
+         }
+         return previous;
+      }
+      catch (RuntimeException re)
+      {
+         try
+         {
+            this.restore(previous, applied);
+         }
+         catch (RuntimeException ignore)
+         {
+            // The original failure is the one to report
+         }
+         throw re;
+      }
+   }
+
+   /**
+    * Restores the contexts replaced upon {@link #apply()}, in reverse order
+    * of application
+    */
+   void restore(final Object[] previous)
+   {
+      this.restore(previous, propagators.length);
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Overridden Implementations -----------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "AsyncContextSnapshot " + Arrays.toString(propagators);
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Restores the contexts replaced by the first "count" propagators; all are 
+    * attempted, with the first failure rethrown once done
+    */
+   private void restore(final Object[] previous, final int count)
+   {
+      RuntimeException failure = null;
+      for (int i = count - 1; i >= 0; i--)
+      {
+         try
+         {
+            propagators[i].restore(previous[i]);
+         }
+         catch (RuntimeException re)
+         {
+            if (failure == null)
+            {
+               failure = re;
+            }
+         }
+      }
+      if (failure != null)
+      {
+         throw failure;
+      }
+   }
+}
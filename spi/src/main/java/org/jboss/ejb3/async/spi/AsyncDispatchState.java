@@ -0,0 +1,64 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.spi;
+
+/**
+ * Optional capability of an invocation to hold its @Asynchronous dispatch state 
+ * in typed fields.  When an invocation does not implement this contract, the state is
+ * carried as invocation metadata under {@link AsyncInvocation#METADATA_GROUP_ASYNC}, which
+ * requires map lookups, insertions and removals on each dispatch.
+ * 
+ * As the interceptor dispatches a copy of the invocation, implementations must return
+ * an instance of the same type carrying this state from their copy() method.
+ * Implementations which are marshalled to another process must carry this state
+ * with them.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public interface AsyncDispatchState
+{
+   /**
+    * Returns whether this invocation has already been dispatched asynchronously, 
+    * and should therefore not be dispatched again
+    * @return
+    */
+   boolean isAsyncDispatched();
+
+   /**
+    * Flags this invocation as having been dispatched asynchronously
+    */
+   void markAsyncDispatched();
+
+   /**
+    * Obtains the ID of the asynchronous invocation currently being carried out, 
+    * or null if none
+    * @return
+    */
+   AsyncInvocationId getAsyncInvocationId();
+
+   /**
+    * Sets the ID of the asynchronous invocation currently being carried out; 
+    * null clears
+    * @param id
+    */
+   void setAsyncInvocationId(AsyncInvocationId id);
+}
@@ -0,0 +1,53 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.spi;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Resolves the {@link ExecutorService} to carry out an asynchronous
+ * invocation upon a bean, such that deployments, beans or methods configured
+ * with their own executor are isolated from one another
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public interface AsyncExecutorLookup
+{
+   // ------------------------------------------------------------------------------||
+   // Contracts --------------------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the {@link ExecutorService} for invocations of the specified method
+    * upon the specified bean; the most specific configured executor is returned
+    * (method, then bean, then deployment), else the shared executor.  The executor
+    * carries out the invocation as given; results are unwrapped, and the invocation
+    * made cancellable, by the caller (ie. the client interceptor)
+    * 
+    * @param ejbName Name of the invoked bean
+    * @param method Invoked method, may be null to obtain the bean's executor
+    * @return
+    * @throws IllegalArgumentException If the EJB name is not specified
+    */
+   ExecutorService getExecutor(String ejbName, Method method) throws IllegalArgumentException;
+}
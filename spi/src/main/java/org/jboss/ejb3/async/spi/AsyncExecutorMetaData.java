@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.spi;
+
+import java.io.Serializable;
+
+/**
+ * Configuration of an isolated executor carrying out asynchronous
+ * invocations for a deployment, bean or method
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class AsyncExecutorMetaData implements Serializable
+{
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * serialVersionUID
+    */
+   private static final long serialVersionUID = 1L;
+
+   public static final int DEFAULT_THREADS = 10;
+
+   public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Maximum number of Threads
+    */
+   private int threads = DEFAULT_THREADS;
+
+   /**
+    * Number of invocations which may wait for a Thread before 
+    * further invocations are rejected
+    */
+   private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+   // --------------------------------------------------------------------------------||
+   // Functional Methods -------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Ensures this configuration is consistent
+    * @throws IllegalStateException If not
+    */
+   public void validate() throws IllegalStateException
+   {
+      if (threads <= 0)
+      {
+         throw new IllegalStateException("Threads must be positive: " + threads);
+      }
+      if (queueCapacity <= 0)
+      {
+         throw new IllegalStateException("Queue capacity must be positive: " + queueCapacity);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "AsyncExecutorMetaData [threads=" + threads + ", queueCapacity=" + queueCapacity + "]";
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Accessors / Mutators -----------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   public int getThreads()
+   {
+      return threads;
+   }
+
+   public void setThreads(final int threads)
+   {
+      this.threads = threads;
+   }
+
+   public int getQueueCapacity()
+   {
+      return queueCapacity;
+   }
+
+   public void setQueueCapacity(final int queueCapacity)
+   {
+      this.queueCapacity = queueCapacity;
+   }
+}
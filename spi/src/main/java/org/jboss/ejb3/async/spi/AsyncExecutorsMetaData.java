@@ -0,0 +1,190 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.spi;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Isolated executors requested by a deployment, each described by an
+ * {@link AsyncExecutorMetaData}.  An executor may be configured for the
+ * deployment as a whole, for a bean (by EJB name) and for a method of a bean
+ * (by signature, in form "name(paramType1,paramType2)"); invocations
+ * not covered use the shared executor.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class AsyncExecutorsMetaData implements Serializable
+{
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * serialVersionUID
+    */
+   private static final long serialVersionUID = 1L;
+
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Executor for the deployment, or null to use the shared executor
+    */
+   private AsyncExecutorMetaData deploymentExecutor;
+
+   /**
+    * Executors by EJB name
+    */
+   private final Map<String, AsyncExecutorMetaData> beanExecutors = new HashMap<String, AsyncExecutorMetaData>();
+
+   /**
+    * Executors by EJB name, then method signature
+    */
+   private final Map<String, Map<String, AsyncExecutorMetaData>> methodExecutors = new HashMap<String, Map<String, AsyncExecutorMetaData>>();
+
+   // --------------------------------------------------------------------------------||
+   // Functional Methods -------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Returns whether no executors have been configured
+    * @return
+    */
+   public boolean isEmpty()
+   {
+      return deploymentExecutor == null && beanExecutors.isEmpty() && methodExecutors.isEmpty();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "AsyncExecutorsMetaData [deploymentExecutor=" + deploymentExecutor + ", beanExecutors="
+            + beanExecutors + ", methodExecutors=" + methodExecutors + "]";
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Accessors / Mutators -----------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   public AsyncExecutorMetaData getDeploymentExecutor()
+   {
+      return deploymentExecutor;
+   }
+
+   public void setDeploymentExecutor(final AsyncExecutorMetaData deploymentExecutor)
+   {
+      this.deploymentExecutor = deploymentExecutor;
+   }
+
+   /**
+    * Returns an immutable view of executors by EJB name
+    * @return
+    */
+   public Map<String, AsyncExecutorMetaData> getBeanExecutors()
+   {
+      return Collections.unmodifiableMap(beanExecutors);
+   }
+
+   /**
+    * Configures an executor for the specified bean
+    * @param ejbName
+    * @param executor
+    * @throws IllegalArgumentException If either argument is not specified
+    */
+   public void setBeanExecutor(final String ejbName, final AsyncExecutorMetaData executor)
+         throws IllegalArgumentException
+   {
+      if (ejbName == null)
+      {
+         throw new IllegalArgumentException("EJB name must be specified");
+      }
+      if (executor == null)
+      {
+         throw new IllegalArgumentException(AsyncExecutorMetaData.class.getSimpleName() + " must be specified");
+      }
+      beanExecutors.put(ejbName, executor);
+   }
+
+   /**
+    * Returns an immutable view of executors by method signature for the specified bean
+    * @param ejbName
+    * @return
+    */
+   public Map<String, AsyncExecutorMetaData> getMethodExecutors(final String ejbName)
+   {
+      final Map<String, AsyncExecutorMetaData> executors = methodExecutors.get(ejbName);
+      if (executors == null)
+      {
+         return Collections.emptyMap();
+      }
+      return Collections.unmodifiableMap(executors);
+   }
+
+   /**
+    * Configures an executor for the specified method of a bean
+    * @param ejbName
+    * @param methodSignature Signature in form "name(paramType1,paramType2)"
+    * @param executor
+    * @throws IllegalArgumentException If any argument is not specified
+    */
+   public void setMethodExecutor(final String ejbName, final String methodSignature,
+         final AsyncExecutorMetaData executor) throws IllegalArgumentException
+   {
+      if (ejbName == null)
+      {
+         throw new IllegalArgumentException("EJB name must be specified");
+      }
+      if (methodSignature == null)
+      {
+         throw new IllegalArgumentException("Method signature must be specified");
+      }
+      if (executor == null)
+      {
+         throw new IllegalArgumentException(AsyncExecutorMetaData.class.getSimpleName() + " must be specified");
+      }
+      Map<String, AsyncExecutorMetaData> executors = methodExecutors.get(ejbName);
+      if (executors == null)
+      {
+         executors = new HashMap<String, AsyncExecutorMetaData>();
+         methodExecutors.put(ejbName, executors);
+      }
+      executors.put(methodSignature, executor);
+   }
+
+   /**
+    * Returns the names of all beans with method executors configured
+    * @return
+    */
+   public Set<String> getBeansWithMethodExecutors()
+   {
+      return Collections.unmodifiableSet(methodExecutors.keySet());
+   }
+}
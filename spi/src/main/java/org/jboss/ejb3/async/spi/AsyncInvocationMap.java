@@ -25,7 +25,16 @@ import java.util.concurrent.ConcurrentMap;
 
 /**
  * Keeps track of current @Asynchronous invocations and
- * whether or not they've been cancelled
+ * whether or not they've been cancelled, for routing of cancellation
+ * requests which arrive by {@link AsyncInvocationId}.  Running invocations
+ * should not poll this map, but the {@link AsyncCancellationToken} obtained
+ * from {@link CurrentAsyncInvocation#getCurrentCancellationToken()}; containers
+ * deliver cancellations to it via {@link AsyncCancellationRegistry}, which keeps 
+ * those for invocations not yet started until they start.
+ * 
+ * Entries are both added and removed by the container owning the map; each 
+ * is to be removed once its invocation completes.  Implementations need not
+ * detect completion themselves, though may expire entries never removed.
  * 
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  */
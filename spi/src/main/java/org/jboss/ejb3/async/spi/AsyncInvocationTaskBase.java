@@ -26,24 +26,35 @@ import java.util.concurrent.Callable;
 import org.jboss.security.SecurityContext;
 
 /**
- * Base {@link Callable} implementation to set the {@link SecurityContext}
- * in the new Thread when this is invoked, and replace when done.  Contains
- * lifecycle hooks for implementations to proceed, and receive events 
- * for before and after invocation
+ * Base {@link Callable} implementation to apply the contexts captured from
+ * the caller (by default the {@link SecurityContext} and TCCL, see 
+ * {@link AsyncContextPropagator}) in the new Thread when this is invoked, 
+ * and replace when done.  Contains lifecycle hooks for implementations to 
+ * proceed, and receive events for before and after invocation.  The previous 
+ * context of the executing Thread is always restored, and no state is assumed 
+ * to survive between tasks, so this is correct upon pooled and per-task 
+ * (ie. virtual) Threads alike.
  * 
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  */
 public abstract class AsyncInvocationTaskBase<V> implements Callable<V>
 {
    /**
-    * SecurityContext to use for the invocation
+    * Propagators of the SecurityContext and TCCL supplied explicitly
+    */
+   private static final AsyncContextPropagator[] SECURITY_AND_TCCL = new AsyncContextPropagator[]
+   {new SecurityContextPropagator(), new ThreadContextClassLoaderPropagator()};
+
+   /**
+    * SecurityContext to use for the invocation, if supplied explicitly
+    * rather than as part of an {@link AsyncContextSnapshot}
     */
    protected final SecurityContext sc;
 
    /**
-    * ClassLoader used to invoke
+    * Contexts to apply for the invocation
     */
-   private final ClassLoader invokingCl;
+   private final AsyncContextSnapshot contexts;
 
    /**
     * ID of the invocation
@@ -56,7 +67,22 @@ public abstract class AsyncInvocationTaskBase<V> implements Callable<V>
       assert invokingCl != null : "CL must be supplied";
       this.sc = sc;
       this.id = id;
-      this.invokingCl = invokingCl;
+      this.contexts = new AsyncContextSnapshot(SECURITY_AND_TCCL, new Object[]
+      {sc, invokingCl});
+   }
+
+   /**
+    * Creates a task applying the specified contexts, as captured from the caller 
+    * @param contexts
+    * @param id
+    */
+   public AsyncInvocationTaskBase(final AsyncContextSnapshot contexts, final AsyncInvocationId id)
+   {
+      assert contexts != null : "Contexts must be supplied";
+      assert id != null : "Async Invocation ID must be supplied";
+      this.sc = null;
+      this.id = id;
+      this.contexts = contexts;
    }
 
    /**
@@ -70,6 +96,16 @@ public abstract class AsyncInvocationTaskBase<V> implements Callable<V>
     */
    protected abstract V proceed() throws Throwable;
 
+   /**
+    * Whether the Thread running the invocation may be interrupted when cancellation
+    * is requested with mayInterruptIfRunning; by default only the cancellation flag
+    * is set (EJB 3.1 4.5.3), and the bean is to poll for it
+    */
+   protected boolean isInterruptible()
+   {
+      return false;
+   }
+
    /**
     * Implementation-specific hook after the invocation has been invoked
     * @throws Exception
@@ -82,20 +118,21 @@ public abstract class AsyncInvocationTaskBase<V> implements Callable<V>
     */
    public final V call() throws Exception
    {
-      // Get existing security context
-      final SecurityContext oldSc = SecurityActions.getSecurityContext();
-      final ClassLoader oldCl = SecurityActions.getTccl();
+      Object[] replaced = null;
+      boolean marked = false;
 
       try
       {
          // Before Callback
          this.before();
 
-         // Set TCCL
-         SecurityActions.setTccl(invokingCl);
+         // Expose the cancellation flag to the bean
+         CurrentAsyncInvocation.markCurrentCancellationTokenOnThread(new AsyncCancellationToken(id, this
+               .isInterruptible()));
+         marked = true;
 
-         // Set new sc
-         SecurityActions.setSecurityContext(this.sc);
+         // Apply the caller's contexts
+         replaced = contexts.apply();
 
          // Invoke
          return this.proceed();
@@ -114,14 +151,25 @@ public abstract class AsyncInvocationTaskBase<V> implements Callable<V>
       }
       finally
       {
-         // Replace the old security context
-         SecurityActions.setSecurityContext(oldSc);
-
-         // Replace TCCL
-         SecurityActions.setTccl(oldCl);
-
-         // After callback
-         this.after();
+         try
+         {
+            // Replace the old contexts, if changed (by us or the invocation)
+            if (replaced != null)
+            {
+               contexts.restore(replaced);
+            }
+         }
+         finally
+         {
+            // No further cancellations
+            if (marked)
+            {
+               CurrentAsyncInvocation.unmarkCurrentCancellationTokenFromThread();
+            }
+
+            // After callback
+            this.after();
+         }
       }
    }
 }
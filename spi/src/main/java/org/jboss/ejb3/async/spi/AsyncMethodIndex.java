@@ -0,0 +1,255 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.spi;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.logging.Logger;
+import org.jboss.metadata.ejb.spec.AsyncMethodMetaData;
+import org.jboss.metadata.ejb.spec.AsyncMethodsMetaData;
+import org.jboss.metadata.ejb.spec.MethodParametersMetaData;
+
+/**
+ * Precomputed index of the methods declared as @Asynchronous for an EJB.
+ * 
+ * Declared methods are resolved once from {@link AsyncMethodsMetaData} into
+ * a set of signatures; each invoked {@link Method} is then matched against 
+ * the signatures at most once, with the decision cached such that 
+ * subsequent lookups are a single hash lookup.  Unlike 
+ * {@link AsyncUtil#methodIsAsynchronous(Method, AsyncMethodsMetaData)}, overloaded
+ * methods sharing a name are matched correctly.
+ * 
+ * Instances are immutable (the decision cache aside) and may be shared
+ * between EJBs declaring the same asynchronous signatures.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public final class AsyncMethodIndex implements Serializable
+{
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * serialVersionUID
+    */
+   private static final long serialVersionUID = 1L;
+
+   /**
+    * Logger
+    */
+   private static final Logger log = Logger.getLogger(AsyncMethodIndex.class);
+
+   // --------------------------------------------------------------------------------||
+   // Instance Members ---------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Signatures of all @Asynchronous methods, in form "name(paramType1,paramType2)"
+    */
+   private final Set<String> signatures;
+
+   /**
+    * Decisions already made for invoked methods; rebuilt lazily after deserialization
+    * as {@link Method} is not {@link Serializable}
+    */
+   private transient volatile ConcurrentMap<Method, Boolean> resolved;
+
+   // --------------------------------------------------------------------------------||
+   // Constructor --------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Creates a new index of the specified asynchronous methods
+    * @param asyncMethods Methods declared as asynchronous for the EJB in question
+    * @throws IllegalArgumentException If the methods are not specified
+    */
+   public AsyncMethodIndex(final AsyncMethodsMetaData asyncMethods) throws IllegalArgumentException
+   {
+      if (asyncMethods == null)
+      {
+         throw new IllegalArgumentException(AsyncMethodsMetaData.class.getSimpleName() + " must be specified");
+      }
+      final Set<String> signatures = new HashSet<String>();
+      for (final AsyncMethodMetaData asyncMethod : asyncMethods)
+      {
+         final MethodParametersMetaData params = asyncMethod.getMethodParams();
+         signatures.add(signature(asyncMethod.getMethodName(), params == null ? new String[]
+         {} : params.toArray(new String[params.size()])).intern());
+      }
+      this.signatures = Collections.unmodifiableSet(signatures);
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Functional Methods -------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the signature by which the specified method is indexed, in 
+    * form "name(paramType1,paramType2)"
+    * @param method
+    * @return
+    * @throws IllegalArgumentException If the method is not specified
+    */
+   public static String getSignature(final Method method) throws IllegalArgumentException
+   {
+      if (method == null)
+      {
+         throw new IllegalArgumentException("Method must be specified");
+      }
+      return signature(method);
+   }
+
+   /**
+    * Determines whether the invoked method is @Asynchronous
+    * @param invokedMethod The invoked method
+    * @return
+    */
+   public boolean isAsynchronous(final Method invokedMethod)
+   {
+      assert invokedMethod != null : "Invoked method must be specified";
+
+      // Fast path; we've already seen this method
+      ConcurrentMap<Method, Boolean> resolved = this.resolved;
+      if (resolved == null)
+      {
+         resolved = new ConcurrentHashMap<Method, Boolean>();
+         this.resolved = resolved;
+      }
+      final Boolean cached = resolved.get(invokedMethod);
+      if (cached != null)
+      {
+         return cached.booleanValue();
+      }
+
+      // Match the signature and remember the decision
+      final boolean async = !signatures.isEmpty() && signatures.contains(signature(invokedMethod));
+      resolved.put(invokedMethod, Boolean.valueOf(async));
+      if (log.isTraceEnabled())
+      {
+         log.trace((async ? "Marked as @Asynchronous: " : "Not @Asynchronous: ") + invokedMethod);
+      }
+      return async;
+   }
+
+   /**
+    * Returns whether there are no @Asynchronous methods in this index
+    * @return
+    */
+   public boolean isEmpty()
+   {
+      return signatures.isEmpty();
+   }
+
+   /**
+    * Obtains the signatures of all @Asynchronous methods in this index,
+    * in form "name(paramType1,paramType2)"
+    * @return
+    */
+   public Set<String> getSignatures()
+   {
+      return signatures;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Overridden Implementations -----------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#hashCode()
+    */
+   @Override
+   public int hashCode()
+   {
+      return signatures.hashCode();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#equals(java.lang.Object)
+    */
+   @Override
+   public boolean equals(final Object obj)
+   {
+      if (this == obj)
+      {
+         return true;
+      }
+      if (!(obj instanceof AsyncMethodIndex))
+      {
+         return false;
+      }
+      return signatures.equals(((AsyncMethodIndex) obj).signatures);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return "AsyncMethodIndex " + signatures;
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Obtains the signature of the specified method
+    */
+   static String signature(final Method method)
+   {
+      final Class<?>[] paramTypes = method.getParameterTypes();
+      final String[] paramTypeNames = new String[paramTypes.length];
+      for (int i = 0; i < paramTypes.length; i++)
+      {
+         paramTypeNames[i] = paramTypes[i].getName();
+      }
+      return signature(method.getName(), paramTypeNames);
+   }
+
+   /**
+    * Obtains the signature for the specified method name and parameter type names
+    */
+   static String signature(final String methodName, final String[] paramTypeNames)
+   {
+      final StringBuilder sb = new StringBuilder(methodName).append('(');
+      for (int i = 0; i < paramTypeNames.length; i++)
+      {
+         if (i > 0)
+         {
+            sb.append(',');
+         }
+         sb.append(paramTypeNames[i]);
+      }
+      return sb.append(')').toString();
+   }
+}
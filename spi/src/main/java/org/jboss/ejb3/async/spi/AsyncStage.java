@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.spi;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * {@link Future} of an asynchronous invocation to which continuations may be 
+ * attached, to be run upon completion rather than by a Thread waiting upon 
+ * {@link Future#get()}.  Modelled after the CompletionStage of later JDKs.
+ * 
+ * Continuations without an {@link Executor} run in the Thread completing the 
+ * stage, or in the calling Thread if already complete, and so should be brief.
+ * Cancelling a dependent stage also cancels the invocation upon which it depends.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public interface AsyncStage<V> extends Future<V>
+{
+   // ------------------------------------------------------------------------------||
+   // Contracts --------------------------------------------------------------------||
+   // ------------------------------------------------------------------------------||
+
+   /**
+    * Returns a new stage completing with the result of the specified function applied
+    * to the result of this stage, or exceptionally if this stage does
+    * 
+    * @param fn
+    * @return
+    * @throws IllegalArgumentException If the function is not specified
+    */
+   <R> AsyncStage<R> thenApply(AsyncFunction<? super V, ? extends R> fn) throws IllegalArgumentException;
+
+   /**
+    * Returns a new stage completing with the result of the specified function applied,
+    * using the specified {@link Executor}, to the result of this stage
+    * 
+    * @param fn
+    * @param executor
+    * @return
+    * @throws IllegalArgumentException If the function or executor is not specified
+    */
+   <R> AsyncStage<R> thenApply(AsyncFunction<? super V, ? extends R> fn, Executor executor)
+         throws IllegalArgumentException;
+
+   /**
+    * Returns a new stage completing as this one does, after notifying the specified callback
+    * 
+    * @param callback
+    * @return
+    * @throws IllegalArgumentException If the callback is not specified
+    */
+   AsyncStage<V> whenComplete(AsyncCompletionCallback<? super V> callback) throws IllegalArgumentException;
+
+   /**
+    * Returns a new stage completing as this one does, after notifying the specified
+    * callback using the specified {@link Executor}
+    * 
+    * @param callback
+    * @param executor
+    * @return
+    * @throws IllegalArgumentException If the callback or executor is not specified
+    */
+   AsyncStage<V> whenComplete(AsyncCompletionCallback<? super V> callback, Executor executor)
+         throws IllegalArgumentException;
+
+   /**
+    * Registers the specified listener to be run using the specified {@link Executor} 
+    * exactly once, upon success, failure or cancellation of this stage; if already
+    * complete, it is dispatched immediately
+    * 
+    * @param listener
+    * @param executor
+    * @throws IllegalArgumentException If the listener or executor is not specified
+    */
+   void addListener(Runnable listener, Executor executor) throws IllegalArgumentException;
+}
@@ -22,9 +22,10 @@
 package org.jboss.ejb3.async.spi;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -42,7 +43,7 @@ import org.jboss.logging.Logger;
  * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
  * @version $Revision: $
  */
-public class AsynchronousClientFuture<V> extends FutureTask<V> implements Future<V>
+public class AsynchronousClientFuture<V> extends AbstractAsyncStage<V> implements AsyncInvocationFuture<V>
 {
    // --------------------------------------------------------------------------------||
    // Class Members ------------------------------------------------------------------||
@@ -66,6 +67,25 @@ public class AsynchronousClientFuture<V> extends FutureTask<V> implements Future
     */
    private final AsyncEndpoint container;
 
+   /**
+    * Whether the invocation has been dispatched (ie. this task has begun to run),
+    * after which it may be cancelled only by request to the container
+    */
+   private volatile boolean dispatched;
+
+   /**
+    * Whether the bean provider's return value was unwrapped upon completion, in which case
+    * the value held by the FutureTask is the real return value; published by FutureTask's
+    * own completion, so needs no volatile read of its own
+    */
+   private boolean resultUnwrapped;
+
+   /**
+    * Invocation whose Future was returned by the bean provider while still in flight, 
+    * and upon whose completion this one completes
+    */
+   private volatile AsynchronousClientFuture<?> pendingResult;
+
    // --------------------------------------------------------------------------------||
    // Constructor --------------------------------------------------------------------||
    // --------------------------------------------------------------------------------||
@@ -101,6 +121,7 @@ public class AsynchronousClientFuture<V> extends FutureTask<V> implements Future
     * {@inheritDoc}
     * @see java.util.concurrent.Future#get()
     */
+   @SuppressWarnings("unchecked")
    public V get() throws InterruptedException, ExecutionException
    {
       // Log
@@ -109,8 +130,12 @@ public class AsynchronousClientFuture<V> extends FutureTask<V> implements Future
          log.trace("Blocking request to get()");
       }
 
-      // Get the result specified by the bean provider
+      // Get the result specified by the bean provider, unless already unwrapped
       final Object returnValueFromBeanProvider = super.get();
+      if (resultUnwrapped)
+      {
+         return (V) returnValueFromBeanProvider;
+      }
       final V wrappedValue = this.getWrappedFuture(returnValueFromBeanProvider);
 
       // Return
@@ -121,6 +146,7 @@ public class AsynchronousClientFuture<V> extends FutureTask<V> implements Future
     * {@inheritDoc}
     * @see java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)
     */
+   @SuppressWarnings("unchecked")
    public V get(final long timeout, final TimeUnit unit) throws InterruptedException, ExecutionException,
          TimeoutException
    {
@@ -130,14 +156,28 @@ public class AsynchronousClientFuture<V> extends FutureTask<V> implements Future
          log.trace("Request to get() with timeout " + timeout + " (" + unit + ")");
       }
 
-      // Get the result specified by the bean provider
+      // Get the result specified by the bean provider, unless already unwrapped
       final Object returnValueFromBeanProvider = super.get(timeout, unit);
+      if (resultUnwrapped)
+      {
+         return (V) returnValueFromBeanProvider;
+      }
       final V wrappedValue = this.getWrappedFuture(returnValueFromBeanProvider);
 
       // Return
       return wrappedValue;
    }
 
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.async.spi.AsyncInvocationFuture#getInvocationId()
+    */
+   @Override
+   public AsyncInvocationId getInvocationId()
+   {
+      return id;
+   }
+
    /**
     * {@inheritDoc}
     * @see java.util.concurrent.FutureTask#cancel(boolean)
@@ -152,13 +192,23 @@ public class AsynchronousClientFuture<V> extends FutureTask<V> implements Future
          return false;
       }
 
+      // If waiting upon a chained invocation, cancel that instead
+      final AsynchronousClientFuture<?> pending = pendingResult;
+      if (pending != null)
+      {
+         final boolean cancelled = super.cancel(false);
+         pending.cancel(mayInterruptIfRunning);
+         return cancelled;
+      }
+
       // If we can't cancel per normal, send along to the server to cancel
       //      boolean returnValue = super.cancel(mayInterruptIfRunning);
-      boolean returnValue = super.cancel(false); // Needs to go to this
+      boolean returnValue = this.cancelLocally(); // Needs to go to this
       if ((!returnValue) && mayInterruptIfRunning)
       {
-         // Send a flag to the server to cancel
+         // Send a flag to the server to cancel, and report this view as cancelled
          container.cancel(id);
+         this.markCancelled();
          returnValue = true;
       }
 
@@ -166,10 +216,183 @@ public class AsynchronousClientFuture<V> extends FutureTask<V> implements Future
       return returnValue;
    }
 
+   /**
+    * Cancels this invocation if it has not yet been dispatched from this JVM, 
+    * without issuing a cancel request to the container
+    * 
+    * @return Whether the invocation was cancelled
+    */
+   public boolean cancelLocally()
+   {
+      // A running FutureTask may still be cancelled, but the invocation would not be
+      return !dispatched && super.cancel(false);
+   }
+
+   /**
+    * Reports this view of the invocation as cancelled without issuing a cancel request
+    * to the container, ie. once one has been issued on its behalf (in bulk); the eventual
+    * outcome of a dispatched invocation is then discarded
+    * 
+    * @return Whether this view was not already complete
+    */
+   public boolean markCancelled()
+   {
+      return super.cancel(false);
+   }
+
+   /**
+    * Unwraps the bean provider's return value once, upon completion, if it is already
+    * available (ie. an AsyncResult); each call to get() then returns the stored value 
+    * directly.  Return values not yet done, or not a Future at all, are left to be 
+    * handled by get() as before.
+    * 
+    * If the bean provider has returned the Future of another asynchronous invocation 
+    * still in flight (ie. chaining a nested call), this completes when that one does, 
+    * by callback, such that neither the worker nor the client blocks upon it.
+    * 
+    * @see java.util.concurrent.FutureTask#set(java.lang.Object)
+    */
+   @Override
+   protected void set(final V returnValueFromBeanProvider)
+   {
+      final Object value = returnValueFromBeanProvider;
+      if (value instanceof AsynchronousClientFuture<?> && !((Future<?>) value).isDone())
+      {
+         final AsynchronousClientFuture<?> pending = (AsynchronousClientFuture<?>) value;
+         pendingResult = pending;
+         pending.whenDone(new Runnable()
+         {
+            public void run()
+            {
+               AsynchronousClientFuture.this.completeFrom(pending);
+            }
+         });
+         return;
+      }
+      if (value == null || !(value instanceof Future) || !((Future<?>) value).isDone())
+      {
+         super.set(returnValueFromBeanProvider);
+         return;
+      }
+      final V unwrapped;
+      try
+      {
+         unwrapped = this.getWrappedFuture(value);
+      }
+      catch (final ExecutionException ee)
+      {
+         this.setException(ee.getCause());
+         return;
+      }
+      catch (final InterruptedException ie)
+      {
+         // Not expected of a completed Future; leave to get()
+         Thread.currentThread().interrupt();
+         super.set(returnValueFromBeanProvider);
+         return;
+      }
+      catch (final RuntimeException re)
+      {
+         // Report as get() would have
+         super.set(returnValueFromBeanProvider);
+         return;
+      }
+      resultUnwrapped = true;
+      super.set(unwrapped);
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see java.util.concurrent.FutureTask#run()
+    */
+   @Override
+   public void run()
+   {
+      dispatched = true;
+      super.run();
+   }
+
+   /**
+    * Obtains the invocation whose Future was returned by the bean provider while
+    * still in flight, and upon whose completion this one completes, or null if none.
+    * Cancelling this invocation cancels that one instead.
+    * 
+    * @return
+    */
+   public AsynchronousClientFuture<?> getPendingResult()
+   {
+      return pendingResult;
+   }
+
+   /**
+    * Obtains the container to which cancel requests for this invocation
+    * are to be issued once it has been dispatched
+    * 
+    * @return
+    */
+   public AsyncCancellableContext getCancellableContext()
+   {
+      return container;
+   }
+
+   /**
+    * Completes this Future, without running the invocation, with the specified
+    * reason the executor refused it; {@link AsynchronousClientFuture#get()} will 
+    * report the rejection as the cause of an {@link ExecutionException}
+    * 
+    * @param cause
+    * @throws IllegalArgumentException If the cause is not specified
+    */
+   public void reject(final RejectedExecutionException cause) throws IllegalArgumentException
+   {
+      if (cause == null)
+      {
+         throw new IllegalArgumentException("Cause of rejection must be specified");
+      }
+      this.setException(cause);
+   }
+
    // --------------------------------------------------------------------------------||
    // Internal Helper Methods --------------------------------------------------------||
    // --------------------------------------------------------------------------------||
 
+   /**
+    * Completes this Future with the outcome of the specified, completed, chained invocation
+    */
+   @SuppressWarnings("unchecked")
+   private void completeFrom(final AsynchronousClientFuture<?> pending)
+   {
+      pendingResult = null;
+      final V value;
+      try
+      {
+         value = (V) pending.get();
+      }
+      catch (final ExecutionException ee)
+      {
+         this.setException(ee.getCause());
+         return;
+      }
+      catch (final CancellationException ce)
+      {
+         super.cancel(false);
+         return;
+      }
+      catch (final InterruptedException ie)
+      {
+         Thread.currentThread().interrupt();
+         this.setException(ie);
+         return;
+      }
+      catch (final RuntimeException re)
+      {
+         this.setException(re);
+         return;
+      }
+      resultUnwrapped = true;
+      super.set(value);
+   }
+
    /**
     * Unwraps the AsyncFuture (or any j.u.c.Future) result given by the bean provider
     * and returns the real return value
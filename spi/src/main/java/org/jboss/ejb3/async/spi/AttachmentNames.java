@@ -21,6 +21,7 @@
  */
 package org.jboss.ejb3.async.spi;
 
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 
 /**
@@ -40,4 +41,35 @@ public interface AttachmentNames
     * async invocations
     */
    String ASYNC_INVOCATION_PROCESSOR = "org.jboss.ejb3.async." + ExecutorService.class.getSimpleName();
+
+   /**
+    * Name of the {@link Map} of EJB name to {@link AsyncMethodIndex}, resolved
+    * once at deployment for each EJB 3.x bean declaring @Asynchronous methods
+    */
+   String ASYNC_METHOD_INDEXES = "org.jboss.ejb3.async." + AsyncMethodIndex.class.getSimpleName();
+
+   /**
+    * Name of the {@link Map} of EJB name to the AOP pointcut expression matching only 
+    * its @Asynchronous methods, such that the async interceptor may be bound to these
+    * alone and synchronous invocations bypass it entirely
+    */
+   String ASYNC_POINTCUTS = "org.jboss.ejb3.async.AsyncPointcuts";
+
+   /**
+    * Name of the {@link Map} of EJB name to {@link AsyncContextPropagation}, resolved
+    * once at deployment for each EJB 3.x bean declaring @Asynchronous methods
+    */
+   String ASYNC_CONTEXT_PROPAGATION = "org.jboss.ejb3.async." + AsyncContextPropagation.class.getSimpleName();
+
+   /**
+    * Name of the optional {@link AsyncExecutorsMetaData} requesting isolated executors
+    * for the deployment, its beans or their methods
+    */
+   String ASYNC_EXECUTORS_METADATA = "org.jboss.ejb3.async." + AsyncExecutorsMetaData.class.getSimpleName();
+
+   /**
+    * Name of the {@link AsyncExecutorLookup} resolving the {@link ExecutorService}
+    * for each async invocation upon a bean in the deployment
+    */
+   String ASYNC_EXECUTOR_LOOKUP = "org.jboss.ejb3.async." + AsyncExecutorLookup.class.getSimpleName();
 }
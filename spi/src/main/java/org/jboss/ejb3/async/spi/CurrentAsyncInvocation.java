@@ -44,6 +44,11 @@ public class CurrentAsyncInvocation
     */
    private static final ThreadLocalStack<AsyncInvocationId> CURRENT_EXECUTING_INVOCATIONS = new ThreadLocalStack<AsyncInvocationId>();
 
+   /**
+    * Cancellation tokens of the invocations running on this Thread
+    */
+   private static final ThreadLocalStack<AsyncCancellationToken> CURRENT_CANCELLATION_TOKENS = new ThreadLocalStack<AsyncCancellationToken>();
+
    // --------------------------------------------------------------------------------||
    // Constructor --------------------------------------------------------------------||
    // --------------------------------------------------------------------------------||
@@ -88,4 +93,74 @@ public class CurrentAsyncInvocation
       }
       return id;
    }
+
+   /**
+    * Obtains the {@link AsyncCancellationToken} of the invocation running on this
+    * Thread, or null if none.  Callers polling for cancellation should hold onto
+    * the token rather than obtain it anew for each check.
+    * @return
+    */
+   public static AsyncCancellationToken getCurrentCancellationToken()
+   {
+      return CURRENT_CANCELLATION_TOKENS.get();
+   }
+
+   /**
+    * Returns whether cancellation has been requested for the invocation running on this Thread
+    * @return
+    */
+   public static boolean wasCancelCalled()
+   {
+      final AsyncCancellationToken token = CURRENT_CANCELLATION_TOKENS.get();
+      return token != null && token.isCancelled();
+   }
+
+   /**
+    * Marks the specified token as that of the invocation now running on this Thread,
+    * registering it to receive cancellations routed by ID via {@link AsyncCancellationRegistry}
+    * @param token
+    */
+   public static void markCurrentCancellationTokenOnThread(final AsyncCancellationToken token)
+   {
+      assert token != null : "Cancellation token must be specified";
+      token.bind();
+      AsyncCancellationRegistry.register(token);
+      CURRENT_CANCELLATION_TOKENS.push(token);
+   }
+
+   /**
+    * Removes the token of the invocation which has finished on this Thread, 
+    * after which it no longer receives cancellations
+    * @return
+    */
+   public static AsyncCancellationToken unmarkCurrentCancellationTokenFromThread()
+   {
+      final AsyncCancellationToken token = CURRENT_CANCELLATION_TOKENS.pop();
+      if (token != null)
+      {
+         AsyncCancellationRegistry.unregister(token);
+         token.unbind();
+      }
+      return token;
+   }
+
+   /**
+    * Discards all invocation state held for the current Thread, including 
+    * cancellation tokens which would otherwise remain registered.  Unnecessary
+    * in the normal course, as all state is removed once each invocation completes.
+    * Threads created by NamedThreadFactory (those of the client, bulkhead and 
+    * default shared executors) call this as they exit; containers running
+    * invocations upon Threads of their own are to call it likewise, upon the 
+    * exit of each Thread.
+    */
+   public static void clearCurrentThread()
+   {
+      // Tokens left behind would otherwise remain registered for cancellation
+      while (!CURRENT_CANCELLATION_TOKENS.isEmpty())
+      {
+         unmarkCurrentCancellationTokenFromThread();
+      }
+      CURRENT_EXECUTING_INVOCATIONS.clear();
+      CURRENT_CANCELLATION_TOKENS.clear();
+   }
 }
@@ -0,0 +1,159 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.spi;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jboss.logging.MDC;
+
+/**
+ * {@link AsyncContextPropagator} carrying the logging Mapped Diagnostic Context 
+ * of the caller to all async invocations, such that log output of the bean 
+ * may be correlated with the request which issued it.  The entries are copied
+ * upon submission, so later changes made by the caller are not seen by the 
+ * invocation and vice versa.  Nothing is done when neither the caller nor 
+ * the executing Thread have any entries.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class MdcPropagator implements AsyncContextPropagator
+{
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * serialVersionUID
+    */
+   private static final long serialVersionUID = 1L;
+
+   // --------------------------------------------------------------------------------||
+   // Required Implementations -------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.async.spi.AsyncContextPropagator#appliesTo(java.lang.String, java.lang.String)
+    */
+   public boolean appliesTo(final String ejbName, final String methodSignature)
+   {
+      return true;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.async.spi.AsyncContextPropagator#capture()
+    */
+   public Object capture()
+   {
+      return copyOfCurrent();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.async.spi.AsyncContextPropagator#apply(java.lang.Object)
+    */
+   public Object apply(final Object captured)
+   {
+      final Map<String, Object> old = copyOfCurrent();
+      if (old != null || captured != null)
+      {
+         replaceCurrent(old, asMap(captured));
+      }
+      return old;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.async.spi.AsyncContextPropagator#restore(java.lang.Object)
+    */
+   public void restore(final Object previous)
+   {
+      final Map<String, Object> current = copyOfCurrent();
+      if (current != null || previous != null)
+      {
+         replaceCurrent(current, asMap(previous));
+      }
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Overridden Implementations -----------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName();
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Internal Helper Methods --------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * Obtains a copy of the entries of the current Thread, or null if there are none
+    */
+   private static Map<String, Object> copyOfCurrent()
+   {
+      final Map<String, Object> current = MDC.getMap();
+      if (current == null || current.isEmpty())
+      {
+         return null;
+      }
+      return new HashMap<String, Object>(current);
+   }
+
+   /**
+    * Replaces the entries of the current Thread, a copy of which is "current", with those specified
+    */
+   private static void replaceCurrent(final Map<String, Object> current, final Map<String, Object> replacement)
+   {
+      if (current != null)
+      {
+         for (final String key : current.keySet())
+         {
+            MDC.remove(key);
+         }
+      }
+      if (replacement != null)
+      {
+         for (final Map.Entry<String, Object> entry : replacement.entrySet())
+         {
+            MDC.put(entry.getKey(), entry.getValue());
+         }
+      }
+   }
+
+   /**
+    * Casts a captured context back to its entries
+    */
+   @SuppressWarnings("unchecked")
+   private static Map<String, Object> asMap(final Object context)
+   {
+      return (Map<String, Object>) context;
+   }
+}
@@ -39,17 +39,21 @@ class SecurityActions
 {
    static SecurityContext getSecurityContext()
    {
-      return AccessController.doPrivileged(new PrivilegedAction<SecurityContext>()
+      // Privileged blocks are required only under a SecurityManager
+      if (System.getSecurityManager() == null)
       {
-         public SecurityContext run()
-         {
-            return SecurityContextAssociation.getSecurityContext();
-         }
-      });
+         return SecurityContextAssociation.getSecurityContext();
+      }
+      return AccessController.doPrivileged(GetSecurityContextAction.INSTANCE);
    }
 
    static void setSecurityContext(final SecurityContext sc)
    {
+      if (System.getSecurityManager() == null)
+      {
+         SecurityContextAssociation.setSecurityContext(sc);
+         return;
+      }
       AccessController.doPrivileged(new PrivilegedAction<Void>()
       {
          public Void run()
@@ -60,6 +64,17 @@ class SecurityActions
       });
    }
 
+   private static enum GetSecurityContextAction implements PrivilegedAction<SecurityContext> {
+      INSTANCE;
+
+      @Override
+      public SecurityContext run()
+      {
+         return SecurityContextAssociation.getSecurityContext();
+      }
+
+   }
+
    private static enum GetTcclAction implements PrivilegedAction<ClassLoader> {
       INSTANCE;
 
@@ -73,12 +88,23 @@ class SecurityActions
 
    static ClassLoader getTccl()
    {
+      if (System.getSecurityManager() == null)
+      {
+         return Thread.currentThread().getContextClassLoader();
+      }
       return AccessController.doPrivileged(GetTcclAction.INSTANCE);
    }
 
+   /**
+    * Sets the TCCL; may be null when restoring a Thread which had none
+    */
    static void setTccl(final ClassLoader cl)
    {
-      assert cl != null : "CL must be supplied";
+      if (System.getSecurityManager() == null)
+      {
+         Thread.currentThread().setContextClassLoader(cl);
+         return;
+      }
       AccessController.doPrivileged(new PrivilegedAction<Void>()
       {
          @Override
@@ -0,0 +1,104 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+  *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.ejb3.async.spi;
+
+/**
+ * {@link AsyncContextPropagator} carrying the Thread Context {@link ClassLoader} 
+ * of the caller to all async invocations.  The executing Thread's TCCL is only
+ * swapped when it differs from the caller's, and is restored if changed either 
+ * by us or the invocation itself.
+ * 
+ * @author <a href="mailto:andrew.rubinger@jboss.org">ALR</a>
+ */
+public class ThreadContextClassLoaderPropagator implements AsyncContextPropagator
+{
+   // --------------------------------------------------------------------------------||
+   // Class Members ------------------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * serialVersionUID
+    */
+   private static final long serialVersionUID = 1L;
+
+   // --------------------------------------------------------------------------------||
+   // Required Implementations -------------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.async.spi.AsyncContextPropagator#appliesTo(java.lang.String, java.lang.String)
+    */
+   public boolean appliesTo(final String ejbName, final String methodSignature)
+   {
+      return true;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.async.spi.AsyncContextPropagator#capture()
+    */
+   public Object capture()
+   {
+      return SecurityActions.getTccl();
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.async.spi.AsyncContextPropagator#apply(java.lang.Object)
+    */
+   public Object apply(final Object captured)
+   {
+      final ClassLoader old = SecurityActions.getTccl();
+      if (old != captured)
+      {
+         SecurityActions.setTccl((ClassLoader) captured);
+      }
+      return old;
+   }
+
+   /**
+    * {@inheritDoc}
+    * @see org.jboss.ejb3.async.spi.AsyncContextPropagator#restore(java.lang.Object)
+    */
+   public void restore(final Object previous)
+   {
+      if (SecurityActions.getTccl() != previous)
+      {
+         SecurityActions.setTccl((ClassLoader) previous);
+      }
+   }
+
+   // --------------------------------------------------------------------------------||
+   // Overridden Implementations -----------------------------------------------------||
+   // --------------------------------------------------------------------------------||
+
+   /**
+    * {@inheritDoc}
+    * @see java.lang.Object#toString()
+    */
+   @Override
+   public String toString()
+   {
+      return this.getClass().getSimpleName();
+   }
+}
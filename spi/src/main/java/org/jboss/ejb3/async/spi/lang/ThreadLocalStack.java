@@ -21,52 +21,127 @@
  */
 package org.jboss.ejb3.async.spi.lang;
 
-import java.util.LinkedList;
+import java.util.Arrays;
 
 /**
  * INTERNAL
  *
- * Using LinkedList for speed.
+ * Array-backed stack per Thread.  The array stays attached to the Thread 
+ * once created, so the usual push/pop pair allocates nothing and touches the
+ * {@link ThreadLocal} only once each; popped slots are cleared immediately,
+ * and only JDK types are held by the Thread, such that an empty stack 
+ * pins no application classes on pooled Threads.  {@link #clear()} detaches 
+ * the stack from the current Thread entirely.
  *
  * @author <a href="mailto:bill@jboss.org">Bill Burke</a>
  */
 public class ThreadLocalStack<T>
 {
-   private ThreadLocal<LinkedList<T>> stack = new ThreadLocal<LinkedList<T>>();
+   /**
+    * Capacity of a new stack; async invocations rarely nest
+    */
+   private static final int INITIAL_CAPACITY = 4;
+
+   /**
+    * Capacity above which an emptied stack is replaced with a new one
+    * rather than retained
+    */
+   private static final int MAX_RETAINED_CAPACITY = 16;
+
+   /**
+    * Marker of a null element, as a null slot denotes the top of the stack
+    */
+   private static final Object NULL = new Object();
+
+   private final ThreadLocal<Object[]> stack = new ThreadLocal<Object[]>();
 
    public void push(T obj)
    {
-      LinkedList<T> list = stack.get();
-      if (list == null)
+      Object[] frames = stack.get();
+      if (frames == null)
       {
-         list = new LinkedList<T>();
-         stack.set(list);
+         frames = new Object[INITIAL_CAPACITY];
+         stack.set(frames);
       }
-      list.addLast(obj);
+      final int depth = depth(frames);
+      if (depth == frames.length)
+      {
+         frames = Arrays.copyOf(frames, depth << 1);
+         stack.set(frames);
+      }
+      frames[depth] = obj == null ? NULL : obj;
    }
 
    public T pop()
    {
-      LinkedList<T> list = stack.get();
-      if (list == null)
+      final Object[] frames = stack.get();
+      if (frames == null)
       {
          return null;
       }
-      T rtn = list.removeLast();
-      if (list.size() == 0)
+      final int depth = depth(frames);
+      if (depth == 0)
       {
-         stack.remove();
+         return null;
       }
-      return rtn;
+      final Object rtn = frames[depth - 1];
+      frames[depth - 1] = null;
+      if (depth == 1 && frames.length > MAX_RETAINED_CAPACITY)
+      {
+         stack.set(new Object[INITIAL_CAPACITY]);
+      }
+      return unmask(rtn);
    }
 
    public T get()
    {
-      LinkedList<T> list = stack.get();
-      if (list == null)
+      final Object[] frames = stack.get();
+      if (frames == null)
+      {
+         return null;
+      }
+      final int depth = depth(frames);
+      if (depth == 0)
       {
          return null;
       }
-      return list.getLast();
+      return unmask(frames[depth - 1]);
+   }
+
+   /**
+    * Returns whether nothing has been pushed on the current Thread
+    */
+   public boolean isEmpty()
+   {
+      final Object[] frames = stack.get();
+      return frames == null || frames[0] == null;
+   }
+
+   /**
+    * Discards any elements of the current Thread and detaches the stack from it;
+    * for Threads outliving the users of this stack
+    */
+   public void clear()
+   {
+      stack.remove();
+   }
+
+   /**
+    * Obtains the number of elements in the specified stack; the first null slot
+    */
+   private static int depth(final Object[] frames)
+   {
+      int depth = 0;
+      while (depth < frames.length && frames[depth] != null)
+      {
+         depth++;
+      }
+      return depth;
+   }
+
+   @SuppressWarnings("unchecked")
+   private static <T> T unmask(final Object element)
+   {
+      return element == NULL ? null : (T) element;
    }
 }